@@ -25,13 +25,14 @@ import com.challengeandresponse.geo.geocoder.StatusCode;
  * 0.52 2007-06-01 Ironically goes back to a simpler design, no longer implements Personalizable or TimeBounded -- the agents should implement those interfaces in their MM objects if they want them to have those features - not every RPC object should (e.g. the ordinary usage of MMError, MMObject or MMList objects presents no need for time bounds or personalization)
  * 0.53 2009-11-05 Another simplification. All MM stuff is now removed because Rocketsync provides a wrapper for object communications
  * 0.54 2009-11-10 Added locationType {point, radius}, radiusMeters;
+ * 0.55 2026-10-17 Added the partial flag, set on results returned when the caller's time budget ran out
  */
 public class GeocodedLocation 
 extends Location 
 implements Serializable {
 	private static final long serialVersionUID = 1L;
 
-	public static transient final String VERSION = "0.54";
+	public static transient final String VERSION = "0.55";
 	public static transient final String COPYRIGHT="Copyright (c) 2007-2009 Challenge/Response, LLC, Cambridge, MA";
 
 	
@@ -41,6 +42,7 @@ implements Serializable {
 	private int accuracy; // should be a PrecisionCode
 	private String country;
 	private String geocoder; // ID of the geocoder that made this record
+	private boolean partial; // true if the time budget ran out before every preferred geocoder had answered
 
 
 	public GeocodedLocation(String placeName, int serverResponse, int accuracy, String country, double latitude, double longitude, double height) {
@@ -125,6 +127,18 @@ implements Serializable {
 	public void setGeocoder(String geocoder) {
 		this.geocoder = geocoder;
 	}
+
+	/**
+	 * @return true if this is the best result that could be found before the caller's time budget ran out,
+	 * rather than the answer the full chain of geocoders would have given
+	 */
+	public boolean isPartial() {
+		return this.partial;
+	}
+
+	public void setPartial(boolean partial) {
+		this.partial = partial;
+	}
 	
 	
 
@@ -132,7 +146,7 @@ implements Serializable {
 	@Override
 	public String toString() {
 		return "GeocodedLocation [accuracy=" + accuracy + ", country="
-				+ country + ", geocoder=" + geocoder + ", placeName="
+				+ country + ", geocoder=" + geocoder + ", partial=" + partial + ", placeName="
 				+ placeName + ", serverResponse=" + serverResponse
 				+ ", super=" + super.toString() + "]";
 	}
@@ -0,0 +1,471 @@
+package com.challengeandresponse.geo.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.challengeandresponse.geo.geocoder.StatusCode;
+
+/**
+ * A compact, versioned binary form of GeocodedLocation (and Location), for the cache's
+ * files and for sending results over the network, in place of Java serialization, which
+ * writes the class descriptors and field names with every object.
+ *
+ * <p>A GeocodedLocation is written as:<br />
+ * byte FORMAT_VERSION, byte flags<br />
+ * byte status: the index of a common StatusCode in STATUS_CODES, or 0xFF and then the int code<br />
+ * byte precision: the PrecisionCode, or 0xFF and then the int code if it does not fit<br />
+ * byte locationType, then the radius in metres as a varint<br />
+ * latitude and longitude as ints in units of 1e-7 degrees (about a centimetre), and the height
+ * (if not 0) as an int in millimetres; or, if that would change any of them, all three as doubles<br />
+ * placeName and country as strings<br />
+ * geocoder: 0 for null, 1 and then the string, or the index of its class name in GEOCODERS
+ * plus 2, and then the rest of it (the version) as a string.<br />
+ * A string is a varint of its UTF-8 length plus 1 (0 for null), then the UTF-8 bytes.</p>
+ *
+ * <p>A typical result is about 30 bytes plus its place name, against several hundred
+ * serialized. Nothing is lost: a value read back equals the one written, field for field.</p>
+ *
+ * <p>Reading and writing work directly on a ByteBuffer, starting at its position and
+ * leaving it after the value, with no streams in between (and, for heap buffers, no byte arrays). A buffer that is
+ * too small gives a BufferOverflowException or BufferUnderflowException, and a value in an
+ * unknown format an IllegalArgumentException.</p>
+ *
+ * <p>STATUS_CODES and GEOCODERS are only ever appended to, so anything written by one
+ * version of this class can be read by any later one.</p>
+ *
+ * @author jim
+ * @version 0.12 2026-10-17
+ */
+
+/*
+ * REVISION HISTORY
+ * 0.11 2026-10-17 Added GeonamesReverseGeocoder to GEOCODERS
+ * 0.12 2026-10-17 Added GeonamesIndexGeocoder to GEOCODERS
+ */
+public final class GeocodedLocationCodec {
+	public static final String VERSION = "0.12";
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** The format written, as the first byte of every value */
+	public static final int FORMAT_VERSION = 1;
+
+	/** The status codes written as one byte, by their index here */
+	public static final int[] STATUS_CODES = {
+		StatusCode.G_CODE_NOT_SET, StatusCode.GEO_SUCCESS, StatusCode.GEO_SERVER_ERROR, StatusCode.GEO_MISSING_ADDRESS,
+		StatusCode.GEO_UNKNOWN_ADDRESS, StatusCode.UNAVAILABLE_ADDRESS, StatusCode.GEO_BAD_KEY, StatusCode.GEO_TOO_MANY_QUERIES,
+		StatusCode.G_DEADLINE_EXCEEDED, StatusCode.G_NOT_CONSULTED, StatusCode.G_COMM_ERROR, StatusCode.G_GEOCODER_ERROR,
+		StatusCode.SUCCESS_NO_SERVER
+	};
+
+	/** The geocoder class names written as one byte, by their index here (plus 2) */
+	public static final String[] GEOCODERS = {
+		"com.challengeandresponse.geo.geocoder.Geocoder",
+		"com.challengeandresponse.geo.geocoder.CachingGeocoder",
+		"com.challengeandresponse.geo.geocoders.GoogleGeocoder",
+		"com.challengeandresponse.geo.geocoders.YahooGeocoder",
+		"com.challengeandresponse.geo.geocoders.GeonamesGeocoder",
+		"com.challengeandresponse.geo.geocoders.IPV4Geocoder",
+		"com.challengeandresponse.geo.geocoders.LatLonGeocoder",
+		"com.challengeandresponse.geo.geocoders.GeonamesReverseGeocoder",
+		"com.challengeandresponse.geo.geocoders.GeonamesIndexGeocoder"
+	};
+
+	// flags
+	private static final int PARTIAL = 1;
+	private static final int HEIGHT = 2;
+	private static final int DOUBLES = 4;
+
+	private static final int ESCAPE = 0xFF;
+	private static final int NULL_GEOCODER = 0;
+	private static final int INLINE_GEOCODER = 1;
+
+	private static final double DEGREE_UNITS = 1e7;
+	private static final double HEIGHT_UNITS = 1e3;
+
+
+	private GeocodedLocationCodec() {
+	}
+
+
+	/**
+	 * @return the number of bytes write() will use for 'gcl'
+	 */
+	public static int encodedLength(GeocodedLocation gcl) {
+		int length = 2 + statusLength(gcl.getServerResponse()) + codeLength(gcl.getAccuracy()) + locationLength(gcl)
+			+ stringLength(gcl.getPlaceName()) + stringLength(gcl.getCountryCode()) + 1;
+		String geocoder = gcl.getGeocoder();
+		if (geocoder != null) {
+			int g = geocoderIndex(geocoder);
+			length += (g < 0) ? stringLength(geocoder) : versionLength(geocoder, GEOCODERS[g].length());
+		}
+		return length;
+	}
+
+	/**
+	 * @return 'gcl' encoded in a new array
+	 */
+	public static byte[] encode(GeocodedLocation gcl) {
+		byte[] bytes = new byte[encodedLength(gcl)];
+		write(gcl, ByteBuffer.wrap(bytes));
+		return bytes;
+	}
+
+	/**
+	 * @return the GeocodedLocation encoded in 'bytes'
+	 * @throws IllegalArgumentException if 'bytes' does not hold a value in a known format
+	 */
+	public static GeocodedLocation decode(byte[] bytes) {
+		return read(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Write 'gcl' at the buffer's position, leaving the position after it
+	 * @param gcl the value to write
+	 * @param buf the buffer to write to, which needs at least encodedLength(gcl) bytes remaining
+	 */
+	public static void write(GeocodedLocation gcl, ByteBuffer buf) {
+		buf.put((byte) FORMAT_VERSION);
+		int flagsAt = buf.position();
+		buf.put((byte) (gcl.isPartial() ? PARTIAL : 0));
+		writeStatus(buf, gcl.getServerResponse());
+		writeCode(buf, gcl.getAccuracy());
+		int flags = putLocation(buf, gcl);
+		buf.put(flagsAt, (byte) (buf.get(flagsAt) | flags));
+		writeString(buf, gcl.getPlaceName());
+		writeString(buf, gcl.getCountryCode());
+		String geocoder = gcl.getGeocoder();
+		int g = (geocoder == null) ? -1 : geocoderIndex(geocoder);
+		if (geocoder == null)
+			buf.put((byte) NULL_GEOCODER);
+		else if (g < 0) {
+			buf.put((byte) INLINE_GEOCODER);
+			writeString(buf, geocoder);
+		}
+		else {
+			buf.put((byte) (g + 2));
+			writeVersion(buf, geocoder, GEOCODERS[g].length());
+		}
+	}
+
+	/**
+	 * Read a GeocodedLocation at the buffer's position, leaving the position after it
+	 * @param buf the buffer to read from
+	 * @return the value
+	 * @throws IllegalArgumentException if the value is not in a known format
+	 */
+	public static GeocodedLocation read(ByteBuffer buf) {
+		int version = buf.get() & 0xFF;
+		if (version != FORMAT_VERSION)
+			throw new IllegalArgumentException("Unknown format "+version);
+		int flags = buf.get();
+		int status = readStatus(buf);
+		int accuracy = readCode(buf);
+		GeocodedLocation gcl = new GeocodedLocation(null, status, accuracy, null, 0.0D, 0.0D, 0.0D);
+		getLocation(buf, gcl, flags);
+		gcl.setPlaceName(readString(buf));
+		gcl.setCountry(readString(buf));
+		int g = buf.get() & 0xFF;
+		if (g == NULL_GEOCODER)
+			gcl.setGeocoder(null);
+		else if (g == INLINE_GEOCODER)
+			gcl.setGeocoder(readString(buf));
+		else if (g - 2 < GEOCODERS.length) {
+			String rest = readString(buf);
+			gcl.setGeocoder((rest == null) ? GEOCODERS[g - 2] : GEOCODERS[g - 2] + " " + rest);
+		}
+		else
+			throw new IllegalArgumentException("Unknown geocoder "+g);
+		gcl.setPartial((flags & PARTIAL) != 0);
+		return gcl;
+	}
+
+	/**
+	 * @return the number of bytes writeLocation() will use for 'location'
+	 */
+	public static int encodedLocationLength(Location location) {
+		return 2 + locationLength(location);
+	}
+
+	/**
+	 * Write just the Location part of a value (no place name, status and so on) at the buffer's position
+	 * @param location the value to write
+	 * @param buf the buffer to write to, which needs at least encodedLocationLength(location) bytes remaining
+	 */
+	public static void writeLocation(Location location, ByteBuffer buf) {
+		buf.put((byte) FORMAT_VERSION);
+		int flagsAt = buf.position();
+		buf.put((byte) 0);
+		buf.put(flagsAt, (byte) putLocation(buf, location));
+	}
+
+	/**
+	 * Read a Location written by writeLocation() at the buffer's position
+	 * @param buf the buffer to read from
+	 * @return the value
+	 * @throws IllegalArgumentException if the value is not in a known format
+	 */
+	public static Location readLocation(ByteBuffer buf) {
+		int version = buf.get() & 0xFF;
+		if (version != FORMAT_VERSION)
+			throw new IllegalArgumentException("Unknown format "+version);
+		int flags = buf.get();
+		Location location = new Location();
+		getLocation(buf, location, flags);
+		return location;
+	}
+
+
+	/// LOCATION
+
+	/**
+	 * Write the location type, radius and coordinates
+	 * @return the flags that say how they were written
+	 */
+	private static int putLocation(ByteBuffer buf, Location location) {
+		writeCode(buf, location.getLocationType());
+		writeVarint(buf, location.getRadiusMeters());
+		double lat = location.getDoubleLatitude();
+		double lon = location.getDoubleLongitude();
+		double height = location.getDoubleHeight();
+		if (! isFixedPoint(lat, lon, height)) {
+			buf.putDouble(lat).putDouble(lon).putDouble(height);
+			return DOUBLES;
+		}
+		buf.putInt((int) Math.round(lat * DEGREE_UNITS)).putInt((int) Math.round(lon * DEGREE_UNITS));
+		if (height == 0.0D)
+			return 0;
+		buf.putInt((int) Math.round(height * HEIGHT_UNITS));
+		return HEIGHT;
+	}
+
+	private static void getLocation(ByteBuffer buf, Location location, int flags) {
+		location.setLocationType(readCode(buf));
+		location.setRadiusMeters(readVarint(buf));
+		if ((flags & DOUBLES) != 0)
+			location.set(buf.getDouble(), buf.getDouble(), buf.getDouble());
+		else {
+			double lat = buf.getInt() / DEGREE_UNITS;
+			double lon = buf.getInt() / DEGREE_UNITS;
+			location.set(lat, lon, ((flags & HEIGHT) != 0) ? buf.getInt() / HEIGHT_UNITS : 0.0D);
+		}
+	}
+
+	private static int locationLength(Location location) {
+		int length = codeLength(location.getLocationType()) + varintLength(location.getRadiusMeters());
+		double height = location.getDoubleHeight();
+		if (! isFixedPoint(location.getDoubleLatitude(), location.getDoubleLongitude(), height))
+			return length + 24;
+		return length + ((height == 0.0D) ? 8 : 12);
+	}
+
+	/**
+	 * @return true if the coordinates come back exactly the same from fixed point
+	 */
+	private static boolean isFixedPoint(double lat, double lon, double height) {
+		return isFixedPoint(lat, DEGREE_UNITS) && isFixedPoint(lon, DEGREE_UNITS) && isFixedPoint(height, HEIGHT_UNITS);
+	}
+
+	private static boolean isFixedPoint(double d, double units) {
+		double scaled = d * units;
+		if ((scaled >= Integer.MAX_VALUE) || (scaled <= Integer.MIN_VALUE))
+			return false;
+		long fixed = Math.round(scaled);
+		return ((fixed / units) == d) && ((fixed != 0L) || (Double.doubleToRawLongBits(d) == 0L));
+	}
+
+
+	/// CODES
+
+	private static void writeStatus(ByteBuffer buf, int status) {
+		for (int i = 0; i < STATUS_CODES.length; i++) {
+			if (STATUS_CODES[i] == status) {
+				buf.put((byte) i);
+				return;
+			}
+		}
+		buf.put((byte) ESCAPE);
+		buf.putInt(status);
+	}
+
+	private static int readStatus(ByteBuffer buf) {
+		int i = buf.get() & 0xFF;
+		if (i == ESCAPE)
+			return buf.getInt();
+		if (i >= STATUS_CODES.length)
+			throw new IllegalArgumentException("Unknown status "+i);
+		return STATUS_CODES[i];
+	}
+
+	private static int statusLength(int status) {
+		for (int i = 0; i < STATUS_CODES.length; i++) {
+			if (STATUS_CODES[i] == status)
+				return 1;
+		}
+		return 5;
+	}
+
+	/**
+	 * Write a code that is usually small and not negative, as a byte
+	 */
+	private static void writeCode(ByteBuffer buf, int code) {
+		if ((code >= 0) && (code < ESCAPE))
+			buf.put((byte) code);
+		else {
+			buf.put((byte) ESCAPE);
+			buf.putInt(code);
+		}
+	}
+
+	private static int readCode(ByteBuffer buf) {
+		int code = buf.get() & 0xFF;
+		return (code == ESCAPE) ? buf.getInt() : code;
+	}
+
+	private static int codeLength(int code) {
+		return ((code >= 0) && (code < ESCAPE)) ? 1 : 5;
+	}
+
+	/**
+	 * @return the index in GEOCODERS of the class name 'geocoder' starts with (followed by nothing or a space), or -1
+	 */
+	private static int geocoderIndex(String geocoder) {
+		for (int i = 0; i < GEOCODERS.length; i++) {
+			int n = GEOCODERS[i].length();
+			if (geocoder.startsWith(GEOCODERS[i]) && ((geocoder.length() == n) || (geocoder.charAt(n) == ' ')))
+				return i;
+		}
+		return -1;
+	}
+
+
+	/// STRINGS AND VARINTS
+
+	/**
+	 * Write the part of 'geocoder' after its class name (of length 'n') and a space, or null if there is none
+	 */
+	private static void writeVersion(ByteBuffer buf, String geocoder, int n) {
+		if (geocoder.length() == n)
+			buf.put((byte) 0);
+		else
+			writeString(buf, geocoder, n + 1);
+	}
+
+	private static int versionLength(String geocoder, int n) {
+		return (geocoder.length() == n) ? 1 : stringLength(geocoder, n + 1);
+	}
+
+	private static void writeString(ByteBuffer buf, String s) {
+		if (s == null)
+			buf.put((byte) 0);
+		else
+			writeString(buf, s, 0);
+	}
+
+	/**
+	 * Write 's' from 'start' as UTF-8, straight into the buffer
+	 */
+	private static void writeString(ByteBuffer buf, String s, int start) {
+		writeVarint(buf, utf8Length(s, start) + 1);
+		for (int i = start; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80)
+				buf.put((byte) c);
+			else if (c < 0x800) {
+				buf.put((byte) (0xC0 | (c >> 6)));
+				buf.put((byte) (0x80 | (c & 0x3F)));
+			}
+			else if (Character.isHighSurrogate(c) && (i + 1 < s.length()) && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				buf.put((byte) (0xF0 | (cp >> 18)));
+				buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				buf.put((byte) (0x80 | (cp & 0x3F)));
+			}
+			else if (Character.isSurrogate(c)) // unpaired, written as String.getBytes() would write it
+				buf.put((byte) '?');
+			else {
+				buf.put((byte) (0xE0 | (c >> 12)));
+				buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buf.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	private static String readString(ByteBuffer buf) {
+		int length = readVarint(buf) - 1;
+		if (length < 0)
+			return null;
+		if (length > buf.remaining())
+			throw new IllegalArgumentException("Bad string length "+length);
+		if (! buf.hasArray()) { // a direct or mapped buffer
+			byte[] bytes = new byte[length];
+			buf.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+		buf.position(buf.position() + length);
+		return s;
+	}
+
+	private static int stringLength(String s) {
+		return (s == null) ? 1 : stringLength(s, 0);
+	}
+
+	private static int stringLength(String s, int start) {
+		int length = utf8Length(s, start);
+		return varintLength(length + 1) + length;
+	}
+
+	/**
+	 * @return the UTF-8 length of 's' from 'start', counting as writeString() writes it
+	 */
+	private static int utf8Length(String s, int start) {
+		int length = 0;
+		for (int i = start; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80)
+				length++;
+			else if (c < 0x800)
+				length += 2;
+			else if (Character.isHighSurrogate(c) && (i + 1 < s.length()) && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			}
+			else
+				length += Character.isSurrogate(c) ? 1 : 3;
+		}
+		return length;
+	}
+
+	/**
+	 * Write an int that is usually small and not negative, 7 bits a byte
+	 */
+	private static void writeVarint(ByteBuffer buf, int v) {
+		while ((v & ~0x7F) != 0) {
+			buf.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buf.put((byte) v);
+	}
+
+	private static int readVarint(ByteBuffer buf) {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = buf.get();
+			v |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return v;
+		}
+		throw new IllegalArgumentException("Bad varint");
+	}
+
+	private static int varintLength(int v) {
+		int length = 1;
+		while ((v & ~0x7F) != 0) {
+			length++;
+			v >>>= 7;
+		}
+		return length;
+	}
+
+}
@@ -0,0 +1,21 @@
+package com.challengeandresponse.geo.geocoder;
+
+/**
+ * Receives progress reports from Geocoder.geocodeAll()
+ * 
+ * @author jim
+ */
+public interface BatchProgressListener {
+
+	/**
+	 * Called each time another distinct place name in the batch has been resolved,
+	 * either from the cache or by the geocoders. This may be called from the worker
+	 * threads of the batch, so it should be quick and thread-safe, and calls can
+	 * arrive slightly out of order.
+	 * 
+	 * @param completed the number of distinct place names resolved so far
+	 * @param total the number of distinct place names in the batch
+	 */
+	public void batchProgress(int completed, int total);
+
+}
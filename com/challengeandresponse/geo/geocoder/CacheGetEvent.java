@@ -0,0 +1,86 @@
+package com.challengeandresponse.geo.geocoder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+
+/**
+ * A JDK Flight Recorder event for one GeocodeCache.get(), e.g. by a CachingGeocoder, with
+ * the tier that answered it: MEMORY, STALE (a stale-if-error hit in memory), DISK or MISS.
+ * 
+ * <p>A hit in memory takes well under a microsecond, so only gets that take at least the
+ * threshold (1 ms by default; set com.challengeandresponse.geo.CacheGet#threshold in the
+ * recording's settings) are recorded: in practice, reads of the persistent tier that went
+ * to disk. When no recording has the event enabled, start() returns null, so a get()
+ * allocates no event at all.</p>
+ * 
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+@Name("com.challengeandresponse.geo.CacheGet")
+@Label("Geocode Cache Get")
+@Category({"Geocoder", "Cache"})
+@Description("A lookup in a GeocodeCache")
+@StackTrace(false)
+@Threshold("1 ms")
+public class CacheGetEvent extends jdk.jfr.Event {
+
+	static final String MEMORY = "memory";
+	static final String STALE = "stale";
+	static final String DISK = "disk";
+	static final String MISS = "miss";
+
+	private static final EventType TYPE = EventType.getEventType(CacheGetEvent.class);
+
+	@Label("Key")
+	String key;
+
+	@Label("Tier")
+	@Description("The tier that answered: memory, stale, disk or miss")
+	String tier;
+
+	@Label("Status")
+	@Description("The StatusCode of the cached result, or 0 on a miss")
+	int status;
+
+
+	/**
+	 * @return a begun event, or null if no recording has the event enabled
+	 */
+	static CacheGetEvent start() {
+		if (! TYPE.isEnabled())
+			return null;
+		CacheGetEvent event = new CacheGetEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * End 'event' and commit it, if it is recorded
+	 * @param event the event from start(), or null
+	 * @param key the cache key
+	 * @param tier MEMORY, STALE, DISK or MISS
+	 * @param value the cached result, or null on a miss
+	 * @return value
+	 */
+	static GeocodedLocation end(CacheGetEvent event, String key, String tier, GeocodedLocation value) {
+		if (event == null)
+			return value;
+		event.end();
+		if (event.shouldCommit()) {
+			event.key = key;
+			event.tier = tier;
+			if (value != null)
+				event.status = value.getServerResponse();
+			event.commit();
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.challengeandresponse.geo.geocoder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+
+/**
+ * A JDK Flight Recorder event for one GeocodeCache.put(), e.g. by a CachingGeocoder, including
+ * the write to the persistent tier, if there is one.
+ * 
+ * <p>Only puts that take at least the threshold (1 ms by default; set
+ * com.challengeandresponse.geo.CachePut#threshold in the recording's settings) are recorded.
+ * When no recording has the event enabled, begin() and end() do nothing and the fields are
+ * never filled in. Failed lookups put into the cache are also NegativeCacheEvents.</p>
+ * 
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+@Name("com.challengeandresponse.geo.CachePut")
+@Label("Geocode Cache Put")
+@Category({"Geocoder", "Cache"})
+@Description("A result put into a GeocodeCache")
+@StackTrace(false)
+@Threshold("1 ms")
+public class CachePutEvent extends jdk.jfr.Event {
+
+	@Label("Key")
+	String key;
+
+	@Label("Status")
+	@Description("The StatusCode of the result")
+	int status;
+
+	@Label("Time To Live")
+	@Description("How long the entry lives, or 0 if it never expires")
+	@Timespan(Timespan.MILLISECONDS)
+	long ttl;
+
+	@Label("Persisted")
+	@Description("True if the entry was written to the persistent tier")
+	boolean persisted;
+
+
+	/**
+	 * End the event and commit it, if it is recorded
+	 * @param key the cache key
+	 * @param value the result
+	 * @param ttlMillis its time to live, or GeocodeCache.NO_EXPIRY
+	 * @param persisted true if it was written to the persistent tier
+	 */
+	void end(String key, GeocodedLocation value, long ttlMillis, boolean persisted) {
+		end();
+		if (shouldCommit()) {
+			this.key = key;
+			status = value.getServerResponse();
+			ttl = ttlMillis;
+			this.persisted = persisted;
+			commit();
+		}
+	}
+
+}
@@ -0,0 +1,25 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Called by a GeocodeCache with refresh-ahead switched on (see GeocodeCache.setRefreshAhead)
+ * to look a key up again before its entry expires. The refresh must not block the caller,
+ * which is a thread reading the cache: it should be started on another thread, and put
+ * its result into the cache itself when it arrives.
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public interface CacheRefresher {
+
+	/**
+	 * Start looking 'key' up again
+	 * @param key the cache key of the entry to refresh
+	 * @param placeName the place name the entry was first looked up with, as the caller gave it; look this up, not the key
+	 * @return a future that completes when the refresh is over, whether or not it succeeded.
+	 * Until then no other refresh of 'key' is started
+	 */
+	public CompletableFuture<?> refresh(String key, String placeName);
+
+}
@@ -0,0 +1,330 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+import com.challengeandresponse.geo.data.GeocodedLocationCodec;
+
+/**
+ * The snapshot file format of GeocodeCache.exportSnapshot() and loadSnapshot(): the
+ * cache's entries, sorted by key, in blocks of about BLOCK_BYTES, each with its own CRC32,
+ * so a snapshot can be checked and read a block per thread, through memory-mapped reads.
+ *
+ * <p>The file is: a header (int MAGIC, int VERSION, long entry count, long time written),
+ * then the blocks, then a block index (per block: long offset, int length, int entry
+ * count, int CRC32 of the block), then a trailer (int block count, long index offset,
+ * FREQUENCIES longs counting the entries with each frequency, int CRC32 of the index and
+ * those counts, int MAGIC). Each entry in a block is: the key (an int length and that
+ * many bytes of UTF-8), long expiresAt, byte frequency (from the FrequencySketch, 0 to 15),
+ * int length of the value, then the value as written by GeocodedLocationCodec. All big-endian.
+ * A value is read no further than its length, and one that does not fill it exactly marks its
+ * block as damaged.</p>
+ *
+ * @author jim
+ * @version 0.11 2026-10-17
+ */
+
+/*
+ * REVISION HISTORY
+ * 0.11 2026-10-17 VERSION 2: values are written by GeocodedLocationCodec. VERSION 1 snapshots are refused
+ */
+class CacheSnapshot {
+	static final int MAGIC = 0x47435331; // "GCS1"
+	static final int VERSION = 2;
+	static final int BLOCK_BYTES = 1 << 22;
+	static final int FREQUENCIES = 16;
+
+	private static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+	private static final int INDEX_ENTRY_BYTES = 8 + 4 + 4 + 4;
+	private static final int TRAILER_BYTES = 4 + 8 + (FREQUENCIES * 8) + 4 + 4;
+
+	/**
+	 * Receives the entries read from a snapshot
+	 */
+	interface Visitor {
+		/**
+		 * Called once, before any entries
+		 * @param entriesByFrequency the number of entries in the snapshot with each frequency
+		 * @return the lowest frequency to pass to entry(); entries less frequent are skipped
+		 */
+		public int minimumFrequency(long[] entriesByFrequency);
+
+		/**
+		 * Called for each entry, from several threads at once
+		 */
+		public void entry(String key, GeocodedLocation value, long expiresAt, int frequency);
+	}
+
+
+	/**
+	 * Writes a snapshot to a temporary file, which replaces 'file' when the snapshot is closed.
+	 * Entries must be added in key order
+	 */
+	static final class Writer {
+		private final File file;
+		private final File tmp;
+		private final FileOutputStream fos;
+		private final DataOutputStream out;
+		private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_BYTES + 4096);
+		private final DataOutputStream blockOut = new DataOutputStream(block);
+		private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+		private final DataOutputStream indexOut = new DataOutputStream(index);
+		private long offset;
+		private int blocks;
+		private int blockEntries;
+		private long entries;
+		private final long[] entriesByFrequency = new long[FREQUENCIES];
+		private String lastKey;
+
+		Writer(File file, long entryCount)
+		throws IOException {
+			this.file = file;
+			this.tmp = new File(file.getPath()+".tmp");
+			this.fos = new FileOutputStream(tmp);
+			this.out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(entryCount);
+			out.writeLong(System.currentTimeMillis());
+			offset = HEADER_BYTES;
+		}
+
+		void add(String key, GeocodedLocation value, long expiresAt, int frequency)
+		throws IOException {
+			if ((lastKey != null) && (lastKey.compareTo(key) >= 0))
+				throw new IOException("Snapshot keys out of order at "+key);
+			lastKey = key;
+			frequency = Math.max(0, Math.min(FREQUENCIES - 1, frequency));
+			entriesByFrequency[frequency]++;
+			writeString(blockOut, key);
+			blockOut.writeLong(expiresAt);
+			blockOut.writeByte(frequency);
+			byte[] bytes = GeocodedLocationCodec.encode(value);
+			blockOut.writeInt(bytes.length);
+			blockOut.write(bytes);
+			blockEntries++;
+			entries++;
+			if (block.size() >= BLOCK_BYTES)
+				endBlock();
+		}
+
+		/**
+		 * Finish the snapshot and move it into place
+		 * @return the number of entries written
+		 */
+		long close()
+		throws IOException {
+			try {
+				endBlock();
+				for (int f = 0; f < FREQUENCIES; f++)
+					indexOut.writeLong(entriesByFrequency[f]);
+				byte[] indexBytes = index.toByteArray();
+				// the frequency counts go in the trailer, after the block index
+				out.write(indexBytes, 0, indexBytes.length - (FREQUENCIES * 8));
+				CRC32 crc = new CRC32();
+				crc.update(indexBytes);
+				out.writeInt(blocks);
+				out.writeLong(offset);
+				out.write(indexBytes, indexBytes.length - (FREQUENCIES * 8), FREQUENCIES * 8);
+				out.writeInt((int) crc.getValue());
+				out.writeInt(MAGIC);
+				out.flush();
+				fos.getFD().sync();
+			}
+			finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return entries;
+		}
+
+		/**
+		 * Abandon the snapshot, leaving any earlier one at 'file' as it was
+		 */
+		void abort() {
+			try {
+				out.close();
+			}
+			catch (IOException ioe) {
+			}
+			tmp.delete();
+		}
+
+		private void endBlock()
+		throws IOException {
+			if (blockEntries == 0)
+				return;
+			byte[] bytes = block.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			out.write(bytes);
+			indexOut.writeLong(offset);
+			indexOut.writeInt(bytes.length);
+			indexOut.writeInt(blockEntries);
+			indexOut.writeInt((int) crc.getValue());
+			offset += bytes.length;
+			blocks++;
+			blockEntries = 0;
+			block.reset();
+		}
+	}
+
+
+	/**
+	 * Read every entry in the snapshot 'file' into 'visitor', checking each block, on 'threads' threads.
+	 * Each thread maps the blocks it reads. Blocks that check out are read even if others do not
+	 * @return the number of entries passed to 'visitor'
+	 * @throws IOException if the file is not a snapshot, or a block is damaged
+	 */
+	static long read(File file, int threads, final Visitor visitor)
+	throws IOException {
+		try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_BYTES + TRAILER_BYTES)
+				throw new IOException("Not a cache snapshot: "+file);
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0L, HEADER_BYTES);
+			ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - TRAILER_BYTES, TRAILER_BYTES);
+			if ((header.getInt() != MAGIC) || (trailer.getInt(TRAILER_BYTES - 4) != MAGIC))
+				throw new IOException("Not a cache snapshot: "+file);
+			if (header.getInt() != VERSION)
+				throw new IOException("Unsupported cache snapshot version: "+file);
+			final int blocks = trailer.getInt();
+			long indexOffset = trailer.getLong();
+			ByteBuffer counts = trailer.slice();
+			counts.limit(FREQUENCIES * 8);
+			trailer.position(trailer.position() + (FREQUENCIES * 8));
+			int indexCRC = trailer.getInt();
+			if ((blocks < 0) || (indexOffset + ((long) blocks * INDEX_ENTRY_BYTES) != size - TRAILER_BYTES))
+				throw new IOException("Damaged cache snapshot index: "+file);
+			final ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) blocks * INDEX_ENTRY_BYTES);
+			CRC32 crc = new CRC32();
+			crc.update(index.duplicate());
+			crc.update(counts.duplicate());
+			if ((int) crc.getValue() != indexCRC)
+				throw new IOException("Damaged cache snapshot index: "+file);
+			long[] entriesByFrequency = new long[FREQUENCIES];
+			for (int f = 0; f < FREQUENCIES; f++)
+				entriesByFrequency[f] = counts.getLong();
+			final int minimumFrequency = visitor.minimumFrequency(entriesByFrequency);
+
+			final AtomicInteger next = new AtomicInteger();
+			final AtomicLong count = new AtomicLong();
+			final AtomicInteger damaged = new AtomicInteger();
+			int n = Math.max(1, Math.min(threads, blocks));
+			ExecutorService executor = Executors.newFixedThreadPool(n, new NamedThreadFactory("GeocodeCache-loader"));
+			try {
+				ArrayList<Future<?>> workers = new ArrayList<Future<?>>(n);
+				for (int i = 0; i < n; i++) {
+					workers.add(executor.submit(() -> {
+						int b;
+						while ((b = next.getAndIncrement()) < blocks) {
+							int at = b * INDEX_ENTRY_BYTES;
+							long offset = index.getLong(at);
+							int length = index.getInt(at + 8);
+							int entries = index.getInt(at + 12);
+							int blockCRC = index.getInt(at + 16);
+							MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+							if (crc(block.duplicate()) != blockCRC) {
+								damaged.incrementAndGet();
+								continue;
+							}
+							try {
+								for (int e = 0; e < entries; e++) {
+									String key = readString(block);
+									long expiresAt = block.getLong();
+									int frequency = block.get();
+									int valueLength = block.getInt();
+									if ((valueLength < 0) || (valueLength > block.remaining()))
+										throw new IllegalArgumentException("Bad value length "+valueLength);
+									int end = block.position() + valueLength;
+									if (frequency >= minimumFrequency) {
+										// the value is read from a view that ends with it, so a bad one cannot run into the next entry
+										ByteBuffer value = block.duplicate();
+										value.limit(end);
+										GeocodedLocation gcl = GeocodedLocationCodec.read(value);
+										if (value.position() != end)
+											throw new IllegalArgumentException("Value of "+key+" is "+(value.position() - block.position())+" bytes, not "+valueLength);
+										visitor.entry(key, gcl, expiresAt, frequency);
+										count.incrementAndGet();
+									}
+									block.position(end);
+								}
+							}
+							catch (RuntimeException re) { // an entry that does not parse: the rest of the block cannot be trusted
+								damaged.incrementAndGet();
+							}
+						}
+						return null;
+					}));
+				}
+				for (Future<?> f : workers)
+					f.get();
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted reading "+file);
+			}
+			catch (ExecutionException ee) {
+				Throwable cause = ee.getCause();
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				throw new IOException("Damaged cache snapshot: "+file+" "+cause);
+			}
+			finally {
+				executor.shutdownNow();
+			}
+			if (damaged.get() > 0)
+				throw new IOException(damaged.get()+" damaged blocks in cache snapshot "+file+", "+count.get()+" entries read");
+			return count.get();
+		}
+	}
+
+
+	private static void writeString(DataOutputStream out, String s)
+	throws IOException {
+		byte[] bytes = ((s != null) ? s : "").getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if ((length < 0) || (length > in.remaining()))
+			throw new IllegalArgumentException("Bad string length "+length);
+		if (in.hasArray()) {
+			String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+			in.position(in.position() + length);
+			return s;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int crc(ByteBuffer bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		return (int) crc.getValue();
+	}
+
+}
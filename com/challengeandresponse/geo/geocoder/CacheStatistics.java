@@ -0,0 +1,131 @@
+package com.challengeandresponse.geo.geocoder;
+
+/**
+ * A snapshot of a GeocodeCache's counters, as returned by GeocodeCache.getStatistics().
+ * The getter names follow the ehcache Statistics class that CachingGeocoder used to return.
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class CacheStatistics {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	private final long objectCount;
+	private final long onDiskObjectCount;
+	private final long inMemoryHits;
+	private final long onDiskHits;
+	private final long misses;
+	private final long evictions;
+	private final long expirations;
+	private final long storeErrors;
+	private final long refreshes;
+	private final long staleHits;
+
+
+	CacheStatistics(long objectCount, long onDiskObjectCount, long inMemoryHits, long onDiskHits,
+			long misses, long evictions, long expirations, long storeErrors, long refreshes, long staleHits) {
+		this.objectCount = objectCount;
+		this.onDiskObjectCount = onDiskObjectCount;
+		this.inMemoryHits = inMemoryHits;
+		this.onDiskHits = onDiskHits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.expirations = expirations;
+		this.storeErrors = storeErrors;
+		this.refreshes = refreshes;
+		this.staleHits = staleHits;
+	}
+
+	/**
+	 * @return the number of entries in memory
+	 */
+	public long getObjectCount() {
+		return objectCount;
+	}
+
+	/**
+	 * @return the number of entries in the persistent store, or 0 if there is none
+	 */
+	public long getOnDiskObjectCount() {
+		return onDiskObjectCount;
+	}
+
+	/**
+	 * @return the number of lookups answered from either tier
+	 */
+	public long getCacheHits() {
+		return inMemoryHits + onDiskHits;
+	}
+
+	/**
+	 * @return the number of lookups answered from memory
+	 */
+	public long getInMemoryHits() {
+		return inMemoryHits;
+	}
+
+	/**
+	 * @return the number of lookups answered from the persistent store
+	 */
+	public long getOnDiskHits() {
+		return onDiskHits;
+	}
+
+	/**
+	 * @return the number of lookups that found nothing in either tier
+	 */
+	public long getCacheMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the fraction (0.0 to 1.0) of lookups that were hits
+	 */
+	public double getHitRatio() {
+		long lookups = getCacheHits() + misses;
+		return (lookups == 0L) ? 0.0D : ((double) getCacheHits() / lookups);
+	}
+
+	/**
+	 * @return the number of entries evicted from memory to make room, or turned away by the admission policy
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the number of entries removed from memory because their time to live or time to idle ran out
+	 */
+	public long getExpirations() {
+		return expirations;
+	}
+
+	/**
+	 * @return the number of persistent store reads and writes that failed
+	 */
+	public long getStoreErrors() {
+		return storeErrors;
+	}
+
+	/**
+	 * @return the number of refresh-ahead lookups started (see GeocodeCache.setRefreshAhead)
+	 */
+	public long getRefreshes() {
+		return refreshes;
+	}
+
+	/**
+	 * @return the number of hits that were answered with an entry past its time to live, in its stale-if-error time
+	 */
+	public long getStaleHits() {
+		return staleHits;
+	}
+
+	public String toString() {
+		return "CacheStatistics [objectCount=" + objectCount + ", onDiskObjectCount=" + onDiskObjectCount
+				+ ", inMemoryHits=" + inMemoryHits + ", onDiskHits=" + onDiskHits + ", misses=" + misses
+				+ ", hitRatio=" + getHitRatio() + ", evictions=" + evictions + ", expirations=" + expirations
+				+ ", storeErrors=" + storeErrors + ", refreshes=" + refreshes + ", staleHits=" + staleHits + "]";
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.io.IOException;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+
+/**
+ * The optional persistent tier behind a GeocodeCache. Every entry put into the cache
+ * is written through to the store, and a key that is not in memory is looked for in
+ * the store before it counts as a miss, so the store can hold many more entries than
+ * memory does, and they survive a restart.
+ *
+ * <p>Implementations must be safe to call from several threads at once. There are two:
+ * MappedCacheStore, for many millions of entries, which CachingGeocoder uses, and the
+ * simpler FileCacheStore.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public interface CacheStore {
+
+	/**
+	 * @param key the cache key
+	 * @return the stored entry for 'key', or null if there is none or it has expired
+	 * @throws IOException if the store could not be read
+	 */
+	public StoredEntry load(String key)
+	throws IOException;
+
+	/**
+	 * Store 'value' under 'key', replacing any entry already there
+	 * @param key the cache key
+	 * @param value the result to store
+	 * @param expiresAt when the entry expires, in System.currentTimeMillis() time, or Long.MAX_VALUE for never
+	 * @throws IOException if the store could not be written
+	 */
+	public void store(String key, GeocodedLocation value, long expiresAt)
+	throws IOException;
+
+	/**
+	 * Remove the entry for 'key', if there is one
+	 * @param key the cache key
+	 * @throws IOException if the store could not be written
+	 */
+	public void remove(String key)
+	throws IOException;
+
+	/**
+	 * Remove every entry that has expired by 'now'
+	 * @param now the time, in System.currentTimeMillis() time
+	 * @return the number of entries removed
+	 * @throws IOException if the store could not be written
+	 */
+	public int removeExpired(long now)
+	throws IOException;
+
+	/**
+	 * @return the number of entries in the store
+	 */
+	public int size();
+
+	/**
+	 * Force everything stored so far out to the disk
+	 * @throws IOException if the store could not be written
+	 */
+	public void flush()
+	throws IOException;
+
+	/**
+	 * Flush and close the store. It may not be used afterwards
+	 * @throws IOException if the store could not be written
+	 */
+	public void close()
+	throws IOException;
+
+
+	/**
+	 * One entry read back from a store
+	 */
+	public static final class StoredEntry {
+		private final GeocodedLocation value;
+		private final long expiresAt;
+
+		public StoredEntry(GeocodedLocation value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+		public GeocodedLocation getValue() {
+			return value;
+		}
+
+		/**
+		 * @return when the entry expires, in System.currentTimeMillis() time, or Long.MAX_VALUE for never
+		 */
+		public long getExpiresAt() {
+			return expiresAt;
+		}
+	}
+
+}
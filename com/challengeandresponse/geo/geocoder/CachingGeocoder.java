@@ -1,107 +1,263 @@
 package com.challengeandresponse.geo.geocoder;
 
+import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import net.sf.ehcache.Element;
-import net.sf.ehcache.Statistics;
-import net.sf.ehcache.constructs.blocking.CacheEntryFactory;
-
-import com.challengeandresponse.centralcache.CentralCache;
-import com.challengeandresponse.centralcache.CentralCacheException;
 import com.challengeandresponse.geo.data.GeocodedLocation;
 import com.challengeandresponse.geo.geocoders.*;
 
 /**
- * A caching General Geocoder that uses a Self-Populating EHCache.
+ * A caching General Geocoder, backed by a GeocodeCache: an in-memory tier with
+ * W-TinyLFU-style eviction, and optionally a persistent tier on disk (MappedCacheStore).
+ * 
+ * <p>A hit in memory is a single hash lookup with no lock. How long each result lives is
+ * decided by a TTLPolicy, from its status, precision and geocoder, when it is put, so every
+ * result is written to the cache once. By default (see TTLPolicy.defaultPolicy) successes
+ * live for the cache's time to live (less for IP addresses and coarse places), unknown
+ * addresses for a day, and transient errors for the negative cache time. Results where no
+ * geocoder looked the place name up at all (see StatusCode.isRefused) are not cached.</p>
+ * 
+ * <p>setRefreshAhead() switches on refresh-ahead: a cached result read near the end of its
+ * TTL is looked up again on a background thread while callers go on getting it, so popular
+ * place names do not expire in front of a caller, and a failed lookup never replaces a
+ * good cached result, which stays usable for a stale-if-error time after its TTL.</p>
  * 
- * Cached, geocoded address found: 28 to 30 msec<br />
- * Geocoding required, consulting Google only: 260 to 3600 msec<br /></p>
+ * <p>exportSnapshot() and loadSnapshot() save the in-memory cache to a file and fill it
+ * from one, so a new process can start with a hot cache.</p>
  * 
- * If using this class, the following libraries are needed:<br />
- * <code>
- * EHCache<br />
- * Commons Logging (a dependency of EHCache)<br />
+ * <p>registerMBeans() also publishes the cache's counters through JMX, as type=GeocodeCache
+ * (see GeocodeCacheMXBean).</p>
+ * 
+ * <p>For profiling, cache gets and puts are JDK Flight Recorder events (see GeocodeCache),
+ * and so is every failed lookup written to the cache (NegativeCacheEvent).</p>
  * 
  * @author jim
+ * @version 0.26 2026-10-17
+ */
+
+/*
+ * REVISION HISTORY
+ * 0.20 2026-10-17 Uses the built-in GeocodeCache instead of CentralCache and ehcache; negative results get their TTL when put, no more CacheListeners
+ * 0.21 2026-10-17 TTLs come from a TTLPolicy keyed by status, precision and geocoder (setTTLPolicy)
+ * 0.22 2026-10-17 Added refresh-ahead and stale-if-error (setRefreshAhead)
+ * 0.23 2026-10-17 Added exportSnapshot() and loadSnapshot() for warm starts
+ * 0.24 2026-10-17 The persistent tier is a MappedCacheStore (cacheName.log) instead of a FileCacheStore
+ * 0.25 2026-10-17 registerMBeans() publishes the cache's counters too
+ * 0.26 2026-10-17 Failed lookups written to the cache are JFR events (NegativeCacheEvent)
  */
 
 public class CachingGeocoder extends Geocoder
-implements CacheEntryFactory, GeocoderI {
+implements GeocoderI {
 
-	public static final int MINUTES = CentralCache.MINUTES;
+	public static final int MINUTES = 60;
 	public static final int HOURS = MINUTES * 60;
 	public static final int DAYS = HOURS * 24;
 	
 
-	private CentralCache ccache;
-	private String cacheName;
+	private GeocodeCache cache;
+	private volatile TTLPolicy ttlPolicy;
+	// runs evictExpired() every so often, or null
+	private ScheduledExecutorService expiryThread;
+	// runs refresh-ahead lookups, or null
+	private volatile ThreadPoolExecutor refreshExecutor;
 
 	/**
-	 * Create a Caching Geocoder with a self-populating cache based on EHCACHE
-	 * @param cacheFilePath the path to the cache file
-	 * @param cacheName the name of THIS cache
+	 * Create a Caching Geocoder with an in-memory cache and a persistent tier on disk
+	 * @param cacheFilePath the directory to keep the persistent tier in, or null for none
+	 * @param cacheName the name of THIS cache. The persistent tier is the file cacheName.log in cacheFilePath
 	 * @param maxElementsInMemory The maximum number of objects that will be maintained in memory for this cache
-	 * @param eternal If true, TTL is ignored and the elements never expire
+	 * @param eternal If true, TTL and TTI are ignored and the elements never expire
 	 * @param timeToLiveSeconds If 0, an object can live forever. This is the max time between creation time and the time an object expires
 	 * @param timeToIdleSeconds If 0, an object can idle forever. This is the max time between accesses before an object expires
-	 * @param diskExpiryThreadIntervalSeconds Number of seconds between runs of the disk expiry thread. Default is 120 seconds.
-	 * @param maxElementsOnDisk If 0, unlimited, otherwise the max number of objects that will be maintained in the DiskStore
-	 * @param negativeCacheTTLSec number of seconds to cache negative query results (as DNS does). Much shorter than positive result caching
+	 * @param diskExpiryThreadIntervalSeconds Number of seconds between sweeps for expired objects in both tiers, or 0 for no sweeps. Default is 120 seconds.
+	 * @param maxElementsOnDisk If 0, unlimited, otherwise the max number of objects that will be maintained on disk
+	 * @param negativeCacheTTLSec number of seconds to cache failed lookups that may succeed if tried again, e.g. communication errors. Much shorter than positive result caching. See TTLPolicy.defaultPolicy for the other TTLs
 	 * @throws GeocoderException if an exception was thrown trying to create the new geocoder (probably a cache-related problem)
 	 */
 	public CachingGeocoder(String cacheFilePath, String cacheName,
 			int maxElementsInMemory, boolean eternal, long timeToLiveSeconds, long timeToIdleSeconds,
 			long diskExpiryThreadIntervalSeconds, int maxElementsOnDisk, int negativeCacheTTLSec)
 	throws GeocoderException {
-		// create the GGeocoder
-		this.cacheName = cacheName;
-		// create the cache
-		ccache = new CentralCache(cacheFilePath);
-		try {
-			ccache.addSelfPopulatingCache(cacheName,maxElementsInMemory,eternal,timeToLiveSeconds,timeToIdleSeconds,
-					diskExpiryThreadIntervalSeconds,maxElementsOnDisk,this);
-			// create the cacheListeners for negative caching
-			CacheListeners cl = new CacheListeners();
-			cl.setNegativeCacheTTLSec(negativeCacheTTLSec);
-			ccache.getRegisteredListeners(cacheName).registerListener(cl);
-		}
-		catch (CentralCacheException cce) {
-			throw new GeocoderException(cce.getMessage());
+		CacheStore store = null;
+		if (cacheFilePath != null) {
+			try {
+				store = new MappedCacheStore(new File(cacheFilePath, cacheName+".log"), maxElementsOnDisk);
+			}
+			catch (IOException ioe) {
+				throw new GeocoderException(ioe.getMessage());
+			}
 		}
+		init(new GeocodeCache(maxElementsInMemory,
+				eternal ? GeocodeCache.NO_EXPIRY : TimeUnit.SECONDS.toMillis(timeToLiveSeconds),
+				eternal ? GeocodeCache.NO_EXPIRY : TimeUnit.SECONDS.toMillis(timeToIdleSeconds), store),
+				negativeCacheTTLSec, diskExpiryThreadIntervalSeconds);
 	}
 
-
 	/**
-	 * This is the pull-thru method to get a new item into the cache. It calls the superclass's GGeocode.geocode() on the placename
-	 * @param placeName the place name to geocode and add to the cache. Must be non-null, and must be a String.
-	 * @throws GeocoderException if the address is not a String object
+	 * Create a Caching Geocoder around a GeocodeCache that is already set up, e.g. with a persistent tier of your own
+	 * @param cache the cache to use. It is closed by shutdown()
+	 * @param negativeCacheTTLSec number of seconds to cache failed lookups that may succeed if tried again
+	 * @param expiryIntervalSeconds Number of seconds between sweeps for expired objects, or 0 for no sweeps
+	 * @throws GeocoderException if cache is null or either time is < 0
 	 */
-	public Object createEntry(Object placeName)
+	public CachingGeocoder(GeocodeCache cache, int negativeCacheTTLSec, long expiryIntervalSeconds)
+	throws GeocoderException {
+		if (cache == null)
+			throw new GeocoderException("Invalid parameter");
+		init(cache, negativeCacheTTLSec, expiryIntervalSeconds);
+	}
+
+	private void init(GeocodeCache cache, int negativeCacheTTLSec, long expiryIntervalSeconds)
 	throws GeocoderException {
-		if (! (placeName instanceof String))
-			throw new GeocoderException("placeName must be a String, containing the location to geocode");
-		return super.geocode((String) placeName);
+		if ((negativeCacheTTLSec < 0) || (expiryIntervalSeconds < 0)) {
+			cache.close();
+			throw new GeocoderException("Invalid parameter");
+		}
+		this.cache = cache;
+		this.ttlPolicy = TTLPolicy.defaultPolicy(cache.getTimeToLiveMillis(), TimeUnit.SECONDS.toMillis(negativeCacheTTLSec));
+		if (expiryIntervalSeconds > 0) {
+			expiryThread = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CachingGeocoder-expiry"));
+			expiryThread.scheduleWithFixedDelay(() -> cache.evictExpired(),
+					expiryIntervalSeconds, expiryIntervalSeconds, TimeUnit.SECONDS);
+		}
 	}
 
 
 	/**
-	 * Geocode a placename, retrieving it from the cache if possible or getting a new one if it's not in the cache
+	 * Geocode a placename, retrieving it from the cache if possible or getting a new one if it's not in the cache.
+	 * The cache key is the placename normalized by the KeyNormalizer (see Geocoder.setKeyNormalizer), so differences
+	 * in case, punctuation, whitespace or number formatting do not cause misses.
+	 * On a miss, concurrent callers for the same key share one lookup (see Geocoder.geocode), and the result is cached by storeResult().
 	 * @return the geocoded placename with status flags set
 	 */
 	public GeocodedLocation geocode(String placeName) {
+		GeocodedLocation gcl = cache.get(normalizeKey(placeName));
+		return (gcl != null) ? gcl : super.geocode(placeName);
+	}	
+
+
+	/**
+	 * Geocode a placename within a time budget. A cached result is returned at once; on a miss
+	 * the geocoders are consulted within the budget (see Geocoder.geocode(String,Duration)), and
+	 * the result is cached unless it is partial.
+	 * @return the geocoded placename with status flags set
+	 * @throws IllegalArgumentException if deadline is null
+	 */
+	public GeocodedLocation geocode(String placeName, Duration deadline) {
+		if (deadline == null)
+			throw new IllegalArgumentException("Invalid parameter");
+		GeocodedLocation gcl = cache.get(normalizeKey(placeName));
+		return (gcl != null) ? gcl : super.geocode(placeName, deadline);
+	}
+
+
+	/**
+	 * Geocode a placename without blocking the calling thread. A cached result is returned at once.
+	 * On a miss the geocoders are consulted asynchronously (see Geocoder.geocodeAsync), and the result is
+	 * put into the cache when it arrives.
+	 * @return a future that completes with the geocoded placename with status flags set
+	 */
+	public CompletableFuture<GeocodedLocation> geocodeAsync(final String placeName) {
+		GeocodedLocation gcl = cache.get(normalizeKey(placeName));
+		return (gcl != null) ? CompletableFuture.completedFuture(gcl) : super.geocodeAsync(placeName);
+	}
+
+
+
+	/**
+	 * Answer the cached keys of a geocodeAll() batch in one pass over the cache
+	 * @param keys the distinct keys in the batch
+	 * @return a map from key to cached result, for the keys that are in the cache
+	 */
+	protected Map<String,GeocodedLocation> lookupBatch(Collection<String> keys) {
+		Map<String,GeocodedLocation> hits = new HashMap<String,GeocodedLocation>();
+		for (String key : keys) {
+			GeocodedLocation gcl = cache.get(key);
+			if (gcl != null)
+				hits.put(key, gcl);
+		}
+		return hits;
+	}
+
+	/**
+	 * Put a result from the geocoders into the cache, once, with the TTL the TTLPolicy gives it
+	 * (unless that is TTLPolicy.DO_NOT_CACHE)
+	 * @param key the normalized key that was resolved
+	 * @param placeName the place name that was looked up, kept with the result for refresh-ahead
+	 * @param gcl the result
+	 */
+	protected void storeResult(String key, String placeName, GeocodedLocation gcl) {
+		long ttl = ttlPolicy.getTTL(gcl);
+		if (ttl == TTLPolicy.DO_NOT_CACHE)
+			return;
+		if (! gcl.isOK()) {
+			NegativeCacheEvent event = new NegativeCacheEvent();
+			event.begin();
+			// stale-if-error: a failed refresh does not replace a good result
+			GeocodedLocation cached = cache.peek(key);
+			boolean kept = (cached != null) && cached.isOK();
+			if (! kept)
+				cache.put(key, placeName, gcl, ttl);
+			event.end(key, gcl, ttl, kept);
+			return;
+		}
+		cache.put(key, placeName, gcl, ttl);
+	}
+
+
+	/**
+	 * Switch on refresh-ahead, with a bounded executor owned by this geocoder. A cached result read
+	 * when less than 'refreshAheadFraction' of its TTL is left is looked up again in the background
+	 * (by the place name it was first looked up with, as that caller gave it), and callers go on getting the cached result until the
+	 * new one is in the cache. A result past its TTL is still returned for 'staleIfErrorSeconds',
+	 * and refreshed; if the refresh fails, the old result stays. See GeocodeCache.setRefreshAhead.
+	 * If the executor is full, the refresh is left to a later read.
+	 * @param refreshAheadFraction the last part of the TTL in which a read refreshes a result, e.g. 0.1 for the last 10%
+	 * @param staleIfErrorSeconds how long a result stays usable after its TTL
+	 * @param threads the most refreshes running at once
+	 * @throws GeocoderException if threads < 1, refreshAheadFraction is not from 0.0 to 1.0, or staleIfErrorSeconds < 0
+	 */
+	public void setRefreshAhead(double refreshAheadFraction, long staleIfErrorSeconds, int threads)
+	throws GeocoderException {
+		if ((threads < 1) || (staleIfErrorSeconds < 0))
+			throw new GeocoderException("Invalid parameter");
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 16), new NamedThreadFactory("CachingGeocoder-refresh"));
+		executor.allowCoreThreadTimeOut(true);
 		try {
-			Element el = ccache.getEhcache(cacheName).get(placeName);
-			if (el == null)
-				return null;
-			else
-				return (GeocodedLocation) el.getValue();
+			cache.setRefreshAhead(refreshAheadFraction, TimeUnit.SECONDS.toMillis(staleIfErrorSeconds),
+					(key, placeName) -> CompletableFuture.supplyAsync(() -> CachingGeocoder.super.geocode(placeName), executor));
 		}
-		catch (CentralCacheException cce) {
-			return new GeocodedLocation(placeName.trim(),StatusCode.G_GEOCODER_ERROR,
-					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		catch (GeocoderException ge) {
+			executor.shutdown();
+			throw ge;
 		}
-	}	
+		ThreadPoolExecutor previous = refreshExecutor;
+		refreshExecutor = executor;
+		if (previous != null)
+			previous.shutdown();
+	}
 
+	/**
+	 * Switch refresh-ahead off
+	 */
+	public void clearRefreshAhead() {
+		cache.clearRefreshAhead();
+		ThreadPoolExecutor previous = refreshExecutor;
+		refreshExecutor = null;
+		if (previous != null)
+			previous.shutdown();
+	}
 
 
 	/**
@@ -109,15 +265,91 @@ implements CacheEntryFactory, GeocoderI {
 	 * possible, when terminating the application, so caches are flushed to disk
 	 */
 	public void shutdown() {
-		ccache.shutdown();
+		if (expiryThread != null)
+			expiryThread.shutdownNow();
+		clearRefreshAhead();
+		cache.close();
+		super.shutdown();
 	}
 
 	/**
-	 * Return the Statistics object for this cache
-	 * @return Statistics object for this cache
+	 * Publish the Geocoder's counters through JMX, as Geocoder.registerMBeans() does, and the cache's, as
+	 * com.challengeandresponse.geo:type=GeocodeCache,name="(name)"
+	 * @param name the name of this Geocoder, to tell it apart from others in the same JVM
+	 * @throws GeocoderException if name is null or the MBeans could not be registered
+	 */
+	public void registerMBeans(String name)
+	throws GeocoderException {
+		super.registerMBeans(name);
+		try {
+			registerMBean(cache.getMXBean(), "GeocodeCache", null);
+		}
+		catch (GeocoderException ge) {
+			unregisterMBeans();
+			throw ge;
+		}
+	}
+
+	/**
+	 * Return the statistics for this cache
+	 * @return a snapshot of the counters of this cache
 	 */	
-	public Statistics getStatistics() {
-		return ccache.getStatistics(cacheName);
+	public CacheStatistics getStatistics() {
+		return cache.getStatistics();
+	}
+
+	/**
+	 * Set the policy that decides how long each result is cached. It applies to results
+	 * put from now on; those already cached keep their TTL
+	 * @param ttlPolicy the policy
+	 * @throws GeocoderException if ttlPolicy is null
+	 */
+	public void setTTLPolicy(TTLPolicy ttlPolicy)
+	throws GeocoderException {
+		if (ttlPolicy == null)
+			throw new GeocoderException("Invalid parameter");
+		this.ttlPolicy = ttlPolicy;
+	}
+
+	/**
+	 * @return the policy that decides how long each result is cached. Its rules can be changed in place
+	 */
+	public TTLPolicy getTTLPolicy() {
+		return ttlPolicy;
+	}
+
+	/**
+	 * Save the cache's in-memory entries to a snapshot file, for loadSnapshot() in another process.
+	 * See GeocodeCache.exportSnapshot
+	 * @param file the snapshot file, replaced if it exists
+	 * @return the number of entries written
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public long exportSnapshot(File file)
+	throws IOException {
+		return cache.exportSnapshot(file);
+	}
+
+	/**
+	 * Fill the in-memory cache from a snapshot file written by exportSnapshot(), in parallel.
+	 * Call it before taking traffic, so the geocoders are not asked for what the snapshot knows.
+	 * See GeocodeCache.loadSnapshot
+	 * @param file the snapshot file
+	 * @param threads the number of threads to read with
+	 * @return the number of entries offered to the cache
+	 * @throws IOException if the file is not a snapshot or is damaged
+	 * @throws GeocoderException if file is null or threads < 1
+	 */
+	public long loadSnapshot(File file, int threads)
+	throws IOException, GeocoderException {
+		return cache.loadSnapshot(file, threads);
+	}
+
+	/**
+	 * @return the cache behind this geocoder
+	 */
+	public GeocodeCache getCache() {
+		return cache;
 	}
 
 	
@@ -145,9 +377,9 @@ implements CacheEntryFactory, GeocoderI {
 
 			cgc.addGeocoder(new IPV4Geocoder("/Users/jim/Projects/RandD_Projects/RocketSync/Server/data/GeoLiteCity.dat",IPV4Geocoder.RETURN_IP));
 			cgc.addGeocoder(new LatLonGeocoder());
-			cgc.addGeocoder(new GoogleGeocoder("ABQIAAAATpIP0nQMoP5fnPlNJxbLDBSPCd7MrKeM6w_jwe7QFLxKoZJC8xQyh58lNpVG1DTdJcKkrbIPUMpofA"));
-			cgc.addGeocoder(new GeonamesGeocoder());
-			cgc.addGeocoder(new YahooGeocoder("eyqBFmfIkY1wnsE_EUd1cIQfIvnvI2PisDg-"));
+			cgc.addGeocoder(new CircuitBreakerGeocoder(new GoogleGeocoder("ABQIAAAATpIP0nQMoP5fnPlNJxbLDBSPCd7MrKeM6w_jwe7QFLxKoZJC8xQyh58lNpVG1DTdJcKkrbIPUMpofA")));
+			cgc.addGeocoder(new CircuitBreakerGeocoder(new GeonamesGeocoder()));
+			cgc.addGeocoder(new CircuitBreakerGeocoder(new YahooGeocoder("eyqBFmfIkY1wnsE_EUd1cIQfIvnvI2PisDg-")));
 		
 			
 			dump(cgc.geocode("860 Nancy Street, Niles, OH"));
@@ -167,15 +399,15 @@ implements CacheEntryFactory, GeocoderI {
 			dump(cgc.geocode("Mont Blanc Italy"));
 			dump(cgc.geocode("12.48815,44.128812"));
 		}
-		catch (GeocoderException cce) {
-			System.out.println("CentralCacheException: "+cce.getMessage());
+		catch (GeocoderException ge) {
+			System.out.println("GeocoderException: "+ge.getMessage());
 		}
 		catch (IOException ioe) {
 			System.out.println("IO Exception: "+ioe.getMessage());
 		}
 		
 		System.out.println("Cache statistics");
-		Statistics stats = cgc.getStatistics();
+		CacheStatistics stats = cgc.getStatistics();
 		System.out.println("Object count "+stats.getObjectCount());
 		System.out.println("Cache hits "+stats.getCacheHits());
 		System.out.println("Cache misses "+stats.getCacheMisses());
@@ -0,0 +1,271 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+
+/**
+ * Wraps a geocoder in a circuit breaker, so that when its server is down the chain
+ * stops paying the full connect/read timeout on every request.
+ * 
+ * <p>The breaker counts communication failures (StatusCode G_COMM_ERROR and
+ * GEO_SERVER_ERROR) over a sliding window of the most recent calls. When at least
+ * minimumCalls calls are in the window and the failure rate reaches failureThreshold,
+ * the breaker OPENs: for the next openMillis every call returns G_NOT_CONSULTED at once,
+ * without calling the wrapped geocoder, so Geocoder moves straight on to the next geocoder.
+ * Then the breaker goes HALF_OPEN and lets halfOpenTrials trial calls through. If they all
+ * succeed it CLOSEs again with a fresh window; if any fails it OPENs again.</p>
+ * 
+ * <p>Any other status (success, unknown address, and so on) counts as a healthy call,
+ * as the server answered. Calls turned away by an inner wrapper (G_NOT_CONSULTED) or cut
+ * short by the caller's deadline (G_DEADLINE_EXCEEDED) are not counted either way.
+ * State and counters can be read for monitoring.</p>
+ * 
+ * <p>Usage:<br />
+ * <code>geocoder.addGeocoder(new CircuitBreakerGeocoder(new YahooGeocoder(appID)));</code></p>
+ * 
+ * @author jim
+ * @version 0.11 2026-10-17
+ */
+
+/*
+ * REVISION HISTORY
+ * 0.10 2026-10-16 First version
+ * 0.11 2026-10-17 Added geocode(String,Duration); calls cut short by the caller's deadline are not counted
+ */
+public class CircuitBreakerGeocoder extends FilterGeocoder {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** Calls pass through, and are counted */
+	public static final int CLOSED = 0;
+	/** Calls are not passed through */
+	public static final int OPEN = 1;
+	/** A limited number of trial calls are passed through */
+	public static final int HALF_OPEN = 2;
+
+	public static final int DEFAULT_WINDOW_SIZE = 20;
+	public static final int DEFAULT_MINIMUM_CALLS = 10;
+	public static final double DEFAULT_FAILURE_THRESHOLD = 0.5D;
+	public static final long DEFAULT_OPEN_MILLIS = 30000L;
+	public static final int DEFAULT_HALF_OPEN_TRIALS = 2;
+
+	private final int minimumCalls;
+	private final double failureThreshold;
+	private final long openNanos;
+	private final int halfOpenTrials;
+
+	// the sliding window, a ring of the outcomes of the last window.length calls (true = failure)
+	private final boolean[] window;
+	private int windowPosition;
+	private int windowCount;
+	private int windowFailures;
+
+	private int state;
+	private long openUntil;
+	private int trialsStarted;
+	private int trialSuccesses;
+
+	// counters for monitoring
+	private long timesOpened;
+	private long callsNotConsulted;
+
+
+	/**
+	 * Wrap 'geocoder' in a circuit breaker with the default settings
+	 * @param geocoder the geocoder to protect
+	 * @throws GeocoderException if geocoder is null
+	 */
+	public CircuitBreakerGeocoder(GeocoderI geocoder)
+	throws GeocoderException {
+		this(geocoder, DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS, DEFAULT_HALF_OPEN_TRIALS);
+	}
+
+	/**
+	 * @param geocoder the geocoder to protect
+	 * @param windowSize the number of recent calls the failure rate is measured over
+	 * @param minimumCalls the breaker does not open until the window holds at least this many calls
+	 * @param failureThreshold the failure rate (0.0 to 1.0) at which the breaker opens
+	 * @param openMillis how long the breaker stays open before trying the geocoder again
+	 * @param halfOpenTrials the number of trial calls that must all succeed to close the breaker
+	 * @throws GeocoderException if geocoder is null or any setting is out of range
+	 */
+	public CircuitBreakerGeocoder(GeocoderI geocoder, int windowSize, int minimumCalls, double failureThreshold,
+			long openMillis, int halfOpenTrials)
+	throws GeocoderException {
+		super(geocoder);
+		if ((windowSize < 1) || (minimumCalls < 1) || (minimumCalls > windowSize) || 
+				(failureThreshold <= 0.0D) || (failureThreshold > 1.0D) || (openMillis < 0) || (halfOpenTrials < 1))
+			throw new GeocoderException("Invalid parameter");
+		this.window = new boolean[windowSize];
+		this.minimumCalls = minimumCalls;
+		this.failureThreshold = failureThreshold;
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+		this.halfOpenTrials = halfOpenTrials;
+		this.state = CLOSED;
+	}
+
+
+	public GeocodedLocation geocode(String placeName) {
+		if (! tryAcquire())
+			return notConsulted(placeName);
+		GeocodedLocation gcl = null;
+		try {
+			gcl = geocoder.geocode(placeName);
+		}
+		finally {
+			record((gcl != null) ? gcl.getServerResponse() : StatusCode.G_GEOCODER_ERROR);
+		}
+		return gcl;
+	}
+
+	public GeocodedLocation geocode(String placeName, Duration timeout) {
+		if (! tryAcquire())
+			return notConsulted(placeName);
+		GeocodedLocation gcl = null;
+		try {
+			gcl = geocoder.geocode(placeName, timeout);
+		}
+		finally {
+			record((gcl != null) ? gcl.getServerResponse() : StatusCode.G_GEOCODER_ERROR);
+		}
+		return gcl;
+	}
+
+	public CompletableFuture<GeocodedLocation> geocodeAsync(String placeName) {
+		if (! tryAcquire())
+			return CompletableFuture.completedFuture(notConsulted(placeName));
+		return geocoder.geocodeAsync(placeName).whenComplete((gcl, t) -> {
+			record((gcl != null) ? gcl.getServerResponse() : StatusCode.G_GEOCODER_ERROR);
+		});
+	}
+
+
+	/**
+	 * @return the state of the breaker: CLOSED, OPEN or HALF_OPEN
+	 */
+	public synchronized int getState() {
+		// an open breaker whose time is up reports half-open, although it only changes on the next call
+		if ((state == OPEN) && (System.nanoTime() - openUntil >= 0L))
+			return HALF_OPEN;
+		return state;
+	}
+
+	/**
+	 * @return the failure rate (0.0 to 1.0) over the calls in the current window
+	 */
+	public synchronized double getFailureRate() {
+		return (windowCount == 0) ? 0.0D : ((double) windowFailures / windowCount);
+	}
+
+	/**
+	 * @return the number of times this breaker has opened
+	 */
+	public synchronized long getTimesOpened() {
+		return timesOpened;
+	}
+
+	/**
+	 * @return the number of calls answered with G_NOT_CONSULTED because the breaker was not closed
+	 */
+	public synchronized long getCallsNotConsulted() {
+		return callsNotConsulted;
+	}
+
+	/**
+	 * Return text naming each state
+	 * @param state the state to look up
+	 * @return the name of 'state'
+	 */
+	public static String getStateText(int state) {
+		switch (state) {
+		case CLOSED:
+			return "closed";
+		case OPEN:
+			return "open";
+		case HALF_OPEN:
+			return "half-open";
+		default:
+			return ""+state;
+		}
+	}
+
+	public String toString() {
+		return "CircuitBreakerGeocoder [geocoder=" + unwrap(geocoder).getClass().getName()
+				+ ", state=" + getStateText(getState()) + ", failureRate=" + getFailureRate()
+				+ ", timesOpened=" + getTimesOpened() + ", callsNotConsulted=" + getCallsNotConsulted() + "]";
+	}
+
+
+	/**
+	 * @return true if a call may go through to the wrapped geocoder now
+	 */
+	private synchronized boolean tryAcquire() {
+		if (state == OPEN) {
+			if (System.nanoTime() - openUntil < 0L) {
+				callsNotConsulted++;
+				return false;
+			}
+			state = HALF_OPEN;
+			trialsStarted = 0;
+			trialSuccesses = 0;
+		}
+		if (state == HALF_OPEN) {
+			if (trialsStarted >= halfOpenTrials) {
+				callsNotConsulted++;
+				return false;
+			}
+			trialsStarted++;
+		}
+		return true;
+	}
+
+	/**
+	 * Record the outcome of a call that went through
+	 */
+	private synchronized void record(int status) {
+		if ((status == StatusCode.G_NOT_CONSULTED) || (status == StatusCode.G_DEADLINE_EXCEEDED)) {
+			// an inner wrapper turned the call away, or the caller's deadline cut it short; it says nothing about the server
+			if (state == HALF_OPEN)
+				trialsStarted--;
+			return;
+		}
+		boolean failure = (status == StatusCode.G_COMM_ERROR) || (status == StatusCode.GEO_SERVER_ERROR);
+		switch (state) {
+		case HALF_OPEN:
+			if (failure)
+				open();
+			else if (++trialSuccesses >= halfOpenTrials) {
+				state = CLOSED;
+				windowPosition = 0;
+				windowCount = 0;
+				windowFailures = 0;
+			}
+			break;
+		case CLOSED:
+			if (windowCount == window.length) {
+				if (window[windowPosition])
+					windowFailures--;
+			}
+			else
+				windowCount++;
+			window[windowPosition] = failure;
+			if (failure)
+				windowFailures++;
+			windowPosition = (windowPosition + 1) % window.length;
+			if ((windowCount >= minimumCalls) && ((double) windowFailures / windowCount >= failureThreshold))
+				open();
+			break;
+		default: // OPEN: a call that started before the breaker opened; it changes nothing
+			break;
+		}
+	}
+
+	private void open() {
+		state = OPEN;
+		openUntil = System.nanoTime() + openNanos;
+		timesOpened++;
+	}
+
+}
@@ -0,0 +1,300 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.text.Normalizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The default KeyNormalizer. Place names are first tagged by InputClassifier:
+ *
+ * <p>LAT_LON: the numbers are re-written as latitude,longitude with 7 decimal places
+ * (about a centimetre), plus ,height with 3 decimal places if a height other than 0 is
+ * given, so "42.128,-071.235" and "42.1280  -71.235" share a key.<br />
+ * IPV4: the octets are re-written without leading zeros.<br />
+ * Anything else: Unicode NFKC normalization (only if the name is not plain ASCII), case
+ * folding, and then punctuation and whitespace collapse: runs of whitespace, punctuation
+ * and symbols become one space, apart from # & / and @, which are kept. Apostrophes are
+ * dropped, as is a period after a single letter (U.S.A. becomes usa). So "Boston, MA",
+ * "boston ma" and " Boston,MA " all become "boston ma". Numbers keep their decimal points
+ * and a leading minus sign, so "(42.1, -71.2)" becomes "42.1 -71.2", not "42 1 71 2".
+ * A key that would itself read as a lat/lon or IPv4 address (e.g. "42 71", from "42;71")
+ * is marked with a leading "# ", so normalizing a key always gives the same key back.</p>
+ *
+ * <p>Optionally, abbreviations are expanded, word by word. The built-in ones are the common
+ * street types (St to street, Ave to avenue, and so on); as "St" at the start of a place
+ * name usually means Saint, the first word of a place name is never expanded.
+ * More can be added with addAbbreviation().</p>
+ *
+ * <p>A name that is already normalized (lower case ASCII words separated by single spaces)
+ * is returned as is, without allocating; otherwise the key is built in one pass into one
+ * StringBuilder.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class DefaultKeyNormalizer implements KeyNormalizer {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** The abbreviations built in: street types, as used by the US Postal Service */
+	public static final String[][] STREET_ABBREVIATIONS = {
+		{ "st", "street" }, { "str", "street" }, { "ave", "avenue" }, { "av", "avenue" },
+		{ "rd", "road" }, { "blvd", "boulevard" }, { "dr", "drive" }, { "ln", "lane" },
+		{ "ct", "court" }, { "pl", "place" }, { "sq", "square" }, { "hwy", "highway" },
+		{ "pkwy", "parkway" }, { "ter", "terrace" }, { "cir", "circle" }, { "expy", "expressway" },
+		{ "fwy", "freeway" }, { "tpke", "turnpike" }, { "aly", "alley" }, { "trl", "trail" }
+	};
+
+	// symbols that are kept as part of a word, as they usually mean something in an address
+	private static final String KEPT_SYMBOLS = "#&/@";
+
+	private final ConcurrentHashMap<String,String> abbreviations = new ConcurrentHashMap<String,String>();
+	private volatile int maxAbbreviationLength;
+	private volatile boolean expandAbbreviations;
+
+
+	/**
+	 * A normalizer that does not expand abbreviations
+	 */
+	public DefaultKeyNormalizer() {
+		this(false);
+	}
+
+	/**
+	 * @param expandAbbreviations true to expand abbreviations (see setExpandAbbreviations)
+	 */
+	public DefaultKeyNormalizer(boolean expandAbbreviations) {
+		for (int i = 0; i < STREET_ABBREVIATIONS.length; i++)
+			putAbbreviation(STREET_ABBREVIATIONS[i][0], STREET_ABBREVIATIONS[i][1]);
+		this.expandAbbreviations = expandAbbreviations;
+	}
+
+
+	/**
+	 * Switch abbreviation expansion on or off. Note that switching it changes the keys,
+	 * so results cached under the old keys will not be found
+	 * @param expandAbbreviations true to expand abbreviations
+	 */
+	public void setExpandAbbreviations(boolean expandAbbreviations) {
+		this.expandAbbreviations = expandAbbreviations;
+	}
+
+	/**
+	 * @return true if abbreviations are expanded
+	 */
+	public boolean isExpandAbbreviations() {
+		return expandAbbreviations;
+	}
+
+	/**
+	 * Add an abbreviation to expand, or replace the expansion of one already known
+	 * @param abbreviation the abbreviation, one word. Case and a trailing period are ignored
+	 * @param expansion what it stands for
+	 * @throws GeocoderException if either is null, or 'abbreviation' is not one word
+	 */
+	public void addAbbreviation(String abbreviation, String expansion)
+	throws GeocoderException {
+		if ((abbreviation == null) || (expansion == null))
+			throw new GeocoderException("Invalid parameter");
+		String word = normalizeText(abbreviation, false);
+		if ((word.length() == 0) || (word.indexOf(' ') >= 0))
+			throw new GeocoderException("Invalid parameter");
+		putAbbreviation(word, normalizeText(expansion, false));
+	}
+
+
+	public String normalize(String placeName) {
+		switch (InputClassifier.classify(placeName)) {
+		case InputClass.LAT_LON:
+			return canonicalLatLon(placeName);
+		case InputClass.IPV4:
+			return canonicalIPV4(placeName);
+		default:
+			String key = normalizeText(placeName, expandAbbreviations);
+			switch (InputClassifier.classify(key)) {
+			case InputClass.LAT_LON:
+			case InputClass.IPV4:
+				return "# " + key; // so it is not read as a lat/lon or address when normalized again
+			default:
+				return key;
+			}
+		}
+	}
+
+
+	private synchronized void putAbbreviation(String word, String expansion) {
+		abbreviations.put(word, expansion);
+		maxAbbreviationLength = Math.max(maxAbbreviationLength, word.length());
+	}
+
+	/**
+	 * NFKC, case folding, punctuation and whitespace collapse, and (if 'expand') abbreviation expansion
+	 */
+	private String normalizeText(String s, boolean expand) {
+		if ((! expand) && isNormalized(s))
+			return s;
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) >= 0x80) {
+				s = Normalizer.normalize(s, Normalizer.Form.NFKC);
+				break;
+			}
+		}
+		StringBuilder key = new StringBuilder(s.length());
+		boolean pendingSpace = false;
+		int wordStart = 0;
+		int words = 0;
+		int letters = 0; // letters in a row since the last break, or 2 if anything else came between
+		for (int i = 0; i < s.length(); ) {
+			int c = s.codePointAt(i);
+			i += Character.charCount(c);
+			// a minus sign starting a number, or a decimal point inside one, is part of the word
+			boolean numeric = (i < s.length()) && isDigit(s.charAt(i)) &&
+					(((c == '-') && (pendingSpace || (key.length() == 0))) ||
+					 ((c == '.') && (! pendingSpace) && (key.length() > 0) && isDigit(key.charAt(key.length() - 1))));
+			if (Character.isLetterOrDigit(c) || isMark(c) || (KEPT_SYMBOLS.indexOf(c) >= 0) || numeric) {
+				if (pendingSpace && (key.length() > 0)) {
+					if (expand)
+						expand(key, wordStart, words);
+					words++;
+					key.append(' ');
+					wordStart = key.length();
+				}
+				pendingSpace = false;
+				key.appendCodePoint(Character.toLowerCase(Character.toUpperCase(c)));
+				letters = Character.isLetter(c) ? letters + 1 : 2;
+			}
+			else if ((c == '\'') || (c == '\u2019') || (c == '\u02bc')) {
+				// apostrophes are dropped: "Mary's" is "marys"
+			}
+			else if ((c == '.') && (letters == 1)) {
+				// a period after a single letter is dropped: "U.S.A." is "usa"
+				letters = 0;
+			}
+			else { // whitespace, punctuation and other symbols separate words
+				pendingSpace = true;
+				letters = 0;
+			}
+		}
+		if (expand && (key.length() > 0))
+			expand(key, wordStart, words);
+		for (int i = 0; i < key.length(); i++) {
+			if (key.charAt(i) >= 0x80) // dropping characters can leave marks that compose with the letter before them now
+				return Normalizer.normalize(key, Normalizer.Form.NFKC);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Expand the word at the end of 'key', from 'wordStart', if it is a known abbreviation
+	 * and not the first word of the place name
+	 */
+	private void expand(StringBuilder key, int wordStart, int words) {
+		int length = key.length() - wordStart;
+		if ((words == 0) || (length > maxAbbreviationLength))
+			return;
+		String expansion = abbreviations.get(key.substring(wordStart));
+		if (expansion != null) {
+			key.setLength(wordStart);
+			key.append(expansion);
+		}
+	}
+
+	/**
+	 * @return true if 's' is already a key: lower case ASCII letters and digits (and the kept symbols)
+	 * in words separated by single spaces, with no space at either end
+	 */
+	private static boolean isNormalized(String s) {
+		int n = s.length();
+		if ((n == 0) || (s.charAt(0) == ' ') || (s.charAt(n-1) == ' '))
+			return (n == 0);
+		char previous = 0;
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if (((c >= 'a') && (c <= 'z')) || ((c >= '0') && (c <= '9')) || ((c == ' ') && (previous != ' ')) || (KEPT_SYMBOLS.indexOf(c) >= 0))
+				previous = c;
+			else
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isDigit(char c) {
+		return (c >= '0') && (c <= '9');
+	}
+
+	private static boolean isMark(int c) {
+		int type = Character.getType(c);
+		return (type == Character.NON_SPACING_MARK) || (type == Character.COMBINING_SPACING_MARK) || (type == Character.ENCLOSING_MARK);
+	}
+
+	/**
+	 * @return 'placeName', a LAT_LON, as lat,lon[,height] in fixed decimals
+	 */
+	private static String canonicalLatLon(String placeName) {
+		double[] llh = new double[3];
+		InputClassifier.parseLatLon(placeName, llh);
+		StringBuilder key = new StringBuilder(32);
+		appendFixed(key, llh[0], 7);
+		key.append(',');
+		appendFixed(key, llh[1], 7);
+		if (llh[2] != 0.0D) {
+			key.append(',');
+			appendFixed(key, llh[2], 3);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Append 'd' rounded to 'decimals' places, always with that many digits after the point
+	 */
+	private static void appendFixed(StringBuilder sb, double d, int decimals) {
+		long scale = 1L;
+		for (int i = 0; i < decimals; i++)
+			scale *= 10L;
+		if (Math.abs(d) >= (double) (Long.MAX_VALUE / scale)) { // far too big to be a real height, so leave it as it is
+			sb.append(d);
+			return;
+		}
+		long v = Math.round(d * scale);
+		if (v < 0L) {
+			sb.append('-');
+			v = -v;
+		}
+		sb.append(v / scale).append('.');
+		long fraction = v % scale;
+		for (long p = scale / 10L; p > 0L; p /= 10L)
+			sb.append((char) ('0' + ((fraction / p) % 10L)));
+	}
+
+	/**
+	 * @return 'placeName', an IPV4, trimmed and without leading zeros in its octets
+	 */
+	private static String canonicalIPV4(String placeName) {
+		String s = placeName.trim();
+		StringBuilder key = new StringBuilder(15);
+		int octet = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '.') {
+				key.append(octet).append('.');
+				octet = 0;
+			}
+			else
+				octet = (octet * 10) + (c - '0');
+		}
+		key.append(octet);
+		return (key.length() == s.length()) ? s : key.toString();
+	}
+
+
+	// for testing
+	public static void main(String[] args) {
+		DefaultKeyNormalizer kn = new DefaultKeyNormalizer(true);
+		String[] tests = { "Boston, MA", " boston ma ", "U.S.A.", "1 Main St., Springfield", "(42.1, -71.2)", "(42.1, 71.2)",
+				"42;71", "42 71", "42.128,-071.235", "(18.85.2.181)", "018.085.002.181", "A-1 Auto Parts", "Route -5", "Saint-\u00c9tienne" };
+		for (int i = 0; i < tests.length; i++) {
+			String key = kn.normalize(tests[i]);
+			String again = kn.normalize(key);
+			System.out.println((key.equals(again) ? "ok  " : "NOT IDEMPOTENT ")+"\""+tests[i]+"\" -> \""+key+"\""+(key.equals(again) ? "" : " -> \""+again+"\""));
+		}
+	}
+
+}
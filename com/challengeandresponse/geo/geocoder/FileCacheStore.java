@@ -0,0 +1,276 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+import com.challengeandresponse.geo.data.GeocodedLocationCodec;
+
+/**
+ * A simple CacheStore in one file: an append-only log of records, with the position of
+ * each key's latest record held in memory. Removing or replacing an entry appends a
+ * new record, and the file is compacted (rewritten with only the live records) when
+ * more than half of it is dead, on opening, closing or removeExpired().
+ *
+ * <p>Each record is: int length, then the key (UTF), the expiry time (long), and the
+ * GeocodedLocation as written by GeocodedLocationCodec, or nothing for a removal. A record
+ * cut short by a crash is dropped when the file is next opened.</p>
+ *
+ * <p>If maxElements is not 0 and the store is full, the oldest entry is removed to make room.</p>
+ *
+ * <p>CachingGeocoder keeps its persistent tier in a MappedCacheStore. FileCacheStore is the
+ * simpler alternative, for a GeocodeCache made directly: it maps nothing and keeps its index
+ * on the Java heap, so it suits stores of up to a few hundred thousand entries, and file
+ * systems where a large memory-mapped file is not wanted.</p>
+ *
+ * @author jim
+ * @version 0.11 2026-10-17
+ */
+
+/*
+ * REVISION HISTORY
+ * 0.11 2026-10-17 Values are written by GeocodedLocationCodec instead of Java serialization. Files written by 0.10 cannot be read
+ */
+public class FileCacheStore implements CacheStore {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** A maxElements of 0 means the store is not capped */
+	public static final int UNLIMITED = 0;
+
+	// files smaller than this are never compacted
+	private static final long MIN_COMPACT_BYTES = 1L << 20;
+
+	private final File file;
+	private final int maxElements;
+	private RandomAccessFile raf;
+	// key -> { offset, length, expiresAt } of its latest record, oldest first
+	private final LinkedHashMap<String,long[]> index = new LinkedHashMap<String,long[]>();
+	private long liveBytes;
+
+
+	/**
+	 * Open the store in 'file', creating it (and its directory) if need be
+	 * @param file the file to keep the store in
+	 * @param maxElements the most entries to keep, or UNLIMITED
+	 * @throws IOException if the file could not be opened or read
+	 * @throws GeocoderException if file is null or maxElements < 0
+	 */
+	public FileCacheStore(File file, int maxElements)
+	throws IOException, GeocoderException {
+		if ((file == null) || (maxElements < 0))
+			throw new GeocoderException("Invalid parameter");
+		this.file = file;
+		this.maxElements = maxElements;
+		File dir = file.getAbsoluteFile().getParentFile();
+		if ((dir != null) && (! dir.isDirectory()) && (! dir.mkdirs()))
+			throw new IOException("Cannot create "+dir);
+		open();
+		compactIfNeeded();
+	}
+
+
+	public synchronized StoredEntry load(String key)
+	throws IOException {
+		long[] at = index.get(key);
+		if (at == null)
+			return null;
+		if (at[2] <= System.currentTimeMillis()) {
+			remove(key);
+			return null;
+		}
+		byte[] record = new byte[(int) at[1]];
+		raf.seek(at[0]);
+		raf.readFully(record);
+		ByteBuffer in = ByteBuffer.wrap(record, 4, record.length - 4);
+		int keyLength = in.getShort() & 0xFFFF; // the key, as written by writeUTF
+		in.position(in.position() + keyLength);
+		long expiresAt = in.getLong();
+		try {
+			return new StoredEntry(GeocodedLocationCodec.read(in), expiresAt);
+		}
+		catch (IllegalArgumentException | BufferUnderflowException e) {
+			throw new IOException("Unreadable record for "+key);
+		}
+	}
+
+	public synchronized void store(String key, GeocodedLocation value, long expiresAt)
+	throws IOException {
+		long[] old = index.remove(key);
+		if (old != null)
+			liveBytes -= old[1];
+		index.put(key, append(key, value, expiresAt));
+		while ((maxElements != UNLIMITED) && (index.size() > maxElements)) {
+			remove(index.keySet().iterator().next());
+		}
+	}
+
+	public synchronized void remove(String key)
+	throws IOException {
+		long[] old = index.remove(key);
+		if (old != null) {
+			liveBytes -= old[1];
+			append(key, null, 0L);
+		}
+	}
+
+	public synchronized int removeExpired(long now)
+	throws IOException {
+		int removed = 0;
+		Iterator<Map.Entry<String,long[]>> i = index.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry<String,long[]> entry = i.next();
+			if (entry.getValue()[2] <= now) {
+				i.remove();
+				liveBytes -= entry.getValue()[1];
+				removed++;
+			}
+		}
+		// expired records are simply left out when the file is compacted; if it is not, they are expired again on reopening
+		compactIfNeeded();
+		return removed;
+	}
+
+	public synchronized int size() {
+		return index.size();
+	}
+
+	public synchronized void flush()
+	throws IOException {
+		raf.getFD().sync();
+	}
+
+	public synchronized void close()
+	throws IOException {
+		compactIfNeeded();
+		raf.getFD().sync();
+		raf.close();
+	}
+
+	public String toString() {
+		return "FileCacheStore [file=" + file + ", size=" + size() + "]";
+	}
+
+
+	/**
+	 * Open the file and read the index from it, dropping a torn record at the end
+	 */
+	private void open()
+	throws IOException {
+		index.clear();
+		liveBytes = 0L;
+		long now = System.currentTimeMillis();
+		long offset = 0L;
+		if (file.exists()) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+				for (;;) {
+					int length;
+					try {
+						length = in.readInt();
+					}
+					catch (EOFException eof) {
+						break;
+					}
+					if (length < 4)
+						break;
+					byte[] record = new byte[length - 4];
+					try {
+						in.readFully(record);
+					}
+					catch (EOFException eof) { // torn record
+						break;
+					}
+					DataInputStream r = new DataInputStream(new ByteArrayInputStream(record));
+					String key = r.readUTF();
+					long expiresAt = r.readLong();
+					long[] old = index.remove(key);
+					if (old != null)
+						liveBytes -= old[1];
+					if ((r.available() > 0) && (expiresAt > now)) { // a live entry, not a removal
+						index.put(key, new long[] { offset, length, expiresAt });
+						liveBytes += length;
+					}
+					offset += length;
+				}
+			}
+		}
+		raf = new RandomAccessFile(file, "rw");
+		if (raf.length() != offset)
+			raf.setLength(offset);
+	}
+
+	/**
+	 * Append a record for 'key', or a removal if 'value' is null
+	 * @return the { offset, length, expiresAt } of the new record
+	 */
+	private long[] append(String key, GeocodedLocation value, long expiresAt)
+	throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0); // length, filled in below
+		out.writeUTF(key);
+		out.writeLong(expiresAt);
+		if (value != null)
+			out.write(GeocodedLocationCodec.encode(value));
+		byte[] record = bytes.toByteArray();
+		int length = record.length;
+		record[0] = (byte) (length >>> 24);
+		record[1] = (byte) (length >>> 16);
+		record[2] = (byte) (length >>> 8);
+		record[3] = (byte) length;
+		long offset = raf.length();
+		raf.seek(offset);
+		raf.write(record);
+		if (value != null)
+			liveBytes += length;
+		return new long[] { offset, length, expiresAt };
+	}
+
+	/**
+	 * Rewrite the file with only its live records, if more than half of it is dead
+	 */
+	private void compactIfNeeded()
+	throws IOException {
+		long fileLength = raf.length();
+		if ((fileLength < MIN_COMPACT_BYTES) || (fileLength - liveBytes <= liveBytes))
+			return;
+		File tmp = new File(file.getPath()+".tmp");
+		long[] offsets = new long[index.size()];
+		try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+			out.setLength(0L);
+			long offset = 0L;
+			int i = 0;
+			for (long[] at : index.values()) {
+				byte[] record = new byte[(int) at[1]];
+				raf.seek(at[0]);
+				raf.readFully(record);
+				out.write(record);
+				offsets[i++] = offset;
+				offset += at[1];
+			}
+			out.getFD().sync();
+		}
+		raf.close();
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		raf = new RandomAccessFile(file, "rw");
+		// only now that the new file is in place do the positions change
+		int i = 0;
+		for (long[] at : index.values())
+			at[0] = offsets[i++];
+	}
+
+}
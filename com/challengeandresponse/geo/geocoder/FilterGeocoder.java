@@ -0,0 +1,96 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+
+/**
+ * A geocoder that wraps another geocoder, to add behaviour around its calls
+ * (see CircuitBreakerGeocoder). By default every method is passed straight through
+ * to the wrapped geocoder; subclasses override what they need.
+ * 
+ * <p>Geocoder credits results to the innermost wrapped geocoder, so wrapping a
+ * geocoder does not change the geocoder field of the GeocodedLocations it returns.</p>
+ * 
+ * @author jim
+ * @version 0.10 2026-10-16
+ */
+public abstract class FilterGeocoder implements GeocoderI {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** The wrapped geocoder */
+	protected final GeocoderI geocoder;
+
+	/**
+	 * @param geocoder the geocoder to wrap
+	 * @throws GeocoderException if geocoder is null
+	 */
+	protected FilterGeocoder(GeocoderI geocoder)
+	throws GeocoderException {
+		if (geocoder == null)
+			throw new GeocoderException("Invalid parameter");
+		this.geocoder = geocoder;
+	}
+
+	/**
+	 * @return the wrapped geocoder
+	 */
+	public GeocoderI getGeocoder() {
+		return geocoder;
+	}
+
+	/**
+	 * @return the innermost geocoder, unwrapping any number of FilterGeocoders around 'gc'
+	 */
+	public static GeocoderI unwrap(GeocoderI gc) {
+		while (gc instanceof FilterGeocoder)
+			gc = ((FilterGeocoder) gc).getGeocoder();
+		return gc;
+	}
+	
+
+	public GeocodedLocation geocode(String placeName) {
+		return geocoder.geocode(placeName);
+	}
+
+	public GeocodedLocation geocode(String placeName, Duration timeout) {
+		return geocoder.geocode(placeName, timeout);
+	}
+
+	public CompletableFuture<GeocodedLocation> geocodeAsync(String placeName) {
+		return geocoder.geocodeAsync(placeName);
+	}
+
+	/**
+	 * Geocode the provided placeName, and update a provided GeocodedLocation object with fresh geocoding stuff.
+	 * This method calls the geocode(String) method to do the actual work, then transmutes the relevant results into the object gcl
+	 * @param gcl a GeocodedLocation object to revise with new data, based on its placeName field
+	 */	
+	public GeocodedLocation geocode(GeocodedLocation gcl) {
+		GeocodedLocation gcl2 = geocode(gcl.getPlaceName());
+		gcl.setPlaceName(gcl2.getPlaceName());
+		gcl.setServerResponse(gcl2.getServerResponse());
+		gcl.setAccuracy(gcl2.getAccuracy());
+		gcl.setCountry(gcl2.getCountryCode());
+		gcl.set(gcl2.getDoubleLatitude(), gcl2.getDoubleLongitude(), gcl2.getDoubleHeight());
+		return gcl;
+	}
+
+	public String getVersion() {
+		return geocoder.getVersion();
+	}
+
+	public int getInputClasses() {
+		return geocoder.getInputClasses();
+	}
+
+	/**
+	 * @return the response for a place name that was not passed to the wrapped geocoder
+	 */
+	protected GeocodedLocation notConsulted(String placeName) {
+		return new GeocodedLocation(placeName.trim(),StatusCode.G_NOT_CONSULTED,
+				PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+	}
+
+}
@@ -0,0 +1,128 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count-min sketch of how often keys have been asked for, recently, used by
+ * GeocodeCache to decide whether a new entry is worth more than the one it would evict
+ * (TinyLFU admission).
+ *
+ * <p>Each key has a 4-bit counter (0 to 15) in each of 4 rows; its frequency is the
+ * smallest of the 4. Sixteen counters are packed into each long, and counters are
+ * updated with compare-and-set, so counting takes no lock. Once 10 times the cache's
+ * capacity has been counted, every counter is halved, so old popularity fades. The count
+ * towards that is sampled, one increment in ADDITION_SAMPLE adding ADDITION_SAMPLE to it, so
+ * most increments write no shared field but their own counters.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+class FrequencySketch {
+
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long HALF_MASK = 0x7777777777777777L;
+	// one increment in this many is counted towards the reset, as this many
+	private static final int ADDITION_SAMPLE = 16;
+
+	private final AtomicLongArray table;
+	private final int mask;
+	private final int sampleSize;
+	private final AtomicInteger additions = new AtomicInteger();
+
+
+	/**
+	 * @param capacity the number of entries the cache holds
+	 */
+	FrequencySketch(int capacity) {
+		int size = Integer.highestOneBit(Math.max(Math.min(capacity, 1 << 28), 16) - 1) << 1; // next power of two
+		table = new AtomicLongArray(size);
+		mask = size - 1;
+		sampleSize = (capacity > Integer.MAX_VALUE / 10) ? Integer.MAX_VALUE : Math.max(capacity * 10, 10);
+	}
+
+
+	/**
+	 * @return the estimated number of recent requests for the key with 'hash', 0 to 15
+	 */
+	int frequency(int hash) {
+		int frequency = Integer.MAX_VALUE;
+		for (int row = 0; row < 4; row++) {
+			long h = spread(hash, row);
+			int shift = ((int) h & 15) << 2;
+			frequency = Math.min(frequency, (int) ((table.get(index(h)) >>> shift) & 15L));
+		}
+		return frequency;
+	}
+
+	/**
+	 * Count one request for the key with 'hash'
+	 */
+	void increment(int hash) {
+		boolean added = false;
+		for (int row = 0; row < 4; row++) {
+			long h = spread(hash, row);
+			int i = index(h);
+			int shift = ((int) h & 15) << 2;
+			long counter = 15L << shift;
+			for (;;) {
+				long word = table.get(i);
+				if ((word & counter) == counter) // saturated
+					break;
+				if (table.compareAndSet(i, word, word + (1L << shift))) {
+					added = true;
+					break;
+				}
+			}
+		}
+		if (added && (ThreadLocalRandom.current().nextInt(ADDITION_SAMPLE) == 0)) {
+			int n = additions.addAndGet(ADDITION_SAMPLE);
+			if ((n >= sampleSize) && (n - ADDITION_SAMPLE < sampleSize)) // only the one caller that crosses it
+				reset();
+		}
+	}
+
+	/**
+	 * Raise the counters of the key with 'hash' to at least 'frequency' (as when a snapshot is loaded),
+	 * without counting towards the reset
+	 * @param frequency 0 to 15
+	 */
+	void restore(int hash, int frequency) {
+		for (int row = 0; row < 4; row++) {
+			long h = spread(hash, row);
+			int i = index(h);
+			int shift = ((int) h & 15) << 2;
+			for (;;) {
+				long word = table.get(i);
+				if ((((word >>> shift) & 15L) >= frequency)
+						|| table.compareAndSet(i, word, (word & ~(15L << shift)) | ((long) frequency << shift)))
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Halve every counter. Concurrent increments may be lost, which only makes the sketch a little less exact
+	 */
+	private void reset() {
+		for (int i = 0; i < table.length(); i++) {
+			for (;;) {
+				long word = table.get(i);
+				if (table.compareAndSet(i, word, (word >>> 1) & HALF_MASK))
+					break;
+			}
+		}
+		additions.set(sampleSize / 2);
+	}
+
+	private static long spread(int hash, int row) {
+		long h = (hash + SEEDS[row]) * SEEDS[row];
+		return h ^ (h >>> 32);
+	}
+
+	private int index(long h) {
+		return (int) (h >>> 4) & mask;
+	}
+
+}
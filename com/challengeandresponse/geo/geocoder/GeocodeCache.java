@@ -0,0 +1,759 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+
+/**
+ * The cache behind CachingGeocoder: an in-memory tier of up to maxElementsInMemory
+ * results, with an optional persistent tier (see CacheStore) behind it.
+ *
+ * <p>A hit in memory is one ConcurrentHashMap lookup, with no lock: the reader only marks
+ * the entry as recently used, and counts the key in a FrequencySketch. Locks are only
+ * taken when an entry is put, removed or expires.</p>
+ *
+ * <p>Eviction is in the style of W-TinyLFU. New entries go into a small admission window
+ * (WINDOW_FRACTION of the capacity), in first-in first-out order. An entry leaving the
+ * window is admitted to the main region only if its key has been asked for more often,
+ * recently, than the key of the entry the main region would evict (a CLOCK sweep, which
+ * passes over entries read since it last came round); otherwise it is dropped. So a burst
+ * of one-off place names cannot flush out the popular ones.</p>
+ *
+ * <p>Each entry has its own time to live, set when it is put, and the cache has one time
+ * to idle. An expired entry is removed when it is next read, or by evictExpired(). With a
+ * persistent tier, every put is written through to it, and a key not found in memory is
+ * looked for there before it counts as a miss; entries found there are brought back into memory.</p>
+ *
+ * <p>With refresh-ahead switched on (setRefreshAhead), an entry read in the last part of its
+ * time to live is looked up again in the background by a CacheRefresher, while readers go on
+ * getting the old value, so a key that is read often never expires in front of a reader.
+ * An entry also stays usable for a stale-if-error time after its time to live: reads in that
+ * time get the old value and start a refresh, and if the refresh fails the old value stays,
+ * and the entry is not refreshed again for a while, longer after each failure, so a failing
+ * geocoder is not called on every read.
+ * Only entries put with the place name they were looked up with are refreshed, as the
+ * refresh looks that up again; entries brought back from the persistent tier or a snapshot
+ * have none, so they simply expire.</p>
+ *
+ * <p>exportSnapshot() writes the in-memory tier to a snapshot file (see CacheSnapshot), and
+ * loadSnapshot() fills the in-memory tier from one, in parallel, so a new process can start
+ * with the cache of one that has been running.</p>
+ *
+ * <p>get() and put() are JDK Flight Recorder events (CacheGetEvent, CachePutEvent) when they
+ * take longer than the events' thresholds.</p>
+ *
+ * @author jim
+ * @version 0.14 2026-10-17
+ */
+
+/*
+ * REVISION HISTORY
+ * 0.11 2026-10-17 Added refresh-ahead and the stale-if-error time (setRefreshAhead)
+ * 0.12 2026-10-17 Added snapshot export and parallel loading (exportSnapshot, loadSnapshot)
+ * 0.13 2026-10-17 Added getMXBean(), a live view of the counters for JMX
+ * 0.14 2026-10-17 get() and put() are JFR events (CacheGetEvent, CachePutEvent)
+ */
+public class GeocodeCache {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** A time to live or time to idle of NO_EXPIRY means entries never expire that way */
+	public static final long NO_EXPIRY = 0L;
+
+	/** The fraction of the capacity given to the admission window */
+	public static final double WINDOW_FRACTION = 0.01D;
+
+	/** How long after a failed refresh an entry is refreshed again; this doubles with each failure in a row */
+	public static final long MIN_REFRESH_RETRY_MILLIS = 1000L;
+	/** The longest an entry waits to be refreshed again after failed refreshes */
+	public static final long MAX_REFRESH_RETRY_MILLIS = 60000L;
+
+	private final ConcurrentHashMap<String,Entry> map;
+	private final int maxElements;
+	private final long ttlMillis;
+	private final long ttiMillis;
+	private final CacheStore store;
+	private final FrequencySketch sketch;
+	// refresh-ahead settings, null when off
+	private volatile RefreshAhead refreshAhead;
+
+	// the eviction policy, guarded by evictionLock
+	private final Object evictionLock = new Object();
+	private final ArrayDeque<Entry> window = new ArrayDeque<Entry>();
+	private final ArrayDeque<Entry> main = new ArrayDeque<Entry>();
+	private final int windowMax;
+	private final int mainMax;
+	private int windowCount;
+	private int mainCount;
+
+	// counters
+	private final LongAdder inMemoryHits = new LongAdder();
+	private final LongAdder onDiskHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+	private final LongAdder storeErrors = new LongAdder();
+	private final LongAdder refreshes = new LongAdder();
+	private final LongAdder staleHits = new LongAdder();
+
+
+	/**
+	 * @param maxElementsInMemory the most entries held in memory
+	 * @param ttlMillis the default time to live of an entry, from when it is put, or NO_EXPIRY
+	 * @param ttiMillis the time to idle: an entry not read for this long expires. Or NO_EXPIRY
+	 * @param store the persistent tier, or null for none. The cache closes it in close()
+	 * @throws GeocoderException if maxElementsInMemory < 1, or either time is < 0
+	 */
+	public GeocodeCache(int maxElementsInMemory, long ttlMillis, long ttiMillis, CacheStore store)
+	throws GeocoderException {
+		if ((maxElementsInMemory < 1) || (ttlMillis < 0) || (ttiMillis < 0))
+			throw new GeocoderException("Invalid parameter");
+		this.maxElements = maxElementsInMemory;
+		this.ttlMillis = ttlMillis;
+		this.ttiMillis = ttiMillis;
+		this.store = store;
+		this.map = new ConcurrentHashMap<String,Entry>(Math.min(maxElementsInMemory, 1 << 20));
+		this.sketch = new FrequencySketch(maxElementsInMemory);
+		this.windowMax = Math.max(1, (int) (maxElementsInMemory * WINDOW_FRACTION));
+		this.mainMax = maxElementsInMemory - windowMax;
+	}
+
+
+	/**
+	 * Look 'key' up in memory, then in the persistent tier
+	 * @param key the cache key
+	 * @return the cached result, or null if there is none or it has expired
+	 */
+	public GeocodedLocation get(String key) {
+		CacheGetEvent event = CacheGetEvent.start();
+		sketch.increment(key.hashCode());
+		long now = System.currentTimeMillis();
+		Entry e = map.get(key);
+		if (e != null) {
+			RefreshAhead ra = refreshAhead;
+			if (! e.isExpired(now, (ra != null) ? ra.staleMillis : 0L)) {
+				e.touch(now);
+				inMemoryHits.increment();
+				String tier = CacheGetEvent.MEMORY;
+				if ((ra != null) && (now >= e.refreshAt(ra.fraction))) {
+					if (now >= e.expiresAt) {
+						staleHits.increment();
+						tier = CacheGetEvent.STALE;
+					}
+					refresh(e, ra, now);
+				}
+				return CacheGetEvent.end(event, key, tier, e.value);
+			}
+			expire(e);
+		}
+		if (store != null) {
+			try {
+				CacheStore.StoredEntry stored = store.load(key);
+				if ((stored != null) && (stored.getExpiresAt() > now)) {
+					e = new Entry(key, null, stored.getValue(), stored.getExpiresAt(), ttiMillis, now);
+					admit(e);
+					onDiskHits.increment();
+					return CacheGetEvent.end(event, key, CacheGetEvent.DISK, e.value);
+				}
+			}
+			catch (IOException ioe) {
+				storeErrors.increment();
+			}
+		}
+		misses.increment();
+		return CacheGetEvent.end(event, key, CacheGetEvent.MISS, null);
+	}
+
+	/**
+	 * Look 'key' up in memory only, without counting a hit or miss or marking the entry as used
+	 * @param key the cache key
+	 * @return the value in memory (which may be stale, see setRefreshAhead), or null if there is none or it has expired
+	 */
+	public GeocodedLocation peek(String key) {
+		Entry e = map.get(key);
+		RefreshAhead ra = refreshAhead;
+		return ((e != null) && (! e.isExpired(System.currentTimeMillis(), (ra != null) ? ra.staleMillis : 0L))) ? e.value : null;
+	}
+
+	/**
+	 * Put 'value' into the cache with the default time to live
+	 * @param key the cache key
+	 * @param value the result to cache
+	 */
+	public void put(String key, GeocodedLocation value) {
+		put(key, value, ttlMillis);
+	}
+
+	/**
+	 * Put 'value' into the cache with its own time to live
+	 * @param key the cache key
+	 * @param value the result to cache
+	 * @param ttlMillis how long the entry lives, or NO_EXPIRY
+	 */
+	public void put(String key, GeocodedLocation value, long ttlMillis) {
+		put(key, null, value, ttlMillis);
+	}
+
+	/**
+	 * Put 'value' into the cache with its own time to live, noting the place name it was looked up with, for refresh-ahead
+	 * @param key the cache key
+	 * @param placeName the place name 'value' was looked up with, as the caller gave it, or null if it is not known (the entry is then not refreshed)
+	 * @param value the result to cache
+	 * @param ttlMillis how long the entry lives, or NO_EXPIRY
+	 */
+	public void put(String key, String placeName, GeocodedLocation value, long ttlMillis) {
+		CachePutEvent event = new CachePutEvent();
+		event.begin();
+		long now = System.currentTimeMillis();
+		long expiresAt = (ttlMillis == NO_EXPIRY) ? Long.MAX_VALUE : now + ttlMillis;
+		admit(new Entry(key, placeName, value, expiresAt, ttiMillis, now));
+		boolean persisted = false;
+		if (store != null) {
+			try {
+				store.store(key, value, expiresAt);
+				persisted = true;
+			}
+			catch (IOException ioe) {
+				storeErrors.increment();
+			}
+		}
+		event.end(key, value, ttlMillis, persisted);
+	}
+
+	/**
+	 * Remove 'key' from both tiers
+	 * @param key the cache key
+	 */
+	public void remove(String key) {
+		synchronized (evictionLock) {
+			Entry e = map.remove(key);
+			if (e != null)
+				unlink(e);
+		}
+		removeStored(key);
+	}
+
+	/**
+	 * Remove every expired entry from both tiers. Expired entries are also removed
+	 * when they are read, so this only matters for entries that are not read again
+	 * @return the number of entries removed from memory
+	 */
+	public int evictExpired() {
+		long now = System.currentTimeMillis();
+		RefreshAhead ra = refreshAhead;
+		long staleMillis = (ra != null) ? ra.staleMillis : 0L;
+		int removed = 0;
+		for (Entry e : map.values()) {
+			if (e.isExpired(now, staleMillis) && expire(e))
+				removed++;
+		}
+		if (store != null) {
+			try {
+				store.removeExpired(now);
+			}
+			catch (IOException ioe) {
+				storeErrors.increment();
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Switch on refresh-ahead. An entry read when less than 'refreshAheadFraction' of its time
+	 * to live is left is refreshed by 'refresher', once at a time, while readers go on getting
+	 * the old value. An entry is kept in memory for 'staleIfErrorMillis' after its time to live,
+	 * and read in that time it is returned as it is, and refreshed. The refresher should not
+	 * replace a good entry with a failure (CachingGeocoder does not), so a failed refresh leaves
+	 * the old value to be read until its stale-if-error time runs out. After a refresh that did not
+	 * replace the entry, it is not refreshed again for MIN_REFRESH_RETRY_MILLIS, doubling with
+	 * each failure in a row up to MAX_REFRESH_RETRY_MILLIS.<br />
+	 * Entries that never expire, and entries with no place name (see put), are not refreshed,
+	 * and are not used after their time to live. The persistent tier is not affected: it drops
+	 * entries when their time to live runs out.
+	 * @param refreshAheadFraction the last part of an entry's time to live in which a read refreshes it, from 0.0 (only once stale) to 1.0
+	 * @param staleIfErrorMillis how long an entry stays usable after its time to live
+	 * @param refresher does the refreshing
+	 * @throws GeocoderException if refreshAheadFraction is not from 0.0 to 1.0, staleIfErrorMillis < 0, or refresher is null
+	 */
+	public void setRefreshAhead(double refreshAheadFraction, long staleIfErrorMillis, CacheRefresher refresher)
+	throws GeocoderException {
+		if ((! (refreshAheadFraction >= 0.0D)) || (refreshAheadFraction > 1.0D) || (staleIfErrorMillis < 0L) || (refresher == null))
+			throw new GeocoderException("Invalid parameter");
+		refreshAhead = new RefreshAhead(refreshAheadFraction, staleIfErrorMillis, refresher);
+	}
+
+	/**
+	 * Switch refresh-ahead off. Stale entries expire when next read or swept
+	 */
+	public void clearRefreshAhead() {
+		refreshAhead = null;
+	}
+
+	/**
+	 * Write the entries in memory that have not expired to a snapshot file, sorted by key,
+	 * with how often each key has been asked for recently. The file is written under another
+	 * name and moved into place when it is complete, so a snapshot being read is never half written.
+	 * The cache can be used while the snapshot is written
+	 * @param file the snapshot file, replaced if it exists
+	 * @return the number of entries written
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public long exportSnapshot(File file)
+	throws IOException {
+		long now = System.currentTimeMillis();
+		ArrayList<Entry> entries = new ArrayList<Entry>(map.size());
+		for (Entry e : map.values()) {
+			if ((e.expiresAt > now) && (! e.value.isPartial()))
+				entries.add(e);
+		}
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry e1, Entry e2) {
+				return e1.key.compareTo(e2.key);
+			}
+		});
+		CacheSnapshot.Writer writer = new CacheSnapshot.Writer(file, entries.size());
+		try {
+			for (Entry e : entries)
+				writer.add(e.key, e.value, e.expiresAt, sketch.frequency(e.key.hashCode()));
+			return writer.close();
+		}
+		catch (IOException ioe) {
+			writer.abort();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Fill the in-memory tier from a snapshot written by exportSnapshot(), reading it through
+	 * memory-mapped blocks on 'threads' threads. Entries that have expired since the snapshot
+	 * was written are skipped, and entries already in memory are kept. Each key's recent
+	 * frequency is carried over, so if the snapshot holds more entries than fit in memory, the
+	 * admission policy keeps the popular ones. Nothing is written to the persistent tier
+	 * @param file the snapshot file
+	 * @param threads the number of threads to read with
+	 * @return the number of entries offered to the in-memory tier (the admission policy may turn some away)
+	 * @throws IOException if the file is not a snapshot or is damaged. The blocks that could be read are still loaded
+	 * @throws GeocoderException if file is null or threads < 1
+	 */
+	public long loadSnapshot(File file, int threads)
+	throws IOException, GeocoderException {
+		if ((file == null) || (threads < 1))
+			throw new GeocoderException("Invalid parameter");
+		SnapshotLoader loader = new SnapshotLoader(System.currentTimeMillis());
+		CacheSnapshot.read(file, threads, loader);
+		if (loader.secondPass) // then as many of the entries at the cut as fit
+			CacheSnapshot.read(file, threads, loader);
+		return loader.loaded.sum();
+	}
+
+	/**
+	 * @return the number of entries in memory
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * @return the most entries held in memory
+	 */
+	public int getMaxElementsInMemory() {
+		return maxElements;
+	}
+
+	/**
+	 * @return the default time to live, or NO_EXPIRY
+	 */
+	public long getTimeToLiveMillis() {
+		return ttlMillis;
+	}
+
+	/**
+	 * @return the time to idle, or NO_EXPIRY
+	 */
+	public long getTimeToIdleMillis() {
+		return ttiMillis;
+	}
+
+	/**
+	 * @return the persistent tier, or null if there is none
+	 */
+	public CacheStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return a snapshot of the cache's counters
+	 */
+	public CacheStatistics getStatistics() {
+		return new CacheStatistics(map.size(), (store != null) ? store.size() : 0,
+				inMemoryHits.sum(), onDiskHits.sum(), misses.sum(),
+				evictions.sum(), expirations.sum(), storeErrors.sum(),
+				refreshes.sum(), staleHits.sum());
+	}
+
+	/**
+	 * @return a live view of the cache's counters, to register with JMX (see CachingGeocoder.registerMBeans)
+	 */
+	public GeocodeCacheMXBean getMXBean() {
+		return new MXBean();
+	}
+
+	/**
+	 * Flush and close the persistent tier, if there is one. The in-memory tier can still be used
+	 */
+	public void close() {
+		if (store != null) {
+			try {
+				store.close();
+			}
+			catch (IOException ioe) {
+				storeErrors.increment();
+			}
+		}
+	}
+
+	public String toString() {
+		return "GeocodeCache [maxElementsInMemory=" + maxElements + ", ttlMillis=" + ttlMillis
+				+ ", ttiMillis=" + ttiMillis + ", " + getStatistics() + "]";
+	}
+
+
+	/**
+	 * Put 'e' into memory, in the admission window, then move entries on out of the
+	 * window until it is back within its size, admitting each to the main region or
+	 * dropping it, as its frequency decides
+	 */
+	private void admit(Entry e) {
+		synchronized (evictionLock) {
+			Entry old = map.put(e.key, e);
+			if (old != null)
+				unlink(old);
+			window.add(e);
+			windowCount++;
+			while (windowCount > windowMax) {
+				Entry candidate = pollLive(window);
+				windowCount--;
+				if (mainCount < mainMax) {
+					candidate.inMain = true;
+					main.add(candidate);
+					mainCount++;
+					continue;
+				}
+				Entry victim = clockVictim();
+				if ((victim != null) && (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode()))) {
+					drop(victim);
+					candidate.inMain = true;
+					main.add(candidate);
+					mainCount++;
+				}
+				else {
+					if (victim != null)
+						main.addFirst(victim); // still the next to go
+					candidate.dead = true;
+					map.remove(candidate.key, candidate);
+				}
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * @return the next entry in 'queue' that has not been removed or replaced. Guarded by evictionLock
+	 */
+	private static Entry pollLive(ArrayDeque<Entry> queue) {
+		Entry e;
+		while (((e = queue.poll()) != null) && e.dead)
+			;
+		return e;
+	}
+
+	/**
+	 * Sweep the main region's CLOCK: entries read since the hand last passed get a second
+	 * chance, the first one that was not is taken off the queue and returned, still counted
+	 * in mainCount. Guarded by evictionLock
+	 * @return the victim, or null if the main region is empty
+	 */
+	private Entry clockVictim() {
+		// readers can mark entries again behind the hand, so give up after two full turns
+		for (int turns = 2 * main.size() + 1; turns > 0; turns--) {
+			Entry e = pollLive(main);
+			if (e == null)
+				return null;
+			if (! e.referenced)
+				return e;
+			e.referenced = false;
+			main.add(e);
+		}
+		return pollLive(main);
+	}
+
+	/**
+	 * Evict a main region victim taken off the queue by clockVictim(). Guarded by evictionLock
+	 */
+	private void drop(Entry victim) {
+		victim.dead = true;
+		mainCount--;
+		map.remove(victim.key, victim);
+	}
+
+	/**
+	 * Account for an entry that has left the map. It stays in its queue, marked dead, until
+	 * the queue comes round to it. Guarded by evictionLock
+	 */
+	private void unlink(Entry e) {
+		e.dead = true;
+		if (e.inMain)
+			mainCount--;
+		else
+			windowCount--;
+	}
+
+	/**
+	 * Remove an expired entry from both tiers, unless it has already been removed or replaced
+	 * @return true if this call removed it
+	 */
+	private boolean expire(Entry e) {
+		synchronized (evictionLock) {
+			if (! map.remove(e.key, e))
+				return false;
+			unlink(e);
+		}
+		expirations.increment();
+		removeStored(e.key); // so an entry that idled out is not brought back from the store
+		return true;
+	}
+
+	/**
+	 * Start a refresh of 'e', unless one is already running, it has no place name to look up, or it is backing off after a failed refresh
+	 */
+	private void refresh(final Entry e, RefreshAhead ra, long now) {
+		if ((e.placeName == null) || (now < e.retryAt) || (! Entry.REFRESHING.compareAndSet(e, 0, 1)))
+			return;
+		refreshes.increment();
+		try {
+			ra.refresher.refresh(e.key, e.placeName).whenComplete((result, t) -> refreshed(e));
+		}
+		catch (RuntimeException re) { // e.g. the refresher's executor is full; a read after the backoff will try again
+			refreshed(e);
+		}
+	}
+
+	/**
+	 * A refresh of 'e' is over. If 'e' is still the entry for its key, the refresh failed (or its result was not put),
+	 * so 'e' backs off before it is refreshed again
+	 */
+	private void refreshed(Entry e) {
+		if (map.get(e.key) == e) {
+			long backoff = MIN_REFRESH_RETRY_MILLIS << Math.min(e.failedRefreshes++, 16);
+			e.retryAt = System.currentTimeMillis() + Math.min(backoff, MAX_REFRESH_RETRY_MILLIS);
+		}
+		e.refreshing = 0;
+	}
+
+	private void removeStored(String key) {
+		if (store != null) {
+			try {
+				store.remove(key);
+			}
+			catch (IOException ioe) {
+				storeErrors.increment();
+			}
+		}
+	}
+
+
+	/**
+	 * Loads a snapshot into memory, for loadSnapshot(). If the snapshot holds more entries than
+	 * there is room for, the first pass loads only the frequencies above the one at which they
+	 * would no longer all fit, the cut, and a second pass then fills the rest of the room with
+	 * entries at the cut. So the admission policy is not left to choose between a great many
+	 * entries of the same frequency, which it does badly
+	 */
+	private final class SnapshotLoader implements CacheSnapshot.Visitor {
+		final long now;
+		final LongAdder loaded = new LongAdder();
+		int pass;
+		// the frequency at which the entries no longer all fit, loaded only while there is room; or -1
+		int cut = -1;
+		// true if the entries at the cut are loaded in a second pass
+		boolean secondPass;
+
+		SnapshotLoader(long now) {
+			this.now = now;
+		}
+
+		public int minimumFrequency(long[] entriesByFrequency) {
+			if (++pass == 2)
+				return cut;
+			long room = maxElements - map.size();
+			long entries = 0L;
+			for (int f = entriesByFrequency.length - 1; f >= 0; f--) {
+				entries += entriesByFrequency[f];
+				if (entries > room) {
+					cut = f;
+					secondPass = (entries > entriesByFrequency[f]);
+					return secondPass ? f + 1 : f;
+				}
+			}
+			return 0;
+		}
+
+		public void entry(String key, GeocodedLocation value, long expiresAt, int frequency) {
+			if ((expiresAt <= now) || map.containsKey(key))
+				return;
+			if ((frequency == cut) && (map.size() >= maxElements))
+				return;
+			if ((pass == 2) && (frequency != cut))
+				return;
+			sketch.restore(key.hashCode(), frequency);
+			Entry e = new Entry(key, null, value, expiresAt, ttiMillis, now);
+			synchronized (evictionLock) {
+				if (map.containsKey(key)) // put since the check above
+					return;
+				admit(e);
+			}
+			loaded.increment();
+		}
+	}
+
+
+	/**
+	 * The refresh-ahead settings
+	 */
+	private static final class RefreshAhead {
+		final double fraction;
+		final long staleMillis;
+		final CacheRefresher refresher;
+
+		RefreshAhead(double fraction, long staleMillis, CacheRefresher refresher) {
+			this.fraction = fraction;
+			this.staleMillis = staleMillis;
+			this.refresher = refresher;
+		}
+	}
+
+
+	/**
+	 * One cached result. The value and times are fixed; the access time, referenced
+	 * bit and refreshing flag are written by readers, without a lock
+	 */
+	private static final class Entry {
+		static final AtomicIntegerFieldUpdater<Entry> REFRESHING = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "refreshing");
+
+		final String key;
+		final String placeName; // as the caller gave it, or null if not known
+		final GeocodedLocation value;
+		final long createdAt;
+		final long expiresAt;
+		final long ttiMillis;
+		volatile long accessedAt;
+		volatile boolean referenced;
+		volatile int refreshing; // 1 while a refresh is running
+		volatile long retryAt; // no refresh before this, after a failed one
+		int failedRefreshes; // in a row; written only by the refresh that holds 'refreshing'
+		// guarded by evictionLock
+		boolean inMain;
+		boolean dead;
+
+		Entry(String key, String placeName, GeocodedLocation value, long expiresAt, long ttiMillis, long now) {
+			this.key = key;
+			this.placeName = placeName;
+			this.value = value;
+			this.expiresAt = expiresAt;
+			this.ttiMillis = ttiMillis;
+			this.createdAt = now;
+			this.accessedAt = now;
+		}
+
+		/**
+		 * @param staleMillis how long after its time to live the entry is still usable, if it can be refreshed
+		 */
+		boolean isExpired(long now, long staleMillis) {
+			if (placeName == null) // cannot be refreshed, so is never used stale
+				staleMillis = 0L;
+			return ((expiresAt != Long.MAX_VALUE) && (now - staleMillis >= expiresAt))
+				|| ((ttiMillis != NO_EXPIRY) && (now - accessedAt >= ttiMillis));
+		}
+
+		/**
+		 * @return when a read should start a refresh, the last 'fraction' of the time to live
+		 */
+		long refreshAt(double fraction) {
+			if (expiresAt == Long.MAX_VALUE)
+				return Long.MAX_VALUE;
+			return expiresAt - (long) ((expiresAt - createdAt) * fraction);
+		}
+
+		/**
+		 * Note a read, writing the shared fields only when they change
+		 */
+		void touch(long now) {
+			if (! referenced)
+				referenced = true;
+			if ((ttiMillis != NO_EXPIRY) && (accessedAt != now))
+				accessedAt = now;
+		}
+	}
+
+
+	/**
+	 * The JMX view of this cache, reading the counters as they are when asked
+	 */
+	private final class MXBean implements GeocodeCacheMXBean {
+		public int getMaxElementsInMemory() {
+			return maxElements;
+		}
+
+		public long getObjectCount() {
+			return map.size();
+		}
+
+		public long getOnDiskObjectCount() {
+			return (store != null) ? store.size() : 0;
+		}
+
+		public long getInMemoryHits() {
+			return inMemoryHits.sum();
+		}
+
+		public long getOnDiskHits() {
+			return onDiskHits.sum();
+		}
+
+		public long getCacheMisses() {
+			return misses.sum();
+		}
+
+		public double getHitRatio() {
+			return getStatistics().getHitRatio();
+		}
+
+		public long getStaleHits() {
+			return staleHits.sum();
+		}
+
+		public long getRefreshes() {
+			return refreshes.sum();
+		}
+
+		public long getEvictions() {
+			return evictions.sum();
+		}
+
+		public long getExpirations() {
+			return expirations.sum();
+		}
+
+		public long getStoreErrors() {
+			return storeErrors.sum();
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.challengeandresponse.geo.geocoder;
+
+/**
+ * The JMX view of a GeocodeCache: its size and its hits and misses, by tier, as in
+ * CacheStatistics. See GeocodeCache.getMXBean() and CachingGeocoder.registerMBeans().
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public interface GeocodeCacheMXBean {
+
+	/**
+	 * @return the most entries kept in memory
+	 */
+	public int getMaxElementsInMemory();
+
+	/**
+	 * @return the number of entries in memory
+	 */
+	public long getObjectCount();
+
+	/**
+	 * @return the number of entries in the persistent store, or 0 if there is none
+	 */
+	public long getOnDiskObjectCount();
+
+	/**
+	 * @return the number of lookups answered from memory
+	 */
+	public long getInMemoryHits();
+
+	/**
+	 * @return the number of lookups answered from the persistent store
+	 */
+	public long getOnDiskHits();
+
+	/**
+	 * @return the number of lookups that found nothing in either tier
+	 */
+	public long getCacheMisses();
+
+	/**
+	 * @return hits in either tier / all lookups, or 0.0 if there have been none
+	 */
+	public double getHitRatio();
+
+	/**
+	 * @return the number of lookups answered with an entry past its time to live, inside the stale-if-error time
+	 */
+	public long getStaleHits();
+
+	/**
+	 * @return the number of refresh-ahead lookups started
+	 */
+	public long getRefreshes();
+
+	/**
+	 * @return the number of entries evicted from memory to make room
+	 */
+	public long getEvictions();
+
+	/**
+	 * @return the number of entries removed from memory because they expired
+	 */
+	public long getExpirations();
+
+	/**
+	 * @return the number of failed reads and writes of the persistent store
+	 */
+	public long getStoreErrors();
+
+}
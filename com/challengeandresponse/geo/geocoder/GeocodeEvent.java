@@ -0,0 +1,74 @@
+package com.challengeandresponse.geo.geocoder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+
+/**
+ * A JDK Flight Recorder event for one lookup by a Geocoder: the walk down the chain of
+ * geocoders for one place name, from geocode(), geocodeAsync() or geocodeAll(). The calls it
+ * made to each geocoder are ProviderCallEvents in the same thread and time span (except
+ * for geocodeAsync(), whose calls run on other threads).
+ * 
+ * <p>Only lookups that take at least the threshold (20 ms by default; set
+ * com.challengeandresponse.geo.Geocode#threshold in the recording's settings) are recorded.
+ * When no recording has the event enabled, begin() and end() do nothing and the fields are
+ * never filled in, so a lookup pays almost nothing for it.</p>
+ * 
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+@Name("com.challengeandresponse.geo.Geocode")
+@Label("Geocode")
+@Category({"Geocoder"})
+@Description("A lookup of one place name down the chain of geocoders")
+@StackTrace(false)
+@Threshold("20 ms")
+public class GeocodeEvent extends jdk.jfr.Event {
+
+	@Label("Place Name")
+	String placeName;
+
+	@Label("Input Class")
+	String inputClass;
+
+	@Label("Status")
+	@Description("The StatusCode of the result")
+	int status;
+
+	@Label("Precision")
+	@Description("The PrecisionCode (accuracy) of the result")
+	int precision;
+
+	@Label("Geocoder")
+	@Description("The geocoder that answered")
+	String geocoder;
+
+
+	/**
+	 * End the event and commit it, if it is recorded
+	 * @param placeName the place name looked up
+	 * @param gcl the result, or null if the lookup failed
+	 */
+	void end(String placeName, GeocodedLocation gcl) {
+		end();
+		if (shouldCommit()) {
+			this.placeName = placeName;
+			this.inputClass = InputClass.getText(InputClassifier.classify(placeName));
+			if (gcl != null) {
+				status = gcl.getServerResponse();
+				precision = gcl.getAccuracy();
+				geocoder = gcl.getGeocoder();
+			}
+			else
+				status = StatusCode.G_GEOCODER_ERROR;
+			commit();
+		}
+	}
+
+}
@@ -1,8 +1,37 @@
 package com.challengeandresponse.geo.geocoder;
 
 import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.ObjectName;
 
 import com.challengeandresponse.geo.data.GeocodedLocation;
 import com.challengeandresponse.geo.geocoders.*;
@@ -18,10 +47,57 @@ import com.challengeandresponse.geo.geocoders.*;
  * is provided to force a geocoder into position N of the calling sequence.</p>
  * 
  * <p>If a geocoder provides a "success" response (see StatusCode class), this response
- * is returned and no more geocoders are called. If at least one geocoder is called
- * but no geocoder returns a GeocodedLocation object with a success value, then
- * the reponse from the last geocoder called is returned. If no geocoders were
- * called, then a GeocodedLocation with GEO_UNKNOWN_ADDRESS as its status is returned.</p>
+ * is returned and no more geocoders are called. If no geocoder succeeds, the response is
+ * a GeocodedLocation for the place name, with no position, whose status says why:
+ * GEO_UNKNOWN_ADDRESS if any geocoder said it could not locate the place name;
+ * G_COMM_ERROR if the geocoders that answered all failed with transient errors (see
+ * StatusCode.isTransientError); G_NOT_CONSULTED if no geocoder answered at all, because
+ * none handles the place name's input class or every one turned it away (rate limits,
+ * open circuit breakers); or G_DEADLINE_EXCEEDED if no geocoder answered because a time
+ * budget ran out (see geocode(String,Duration)).</p>
+ * 
+ * <p>Optionally, setFanOut() switches on a hedged parallel mode: the query is sent to
+ * several geocoders at once on a bounded executor, and the result of the most-preferred
+ * geocoder that succeeds is returned as soon as it is known. Preference order is the
+ * same as in the sequential mode, so the answer does not change, only the latency.</p>
+ * 
+ * <p>Each place name is first tagged by InputClassifier (lat/lon, IPv4, postcode or
+ * free text), and is sent only to the geocoders that handle that input class (see
+ * GeocoderI.getInputClasses() and setInputClasses()), so e.g. free text never reaches the
+ * LatLonGeocoder or IPV4Geocoder.</p>
+ * 
+ * <p>Large jobs can use geocodeAll(), which geocodes each distinct place name in a
+ * batch once, in parallel, with a cap on the calls in flight to each geocoder.</p>
+ * 
+ * <p>Concurrent geocode() and geocodeAsync() calls for the same place name (once
+ * normalized by the KeyNormalizer, see setKeyNormalizer) are coalesced: one call walks the chain, and the others
+ * wait for and share its result (see SingleFlight).</p>
+ * 
+ * <p>Every geocoder call is timed, and the latency and success rate of each geocoder
+ * are tracked per input class (see ProviderStats). setAdaptiveOrdering() lets those
+ * numbers reorder the chain, so the geocoders that answer fastest and most often for
+ * a kind of input are asked first.</p>
+ * 
+ * <p>Optionally, setRejectFilter() keeps a RejectFilter of the place names that every
+ * geocoder has said it cannot locate, several times. Those are answered with
+ * GEO_UNKNOWN_ADDRESS at once, without calling the geocoders, until the filter's counts
+ * decay and the place name is checked again.</p>
+ * 
+ * <p>For monitoring, the calls to each geocoder are also counted, by StatusCode, with
+ * their latency, the calls in flight and the rate at which lookups fall through to the
+ * next geocoder; and so are this Geocoder's own lookups (see ProviderMetrics). Recording
+ * takes no locks and allocates nothing. getMetrics() returns a snapshot of them all, and
+ * registerMBeans() publishes them through JMX.</p>
+ * 
+ * <p>For profiling, each lookup and each call to a geocoder is also a JDK Flight Recorder
+ * event (GeocodeEvent, ProviderCallEvent), recorded when it takes longer than the event's
+ * threshold, so a slow request in a continuous recording can be traced to the geocoder
+ * that held it up.</p>
+ * 
+ * <p>geocode(String,Duration) puts a time budget on the whole lookup: each geocoder is
+ * given only the time that is left, geocoders that are not expected to answer in that
+ * time are passed over, and when the time runs out the best result so far is returned,
+ * marked as partial (see GeocodedLocation.isPartial()).</p>
  * 
  * <p>Brilliant!</p>
  * 
@@ -33,19 +109,91 @@ import com.challengeandresponse.geo.geocoders.*;
  * REVISION HISTORY
  * 0.21 2007-02-02 Updated for LLH version of GeocodedLocation
  * 0.31 2009-11-06 Updated to use the simpler geo.data objects
+ * 0.32 2026-10-16 Added the optional hedged fan-out mode (setFanOut)
+ * 0.33 2026-10-16 Added geocodeAsync(), composing the geocoders' own geocodeAsync() methods
+ * 0.34 2026-10-16 Added geocodeAll() for de-duplicated, bounded-parallel batches
+ * 0.35 2026-10-16 Routes each place name to the geocoders for its InputClass
+ * 0.36 2026-10-16 Credits results through FilterGeocoder wrappers such as CircuitBreakerGeocoder
+ * 0.37 2026-10-16 Tracks per-geocoder latency and success rate; added adaptive ordering (setAdaptiveOrdering)
+ * 0.38 2026-10-16 Returns G_NOT_CONSULTED, not GEO_UNKNOWN_ADDRESS, when every geocoder turned the place name away
+ * 0.39 2026-10-16 Coalesces concurrent lookups of the same place name (SingleFlight)
+ * 0.40 2026-10-17 Added geocode(String,Duration), with a time budget passed down the chain and partial results
+ * 0.41 2026-10-17 Keys are made by a pluggable KeyNormalizer (setKeyNormalizer), by default DefaultKeyNormalizer
+ * 0.42 2026-10-17 Returns G_COMM_ERROR, not GEO_UNKNOWN_ADDRESS, when the geocoders that answered all failed with transient errors
+ * 0.43 2026-10-17 Counts calls and lookups by status, with latency histograms (ProviderMetrics, getMetrics), published through JMX (registerMBeans)
+ * 0.44 2026-10-17 Lookups and geocoder calls are JFR events (GeocodeEvent, ProviderCallEvent)
+ * 0.45 2026-10-17 Added setRejectFilter(), to answer place names every geocoder keeps rejecting without calling them
  */
 
 public class Geocoder implements GeocoderI {
 	public static final String	PRODUCT_SHORT 	= "Geocoder";
 	public static final String PRODUCT_LONG	= "Challenge/Response Geocoder";
-	public static final String	VERSION_SHORT	= "0.31";
+	public static final String	VERSION_SHORT	= "0.45";
 	public static final String	VERSION_LONG 	=  PRODUCT_LONG + " " + VERSION_SHORT;
 	public static final String	COPYRIGHT		= "Copyright (c) 2007-2009 Challenge/Response, LLC, Cambridge, MA";
 
+	/** Default number of distinct place names geocodeAll() resolves at once */
+	public static final int DEFAULT_BATCH_THREADS = 16;
+	/** Default cap on the geocodeAll() calls in flight to any one geocoder */
+	public static final int DEFAULT_BATCH_CONCURRENCY = 4;
+
 	private Vector <GeocoderI> geocoders;
 
+	// hedged fan-out settings, null when the chain is walked sequentially
+	private volatile FanOut fanOut;
+
+	// geocodeAll() settings
+	private int batchThreads;
+	private int defaultBatchConcurrency;
+	private Hashtable <GeocoderI, Integer> batchConcurrency;
+
+	// input classes set by setInputClasses(), overriding the geocoders' own getInputClasses()
+	private Hashtable <GeocoderI, Integer> inputClasses;
+
+	// observed latency and success rate of each geocoder, and the adaptive ordering settings
+	private ConcurrentHashMap <GeocoderI, ProviderStats> stats;
+	private volatile boolean adaptiveOrdering;
+	private volatile int pinned;
+
+	// the geocode() and geocodeAsync() lookups in flight, by normalized place name
+	private SingleFlight <String, GeocodedLocation> inFlight;
+
+	// makes the keys for coalescing, batches and caching
+	private volatile KeyNormalizer keyNormalizer;
+
+	// the keys every geocoder keeps rejecting, or null
+	private volatile RejectFilter rejectFilter;
+
+	// internal failure() states: every geocoder that answered said GEO_UNKNOWN_ADDRESS, and none turned the place name away;
+	// and no geocoder has answered, but at least one turned the place name away
+	private static final int ALL_UNKNOWN = -1;
+	private static final int REFUSED = -2;
+
+	// call counters and latency of each geocoder, and of this Geocoder's own lookups
+	private ConcurrentHashMap <GeocoderI, ProviderMetrics> metrics;
+	private ProviderMetrics lookupMetrics;
+
+	// the name the MBeans are registered under, or null, and the MBeans registered, in order
+	private volatile String mbeanName;
+	private LinkedHashMap <Object, ObjectName> mbeans;
+
 	public Geocoder() { 
 		geocoders = new Vector <GeocoderI>();
+		fanOut = null;
+		batchThreads = DEFAULT_BATCH_THREADS;
+		defaultBatchConcurrency = DEFAULT_BATCH_CONCURRENCY;
+		batchConcurrency = new Hashtable <GeocoderI, Integer>();
+		inputClasses = new Hashtable <GeocoderI, Integer>();
+		stats = new ConcurrentHashMap <GeocoderI, ProviderStats>();
+		adaptiveOrdering = false;
+		pinned = 0;
+		inFlight = new SingleFlight <String, GeocodedLocation>();
+		keyNormalizer = new DefaultKeyNormalizer();
+		rejectFilter = null;
+		metrics = new ConcurrentHashMap <GeocoderI, ProviderMetrics>();
+		lookupMetrics = new ProviderMetrics(geocoderID(this));
+		mbeanName = null;
+		mbeans = new LinkedHashMap <Object, ObjectName>();
 	}
 	
 	public String getVersion() {
@@ -55,29 +203,145 @@ public class Geocoder implements GeocoderI {
 	/**
 	 * Step through all geocoders to try to Geocode the provided address, returning a GeocodedLocation with a status code indicating how things went
 	 * @param placeName The placeName to geocode
-	 * @return a GeocodedLocation object indicating the lat/lon of the address, accuracy, and server response code; if the lookup fails but at least one geocoder was consulted,this method returns the result from the last geocoder called. If no geocoders were called, it returns a GeocodedLocation object with GEO_UNKNOWN_ADDRESS as the status
+	 * If another thread is already geocoding the same place name (once normalized), this call
+	 * waits for that one and returns the same GeocodedLocation object, instead of calling the geocoders again.
+	 * @return a GeocodedLocation object indicating the lat/lon of the address, accuracy, and server response code. If no geocoder succeeded, it returns a GeocodedLocation object with GEO_UNKNOWN_ADDRESS as the status, G_COMM_ERROR if every geocoder that answered failed with a transient error (see StatusCode.isTransientError), or G_NOT_CONSULTED if every geocoder turned the place name away (see StatusCode.isRefused) so nothing is known about it
 	 */	
-	public GeocodedLocation geocode(String placeName) {
-		// try the registered geocoders
-		Iterator <GeocoderI> i = geocoders.iterator();
-		while (i.hasNext()) {
-			 GeocoderI gc = i.next();
-			 GeocodedLocation gcl = gc.geocode(placeName);
+	public GeocodedLocation geocode(final String placeName) {
+		final String key = normalizeKey(placeName);
+		return inFlight.run(key, () -> {
+			GeocodedLocation rejected = rejected(key, placeName);
+			if (rejected != null)
+				return rejected;
+			GeocodeEvent event = new GeocodeEvent();
+			event.begin();
+			long start = lookupMetrics.begin();
+			GeocodedLocation gcl = null;
+			try {
+				gcl = resolve(placeName);
+			}
+			finally {
+				endLookup(start, event, placeName, gcl);
+			}
+			storeResult(key, placeName, gcl);
+			return gcl;
+		});
+	}
+
+	/**
+	 * Walk the chain for geocode(String)
+	 */
+	private GeocodedLocation resolve(String placeName) {
+		int inputClass = InputClassifier.classify(placeName);
+		FanOut fo = fanOut;
+		if (fo != null)
+			return geocodeFanOut(placeName, inputClass, chain(inputClass), fo, false, 0L);
+		
+		// try the registered geocoders for this kind of input
+		int failure = StatusCode.G_NOT_CONSULTED;
+		for (GeocoderI gc : chain(inputClass)) {
+			 GeocodedLocation gcl = call(gc, placeName, inputClass);
 			// return the first successful result, as the geocoders are in preference order
 			if (gcl.isOK()) {
-				gcl.setGeocoder(gc.getClass().getName()+" "+gc.getVersion());
+				gcl.setGeocoder(geocoderID(gc));
 				return gcl;
 			}
+			failure = failure(failure, gcl);
 		}
 		// if it fell through to here, the result was not success
-		GeocodedLocation gcl = new GeocodedLocation(
-				placeName.trim(),
-				StatusCode.GEO_UNKNOWN_ADDRESS,PrecisionCode.UNKNOWN_LOCATION,
-				"",0.0D,0.0D,0.0D);
-		gcl.setGeocoder(this.getClass().getName()+" "+this.getVersion());
+		return unknownLocation(placeName, failure);
+	}
+
+
+	/**
+	 * Version of geocode(String) with an overall time budget. Each geocoder is given only the
+	 * time left in the budget (see GeocoderI.geocode(String,Duration)), and a geocoder whose
+	 * observed latency for this kind of input (see ProviderStats) is more than the time left is
+	 * passed over, so the budget is not spent on a call that cannot finish. In fan-out mode the
+	 * hedging works as in geocode(String), within the budget.<br />
+	 * If the budget runs out, or a geocoder is passed over, before the most-preferred geocoder that
+	 * would succeed has answered, the best result found so far is returned with its partial flag set:
+	 * the success of a less-preferred geocoder if there is one, otherwise a failure as for geocode(String)
+	 * (or G_DEADLINE_EXCEEDED if no geocoder answered at all). Partial results are not stored (e.g. not
+	 * cached by CachingGeocoder), as the full chain might have given a better answer.<br />
+	 * If another thread is already geocoding the same place name, this call waits for it, but
+	 * no longer than the budget allows. A lookup with a budget is not itself shared with other
+	 * callers, as its result may be partial.
+	 * @param placeName The placeName to geocode
+	 * @param deadline the time budget for the whole lookup
+	 * @return a GeocodedLocation object as for geocode(String), with isPartial() true if the budget cut the lookup short
+	 * @throws IllegalArgumentException if deadline is null
+	 */
+	public GeocodedLocation geocode(String placeName, Duration deadline) {
+		if (deadline == null)
+			throw new IllegalArgumentException("Invalid parameter");
+		long deadlineAt = System.nanoTime() + budgetNanos(deadline);
+		String key = normalizeKey(placeName);
+		CompletableFuture<GeocodedLocation> flight = inFlight.get(key);
+		if (flight != null) {
+			try {
+				return flight.get(deadlineAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+			catch (TimeoutException te) {
+				return unknownLocation(placeName, StatusCode.G_NOT_CONSULTED, true);
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return unknownLocation(placeName, StatusCode.G_NOT_CONSULTED, true);
+			}
+			catch (ExecutionException ee) { // that lookup failed, so try again here
+			}
+		}
+		GeocodedLocation rejected = rejected(key, placeName);
+		if (rejected != null)
+			return rejected;
+		GeocodeEvent event = new GeocodeEvent();
+		event.begin();
+		long start = lookupMetrics.begin();
+		GeocodedLocation gcl = null;
+		try {
+			gcl = resolve(placeName, deadlineAt);
+		}
+		finally {
+			endLookup(start, event, placeName, gcl);
+		}
+		if (! gcl.isPartial())
+			storeResult(key, placeName, gcl);
 		return gcl;
 	}
 
+	/**
+	 * Walk the chain for geocode(String,Duration), finishing by 'deadlineAt' (a System.nanoTime() value)
+	 */
+	private GeocodedLocation resolve(String placeName, long deadlineAt) {
+		int inputClass = InputClassifier.classify(placeName);
+		FanOut fo = fanOut;
+		if (fo != null)
+			return geocodeFanOut(placeName, inputClass, chain(inputClass), fo, true, deadlineAt);
+
+		int failure = StatusCode.G_NOT_CONSULTED;
+		boolean partial = false;
+		for (GeocoderI gc : chain(inputClass)) {
+			long remaining = deadlineAt - System.nanoTime();
+			// pass over a geocoder that cannot answer in the time left
+			if ((remaining <= 0L) || (expectedNanos(gc, inputClass) > remaining)) {
+				partial = true;
+				continue;
+			}
+			GeocodedLocation gcl = call(gc, placeName, inputClass, Duration.ofNanos(remaining));
+			// return the first successful result, as the geocoders are in preference order; partial if a preferred one was passed over
+			if (gcl.isOK()) {
+				gcl.setGeocoder(geocoderID(gc));
+				gcl.setPartial(partial);
+				return gcl;
+			}
+			failure = failure(failure, gcl);
+			partial |= (gcl.getServerResponse() == StatusCode.G_DEADLINE_EXCEEDED);
+		}
+		// if it fell through to here, the result was not success
+		return unknownLocation(placeName, failure, partial);
+	}
+
 	
 	
 	/**
@@ -86,6 +350,19 @@ public class Geocoder implements GeocoderI {
 	 */	
 
 	public GeocodedLocation geocode(GeocodedLocation gcl) {
+		int inputClass = InputClassifier.classify(gcl.getPlaceName());
+		FanOut fo = fanOut;
+		if (fo != null) {
+			GeocodedLocation gcl2 = geocodeFanOut(gcl.getPlaceName(), inputClass, chain(inputClass), fo, false, 0L);
+			gcl.setPlaceName(gcl2.getPlaceName());
+			gcl.setServerResponse(gcl2.getServerResponse());
+			gcl.setAccuracy(gcl2.getAccuracy());
+			gcl.setCountry(gcl2.getCountryCode());
+			gcl.set(gcl2.getDoubleLatitude(), gcl2.getDoubleLongitude(), gcl2.getDoubleHeight());
+			gcl.setGeocoder(gcl2.getGeocoder());
+			return gcl;
+		}
+		
 		// if it falls through, the result was not success
 		gcl.setServerResponse(StatusCode.GEO_UNKNOWN_ADDRESS);
 		gcl.setAccuracy(PrecisionCode.UNKNOWN_LOCATION);
@@ -93,14 +370,21 @@ public class Geocoder implements GeocoderI {
 		gcl.set(0.0D,0.0D,0.0D);
 		gcl.setGeocoder(this.getClass().getName()+" "+this.getVersion());
 
-		// try the registered geocoders
-		Iterator <GeocoderI> i = geocoders.iterator();
-		while (i.hasNext()) {
-			 GeocoderI gc = i.next();
-			 gc.geocode(gcl);
+		// try the registered geocoders for this kind of input
+		for (GeocoderI gc : chain(inputClass)) {
+			ProviderMetrics pm = metrics(gc);
+			ProviderCallEvent event = new ProviderCallEvent();
+			event.start();
+			long start = pm.begin();
+			try {
+				gc.geocode(gcl);
+			}
+			finally {
+				record(gc, pm, event, inputClass, start, gcl);
+			}
 			// return the first successful result, as the geocoders are in preference order
 			if (gcl.isOK()) {
-				gcl.setGeocoder(gc.getClass().getName()+" "+gc.getVersion());
+				gcl.setGeocoder(geocoderID(gc));
 				break;
 			}
 		}
@@ -110,6 +394,334 @@ public class Geocoder implements GeocoderI {
 
 	
 
+	/**
+	 * Asynchronous version of geocode(String). The geocoders are consulted in order, as in the
+	 * sequential mode, but each one is called through its own geocodeAsync() method, so no thread is
+	 * held while a remote geocoder is working. The fan-out setting does not apply here.
+	 * Concurrent calls for the same place name share one future, as in geocode(String).
+	 * @param placeName The placeName to geocode
+	 * @return a future that completes with the first successful result, or with a GeocodedLocation object with GEO_UNKNOWN_ADDRESS (or G_COMM_ERROR or G_NOT_CONSULTED) as the status if no geocoder succeeded
+	 */
+	public CompletableFuture<GeocodedLocation> geocodeAsync(final String placeName) {
+		final String key = normalizeKey(placeName);
+		return inFlight.runAsync(key, () -> {
+			GeocodedLocation rejected = rejected(key, placeName);
+			if (rejected != null)
+				return CompletableFuture.completedFuture(rejected);
+			int inputClass = InputClassifier.classify(placeName);
+			GeocodeEvent event = new GeocodeEvent();
+			event.begin();
+			long start = lookupMetrics.begin();
+			return geocodeAsync(placeName, inputClass, chain(inputClass), 0, StatusCode.G_NOT_CONSULTED).thenApply(gcl -> {
+				endLookup(start, event, placeName, gcl);
+				storeResult(key, placeName, gcl);
+				return gcl;
+			});
+		});
+	}
+
+
+	/**
+	 * Asynchronous version of geocode(GeocodedLocation)
+	 * @param gcl The GeocodedLocation object to overwrite with fresh geocode data, based on its placeName field
+	 * @return a future that completes with 'gcl', with status code set
+	 */
+	public CompletableFuture<GeocodedLocation> geocodeAsync(final GeocodedLocation gcl) {
+		return geocodeAsync(gcl.getPlaceName()).thenApply(gcl2 -> {
+			gcl.setPlaceName(gcl2.getPlaceName());
+			gcl.setServerResponse(gcl2.getServerResponse());
+			gcl.setAccuracy(gcl2.getAccuracy());
+			gcl.setCountry(gcl2.getCountryCode());
+			gcl.set(gcl2.getDoubleLatitude(), gcl2.getDoubleLongitude(), gcl2.getDoubleHeight());
+			gcl.setGeocoder(gcl2.getGeocoder());
+			return gcl;
+		});
+	}
+
+
+	/**
+	 * Geocode a batch of place names. See geocodeAll(Collection,BatchProgressListener)
+	 * @param placeNames the place names to geocode. None may be null
+	 * @return one GeocodedLocation per place name, in the same order as 'placeNames'
+	 */
+	public List<GeocodedLocation> geocodeAll(Collection<String> placeNames) {
+		return geocodeAll(placeNames, null);
+	}
+
+
+	/**
+	 * Geocode a batch of place names. Place names that are the same once normalized
+	 * (see normalizeKey) are geocoded only once, and share one result object.
+	 * Whatever can be answered by lookupBatch() (the cache, in CachingGeocoder) is
+	 * answered first; the rest are sent down the chain of geocoders with up to
+	 * setBatchThreads() place names in flight at once, and no more than
+	 * setBatchConcurrency() calls in flight to any one geocoder.<br />
+	 * If the calling thread is interrupted, the batch is abandoned and the place names
+	 * not yet resolved are returned with G_GEOCODER_ERROR as the status. So is a place name
+	 * whose lookup threw (a geocoder or the listener threw an exception); the rest carry on.
+	 * 
+	 * @param placeNames the place names to geocode. None may be null
+	 * @param listener if non-null, told each time another distinct place name is resolved
+	 * @return one GeocodedLocation per place name, in the same order as 'placeNames'
+	 */
+	public List<GeocodedLocation> geocodeAll(Collection<String> placeNames, final BatchProgressListener listener) {
+		// de-duplicate, keeping the first spelling of each key to send to the geocoders
+		String[] keys = new String[placeNames.size()];
+		LinkedHashMap<String,String> distinct = new LinkedHashMap<String,String>();
+		int n = 0;
+		for (String placeName : placeNames) {
+			keys[n] = normalizeKey(placeName);
+			if (! distinct.containsKey(keys[n]))
+				distinct.put(keys[n], placeName);
+			n++;
+		}
+
+		// answer what we can in bulk
+		final Map<String,GeocodedLocation> resolved = new ConcurrentHashMap<String,GeocodedLocation>(lookupBatch(distinct.keySet()));
+		final int total = distinct.size();
+		final AtomicInteger completed = new AtomicInteger(resolved.size());
+		if ((listener != null) && (resolved.size() > 0))
+			listener.batchProgress(resolved.size(), total);
+
+		// send the misses to the geocoders
+		if (resolved.size() < total) {
+			final IdentityHashMap<GeocoderI,Semaphore> permits = new IdentityHashMap<GeocoderI,Semaphore>();
+			for (GeocoderI gc : chain())
+				permits.put(gc, new Semaphore(getBatchConcurrency(gc)));
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(batchThreads, total - resolved.size()),
+					new NamedThreadFactory("Geocoder-batch"));
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			List<String> futureKeys = new ArrayList<String>();
+			try {
+				for (Map.Entry<String,String> entry : distinct.entrySet()) {
+					final String key = entry.getKey();
+					final String placeName = entry.getValue();
+					if (resolved.containsKey(key))
+						continue;
+					futures.add(executor.submit(new Runnable() {
+						public void run() {
+							GeocodedLocation gcl = rejected(key, placeName);
+							if (gcl == null) {
+								GeocodeEvent event = new GeocodeEvent();
+								event.begin();
+								long start = lookupMetrics.begin();
+								try {
+									gcl = geocodeBatchEntry(placeName, permits);
+								}
+								finally {
+									endLookup(start, event, placeName, gcl);
+								}
+								if (! Thread.currentThread().isInterrupted()) // don't store what an abandoned batch made up
+									storeResult(key, placeName, gcl);
+							}
+							resolved.put(key, gcl);
+							if (listener != null)
+								listener.batchProgress(completed.incrementAndGet(), total);
+						}
+					}));
+					futureKeys.add(key);
+				}
+				for (int f = 0; f < futures.size(); f++) {
+					try {
+						futures.get(f).get();
+					}
+					catch (ExecutionException ee) { // a geocoder or the BatchProgressListener threw: that entry failed, the rest carry on
+						resolved.putIfAbsent(futureKeys.get(f), batchError(distinct.get(futureKeys.get(f))));
+					}
+				}
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				executor.shutdownNow();
+			}
+		}
+
+		// put the results back in input order
+		List<GeocodedLocation> results = new ArrayList<GeocodedLocation>(n);
+		Iterator<String> i = placeNames.iterator();
+		for (int j = 0; j < n; j++) {
+			String placeName = i.next();
+			GeocodedLocation gcl = resolved.get(keys[j]);
+			results.add((gcl != null) ? gcl : batchError(placeName));
+		}
+		return results;
+	}
+
+	/**
+	 * @return the G_GEOCODER_ERROR result of a geocodeAll() entry that failed or was not finished
+	 */
+	private GeocodedLocation batchError(String placeName) {
+		GeocodedLocation gcl = new GeocodedLocation(placeName.trim(),StatusCode.G_GEOCODER_ERROR,
+				PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		gcl.setGeocoder(this.getClass().getName()+" "+this.getVersion());
+		return gcl;
+	}
+
+
+	/**
+	 * Set the number of distinct place names that geocodeAll() resolves at once
+	 * @param threads the number of worker threads per batch. Default is DEFAULT_BATCH_THREADS
+	 * @throws GeocoderException if threads < 1
+	 */
+	public void setBatchThreads(int threads)
+	throws GeocoderException {
+		if (threads < 1)
+			throw new GeocoderException("Invalid parameter");
+		batchThreads = threads;
+	}
+
+	/**
+	 * Set the cap on the geocodeAll() calls in flight at once to a geocoder, within one batch
+	 * @param geocoder the geocoder to cap, or null to set the default for geocoders with no cap of their own
+	 * @param maxCalls the cap. Default is DEFAULT_BATCH_CONCURRENCY
+	 * @throws GeocoderException if maxCalls < 1
+	 */
+	public void setBatchConcurrency(GeocoderI geocoder, int maxCalls)
+	throws GeocoderException {
+		if (maxCalls < 1)
+			throw new GeocoderException("Invalid parameter");
+		if (geocoder == null)
+			defaultBatchConcurrency = maxCalls;
+		else
+			batchConcurrency.put(geocoder, Integer.valueOf(maxCalls));
+	}
+
+	/**
+	 * @return the cap on geocodeAll() calls in flight at once to 'geocoder'
+	 */
+	public int getBatchConcurrency(GeocoderI geocoder) {
+		Integer maxCalls = batchConcurrency.get(geocoder);
+		return (maxCalls != null) ? maxCalls.intValue() : defaultBatchConcurrency;
+	}
+
+
+	/**
+	 * Set the input classes a geocoder is sent, overriding the geocoder's own getInputClasses()
+	 * @param geocoder the geocoder
+	 * @param classes the InputClass flags, OR-ed together, for the kinds of input to send to 'geocoder'
+	 * @throws GeocoderException if geocoder is null
+	 */
+	public void setInputClasses(GeocoderI geocoder, int classes)
+	throws GeocoderException {
+		if (geocoder == null)
+			throw new GeocoderException("Invalid parameter");
+		inputClasses.put(geocoder, Integer.valueOf(classes));
+	}
+
+	/**
+	 * @return the InputClass flags for the kinds of input that are sent to 'geocoder'
+	 */
+	public int getInputClasses(GeocoderI geocoder) {
+		Integer classes = inputClasses.get(geocoder);
+		return (classes != null) ? classes.intValue() : geocoder.getInputClasses();
+	}
+
+
+	/**
+	 * The key that identifies a place name in a batch (and in a cache), made by the KeyNormalizer.
+	 * The geocoders are always sent the place name as given, not the key
+	 * @param placeName the place name as given
+	 * @return the key for 'placeName'
+	 */
+	protected String normalizeKey(String placeName) {
+		return keyNormalizer.normalize(placeName);
+	}
+
+	/**
+	 * Answer as many batch keys as possible without calling the geocoders. 
+	 * This Geocoder has no cache, so it returns an empty map. Subclasses with a cache override this.
+	 * @param keys the distinct keys in the batch
+	 * @return a map from key to result, for the keys that could be answered
+	 */
+	protected Map<String,GeocodedLocation> lookupBatch(Collection<String> keys) {
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * Called once with each result that geocode(), geocodeAsync() or geocodeAll() got from the geocoders
+	 * (by the one caller that walked the chain, not by callers that shared its result). 
+	 * This Geocoder has no cache, so it does nothing. Subclasses with a cache override this.
+	 * @param key the normalized key that was resolved
+	 * @param placeName the place name that was looked up, as the caller gave it
+	 * @param gcl the result
+	 */
+	protected void storeResult(String key, String placeName, GeocodedLocation gcl) {
+	}
+
+
+	/**
+	 * Walk the chain for one batch entry, holding a permit from the geocoder's semaphore in 'permits' while it is working
+	 */
+	private GeocodedLocation geocodeBatchEntry(String placeName, IdentityHashMap<GeocoderI,Semaphore> permits) {
+		int inputClass = InputClassifier.classify(placeName);
+		GeocoderI[] chain = chain(inputClass);
+		int failure = StatusCode.G_NOT_CONSULTED;
+		try {
+			for (int i = 0; i < chain.length; i++) {
+				GeocodedLocation gcl;
+				Semaphore permit = permits.get(chain[i]);
+				if (permit == null) // added to the chain after the batch started
+					permit = new Semaphore(getBatchConcurrency(chain[i]));
+				permit.acquire();
+				try {
+					gcl = call(chain[i], placeName, inputClass);
+				}
+				finally {
+					permit.release();
+				}
+				// return the first successful result, as the geocoders are in preference order
+				if (gcl.isOK()) {
+					gcl.setGeocoder(geocoderID(chain[i]));
+					return gcl;
+				}
+				failure = failure(failure, gcl);
+			}
+		}
+		catch (InterruptedException ie) { // the batch was abandoned
+			Thread.currentThread().interrupt();
+			GeocodedLocation gcl = new GeocodedLocation(placeName.trim(),StatusCode.G_GEOCODER_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+			gcl.setGeocoder(this.getClass().getName()+" "+this.getVersion());
+			return gcl;
+		}
+		return unknownLocation(placeName, failure);
+	}
+
+	
+	/**
+	 * Call chain[index] asynchronously, moving on to chain[index+1] when it completes without success
+	 */
+	private CompletableFuture<GeocodedLocation> geocodeAsync(final String placeName, final int inputClass, final GeocoderI[] chain, final int index,
+			final int failure) {
+		if (index >= chain.length)
+			return CompletableFuture.completedFuture(unknownLocation(placeName, failure));
+		final GeocoderI gc = chain[index];
+		final ProviderMetrics pm = metrics(gc);
+		final ProviderCallEvent event = new ProviderCallEvent();
+		event.begin(); // the response is read on another thread, so its bytes are not counted
+		final long start = pm.begin();
+		CompletableFuture<GeocodedLocation> call;
+		try {
+			call = gc.geocodeAsync(placeName);
+		}
+		catch (RuntimeException re) {
+			call = CompletableFuture.completedFuture(null);
+		}
+		return call.exceptionally(t -> null).thenCompose(gcl -> {
+			record(gc, pm, event, inputClass, start, gcl);
+			// return the first successful result, as the geocoders are in preference order
+			if ((gcl != null) && gcl.isOK()) {
+				gcl.setGeocoder(geocoderID(gc));
+				return CompletableFuture.completedFuture(gcl);
+			}
+			return geocodeAsync(placeName, inputClass, chain, index+1, failure(failure, gcl));
+		});
+	}
+
+	
+
 	/**
 	 * Add a geocoder to the end of call stack. Coders are called in order until one
 	 * of them returns a GeocodedLocation with a success code.
@@ -134,16 +746,655 @@ public class Geocoder implements GeocoderI {
 	}
 
 
+	/**
+	 * Switch adaptive ordering on or off. When it is on, the geocoders for each input class
+	 * are called in increasing order of their expected cost (latency divided by success rate,
+	 * see ProviderStats.getCost()), which minimizes the expected time to the first success.
+	 * The first 'pinned' geocoders of the chain keep their places whatever their numbers, as a
+	 * quality floor: put the geocoders whose answers you trust most there. A geocoder with
+	 * fewer than ProviderStats.MIN_SAMPLES calls for the input class is moved to the front of
+	 * the unpinned geocoders until it has them, so every geocoder gets measured.<br />
+	 * Statistics are gathered whether or not adaptive ordering is on.
+	 * 
+	 * @param enabled true to reorder the chain by observed cost, false to use the order the geocoders were added
+	 * @param pinned the number of geocoders at the head of the chain that are never moved
+	 * @throws GeocoderException if pinned < 0
+	 */
+	public void setAdaptiveOrdering(boolean enabled, int pinned)
+	throws GeocoderException {
+		if (pinned < 0)
+			throw new GeocoderException("Invalid parameter");
+		this.pinned = pinned;
+		this.adaptiveOrdering = enabled;
+	}
+
+	/**
+	 * @return true if adaptive ordering is on
+	 */
+	public boolean isAdaptiveOrdering() {
+		return adaptiveOrdering;
+	}
+
+	/**
+	 * Set the KeyNormalizer that makes the keys by which concurrent lookups are coalesced,
+	 * batches de-duplicated and (in CachingGeocoder) results cached. The default is a
+	 * DefaultKeyNormalizer without abbreviation expansion. Changing it changes the keys,
+	 * so results already cached under the old keys will not be found.
+	 * @param keyNormalizer the KeyNormalizer to use
+	 * @throws GeocoderException if keyNormalizer is null
+	 */
+	public void setKeyNormalizer(KeyNormalizer keyNormalizer)
+	throws GeocoderException {
+		if (keyNormalizer == null)
+			throw new GeocoderException("Invalid parameter");
+		this.keyNormalizer = keyNormalizer;
+	}
+
+	/**
+	 * @return the KeyNormalizer in use
+	 */
+	public KeyNormalizer getKeyNormalizer() {
+		return keyNormalizer;
+	}
+
+	/**
+	 * Keep a RejectFilter of the place names (keys, see setKeyNormalizer) that every geocoder in the chain has said
+	 * it cannot locate, with GEO_UNKNOWN_ADDRESS, in full lookups that were not cut short. Once a key has been rejected
+	 * the filter's threshold number of times, it is answered with GEO_UNKNOWN_ADDRESS at once, without calling the
+	 * geocoders, until its count decays below the threshold and it is checked again. Answers from the filter are not
+	 * stored (e.g. not cached by CachingGeocoder), so only the filter decides when a key is checked again.<br />
+	 * A lookup where any geocoder failed with an error, or turned the place name away (e.g. for a rate limit or an open
+	 * circuit breaker), is not counted, so a place name is not blocked because a geocoder that might know it was unavailable.
+	 * @param rejectFilter the filter to use, or null to switch it off
+	 */
+	public void setRejectFilter(RejectFilter rejectFilter) {
+		this.rejectFilter = rejectFilter;
+	}
+
+	/**
+	 * @return the RejectFilter in use, or null if there is none
+	 */
+	public RejectFilter getRejectFilter() {
+		return rejectFilter;
+	}
+
+	/**
+	 * @return the latency and success statistics observed for 'geocoder', or null if it has never been called through this Geocoder
+	 */
+	public ProviderStats getProviderStats(GeocoderI geocoder) {
+		return stats.get(geocoder);
+	}
+
+	/**
+	 * @return the live counters of the calls made to 'geocoder', or null if it has never been called through this Geocoder
+	 */
+	public ProviderMetrics getProviderMetrics(GeocoderI geocoder) {
+		return metrics.get(geocoder);
+	}
+
+	/**
+	 * @return the live counters of this Geocoder's own lookups: the geocode(), geocodeAsync() and geocodeAll()
+	 * lookups that walked the chain (not those that shared another caller's lookup, or were answered from a cache).
+	 * A fall-through here is a lookup that no geocoder could answer
+	 */
+	public ProviderMetrics getLookupMetrics() {
+		return lookupMetrics;
+	}
+
+	/**
+	 * @return a snapshot of all the counters, taken now: this Geocoder's lookups first, then the calls to
+	 * each geocoder that has been called, in the order the geocoders were added
+	 */
+	public List<ProviderMetrics> getMetrics() {
+		List<ProviderMetrics> snapshot = new ArrayList<ProviderMetrics>();
+		snapshot.add(lookupMetrics.snapshot());
+		IdentityHashMap<GeocoderI,ProviderMetrics> remaining = new IdentityHashMap<GeocoderI,ProviderMetrics>(metrics);
+		for (GeocoderI gc : chain()) {
+			ProviderMetrics pm = remaining.remove(gc);
+			if (pm != null)
+				snapshot.add(pm.snapshot());
+		}
+		for (ProviderMetrics pm : remaining.values()) // geocoders that have since been removed
+			snapshot.add(pm.snapshot());
+		return snapshot;
+	}
+
+	/**
+	 * Publish the counters through JMX, with the platform MBeanServer, as MXBeans named<br />
+	 * com.challengeandresponse.geo:type=Geocoder,name="(name)" for this Geocoder's lookups, and<br />
+	 * com.challengeandresponse.geo:type=GeocoderProvider,name="(name)",provider="(geocoder ID)" for each geocoder,
+	 * as soon as it has been called.<br />
+	 * If they are already registered under another name, they are moved to this one
+	 * @param name the name of this Geocoder, to tell it apart from others in the same JVM
+	 * @throws GeocoderException if name is null or the MBeans could not be registered, e.g. because the name is taken
+	 */
+	public void registerMBeans(String name)
+	throws GeocoderException {
+		if (name == null)
+			throw new GeocoderException("Invalid parameter");
+		synchronized (mbeans) {
+			unregisterMBeans();
+			mbeanName = name;
+			try {
+				registerMBean(lookupMetrics, "Geocoder", null);
+				for (ProviderMetrics pm : metrics.values())
+					registerMBean(pm, "GeocoderProvider", pm.getName());
+			}
+			catch (GeocoderException ge) {
+				unregisterMBeans();
+				throw ge;
+			}
+		}
+	}
+
+	/**
+	 * Remove the MBeans registered by registerMBeans(), if any. shutdown() calls this
+	 */
+	public void unregisterMBeans() {
+		synchronized (mbeans) {
+			for (ObjectName objectName : mbeans.values())
+				MBeans.unregister(objectName);
+			mbeans.clear();
+			mbeanName = null;
+		}
+	}
+
+	/**
+	 * For subclasses: register one more MBean under the name given to registerMBeans(), as
+	 * com.challengeandresponse.geo:type=(type),name="(name)"[,provider="(provider)"], to be
+	 * unregistered with the others. Does nothing if registerMBeans() has not been called, or 'mbean' is already registered
+	 * @param mbean the MBean
+	 * @param type its type
+	 * @param provider the geocoder it is about, or null
+	 * @throws GeocoderException if it could not be registered
+	 */
+	protected void registerMBean(Object mbean, String type, String provider)
+	throws GeocoderException {
+		synchronized (mbeans) {
+			String name = mbeanName;
+			if ((name != null) && (! mbeans.containsKey(mbean)))
+				mbeans.put(mbean, MBeans.register(mbean, type, name, provider));
+		}
+	}
+
+
+	/**
+	 * Switch on the hedged fan-out mode, with a bounded executor owned by this Geocoder.
+	 * In this mode geocode() starts the first geocoder and, if it has not answered within
+	 * hedgeDelayMillis, starts the next one as well, and so on down the chain. Whenever a
+	 * geocoder fails, the next one is started at once. The result of the most-preferred geocoder
+	 * that succeeds is returned as soon as every geocoder ahead of it has failed, and the calls
+	 * still running are cancelled. Geocoders that were never started are never called.<br />
+	 * A hedge delay of 0 sends the query to every geocoder at once.<br />
+	 * Geocoders called in this mode may be called by several threads at once.
+	 * 
+	 * @param threads the maximum number of geocoder calls in flight at once, shared by all callers. If the executor is saturated, the calling thread runs the geocoder itself
+	 * @param hedgeDelayMillis how long to wait for a geocoder before also starting the next one
+	 * @throws GeocoderException if threads < 1 or hedgeDelayMillis < 0
+	 */
+	public void setFanOut(int threads, long hedgeDelayMillis)
+	throws GeocoderException {
+		if (threads < 1)
+			throw new GeocoderException("Invalid parameter");
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 4), new NamedThreadFactory("Geocoder-fanout"));
+		executor.allowCoreThreadTimeOut(true);
+		setFanOut(executor, hedgeDelayMillis, true);
+	}
+
+	/**
+	 * Switch on the hedged fan-out mode, running geocoder calls on the caller's executor.
+	 * See setFanOut(int,long) for how the mode works.
+	 * The executor is not shut down by this class.
+	 * 
+	 * @param executor the executor to run geocoder calls on. It should be bounded
+	 * @param hedgeDelayMillis how long to wait for a geocoder before also starting the next one
+	 * @throws GeocoderException if executor is null or hedgeDelayMillis < 0
+	 */
+	public void setFanOut(ExecutorService executor, long hedgeDelayMillis)
+	throws GeocoderException {
+		if (executor == null)
+			throw new GeocoderException("Invalid parameter");
+		setFanOut(executor, hedgeDelayMillis, false);
+	}
+	
+	/**
+	 * Switch off the fan-out mode, so geocoders are called one at a time again
+	 */
+	public void clearFanOut() {
+		FanOut fo = fanOut;
+		fanOut = null;
+		if ((fo != null) && fo.ownedExecutor)
+			fo.executor.shutdown();
+	}
+
+	/**
+	 * Release the resources held by this Geocoder (the fan-out executor, if any, and the MBeans)
+	 */
+	public void shutdown() {
+		clearFanOut();
+		unregisterMBeans();
+	}
+
+
+	private void setFanOut(ExecutorService executor, long hedgeDelayMillis, boolean ownedExecutor)
+	throws GeocoderException {
+		if (hedgeDelayMillis < 0) {
+			if (ownedExecutor)
+				executor.shutdown();
+			throw new GeocoderException("Invalid parameter");
+		}
+		FanOut previous = fanOut;
+		fanOut = new FanOut(executor, TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis), ownedExecutor);
+		if ((previous != null) && previous.ownedExecutor)
+			previous.executor.shutdown();
+	}
+
+	
+	/**
+	 * @return a snapshot of the chain of geocoders, in calling order
+	 */
+	private GeocoderI[] chain() {
+		return geocoders.toArray(new GeocoderI[0]);
+	}
+
+	/**
+	 * @return a snapshot of the geocoders that handle 'inputClass', in calling order
+	 */
+	private GeocoderI[] chain(int inputClass) {
+		GeocoderI[] all = chain();
+		int matching = 0;
+		for (int i = 0; i < all.length; i++) {
+			if ((getInputClasses(all[i]) & inputClass) != 0)
+				all[matching++] = all[i];
+		}
+		GeocoderI[] chain = (matching == all.length) ? all : Arrays.copyOf(all, matching);
+		if (adaptiveOrdering)
+			reorder(chain, inputClass);
+		return chain;
+	}
+
+	/**
+	 * Sort the unpinned geocoders in 'chain' by cost, cheapest first. Geocoders that
+	 * have not been measured yet count as free, so they are tried (and measured) first.
+	 */
+	private void reorder(GeocoderI[] chain, int inputClass) {
+		double[] costs = new double[chain.length];
+		for (int i = pinned; i < chain.length; i++) {
+			ProviderStats ps = stats.get(chain[i]);
+			costs[i] = (ps != null) ? Math.max(ps.getCost(inputClass), 0.0D) : 0.0D;
+		}
+		// insertion sort, as chains are short; stable, so ties keep the order the geocoders were added
+		for (int i = pinned + 1; i < chain.length; i++) {
+			GeocoderI gc = chain[i];
+			double cost = costs[i];
+			int j = i - 1;
+			while ((j >= pinned) && (costs[j] > cost)) {
+				chain[j+1] = chain[j];
+				costs[j+1] = costs[j];
+				j--;
+			}
+			chain[j+1] = gc;
+			costs[j+1] = cost;
+		}
+	}
+
+	/**
+	 * Call one geocoder, recording its latency and outcome
+	 */
+	private GeocodedLocation call(GeocoderI gc, String placeName, int inputClass) {
+		return call(gc, placeName, inputClass, null);
+	}
+
+	/**
+	 * Call one geocoder with a timeout (null for none), recording its latency and outcome
+	 */
+	private GeocodedLocation call(GeocoderI gc, String placeName, int inputClass, Duration timeout) {
+		ProviderMetrics pm = metrics(gc);
+		ProviderCallEvent event = new ProviderCallEvent();
+		event.start();
+		long start = pm.begin();
+		GeocodedLocation gcl = null;
+		try {
+			gcl = (timeout == null) ? gc.geocode(placeName) : gc.geocode(placeName, timeout);
+		}
+		finally {
+			record(gc, pm, event, inputClass, start, gcl);
+		}
+		return gcl;
+	}
+
+	/**
+	 * Add one call, started at 'start' by pm.begin(), to the metrics and statistics for 'gc', and end its JFR event.
+	 * A call cut short by an interrupt (e.g. cancelled in fan-out mode) is counted as cancelled.
+	 * Calls that were not made (G_NOT_CONSULTED), returned nothing, or were cut short by an
+	 * interrupt or by the caller's deadline (G_DEADLINE_EXCEEDED) say nothing about the geocoder,
+	 * so are not counted in its ProviderStats.
+	 */
+	private void record(GeocoderI gc, ProviderMetrics pm, ProviderCallEvent event, int inputClass, long start, GeocodedLocation gcl) {
+		if (Thread.currentThread().isInterrupted()) {
+			pm.cancel();
+			event.end(gc, pm.getName(), inputClass, gcl, true);
+			return;
+		}
+		event.end(gc, pm.getName(), inputClass, gcl, false);
+		long nanos = pm.end(start, (gcl != null) ? gcl.getServerResponse() : StatusCode.G_GEOCODER_ERROR);
+		if ((gcl == null) || (gcl.getServerResponse() == StatusCode.G_NOT_CONSULTED) ||
+				(gcl.getServerResponse() == StatusCode.G_DEADLINE_EXCEEDED))
+			return;
+		ProviderStats ps = stats.get(gc);
+		if (ps == null) {
+			ps = new ProviderStats();
+			ProviderStats existing = stats.putIfAbsent(gc, ps);
+			if (existing != null)
+				ps = existing;
+		}
+		ps.record(inputClass, nanos, gcl.isOK());
+	}
+
+	/**
+	 * @return the metrics for 'gc', made (and registered with JMX, if registerMBeans() has been called) on its first call
+	 */
+	private ProviderMetrics metrics(GeocoderI gc) {
+		ProviderMetrics pm = metrics.get(gc);
+		if (pm != null)
+			return pm;
+		pm = new ProviderMetrics(geocoderID(gc));
+		ProviderMetrics existing = metrics.putIfAbsent(gc, pm);
+		if (existing != null)
+			return existing;
+		if (mbeanName != null) {
+			try {
+				registerMBean(pm, "GeocoderProvider", pm.getName());
+			}
+			catch (GeocoderException ge) { // the counters still work; they are just not published
+			}
+		}
+		return pm;
+	}
+
+	/**
+	 * Count a lookup of 'placeName', started at 'start' by lookupMetrics.begin(), as finished with 'gcl' (null if it failed),
+	 * and end its JFR event
+	 */
+	private void endLookup(long start, GeocodeEvent event, String placeName, GeocodedLocation gcl) {
+		lookupMetrics.end(start, (gcl != null) ? gcl.getServerResponse() : StatusCode.G_GEOCODER_ERROR);
+		event.end(placeName, gcl);
+	}
+
+	/**
+	 * @return how long 'gc' is expected to take for 'inputClass', in nanoseconds, or 0 if it has not been measured enough to say
+	 */
+	private long expectedNanos(GeocoderI gc, int inputClass) {
+		ProviderStats ps = stats.get(gc);
+		if ((ps == null) || (ps.getSamples(inputClass) < ProviderStats.MIN_SAMPLES))
+			return 0L;
+		return (long) (ps.getLatencyMillis(inputClass) * 1000000.0D);
+	}
+
+	/**
+	 * @return 'deadline' in nanoseconds, capped so that adding it to System.nanoTime() cannot overflow
+	 */
+	private static long budgetNanos(Duration deadline) {
+		if (deadline.getSeconds() >= (Long.MAX_VALUE / 4L) / 1000000000L)
+			return Long.MAX_VALUE / 4L;
+		return deadline.toNanos();
+	}
+
+	/**
+	 * @return the ID that a geocoder's results are credited with in their geocoder field: its class name and version, looking through any FilterGeocoder wrappers
+	 */
+	public static String geocoderID(GeocoderI gc) {
+		GeocoderI inner = FilterGeocoder.unwrap(gc);
+		return inner.getClass().getName()+" "+inner.getVersion();
+	}
+
+	/**
+	 * Fold one geocoder's failed answer into the failure so far, which starts as G_NOT_CONSULTED:
+	 * a geocoder saying it cannot locate the place name makes it GEO_UNKNOWN_ADDRESS, and
+	 * a transient error (see StatusCode.isTransientError) makes it G_COMM_ERROR unless some
+	 * geocoder has already said GEO_UNKNOWN_ADDRESS. A refusal, or a null answer, changes nothing,
+	 * except that it is noted, for the RejectFilter: the failure is ALL_UNKNOWN while every geocoder
+	 * so far has said GEO_UNKNOWN_ADDRESS, and REFUSED while none has answered but some have refused.
+	 * unknownLocation() turns these back into GEO_UNKNOWN_ADDRESS and G_NOT_CONSULTED
+	 * @return the failure so far, including 'gcl'
+	 */
+	private static int failure(int failure, GeocodedLocation gcl) {
+		if ((gcl == null) || StatusCode.isRefused(gcl.getServerResponse())) {
+			if (failure == ALL_UNKNOWN)
+				return StatusCode.GEO_UNKNOWN_ADDRESS;
+			return (failure == StatusCode.G_NOT_CONSULTED) ? REFUSED : failure;
+		}
+		if (gcl.getServerResponse() == StatusCode.GEO_UNKNOWN_ADDRESS)
+			return ((failure == StatusCode.G_NOT_CONSULTED) || (failure == ALL_UNKNOWN)) ? ALL_UNKNOWN : StatusCode.GEO_UNKNOWN_ADDRESS;
+		if (StatusCode.isTransientError(gcl.getServerResponse()))
+			return ((failure == StatusCode.GEO_UNKNOWN_ADDRESS) || (failure == ALL_UNKNOWN)) ? StatusCode.GEO_UNKNOWN_ADDRESS : StatusCode.G_COMM_ERROR;
+		return StatusCode.GEO_UNKNOWN_ADDRESS;
+	}
+
+	/**
+	 * @return a GEO_UNKNOWN_ADDRESS result for 'placeName' if the RejectFilter, if any, has blocked 'key', otherwise null
+	 */
+	private GeocodedLocation rejected(String key, String placeName) {
+		RejectFilter rf = rejectFilter;
+		if ((rf == null) || (! rf.isRejected(key)))
+			return null;
+		return unknownLocation(placeName, StatusCode.GEO_UNKNOWN_ADDRESS);
+	}
+
+	/**
+	 * @param failure what the geocoders that answered said, from failure()
+	 * @return the response returned when no geocoder succeeded: GEO_UNKNOWN_ADDRESS if a geocoder said it
+	 * could not locate the place name, G_COMM_ERROR if they all failed with errors, or G_NOT_CONSULTED if no geocoder answered
+	 */
+	private GeocodedLocation unknownLocation(String placeName, int failure) {
+		return unknownLocation(placeName, failure, false);
+	}
+
+	/**
+	 * @param failure what the geocoders that answered said, from failure()
+	 * @param partial true if the time budget ran out, or geocoders were passed over for lack of time
+	 * @return the response returned when no geocoder succeeded: as for unknownLocation(String,int), except that
+	 * it is G_DEADLINE_EXCEEDED if no geocoder answered and the lookup was cut short. Its partial flag is set to 'partial'
+	 */
+	private GeocodedLocation unknownLocation(String placeName, int failure, boolean partial) {
+		if (failure == ALL_UNKNOWN) {
+			RejectFilter rf = rejectFilter;
+			if ((rf != null) && (! partial))
+				rf.reject(normalizeKey(placeName));
+			failure = StatusCode.GEO_UNKNOWN_ADDRESS;
+		}
+		else if (failure == REFUSED)
+			failure = StatusCode.G_NOT_CONSULTED;
+		int status = ((failure == StatusCode.G_NOT_CONSULTED) && partial) ? StatusCode.G_DEADLINE_EXCEEDED : failure;
+		GeocodedLocation gcl = new GeocodedLocation(placeName.trim(),status,PrecisionCode.UNKNOWN_LOCATION,
+				"",0.0D,0.0D,0.0D);
+		gcl.setGeocoder(this.getClass().getName()+" "+this.getVersion());
+		gcl.setPartial(partial);
+		return gcl;
+	}
+
+	
+	/**
+	 * Hedged fan-out over 'chain'. 'next' is the most-preferred geocoder whose answer is still
+	 * outstanding: once its answer is in, it is either returned (success) or skipped (failure).
+	 * Geocoders are started in order, one more each time the hedge delay runs out with no answer,
+	 * and immediately when the chain has caught up with them.<br />
+	 * If 'bounded', the lookup must finish by 'deadlineAt' (a System.nanoTime() value): geocoders are
+	 * given the time left when they start, those not expected to answer in it are passed over, and when
+	 * the time is up the most-preferred success so far (if any) is returned as a partial result.
+	 */
+	private GeocodedLocation geocodeFanOut(String placeName, int inputClass, GeocoderI[] chain, FanOut fo,
+			boolean bounded, long deadlineAt) {
+		int n = chain.length;
+		AtomicReferenceArray<GeocodedLocation> results = new AtomicReferenceArray<GeocodedLocation>(n);
+		BlockingQueue<Integer> completions = new LinkedBlockingQueue<Integer>();
+		Future<?>[] futures = new Future<?>[n];
+		int started = 0;
+		long hedgeAt = 0L;
+		boolean partial = false;
+		try {
+			int next = 0;
+			while (next < n) {
+				GeocodedLocation gcl = results.get(next);
+				if (gcl != null) {
+					// return the first successful result, as the geocoders are in preference order
+					if (gcl.isOK()) {
+						gcl.setGeocoder(geocoderID(chain[next]));
+						return gcl;
+					}
+					next++;
+					continue;
+				}
+				long remaining = deadlineAt - System.nanoTime();
+				if (bounded && (remaining <= 0L))
+					return bestSoFar(placeName, chain, results, next);
+				// start another geocoder if the chain has caught up with the started ones, or if the hedge is due
+				if ((started <= next) || ((started < n) && (System.nanoTime() - hedgeAt >= 0L))) {
+					// pass over a geocoder that cannot answer in the time left
+					if (bounded && (expectedNanos(chain[started], inputClass) > remaining)) {
+						GeocodedLocation skipped = new GeocodedLocation(placeName.trim(),StatusCode.G_DEADLINE_EXCEEDED,
+								PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+						results.set(started++, skipped);
+						partial = true;
+						continue;
+					}
+					FanOutCall call = new FanOutCall(chain[started], placeName, inputClass, 
+							bounded ? Duration.ofNanos(remaining) : null, started, results, completions);
+					try {
+						futures[started] = fo.executor.submit(call);
+					}
+					catch (RejectedExecutionException ree) {
+						call.run(); // executor saturated or shut down, so run it here
+					}
+					started++;
+					hedgeAt = System.nanoTime() + fo.hedgeDelayNanos;
+					continue;
+				}
+				// wait for an answer, or for the next hedge (or the deadline) to come due
+				if (started < n)
+					completions.poll(((bounded && (deadlineAt - hedgeAt < 0L)) ? deadlineAt : hedgeAt) - System.nanoTime(), TimeUnit.NANOSECONDS);
+				else if (bounded)
+					completions.poll(deadlineAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+				else
+					completions.take();
+			}
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			// cancel anything still running, its answer is no longer needed
+			for (int i = 0; i < started; i++) {
+				if (futures[i] != null)
+					futures[i].cancel(true);
+			}
+		}
+		// if it fell through to here, the result was not success
+		int failure = StatusCode.G_NOT_CONSULTED;
+		for (int i = 0; i < n; i++) {
+			GeocodedLocation gcl = results.get(i);
+			failure = failure(failure, gcl);
+			partial |= ((gcl != null) && (gcl.getServerResponse() == StatusCode.G_DEADLINE_EXCEEDED));
+		}
+		return unknownLocation(placeName, failure, partial);
+	}
+
+	/**
+	 * The time ran out while chain['next'] was still working: return the most-preferred
+	 * success from the geocoders behind it, or an unknown location, marked as partial
+	 */
+	private GeocodedLocation bestSoFar(String placeName, GeocoderI[] chain, AtomicReferenceArray<GeocodedLocation> results, int next) {
+		int failure = StatusCode.G_NOT_CONSULTED;
+		for (int i = 0; i < chain.length; i++) {
+			GeocodedLocation gcl = results.get(i);
+			if (gcl == null)
+				continue;
+			if ((i > next) && gcl.isOK()) {
+				gcl.setGeocoder(geocoderID(chain[i]));
+				gcl.setPartial(true);
+				return gcl;
+			}
+			failure = failure(failure, gcl);
+		}
+		return unknownLocation(placeName, failure, true);
+	}
+
+
+	/**
+	 * Fan-out settings: the executor and the hedge delay
+	 */
+	private static final class FanOut {
+		final ExecutorService executor;
+		final long hedgeDelayNanos;
+		final boolean ownedExecutor;
+
+		FanOut(ExecutorService executor, long hedgeDelayNanos, boolean ownedExecutor) {
+			this.executor = executor;
+			this.hedgeDelayNanos = hedgeDelayNanos;
+			this.ownedExecutor = ownedExecutor;
+		}
+	}
+
+
+	/**
+	 * One geocoder call in fan-out mode, with a timeout if it is non-null. Posts its result
+	 * into 'results' at 'index' then announces it on 'completions'
+	 */
+	private final class FanOutCall implements Runnable {
+		private final GeocoderI geocoder;
+		private final String placeName;
+		private final int inputClass;
+		private final Duration timeout;
+		private final int index;
+		private final AtomicReferenceArray<GeocodedLocation> results;
+		private final BlockingQueue<Integer> completions;
+
+		FanOutCall(GeocoderI geocoder, String placeName, int inputClass, Duration timeout, int index,
+				AtomicReferenceArray<GeocodedLocation> results, BlockingQueue<Integer> completions) {
+			this.geocoder = geocoder;
+			this.placeName = placeName;
+			this.inputClass = inputClass;
+			this.timeout = timeout;
+			this.index = index;
+			this.results = results;
+			this.completions = completions;
+		}
+
+		public void run() {
+			GeocodedLocation gcl = null;
+			try {
+				gcl = call(geocoder, placeName, inputClass, timeout);
+			}
+			catch (RuntimeException re) {
+			}
+			// a geocoder must always return an object; treat anything else as a geocoder error
+			if (gcl == null)
+				gcl = new GeocodedLocation(placeName.trim(),StatusCode.G_GEOCODER_ERROR,
+						PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+			results.set(index, gcl);
+			completions.add(Integer.valueOf(index));
+		}
+	}
+
+
 
 	// for testing
 	public static void main(String[] args)
 	throws GeocoderException, IOException {
+		checkRejectFilter();
+
 		Geocoder gc = new Geocoder();
 		gc.addGeocoder(new IPV4Geocoder(null,IPV4Geocoder.RETURN_PLACENAME));
 		gc.addGeocoder(new LatLonGeocoder(),0);
-		gc.addGeocoder(new GoogleGeocoder("ABQIAAAATpIP0nQMoP5fnPlNJxbLDBSPCd7MrKeM6w_jwe7QFLxKoZJC8xQyh58lNpVG1DTdJcKkrbIPUMpofA"));
-		gc.addGeocoder(new YahooGeocoder("eyqBFmfIkY1wnsE_EUd1cIQfIvnvI2PisDg-"));
-		gc.addGeocoder(new GeonamesGeocoder());
+		// Google: 10 per second, 15,000 per day; Yahoo: 5,000 per day. Wait up to 200 msec for a turn, then move on
+		gc.addGeocoder(new CircuitBreakerGeocoder(new RateLimitedGeocoder(
+				new GoogleGeocoder("ABQIAAAATpIP0nQMoP5fnPlNJxbLDBSPCd7MrKeM6w_jwe7QFLxKoZJC8xQyh58lNpVG1DTdJcKkrbIPUMpofA"), 10.0D, 10, 200L, 15000L)));
+		gc.addGeocoder(new CircuitBreakerGeocoder(new RateLimitedGeocoder(
+				new YahooGeocoder("eyqBFmfIkY1wnsE_EUd1cIQfIvnvI2PisDg-"), 5.0D, 5, 200L, 5000L)));
+		gc.addGeocoder(new CircuitBreakerGeocoder(new GeonamesGeocoder()));
+		gc.setFanOut(4, 300); // start the next geocoder if one has not answered in 300 msec
+		gc.setAdaptiveOrdering(true, 1); // LatLonGeocoder stays first, the rest go by observed speed and hit rate
 		
 		GeocodedLocation resp;
 //		resp = gc.geocode("860 Nancy Street, Niles, OH");
@@ -161,8 +1412,44 @@ public class Geocoder implements GeocoderI {
 		System.out.println("Longitude: "+resp.getStringLongitude());
 		System.out.println("Height: "+resp.getStringHeight());
 		System.out.println("Geocoder: "+resp.getGeocoder());
+		gc.shutdown();
 	}
 
+	// for testing: a place name that Google answers 602 and Yahoo and Geonames answer with no results must be counted by the RejectFilter, and blocked once it reaches the threshold
+	private static void checkRejectFilter()
+	throws GeocoderException {
+		GoogleGeocoder google = new GoogleGeocoder("key");
+		google.setTransport(stubTransport("<kml><Response><name>x</name><Status><code>602</code><request>geocode</request></Status></Response></kml>"));
+		YahooGeocoder yahoo = new YahooGeocoder("appid");
+		yahoo.setTransport(stubTransport("<ResultSet xmlns=\"urn:yahoo:maps\"></ResultSet>"));
+		GeonamesGeocoder geonames = new GeonamesGeocoder();
+		geonames.setTransport(stubTransport("<geonames><totalResultsCount>0</totalResultsCount></geonames>"));
+		Geocoder gc = new Geocoder();
+		gc.addGeocoder(google);
+		gc.addGeocoder(yahoo);
+		gc.addGeocoder(geonames);
+		RejectFilter rf = new RejectFilter(1000, 2, 60000L);
+		gc.setRejectFilter(rf);
+		int first = gc.geocode("*** this is bad input").getServerResponse();
+		gc.geocode("*** this is bad input");
+		long calls = gc.getProviderMetrics(geonames).getCalls();
+		int blocked = gc.geocode("*** this is bad input").getServerResponse();
+		boolean ok = (first == StatusCode.GEO_UNKNOWN_ADDRESS) && (rf.getRejections() == 2L) && (blocked == StatusCode.GEO_UNKNOWN_ADDRESS) &&
+				(rf.getHits() == 1L) && (gc.getProviderMetrics(geonames).getCalls() == calls);
+		System.out.println("RejectFilter check: "+(ok ? "OK" : "FAILED")+" "+rf);
+		gc.shutdown();
+	}
+
+	private static Transport stubTransport(final String response) {
+		return new Transport() {
+			public String get(URL url) {
+				return response;
+			}
 
+			public CompletableFuture<String> getAsync(URL url) {
+				return CompletableFuture.completedFuture(response);
+			}
+		};
+	}
 
 }
\ No newline at end of file
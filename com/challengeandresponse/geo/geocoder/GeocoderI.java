@@ -1,5 +1,8 @@
 package com.challengeandresponse.geo.geocoder;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
 import com.challengeandresponse.geo.data.GeocodedLocation;
 
 public interface GeocoderI {
@@ -15,6 +18,21 @@ public interface GeocoderI {
 	public GeocodedLocation geocode(String locationDescription);
 
 	
+	/**
+	 * Version of geocode(String) that gives up once 'timeout' has passed. Geocoders that call a
+	 * remote server should override this, passing the time left on to their transport, and return
+	 * StatusCode.G_DEADLINE_EXCEEDED if it runs out. The default implementation ignores the limit
+	 * and calls geocode(String), which is fine for geocoders that do no I/O.
+	 * 
+	 * @param locationDescription The location to geocode
+	 * @param timeout the longest the call may take
+	 * @return a GeocodedLocation object with status code set
+	 */
+	public default GeocodedLocation geocode(String locationDescription, Duration timeout) {
+		return geocode(locationDescription);
+	}
+
+	
 	/**
 	 * Given an MMGeocodedLocation object with its placename set,
 	 * populate that object with the geocoded details for its placename.
@@ -28,10 +46,56 @@ public interface GeocoderI {
 	 */
 	public GeocodedLocation geocode(GeocodedLocation location);
 
+
+	/**
+	 * Asynchronous version of geocode(String). Geocoders that call a remote server should
+	 * override this so the calling thread is not held while waiting on the network.
+	 * The default implementation simply runs geocode(String) in the calling thread,
+	 * which is fine for geocoders that do no I/O.<br />
+	 * As with geocode(String), the future must always complete with an object (never
+	 * exceptionally) and the status code in it says how things went.
+	 * 
+	 * @param locationDescription The location to geocode
+	 * @return a future that completes with a GeocodedLocation object with status code set
+	 */
+	public default CompletableFuture<GeocodedLocation> geocodeAsync(String locationDescription) {
+		return CompletableFuture.completedFuture(geocode(locationDescription));
+	}
+
+	
+	/**
+	 * Asynchronous version of geocode(GeocodedLocation). The default implementation calls
+	 * geocodeAsync(String) on the location's placeName, then copies the result into 'location'
+	 * 
+	 * @param location a GeocodedLocation object with its placeName set. This object's other fields will be overwritten as appropriate for the given placeName
+	 * @return a future that completes with 'location', with status code set
+	 */
+	public default CompletableFuture<GeocodedLocation> geocodeAsync(final GeocodedLocation location) {
+		return geocodeAsync(location.getPlaceName()).thenApply(gcl2 -> {
+			location.setPlaceName(gcl2.getPlaceName());
+			location.setServerResponse(gcl2.getServerResponse());
+			location.setAccuracy(gcl2.getAccuracy());
+			location.setCountry(gcl2.getCountryCode());
+			location.set(gcl2.getDoubleLatitude(), gcl2.getDoubleLongitude(), gcl2.getDoubleHeight());
+			return location;
+		});
+	}
+
 	
 	/**
 	 * @return a String representing the version of this geocoder, included in the geocoder field of GeocodedLocation objects
 	 */
 	public String getVersion();
+
+
+	/**
+	 * Geocoder only sends a place name to the geocoders that handle its InputClass.
+	 * The default is InputClass.ANY; geocoders that only make sense for some kinds of
+	 * input (e.g. lat/lon or IP addresses) should override this.
+	 * @return the InputClass flags, OR-ed together, for the kinds of input this geocoder handles
+	 */
+	public default int getInputClasses() {
+		return InputClass.ANY;
+	}
 	
 }
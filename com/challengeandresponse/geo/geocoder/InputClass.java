@@ -0,0 +1,46 @@
+package com.challengeandresponse.geo.geocoder;
+
+/**
+ * Enumerates the kinds of input that InputClassifier recognizes. The values are bit flags,
+ * so a geocoder can declare the set of input classes it handles by OR-ing them together
+ * (see GeocoderI.getInputClasses() and Geocoder.setInputClasses())
+ * 
+ * @author jim
+ * @version 0.10 2026-10-16
+ */
+public class InputClass {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** Two or three numbers: latitude, longitude and optional height */
+	public static final int LAT_LON = 1;
+	/** A dotted-quad IPv4 address */
+	public static final int IPV4 = 2;
+	/** A short alphanumeric code that looks like a postcode or zip code */
+	public static final int POSTCODE = 4;
+	/** Anything else */
+	public static final int FREE_TEXT = 8;
+
+	/** Every input class */
+	public static final int ANY = LAT_LON | IPV4 | POSTCODE | FREE_TEXT;
+
+	/**
+	 * Return text naming each input class
+	 * @param inputClass the class to look up
+	 * @return the name of 'inputClass', or the value by itself if it is not a single known class
+	 */
+	public static String getText(int inputClass) {
+		switch (inputClass) {
+		case LAT_LON:
+			return "Latitude,Longitude";
+		case IPV4:
+			return "IPv4 address";
+		case POSTCODE:
+			return "Postcode";
+		case FREE_TEXT:
+			return "Free text";
+		default:
+			return ""+inputClass;
+		}
+	}
+
+}
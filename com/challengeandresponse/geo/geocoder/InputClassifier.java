@@ -0,0 +1,206 @@
+package com.challengeandresponse.geo.geocoder;
+
+/**
+ * A hand-written classifier that tags a place name as a lat/lon, an IPv4 address,
+ * a postcode or free text, so Geocoder can send it only to the geocoders that handle
+ * that kind of input.
+ * 
+ * <p>Leading and trailing whitespace are ignored. Each test stops at the first character
+ * that rules it out, so free text like "Boston, MA" costs a few character comparisons,
+ * and nothing here throws an exception as part of normal classification.</p>
+ * 
+ * <p>The rules:<br />
+ * LAT_LON: two or three decimal numbers separated by commas and/or whitespace, the first
+ * two between -360.0 and 360.0 (not inclusive), as LatLonGeocoder has always accepted<br />
+ * IPV4: four groups of 1 to 3 digits, each no more than 255, separated by dots<br />
+ * POSTCODE: one or two alphanumeric groups separated by one space or hyphen, each containing
+ * a digit, 3 to 10 letters and digits in all (e.g. 02139, 02139-4307, SW1A 1AA, K1A 0B1)<br />
+ * FREE_TEXT: everything else</p>
+ * 
+ * @author jim
+ * @version 0.10 2026-10-16
+ */
+public class InputClassifier {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	private InputClassifier() {
+	}
+
+	/**
+	 * @param placeName the place name to classify
+	 * @return the InputClass of 'placeName'
+	 */
+	public static int classify(String placeName) {
+		if (placeName == null)
+			return InputClass.FREE_TEXT;
+		int start = 0;
+		int end = placeName.length();
+		while ((start < end) && Character.isWhitespace(placeName.charAt(start)))
+			start++;
+		while ((end > start) && Character.isWhitespace(placeName.charAt(end-1)))
+			end--;
+		if (start == end)
+			return InputClass.FREE_TEXT;
+
+		if (isIPV4(placeName, start, end))
+			return InputClass.IPV4;
+		if (parseLatLon(placeName, start, end, null))
+			return InputClass.LAT_LON;
+		if (isPostcode(placeName, start, end))
+			return InputClass.POSTCODE;
+		return InputClass.FREE_TEXT;
+	}
+
+
+	/**
+	 * Parse a lat/lon string by the LAT_LON rule
+	 * @param placeName the string to parse
+	 * @param llh if non-null, and the string is a lat/lon, receives latitude, longitude and height (0.0 if not given). Must have room for 3 values
+	 * @return true if 'placeName' is a lat/lon
+	 */
+	public static boolean parseLatLon(String placeName, double[] llh) {
+		int start = 0;
+		int end = placeName.length();
+		while ((start < end) && Character.isWhitespace(placeName.charAt(start)))
+			start++;
+		while ((end > start) && Character.isWhitespace(placeName.charAt(end-1)))
+			end--;
+		return parseLatLon(placeName, start, end, llh);
+	}
+
+
+	private static boolean parseLatLon(String s, int start, int end, double[] llh) {
+		double lat = 0.0D, lon = 0.0D, height = 0.0D;
+		int tokens = 0;
+		int i = start;
+		while (i < end) {
+			if (tokens == 3)
+				return false;
+			int tokenEnd = scanNumber(s, i, end);
+			if (tokenEnd < 0)
+				return false;
+			// the token matches a subset of Double's grammar, so this cannot throw
+			double d = Double.parseDouble(s.substring(i, tokenEnd));
+			if (tokens == 0)
+				lat = d;
+			else if (tokens == 1)
+				lon = d;
+			else
+				height = d;
+			tokens++;
+			// separators: commas and whitespace, at least one unless this is the end
+			i = tokenEnd;
+			while ((i < end) && ((s.charAt(i) == ',') || Character.isWhitespace(s.charAt(i))))
+				i++;
+			if ((i < end) && (i == tokenEnd))
+				return false;
+		}
+		if (tokens < 2)
+			return false;
+		// test for reasonableness
+		if (! ((lat < 360.0D) && (lat > -360.0D) && (lon < 360.0D) && (lon > -360.0D)))
+			return false;
+		if (llh != null) {
+			llh[0] = lat;
+			llh[1] = lon;
+			llh[2] = height;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Scan one decimal number: [+-] digits [. digits] [(e|E) [+-] digits], with at least one mantissa digit
+	 * @return the index after the number, or -1 if there is no number at 'i'
+	 */
+	private static int scanNumber(String s, int i, int end) {
+		if ((i < end) && ((s.charAt(i) == '+') || (s.charAt(i) == '-')))
+			i++;
+		int digits = 0;
+		while ((i < end) && isDigit(s.charAt(i))) {
+			i++;
+			digits++;
+		}
+		if ((i < end) && (s.charAt(i) == '.')) {
+			i++;
+			while ((i < end) && isDigit(s.charAt(i))) {
+				i++;
+				digits++;
+			}
+		}
+		if (digits == 0)
+			return -1;
+		if ((i < end) && ((s.charAt(i) == 'e') || (s.charAt(i) == 'E'))) {
+			int j = i+1;
+			if ((j < end) && ((s.charAt(j) == '+') || (s.charAt(j) == '-')))
+				j++;
+			int exponentDigits = 0;
+			while ((j < end) && isDigit(s.charAt(j))) {
+				j++;
+				exponentDigits++;
+			}
+			if (exponentDigits == 0)
+				return -1;
+			i = j;
+		}
+		return i;
+	}
+
+
+	private static boolean isIPV4(String s, int start, int end) {
+		int octets = 0;
+		int i = start;
+		while (true) {
+			int value = 0;
+			int digits = 0;
+			while ((i < end) && isDigit(s.charAt(i)) && (digits < 4)) {
+				value = (value * 10) + (s.charAt(i) - '0');
+				i++;
+				digits++;
+			}
+			if ((digits == 0) || (digits > 3) || (value > 255))
+				return false;
+			octets++;
+			if (i == end)
+				return (octets == 4);
+			if ((octets == 4) || (s.charAt(i) != '.'))
+				return false;
+			i++;
+		}
+	}
+
+
+	private static boolean isPostcode(String s, int start, int end) {
+		int groups = 1;
+		int length = 0;
+		boolean groupHasDigit = false;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (isDigit(c)) {
+				groupHasDigit = true;
+				length++;
+			}
+			else if (((c >= 'A') && (c <= 'Z')) || ((c >= 'a') && (c <= 'z'))) {
+				length++;
+			}
+			else if ((c == ' ') || (c == '-')) {
+				// one separator, between two groups
+				if ((groups == 2) || (! groupHasDigit))
+					return false;
+				groups++;
+				groupHasDigit = false;
+			}
+			else
+				return false;
+			if (length > 10)
+				return false;
+		}
+		return groupHasDigit && (length >= 3);
+	}
+
+
+	private static boolean isDigit(char c) {
+		return (c >= '0') && (c <= '9');
+	}
+
+}
@@ -0,0 +1,24 @@
+package com.challengeandresponse.geo.geocoder;
+
+/**
+ * Turns a place name into the key that Geocoder uses to coalesce lookups, de-duplicate
+ * batches and (in CachingGeocoder) cache results. Place names that should share one
+ * result must get the same key; the geocoders are still sent the place name as given.
+ * The default is DefaultKeyNormalizer; see Geocoder.setKeyNormalizer().
+ *
+ * <p>Implementations must be safe to call from several threads at once, and a key should
+ * normalize to itself, so that a key passed back in as a place name (say, one listed from
+ * the cache) names the same entry.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public interface KeyNormalizer {
+
+	/**
+	 * @param placeName the place name as given
+	 * @return the key for 'placeName'
+	 */
+	public String normalize(String placeName);
+
+}
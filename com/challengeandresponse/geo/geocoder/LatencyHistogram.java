@@ -0,0 +1,140 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, in the style of HdrHistogram: log-linear
+ * buckets, SUB_BUCKETS to each power of two, so any value from 0 to Long.MAX_VALUE is
+ * counted with a relative error of at most 1/SUB_BUCKETS (about 3%), in a fixed array.
+ *
+ * <p>record() is lock-free and allocation-free: it works out the bucket with a few
+ * bit operations and increments one counter. Readers see the counts as they are,
+ * without stopping writers; snapshot() copies them, so that several percentiles can
+ * be read from the same counts.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class LatencyHistogram {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** The buckets to each power of two; a power of two */
+	public static final int SUB_BUCKETS = 32;
+
+	private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+
+	/**
+	 * Count one latency
+	 * @param nanos the latency; a negative one (e.g. from a clock that went backwards) counts as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0L)
+			nanos = 0L;
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long m;
+		while (nanos > (m = max.get())) {
+			if (max.compareAndSet(m, nanos))
+				break;
+		}
+	}
+
+	/**
+	 * @return the number of latencies recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the longest latency recorded, in nanoseconds, or 0 if none has been
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean latency in nanoseconds, or 0 if none has been recorded
+	 */
+	public double getMean() {
+		long n = count.get();
+		return (n == 0L) ? 0.0D : (double) total.get() / n;
+	}
+
+	/**
+	 * @param percentile from 0.0 to 100.0, e.g. 99.9
+	 * @return the latency in nanoseconds that 'percentile' percent of the recorded latencies are no longer than
+	 * (to within the bucket size), or 0 if none has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = 0L;
+		for (int i = 0; i < BUCKETS; i++)
+			n += counts.get(i);
+		if (n == 0L)
+			return 0L;
+		long rank = Math.max(1L, (long) Math.ceil((Math.max(0.0D, Math.min(100.0D, percentile)) / 100.0D) * n));
+		long seen = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highestValue(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return a copy of this histogram as it is now
+	 */
+	public LatencyHistogram snapshot() {
+		LatencyHistogram copy = new LatencyHistogram();
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = counts.get(i);
+			if (c != 0L)
+				copy.counts.set(i, c);
+		}
+		copy.count.set(count.get());
+		copy.total.set(total.get());
+		copy.max.set(max.get());
+		return copy;
+	}
+
+	public String toString() {
+		LatencyHistogram h = snapshot();
+		return "LatencyHistogram [count=" + h.getCount() + ", meanMs=" + h.getMean() / 1000000.0D
+				+ ", p50Ms=" + h.getValueAtPercentile(50.0D) / 1000000.0D + ", p99Ms=" + h.getValueAtPercentile(99.0D) / 1000000.0D
+				+ ", maxMs=" + h.getMax() / 1000000.0D + "]";
+	}
+
+
+	/**
+	 * @return the bucket counting 'v': values below SUB_BUCKETS have a bucket each, and above that
+	 * each power of two is split into SUB_BUCKETS buckets by the bits below the highest one
+	 */
+	private static int bucket(long v) {
+		if (v < SUB_BUCKETS)
+			return (int) v;
+		int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return the highest value counted in bucket 'i'
+	 */
+	private static long highestValue(int i) {
+		int shift = (i >>> SUB_BUCKET_BITS) - 1;
+		if (shift < 0)
+			return i;
+		long lowest = ((long) (SUB_BUCKETS + (i & (SUB_BUCKETS - 1)))) << shift;
+		return lowest + (1L << shift) - 1L;
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers the geocoders' MBeans with the platform MBeanServer, under the JMX domain
+ * DOMAIN, as type=(type),name=(name)[,provider=(provider)].
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+final class MBeans {
+	static final String DOMAIN = "com.challengeandresponse.geo";
+
+	// the most instances of one provider name told apart by a suffix
+	private static final int MAX_INSTANCES = 100;
+
+
+	private MBeans() {
+	}
+
+
+	/**
+	 * Register 'mbean'. If 'provider' is already taken, e.g. by a second geocoder of the same
+	 * class in one chain, " #2", " #3" and so on are tried after it
+	 * @return the name it was registered under
+	 * @throws GeocoderException if it could not be registered, e.g. if 'type' and 'name' are taken
+	 */
+	static ObjectName register(Object mbean, String type, String name, String provider)
+	throws GeocoderException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for (int instance = 1; ; instance++) {
+				StringBuilder on = new StringBuilder(DOMAIN).append(":type=").append(type).append(",name=").append(ObjectName.quote(name));
+				if (provider != null)
+					on.append(",provider=").append(ObjectName.quote((instance == 1) ? provider : provider+" #"+instance));
+				ObjectName objectName = new ObjectName(on.toString());
+				try {
+					server.registerMBean(mbean, objectName);
+					return objectName;
+				}
+				catch (InstanceAlreadyExistsException iaee) {
+					if ((provider == null) || (instance >= MAX_INSTANCES))
+						throw iaee;
+				}
+			}
+		}
+		catch (JMException jme) {
+			throw new GeocoderException("Cannot register MBean "+type+" "+name+": "+jme.getMessage());
+		}
+	}
+
+	/**
+	 * Unregister the MBean registered as 'objectName', if it still is
+	 */
+	static void unregister(ObjectName objectName) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		}
+		catch (JMException jme) { // e.g. InstanceNotFoundException, if it was unregistered by someone else
+		}
+	}
+
+}
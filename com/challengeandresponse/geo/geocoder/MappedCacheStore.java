@@ -0,0 +1,714 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+import com.challengeandresponse.geo.data.GeocodedLocationCodec;
+
+/**
+ * A CacheStore for many millions of entries: an append-only log of records,
+ * memory-mapped in SEGMENT_BYTES segments, with an open-addressing hash index held off
+ * the Java heap. A load is a probe of the index and a read of one record straight out
+ * of the mapped log by GeocodedLocationCodec, with no Java serialization.
+ *
+ * <p>Each record is: int length, int CRC32 (of the rest of the record), long expiresAt
+ * (REMOVED for a removal), short UTF-8 length of the key, the key, then the value as
+ * written by GeocodedLocationCodec (nothing for a removal). A record never crosses a
+ * segment boundary; a length of -1 means the rest of the segment is unused, and a length
+ * of 0 is the end of the log.</p>
+ *
+ * <p>The index is not saved: it is rebuilt by reading the log when the store is opened,
+ * which also drops a record cut short by a crash (its CRC does not match). Each slot holds
+ * a record's offset, the key's hash and the expiry time, so expired entries can be found
+ * without reading the log. Deletion shifts the following slots back, so there are no tombstones.</p>
+ *
+ * <p>When more than half the log is dead and it is over MIN_COMPACT_BYTES, it is compacted
+ * on a background thread: the live records are copied to a new file without holding the
+ * lock, then the lock is taken only to copy the records appended meanwhile and point the
+ * index at the new file.</p>
+ *
+ * <p>If maxElements is not 0 and the store is full, the entry that expires first out of a
+ * small random sample is removed to make room, with a removal record in the log as for remove(),
+ * so it does not come back when the store is reopened.</p>
+ *
+ * @author jim
+ * @version 0.11 2026-10-17
+ */
+
+/*
+ * REVISION HISTORY
+ * 0.11 2026-10-17 Values are written by GeocodedLocationCodec instead of in fixed fields. Logs written by 0.10 cannot be read
+ */
+public class MappedCacheStore implements CacheStore {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** A maxElements of 0 means the store is not capped */
+	public static final int UNLIMITED = 0;
+
+	/** The size of each mapped segment of the log */
+	public static final int SEGMENT_BYTES = 1 << 26;
+
+	/** Logs smaller than this are never compacted */
+	public static final long MIN_COMPACT_BYTES = 1L << 24;
+
+	// record layout
+	private static final long REMOVED = Long.MIN_VALUE;
+	private static final int HEADER_BYTES = 18;
+	private static final int CRC = 4;
+	private static final int EXPIRES_AT = 8;
+	private static final int KEY_LENGTH = 16;
+	private static final int SKIP = -1;
+
+	// index slot layout: long offset+1 (0 for an empty slot), int hash, int unused, long expiresAt
+	private static final int SLOT_BYTES = 24;
+	private static final int MIN_SLOTS = 1 << 10;
+	private static final int MAX_SLOTS = Integer.MAX_VALUE / SLOT_BYTES;
+	private static final int EVICTION_SAMPLE = 5;
+
+	private final File file;
+	private final int maxElements;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// the log, guarded by lock for writing; segments is replaced, never changed, so can be read without it
+	private RandomAccessFile raf;
+	private volatile MappedByteBuffer[] segments;
+	private long logEnd;
+	private long liveBytes;
+
+	// the index, guarded by lock
+	private ByteBuffer slots;
+	private int mask;
+	private int size;
+
+	private final ExecutorService compactor = Executors.newSingleThreadExecutor(new NamedThreadFactory("MappedCacheStore-compact"));
+	private final AtomicBoolean compacting = new AtomicBoolean();
+
+
+	/**
+	 * Open the store in 'file', creating it (and its directory) if need be
+	 * @param file the log file
+	 * @param maxElements the most entries to keep, or UNLIMITED
+	 * @throws IOException if the file could not be opened or read
+	 * @throws GeocoderException if file is null or maxElements < 0
+	 */
+	public MappedCacheStore(File file, int maxElements)
+	throws IOException, GeocoderException {
+		if ((file == null) || (maxElements < 0))
+			throw new GeocoderException("Invalid parameter");
+		this.file = file;
+		this.maxElements = maxElements;
+		File dir = file.getAbsoluteFile().getParentFile();
+		if ((dir != null) && (! dir.isDirectory()) && (! dir.mkdirs()))
+			throw new IOException("Cannot create "+dir);
+		new File(file.getPath()+".compact").delete(); // left by a crash while compacting
+		newIndex(MIN_SLOTS);
+		open();
+	}
+
+
+	public StoredEntry load(String key)
+	throws IOException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		lock.readLock().lock();
+		try {
+			int slot = find(hash(key), keyBytes);
+			if ((slot < 0) || (slots.getLong(slot * SLOT_BYTES + 16) <= System.currentTimeMillis()))
+				return null;
+			long offset = slots.getLong(slot * SLOT_BYTES) - 1L;
+			return new StoredEntry(decode(segments, offset), slots.getLong(slot * SLOT_BYTES + 16));
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public void store(String key, GeocodedLocation value, long expiresAt)
+	throws IOException {
+		byte[] record = encode(key, value, expiresAt);
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		lock.writeLock().lock();
+		try {
+			long offset = append(record);
+			int h = hash(key);
+			int slot = find(h, keyBytes);
+			if (slot >= 0)
+				liveBytes -= recordLength(slots.getLong(slot * SLOT_BYTES) - 1L);
+			else {
+				if ((maxElements != UNLIMITED) && (size >= maxElements))
+					evictOne();
+				slot = insertSlot(h);
+			}
+			setSlot(slot, offset, h, expiresAt);
+			liveBytes += record.length;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+		compactIfNeeded();
+	}
+
+	public void remove(String key)
+	throws IOException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		lock.writeLock().lock();
+		try {
+			int slot = find(hash(key), keyBytes);
+			if (slot < 0)
+				return;
+			liveBytes -= recordLength(slots.getLong(slot * SLOT_BYTES) - 1L);
+			deleteSlot(slot);
+			append(encode(key, null, REMOVED));
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+		compactIfNeeded();
+	}
+
+	public int removeExpired(long now)
+	throws IOException {
+		int removed = 0;
+		lock.writeLock().lock();
+		try {
+			// expired records need no removal record: they are expired again when the log is read
+			for (int slot = 0; slot <= mask; ) {
+				int at = slot * SLOT_BYTES;
+				if ((slots.getLong(at) != 0L) && (slots.getLong(at + 16) <= now)) {
+					liveBytes -= recordLength(slots.getLong(at) - 1L);
+					deleteSlot(slot); // may move another entry into this slot, so look at it again
+					removed++;
+				}
+				else
+					slot++;
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+		compactIfNeeded();
+		return removed;
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public void flush()
+	throws IOException {
+		lock.writeLock().lock();
+		try {
+			for (MappedByteBuffer segment : segments)
+				segment.force();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void close()
+	throws IOException {
+		compactor.shutdown();
+		try {
+			compactor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		lock.writeLock().lock();
+		try {
+			raf.close();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public String toString() {
+		return "MappedCacheStore [file=" + file + ", size=" + size() + "]";
+	}
+
+
+	/// THE LOG
+
+	/**
+	 * Map the log and build the index from it, dropping a torn record at the end
+	 */
+	private void open()
+	throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		long length = raf.length();
+		int n = (int) Math.max(1L, (length + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+		raf.setLength((long) n * SEGMENT_BYTES);
+		MappedByteBuffer[] mapped = new MappedByteBuffer[n];
+		for (int i = 0; i < n; i++)
+			mapped[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT_BYTES, SEGMENT_BYTES);
+		segments = mapped;
+
+		long now = System.currentTimeMillis();
+		long offset = 0L;
+		for (;;) {
+			long at = skipToRecord(mapped, offset);
+			if (at < 0L) {
+				offset = -(at + 1L);
+				break;
+			}
+			offset = at;
+			ByteBuffer segment = mapped[(int) (offset / SEGMENT_BYTES)];
+			int pos = (int) (offset % SEGMENT_BYTES);
+			int recordLength = segment.getInt(pos);
+			if ((recordLength < HEADER_BYTES) || (pos + recordLength > SEGMENT_BYTES) || (crc(segment, pos, recordLength) != segment.getInt(pos + CRC)))
+				break; // the end of the log, or a torn record
+			String key = readString(segment, pos + HEADER_BYTES, segment.getShort(pos + KEY_LENGTH));
+			long expiresAt = segment.getLong(pos + EXPIRES_AT);
+			int h = hash(key);
+			int slot = find(h, key.getBytes(StandardCharsets.UTF_8));
+			if (slot >= 0) {
+				liveBytes -= recordLength(slots.getLong(slot * SLOT_BYTES) - 1L);
+				deleteSlot(slot);
+			}
+			if ((expiresAt != REMOVED) && (expiresAt > now)) {
+				if (size >= maxSize())
+					growIndex();
+				setSlot(insertSlot(h), offset, h, expiresAt);
+				liveBytes += recordLength;
+			}
+			offset += recordLength;
+		}
+		logEnd = offset;
+		// clear whatever follows the end, so a torn record is not read as part of the log later
+		if (logEnd < (long) mapped.length * SEGMENT_BYTES)
+			mapped[(int) (logEnd / SEGMENT_BYTES)].putInt((int) (logEnd % SEGMENT_BYTES), 0);
+		while ((maxElements != UNLIMITED) && (size > maxElements))
+			evictOne();
+		compactIfNeeded();
+	}
+
+	/**
+	 * @return 'offset', or the start of the next segment if there is no room for a record at 'offset' or it
+	 * is marked SKIP; or, if the log ends there, -(the end + 1)
+	 */
+	private static long skipToRecord(MappedByteBuffer[] mapped, long offset) {
+		for (;;) {
+			int s = (int) (offset / SEGMENT_BYTES);
+			if (s >= mapped.length)
+				return -(offset + 1L);
+			int pos = (int) (offset % SEGMENT_BYTES);
+			if ((SEGMENT_BYTES - pos >= HEADER_BYTES) && (mapped[s].getInt(pos) != SKIP))
+				return (mapped[s].getInt(pos) == 0) ? -(offset + 1L) : offset;
+			offset = (long) (s + 1) * SEGMENT_BYTES;
+		}
+	}
+
+	/**
+	 * Append 'record' to the log, starting a new segment if it does not fit in this one. Called with the write lock held
+	 * @return the offset of the record
+	 */
+	private long append(byte[] record)
+	throws IOException {
+		int pos = (int) (logEnd % SEGMENT_BYTES);
+		if (SEGMENT_BYTES - pos < record.length) {
+			if (SEGMENT_BYTES - pos >= 4)
+				segments[(int) (logEnd / SEGMENT_BYTES)].putInt(pos, SKIP);
+			logEnd += SEGMENT_BYTES - pos;
+			pos = 0;
+		}
+		int s = (int) (logEnd / SEGMENT_BYTES);
+		if (s >= segments.length) {
+			MappedByteBuffer[] grown = Arrays.copyOf(segments, s + 1);
+			raf.setLength((long) (s + 1) * SEGMENT_BYTES);
+			grown[s] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) s * SEGMENT_BYTES, SEGMENT_BYTES);
+			segments = grown;
+		}
+		ByteBuffer segment = segments[s].duplicate();
+		// the length goes in last, so a reader of the log never sees a record before it is all there
+		segment.position(pos + 4);
+		segment.put(record, 4, record.length - 4);
+		if (pos + record.length + 4 <= SEGMENT_BYTES)
+			segment.putInt(pos + record.length, 0);
+		segment.putInt(pos, record.length);
+		long offset = logEnd;
+		logEnd += record.length;
+		return offset;
+	}
+
+	private int recordLength(long offset) {
+		return segments[(int) (offset / SEGMENT_BYTES)].getInt((int) (offset % SEGMENT_BYTES));
+	}
+
+	/**
+	 * @return a record for 'key', or a removal record if 'value' is null
+	 */
+	private static byte[] encode(String key, GeocodedLocation value, long expiresAt)
+	throws IOException {
+		byte[] k = key.getBytes(StandardCharsets.UTF_8);
+		int valueLength = (value != null) ? GeocodedLocationCodec.encodedLength(value) : 0;
+		if ((k.length > Short.MAX_VALUE) || (HEADER_BYTES + k.length + valueLength > SEGMENT_BYTES))
+			throw new IOException("Entry too long to store: "+key);
+		ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + k.length + valueLength);
+		record.putInt(record.capacity());
+		record.putInt(0); // CRC, filled in below
+		record.putLong(expiresAt);
+		record.putShort((short) k.length);
+		record.put(k);
+		if (value != null)
+			GeocodedLocationCodec.write(value, record);
+		record.putInt(CRC, crc(record, 0, record.capacity()));
+		return record.array();
+	}
+
+	/**
+	 * Decode the GeocodedLocation in the record at 'offset'
+	 */
+	private static GeocodedLocation decode(MappedByteBuffer[] mapped, long offset)
+	throws IOException {
+		ByteBuffer segment = mapped[(int) (offset / SEGMENT_BYTES)].duplicate();
+		int pos = (int) (offset % SEGMENT_BYTES);
+		segment.position(pos + HEADER_BYTES + segment.getShort(pos + KEY_LENGTH));
+		try {
+			return GeocodedLocationCodec.read(segment);
+		}
+		catch (IllegalArgumentException | BufferUnderflowException e) {
+			throw new IOException("Unreadable record at "+offset);
+		}
+	}
+
+	private static String readString(ByteBuffer segment, int pos, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer b = segment.duplicate();
+		b.position(pos);
+		b.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the CRC32 of the record at 'pos', after the length and CRC fields
+	 */
+	private static int crc(ByteBuffer buffer, int pos, int length) {
+		ByteBuffer b = buffer.duplicate();
+		b.limit(pos + length);
+		b.position(pos + EXPIRES_AT);
+		CRC32 crc = new CRC32();
+		crc.update(b);
+		return (int) crc.getValue();
+	}
+
+
+	/// THE INDEX
+
+	private static int hash(String key) {
+		int h = key.hashCode() * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	private void newIndex(int capacity) {
+		slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	private int maxSize() {
+		return (mask + 1) - ((mask + 1) >>> 2); // a load factor of 3/4
+	}
+
+	/**
+	 * @return the slot holding 'keyBytes', or -1
+	 */
+	private int find(int h, byte[] keyBytes) {
+		MappedByteBuffer[] mapped = segments;
+		for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+			int at = slot * SLOT_BYTES;
+			long ref = slots.getLong(at);
+			if (ref == 0L)
+				return -1;
+			if ((slots.getInt(at + 8) == h) && keyEquals(mapped, ref - 1L, keyBytes))
+				return slot;
+		}
+	}
+
+	private static boolean keyEquals(MappedByteBuffer[] mapped, long offset, byte[] keyBytes) {
+		ByteBuffer segment = mapped[(int) (offset / SEGMENT_BYTES)];
+		int pos = (int) (offset % SEGMENT_BYTES);
+		if (segment.getShort(pos + KEY_LENGTH) != keyBytes.length)
+			return false;
+		pos += HEADER_BYTES;
+		for (int i = 0; i < keyBytes.length; i++) {
+			if (segment.get(pos + i) != keyBytes[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return an empty slot for a new key with hash 'h', growing the index if need be
+	 */
+	private int insertSlot(int h) {
+		if (size >= maxSize())
+			growIndex();
+		int slot = h & mask;
+		while (slots.getLong(slot * SLOT_BYTES) != 0L)
+			slot = (slot + 1) & mask;
+		size++;
+		return slot;
+	}
+
+	private void setSlot(int slot, long offset, int h, long expiresAt) {
+		int at = slot * SLOT_BYTES;
+		slots.putLong(at, offset + 1L);
+		slots.putInt(at + 8, h);
+		slots.putLong(at + 16, expiresAt);
+	}
+
+	/**
+	 * Empty 'slot', moving back any entries after it that would otherwise no longer be found
+	 */
+	private void deleteSlot(int slot) {
+		int hole = slot;
+		for (int j = (hole + 1) & mask; slots.getLong(j * SLOT_BYTES) != 0L; j = (j + 1) & mask) {
+			int home = slots.getInt(j * SLOT_BYTES + 8) & mask;
+			// the entry at j can fill the hole if its home slot is not between the hole and j
+			boolean stays = (hole <= j) ? ((hole < home) && (home <= j)) : ((hole < home) || (home <= j));
+			if (stays)
+				continue;
+			for (int b = 0; b < SLOT_BYTES; b += 8)
+				slots.putLong(hole * SLOT_BYTES + b, slots.getLong(j * SLOT_BYTES + b));
+			hole = j;
+		}
+		for (int b = 0; b < SLOT_BYTES; b += 8)
+			slots.putLong(hole * SLOT_BYTES + b, 0L);
+		size--;
+	}
+
+	private void growIndex() {
+		int capacity = mask + 1;
+		if (capacity * 2 > MAX_SLOTS)
+			throw new IllegalStateException("MappedCacheStore index is full");
+		ByteBuffer old = slots;
+		newIndex(capacity * 2);
+		for (int slot = 0; slot < capacity; slot++) {
+			int at = slot * SLOT_BYTES;
+			long ref = old.getLong(at);
+			if (ref != 0L) {
+				int h = old.getInt(at + 8);
+				setSlot(insertSlot(h), ref - 1L, h, old.getLong(at + 16));
+			}
+		}
+	}
+
+	/**
+	 * Remove the entry that expires first out of a few found from a random slot, and append its removal record. Called with the write lock held
+	 */
+	private void evictOne()
+	throws IOException {
+		int victim = -1;
+		int found = 0;
+		for (int slot = ThreadLocalRandom.current().nextInt(mask + 1); found < Math.min(EVICTION_SAMPLE, size); slot = (slot + 1) & mask) {
+			int at = slot * SLOT_BYTES;
+			if (slots.getLong(at) == 0L)
+				continue;
+			found++;
+			if ((victim < 0) || (slots.getLong(at + 16) < slots.getLong(victim * SLOT_BYTES + 16)))
+				victim = slot;
+		}
+		if (victim >= 0) {
+			long offset = slots.getLong(victim * SLOT_BYTES) - 1L;
+			ByteBuffer segment = segments[(int) (offset / SEGMENT_BYTES)];
+			int pos = (int) (offset % SEGMENT_BYTES);
+			String key = readString(segment, pos + HEADER_BYTES, segment.getShort(pos + KEY_LENGTH));
+			liveBytes -= recordLength(offset);
+			deleteSlot(victim);
+			append(encode(key, null, REMOVED));
+		}
+	}
+
+
+	/// COMPACTION
+
+	private void compactIfNeeded() {
+		lock.readLock().lock();
+		try {
+			if ((logEnd < MIN_COMPACT_BYTES) || (logEnd - liveBytes <= liveBytes))
+				return;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		if (compacting.compareAndSet(false, true)) {
+			try {
+				compactor.execute(() -> {
+					try {
+						compact();
+					}
+					catch (IOException ioe) {
+						// the old log is still in place (compact() reopens it if it had closed it), so nothing is lost; it is tried again after the next write
+					}
+					finally {
+						compacting.set(false);
+					}
+				});
+			}
+			catch (RejectedExecutionException ree) { // closing
+				compacting.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Copy the live records to a new log, and switch to it
+	 */
+	private void compact()
+	throws IOException {
+		// 1. note where the live records are
+		long copiedEnd;
+		long[] from;
+		lock.readLock().lock();
+		try {
+			copiedEnd = logEnd;
+			from = new long[size];
+			int n = 0;
+			for (int slot = 0; slot <= mask; slot++) {
+				long ref = slots.getLong(slot * SLOT_BYTES);
+				if (ref != 0L)
+					from[n++] = ref - 1L;
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		Arrays.sort(from);
+
+		// 2. copy them, without the lock: records before copiedEnd never change
+		File tmp = new File(file.getPath()+".compact");
+		long[] to = new long[from.length];
+		try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+			out.setLength(0L);
+			FileChannel channel = out.getChannel();
+			long newEnd = 0L;
+			MappedByteBuffer[] mapped = segments;
+			for (int i = 0; i < from.length; i++) {
+				to[i] = newEnd = copyRecord(mapped, from[i], channel, newEnd);
+				newEnd += recordLength(mapped, from[i]);
+			}
+
+			// 3. with the lock, copy what was appended meanwhile, and point the index at the new log
+			lock.writeLock().lock();
+			try {
+				mapped = segments;
+				HashMap<Long,Long> appended = new HashMap<Long,Long>();
+				for (long offset = copiedEnd; ; ) {
+					offset = skipToRecord(mapped, offset);
+					if ((offset < 0L) || (offset >= logEnd))
+						break;
+					long copied = copyRecord(mapped, offset, channel, newEnd);
+					appended.put(offset, copied);
+					newEnd = copied + recordLength(mapped, offset);
+					offset += recordLength(mapped, offset);
+				}
+				long[] refs = new long[mask + 1];
+				for (int slot = 0; slot <= mask; slot++) {
+					long ref = slots.getLong(slot * SLOT_BYTES);
+					if (ref == 0L)
+						continue;
+					long offset = ref - 1L;
+					Long copied = (offset >= copiedEnd) ? appended.get(offset) : null;
+					if (copied != null)
+						refs[slot] = copied + 1L;
+					else {
+						int i = Arrays.binarySearch(from, offset);
+						if (i < 0)
+							throw new IOException("Compaction lost a record"); // cannot happen; keep the old log
+						refs[slot] = to[i] + 1L;
+					}
+				}
+				int n = (int) Math.max(1L, (newEnd + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+				out.setLength((long) n * SEGMENT_BYTES);
+				channel.force(true);
+				// only now that the new log is complete does anything change
+				raf.close();
+				try {
+					Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch (IOException ioe) {
+					// the old log is still in place, and still mapped: reopen it, so the store can go on growing it
+					raf = new RandomAccessFile(file, "rw");
+					throw ioe;
+				}
+				raf = new RandomAccessFile(file, "rw");
+				MappedByteBuffer[] remapped = new MappedByteBuffer[n];
+				for (int i = 0; i < n; i++)
+					remapped[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT_BYTES, SEGMENT_BYTES);
+				segments = remapped;
+				for (int slot = 0; slot <= mask; slot++) {
+					if (refs[slot] != 0L)
+						slots.putLong(slot * SLOT_BYTES, refs[slot]);
+				}
+				logEnd = newEnd;
+				if (logEnd < (long) n * SEGMENT_BYTES)
+					remapped[(int) (logEnd / SEGMENT_BYTES)].putInt((int) (logEnd % SEGMENT_BYTES), 0);
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+		}
+		finally {
+			tmp.delete(); // if it was not moved into place
+		}
+	}
+
+	private static int recordLength(MappedByteBuffer[] mapped, long offset) {
+		return mapped[(int) (offset / SEGMENT_BYTES)].getInt((int) (offset % SEGMENT_BYTES));
+	}
+
+	/**
+	 * Write the record at 'offset' in 'mapped' to 'channel' at 'at', or at the start of the next segment
+	 * if it does not fit in this one (marking the rest of this one SKIP)
+	 * @return where it was written
+	 */
+	private static long copyRecord(MappedByteBuffer[] mapped, long offset, FileChannel channel, long at)
+	throws IOException {
+		int length = recordLength(mapped, offset);
+		int pos = (int) (at % SEGMENT_BYTES);
+		if (SEGMENT_BYTES - pos < length) {
+			if (SEGMENT_BYTES - pos >= 4) {
+				ByteBuffer skip = ByteBuffer.allocate(4).putInt(0, SKIP);
+				while (skip.hasRemaining())
+					channel.write(skip, at + skip.position());
+			}
+			at += SEGMENT_BYTES - pos;
+		}
+		ByteBuffer record = mapped[(int) (offset / SEGMENT_BYTES)].duplicate();
+		int from = (int) (offset % SEGMENT_BYTES);
+		record.limit(from + length);
+		record.position(from);
+		long to = at;
+		while (record.hasRemaining())
+			to += channel.write(record, to);
+		return at;
+	}
+
+}
@@ -0,0 +1,26 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes daemon threads named "prefix-N", so the executors owned by the geocoders
+ * are easy to spot in a thread dump and never keep the JVM alive
+ * 
+ * @author jim
+ */
+class NamedThreadFactory implements ThreadFactory {
+	private final String prefix;
+	private final AtomicInteger count = new AtomicInteger();
+
+	NamedThreadFactory(String prefix) {
+		this.prefix = prefix;
+	}
+
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, prefix+"-"+count.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.challengeandresponse.geo.geocoder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+
+/**
+ * A JDK Flight Recorder event for a failed lookup that a CachingGeocoder was to cache: an
+ * unknown address, or a transient error cached for the negative cache time. When a good result
+ * for the key was still cached, the failure was not written (see CachingGeocoder.storeResult),
+ * and 'kept' is true.
+ * 
+ * <p>These are rare next to successful lookups, so each one is recorded, without a threshold.
+ * When no recording has the event enabled, nothing is filled in.</p>
+ * 
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+@Name("com.challengeandresponse.geo.NegativeCachePut")
+@Label("Geocode Negative Cache Put")
+@Category({"Geocoder", "Cache"})
+@Description("A failed lookup written to (or kept out of) the cache")
+@StackTrace(false)
+public class NegativeCacheEvent extends jdk.jfr.Event {
+
+	@Label("Key")
+	String key;
+
+	@Label("Status")
+	@Description("The StatusCode of the failed lookup")
+	int status;
+
+	@Label("Source")
+	@Description("What produced the result, as GeocodedLocation.getGeocoder() names it: a geocoder, or for a lookup no geocoder could answer, the Geocoder that walked the chain")
+	String source;
+
+	@Label("Time To Live")
+	@Description("How long the failure is cached, or 0 if it never expires")
+	@Timespan(Timespan.MILLISECONDS)
+	long ttl;
+
+	@Label("Kept")
+	@Description("True if a good cached result was kept instead (stale-if-error)")
+	boolean kept;
+
+
+	/**
+	 * End the event and commit it, if it is recorded
+	 * @param key the cache key
+	 * @param gcl the failed result
+	 * @param ttlMillis the time to live the TTLPolicy gave it
+	 * @param kept true if it was not written because a good result is cached
+	 */
+	void end(String key, GeocodedLocation gcl, long ttlMillis, boolean kept) {
+		end();
+		if (shouldCommit()) {
+			this.key = key;
+			status = gcl.getServerResponse();
+			source = gcl.getGeocoder();
+			ttl = ttlMillis;
+			this.kept = kept;
+			commit();
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package com.challengeandresponse.geo.geocoder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+import com.challengeandresponse.geo.geocoders.PooledTransport;
+
+/**
+ * A JDK Flight Recorder event for one call from a Geocoder to one of its geocoders, with the
+ * geocoder's class, the status and precision of its answer, and the bytes of response it read.
+ * 
+ * <p>The bytes read are those the calling thread read through PooledTransport.get() during the
+ * call (see PooledTransport.getBytesRead()), so they are 0 for calls made with geocodeAsync(),
+ * whose responses are read on the HttpClient's threads, and for geocoders that do not use
+ * a PooledTransport.</p>
+ * 
+ * <p>Only calls that take at least the threshold (20 ms by default; set
+ * com.challengeandresponse.geo.ProviderCall#threshold in the recording's settings) are
+ * recorded. When no recording has the event enabled, begin() and end() do nothing and
+ * the fields are never filled in.</p>
+ * 
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+@Name("com.challengeandresponse.geo.ProviderCall")
+@Label("Geocoder Provider Call")
+@Category({"Geocoder"})
+@Description("A call to one geocoder in a Geocoder's chain")
+@StackTrace(false)
+@Threshold("20 ms")
+public class ProviderCallEvent extends jdk.jfr.Event {
+
+	@Label("Provider")
+	@Description("The geocoder called, as in GeocodedLocation.getGeocoder()")
+	String provider;
+
+	@Label("Provider Class")
+	Class<?> providerClass;
+
+	@Label("Input Class")
+	String inputClass;
+
+	@Label("Status")
+	@Description("The StatusCode of the answer")
+	int status;
+
+	@Label("Precision")
+	@Description("The PrecisionCode (accuracy) of the answer")
+	int precision;
+
+	@Label("Bytes Read")
+	@Description("The bytes of response read by the calling thread during the call")
+	@DataAmount
+	long bytesRead;
+
+	@Label("Cancelled")
+	@Description("True if the call was interrupted because its answer was no longer needed")
+	boolean cancelled;
+
+	// PooledTransport.getBytesRead() when the call began, or -1 if the bytes are not counted
+	private transient long bytesAtStart = -1L;
+
+
+	/**
+	 * Begin the event, noting the bytes read so far by this thread, for a call that reads its
+	 * response on this thread. Calls that do not just call begin()
+	 */
+	void start() {
+		begin();
+		if (isEnabled())
+			bytesAtStart = PooledTransport.getBytesRead();
+	}
+
+	/**
+	 * End the event and commit it, if it is recorded
+	 * @param gc the geocoder called
+	 * @param provider its ID
+	 * @param inputClass the InputClass of the place name
+	 * @param gcl the answer, or null if there was none
+	 * @param cancelled true if the call was interrupted
+	 */
+	void end(GeocoderI gc, String provider, int inputClass, GeocodedLocation gcl, boolean cancelled) {
+		end();
+		if (shouldCommit()) {
+			this.provider = provider;
+			this.providerClass = gc.getClass();
+			this.inputClass = InputClass.getText(inputClass);
+			if (gcl != null) {
+				status = gcl.getServerResponse();
+				precision = gcl.getAccuracy();
+			}
+			else
+				status = StatusCode.G_GEOCODER_ERROR;
+			this.cancelled = cancelled;
+			if (bytesAtStart >= 0L)
+				bytesRead = PooledTransport.getBytesRead() - bytesAtStart;
+			commit();
+		}
+	}
+
+}
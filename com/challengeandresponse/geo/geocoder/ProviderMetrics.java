@@ -0,0 +1,197 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters for the calls made to one geocoder: how many finished with each StatusCode,
+ * how many fell through (did not return an OK result), how many are in flight, and a
+ * LatencyHistogram of how long they took. Geocoder keeps one for each GeocoderI it
+ * calls, and one for its own lookups (see Geocoder.getMetrics()).
+ *
+ * <p>Unlike ProviderStats, which keeps moving averages to steer the chain, these are
+ * plain totals since the Geocoder was created, for monitoring. Recording a call is
+ * lock-free and allocation-free: begin() and end() only increment counters.
+ * snapshot() copies the counters, to read them all at one moment.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class ProviderMetrics implements ProviderMetricsMXBean {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	// the status codes counted separately; anything else is counted in the last slot
+	private static final int[] STATUS_CODES = {
+		StatusCode.GEO_SUCCESS, StatusCode.SUCCESS_NO_SERVER, StatusCode.GEO_SERVER_ERROR, StatusCode.GEO_MISSING_ADDRESS,
+		StatusCode.GEO_UNKNOWN_ADDRESS, StatusCode.UNAVAILABLE_ADDRESS, StatusCode.GEO_BAD_KEY, StatusCode.GEO_TOO_MANY_QUERIES,
+		StatusCode.G_DEADLINE_EXCEEDED, StatusCode.G_NOT_CONSULTED, StatusCode.G_COMM_ERROR, StatusCode.G_GEOCODER_ERROR
+	};
+	private static final int OTHER = STATUS_CODES.length;
+
+	private final String name;
+	private final AtomicLongArray callsByStatus = new AtomicLongArray(STATUS_CODES.length + 1);
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong successes = new AtomicLong();
+	private final AtomicLong inFlight = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final LatencyHistogram latency;
+
+
+	/**
+	 * @param name the geocoder the calls are made to, as in GeocodedLocation.getGeocoder()
+	 */
+	public ProviderMetrics(String name) {
+		this(name, new LatencyHistogram());
+	}
+
+	private ProviderMetrics(String name, LatencyHistogram latency) {
+		this.name = name;
+		this.latency = latency;
+	}
+
+
+	/**
+	 * Count a call as started
+	 * @return the start time, System.nanoTime(), to pass to end()
+	 */
+	public long begin() {
+		inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Count a call started by begin() as finished
+	 * @param start what begin() returned
+	 * @param status the StatusCode of the result, or StatusCode.G_GEOCODER_ERROR if there was none
+	 * @return how long the call took, in nanoseconds
+	 */
+	public long end(long start, int status) {
+		long nanos = System.nanoTime() - start;
+		inFlight.decrementAndGet();
+		latency.record(nanos);
+		callsByStatus.incrementAndGet(slot(status));
+		calls.incrementAndGet();
+		if (StatusCode.isOK(status))
+			successes.incrementAndGet();
+		return nanos;
+	}
+
+	/**
+	 * Count a call started by begin() as cancelled: it is not counted in getCalls() or the latency
+	 */
+	public void cancel() {
+		inFlight.decrementAndGet();
+		cancelled.incrementAndGet();
+	}
+
+	/**
+	 * @return a copy of the counters as they are now
+	 */
+	public ProviderMetrics snapshot() {
+		ProviderMetrics copy = new ProviderMetrics(name, latency.snapshot());
+		for (int i = 0; i <= OTHER; i++)
+			copy.callsByStatus.set(i, callsByStatus.get(i));
+		copy.calls.set(calls.get());
+		copy.successes.set(successes.get());
+		copy.inFlight.set(inFlight.get());
+		copy.cancelled.set(cancelled.get());
+		return copy;
+	}
+
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * @param statusCode a StatusCode
+	 * @return the number of calls that finished with 'statusCode'. Codes not known to StatusCode are counted together
+	 */
+	public long getCalls(int statusCode) {
+		return callsByStatus.get(slot(statusCode));
+	}
+
+	public long getSuccesses() {
+		return successes.get();
+	}
+
+	public long getFallThroughs() {
+		return calls.get() - successes.get();
+	}
+
+	public double getFallThroughRate() {
+		long n = calls.get();
+		return (n == 0L) ? 0.0D : (double) (n - successes.get()) / n;
+	}
+
+	public long getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getCancelled() {
+		return cancelled.get();
+	}
+
+	public Map<String,Long> getCallsByStatus() {
+		Map<String,Long> byStatus = new LinkedHashMap<String,Long>();
+		for (int i = 0; i <= OTHER; i++) {
+			long n = callsByStatus.get(i);
+			if (n != 0L)
+				byStatus.put((i == OTHER) ? "other" : String.valueOf(STATUS_CODES[i]), Long.valueOf(n));
+		}
+		return byStatus;
+	}
+
+	/**
+	 * @return the latencies of the calls, live
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public double getLatencyMeanMillis() {
+		return latency.getMean() / 1000000.0D;
+	}
+
+	public double getLatencyP50Millis() {
+		return latency.getValueAtPercentile(50.0D) / 1000000.0D;
+	}
+
+	public double getLatencyP90Millis() {
+		return latency.getValueAtPercentile(90.0D) / 1000000.0D;
+	}
+
+	public double getLatencyP99Millis() {
+		return latency.getValueAtPercentile(99.0D) / 1000000.0D;
+	}
+
+	public double getLatencyP999Millis() {
+		return latency.getValueAtPercentile(99.9D) / 1000000.0D;
+	}
+
+	public double getLatencyMaxMillis() {
+		return latency.getMax() / 1000000.0D;
+	}
+
+	public String toString() {
+		return "ProviderMetrics [name=" + name + ", calls=" + getCalls() + ", successes=" + getSuccesses()
+				+ ", fallThroughRate=" + getFallThroughRate() + ", inFlight=" + getInFlight() + ", cancelled=" + getCancelled()
+				+ ", callsByStatus=" + getCallsByStatus() + ", latency=" + latency + "]";
+	}
+
+
+	private static int slot(int status) {
+		for (int i = 0; i < STATUS_CODES.length; i++) {
+			if (STATUS_CODES[i] == status)
+				return i;
+		}
+		return OTHER;
+	}
+
+}
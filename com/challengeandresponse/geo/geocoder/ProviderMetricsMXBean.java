@@ -0,0 +1,84 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a ProviderMetrics: the calls made to one geocoder (or the lookups
+ * made by one Geocoder), their outcomes and their latency. See Geocoder.registerMBeans().
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public interface ProviderMetricsMXBean {
+
+	/**
+	 * @return the geocoder the calls were made to, as in GeocodedLocation.getGeocoder()
+	 */
+	public String getName();
+
+	/**
+	 * @return the number of calls that have finished, not counting cancelled ones
+	 */
+	public long getCalls();
+
+	/**
+	 * @return the number of calls that returned an OK result
+	 */
+	public long getSuccesses();
+
+	/**
+	 * @return the number of calls that did not return an OK result, so the lookup fell through to the next geocoder, if any
+	 */
+	public long getFallThroughs();
+
+	/**
+	 * @return getFallThroughs() / getCalls(), or 0.0 if there have been no calls
+	 */
+	public double getFallThroughRate();
+
+	/**
+	 * @return the number of calls in progress now
+	 */
+	public long getInFlight();
+
+	/**
+	 * @return the number of calls that were cancelled (interrupted) because their answer was no longer needed
+	 */
+	public long getCancelled();
+
+	/**
+	 * @return the number of calls that finished with each StatusCode, by code, leaving out codes with none
+	 */
+	public Map<String,Long> getCallsByStatus();
+
+	/**
+	 * @return the mean latency of the calls, in milliseconds
+	 */
+	public double getLatencyMeanMillis();
+
+	/**
+	 * @return the median latency of the calls, in milliseconds (see LatencyHistogram for the precision)
+	 */
+	public double getLatencyP50Millis();
+
+	/**
+	 * @return the 90th percentile latency of the calls, in milliseconds
+	 */
+	public double getLatencyP90Millis();
+
+	/**
+	 * @return the 99th percentile latency of the calls, in milliseconds
+	 */
+	public double getLatencyP99Millis();
+
+	/**
+	 * @return the 99.9th percentile latency of the calls, in milliseconds
+	 */
+	public double getLatencyP999Millis();
+
+	/**
+	 * @return the longest call, in milliseconds
+	 */
+	public double getLatencyMaxMillis();
+
+}
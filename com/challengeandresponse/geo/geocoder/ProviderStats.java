@@ -0,0 +1,118 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Moving averages of one geocoder's latency and success rate, kept separately for
+ * each InputClass, as used by Geocoder's adaptive ordering mode.
+ * 
+ * <p>Both averages are exponentially weighted (EWMA): each new call moves the average
+ * ALPHA of the way towards the new value, so recent behaviour counts most.</p>
+ * 
+ * <p>record() is lock-free: the averages are doubles held as bits in an AtomicLongArray,
+ * updated by compare-and-set, so calls to the same geocoder never wait for each other.</p>
+ * 
+ * @author jim
+ * @version 0.11 2026-10-17
+ */
+
+/*
+ * REVISION HISTORY
+ * 0.11 2026-10-17 Lock-free: compare-and-set instead of synchronized
+ */
+public class ProviderStats {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** Weight of each new call in the moving averages */
+	public static final double ALPHA = 0.1D;
+
+	/** The number of calls needed before the averages for an input class are trusted */
+	public static final int MIN_SAMPLES = 5;
+
+	// indexed by input class number: LAT_LON=0, IPV4=1, POSTCODE=2, FREE_TEXT=3; the averages are Double bits
+	private final AtomicLongArray latencyNanos = new AtomicLongArray(4);
+	private final AtomicLongArray successRate = new AtomicLongArray(4);
+	private final AtomicLongArray samples = new AtomicLongArray(4);
+
+
+	/**
+	 * Add one call to the averages
+	 * @param inputClass the InputClass of the place name
+	 * @param nanos how long the call took
+	 * @param success true if the geocoder returned an OK result
+	 */
+	public void record(int inputClass, long nanos, boolean success) {
+		int i = index(inputClass);
+		boolean first = (samples.getAndIncrement(i) == 0L);
+		update(latencyNanos, i, nanos, first);
+		update(successRate, i, success ? 1.0D : 0.0D, first);
+	}
+
+	/**
+	 * @return the moving average latency, in milliseconds, of calls for 'inputClass'
+	 */
+	public double getLatencyMillis(int inputClass) {
+		return get(latencyNanos, index(inputClass)) / 1000000.0D;
+	}
+
+	/**
+	 * @return the moving average success rate (0.0 to 1.0) of calls for 'inputClass'
+	 */
+	public double getSuccessRate(int inputClass) {
+		return get(successRate, index(inputClass));
+	}
+
+	/**
+	 * @return the number of calls recorded for 'inputClass'
+	 */
+	public long getSamples(int inputClass) {
+		return samples.get(index(inputClass));
+	}
+
+	/**
+	 * The expected cost of trying this geocoder for 'inputClass': latency divided by success rate.
+	 * Calling geocoders in increasing order of this cost minimizes the expected time to the first success.
+	 * @return the cost, or -1.0 if fewer than MIN_SAMPLES calls have been recorded for 'inputClass'
+	 */
+	public double getCost(int inputClass) {
+		int i = index(inputClass);
+		if (samples.get(i) < MIN_SAMPLES)
+			return -1.0D;
+		// a geocoder that never succeeds still gets a finite cost, so it sorts by latency among its peers
+		return get(latencyNanos, i) / Math.max(get(successRate, i), 0.001D);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ProviderStats [");
+		for (int i = 0; i < 4; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(InputClass.getText(1 << i)).append(": samples=").append(samples.get(i))
+				.append(" latencyMs=").append(get(latencyNanos, i) / 1000000.0D)
+				.append(" successRate=").append(get(successRate, i));
+		}
+		return sb.append("]").toString();
+	}
+
+	/**
+	 * Move the average at 'i' ALPHA of the way towards 'value', or set it to 'value' if this is the first sample
+	 */
+	private static void update(AtomicLongArray averages, int i, double value, boolean first) {
+		for (;;) {
+			long bits = averages.get(i);
+			double average = Double.longBitsToDouble(bits);
+			double next = first ? value : average + (ALPHA * (value - average));
+			if (averages.compareAndSet(i, bits, Double.doubleToRawLongBits(next)))
+				return;
+		}
+	}
+
+	private static double get(AtomicLongArray averages, int i) {
+		return Double.longBitsToDouble(averages.get(i));
+	}
+
+	private static int index(int inputClass) {
+		return Integer.numberOfTrailingZeros(inputClass) & 3;
+	}
+
+}
@@ -0,0 +1,324 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+
+/**
+ * Wraps a geocoder (or a pool of the same geocoder, one per API key) in a rate limiter,
+ * so that bursts are smoothed out here instead of being throttled by the server.
+ * 
+ * <p>Each key has a token bucket holding up to 'burst' tokens and refilled at
+ * 'ratePerSecond'; each call takes one token. A call that finds no token waits for one,
+ * in turn behind the calls already waiting, but only if its turn comes within
+ * 'maxWaitMillis'. Each key also has a daily quota of calls, reset at midnight UTC.
+ * A call that can get no token in time from any key, or finds every key's quota used up,
+ * is not passed on: it returns G_NOT_CONSULTED at once, so Geocoder moves straight on to
+ * the next geocoder without spending quota on a request that would be refused.</p>
+ * 
+ * <p>With a pool of keys, calls go to the keys in rotation, skipping keys with no
+ * token to hand, so the total rate is the sum of the keys' rates.</p>
+ * 
+ * <p>If the server throttles a key anyway (StatusCode GEO_TOO_MANY_QUERIES), that
+ * key's bucket is emptied and set back by a full burst, so it rests before it is used again.</p>
+ * 
+ * <p>A call made through geocode(String,Duration) waits for its turn no longer than its
+ * timeout allows, and the wrapped geocoder is given what is left of the timeout.</p>
+ * 
+ * <p>Usage:<br />
+ * <code>geocoder.addGeocoder(new RateLimitedGeocoder(new GoogleGeocoder(key), 10.0D, 10, 200L, 15000L));</code></p>
+ * 
+ * @author jim
+ * @version 0.11 2026-10-17
+ */
+
+/*
+ * REVISION HISTORY
+ * 0.10 2026-10-16 First version
+ * 0.11 2026-10-17 Added geocode(String,Duration); the wait for a turn counts against the caller's timeout
+ */
+public class RateLimitedGeocoder extends FilterGeocoder {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** A daily quota of 0 means no daily quota */
+	public static final long NO_QUOTA = 0L;
+
+	private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+	private final Key[] keys;
+	private final double tokensPerNano;
+	private final int burst;
+	private final long maxWaitNanos;
+	private final long dailyQuota;
+
+	// the key to try first on the next call
+	private int nextKey;
+
+	// counters for monitoring
+	private long callsDelayed;
+	private long callsNotConsulted;
+	private long callsThrottled;
+
+
+	/**
+	 * Rate limit a geocoder that has a single key
+	 * @param geocoder the geocoder to limit
+	 * @param ratePerSecond the sustained rate of calls allowed
+	 * @param burst the number of calls allowed at once after a quiet spell
+	 * @param maxWaitMillis the longest a call may wait for its turn before it is turned away
+	 * @param dailyQuota the number of calls allowed per day (UTC), or NO_QUOTA
+	 * @throws GeocoderException if geocoder is null or any setting is out of range
+	 */
+	public RateLimitedGeocoder(GeocoderI geocoder, double ratePerSecond, int burst, long maxWaitMillis, long dailyQuota)
+	throws GeocoderException {
+		this(new GeocoderI[] { geocoder }, ratePerSecond, burst, maxWaitMillis, dailyQuota);
+	}
+
+	/**
+	 * Rate limit a pool of geocoders, typically the same geocoder created with different keys.
+	 * The rate, burst and daily quota apply to each key.
+	 * Results are credited to the first geocoder in the pool.
+	 * @param pool the geocoders to use in rotation. All should be the same kind of geocoder
+	 * @param ratePerSecond the sustained rate of calls allowed, per key
+	 * @param burst the number of calls allowed at once after a quiet spell, per key
+	 * @param maxWaitMillis the longest a call may wait for its turn before it is turned away
+	 * @param dailyQuota the number of calls allowed per day (UTC) per key, or NO_QUOTA
+	 * @throws GeocoderException if the pool is empty or holds a null, or any setting is out of range
+	 */
+	public RateLimitedGeocoder(GeocoderI[] pool, double ratePerSecond, int burst, long maxWaitMillis, long dailyQuota)
+	throws GeocoderException {
+		super(((pool != null) && (pool.length > 0)) ? pool[0] : null);
+		if ((ratePerSecond <= 0.0D) || (burst < 1) || (maxWaitMillis < 0) || (dailyQuota < 0))
+			throw new GeocoderException("Invalid parameter");
+		this.tokensPerNano = ratePerSecond / 1000000000.0D;
+		this.burst = burst;
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		this.dailyQuota = dailyQuota;
+		this.keys = new Key[pool.length];
+		long now = System.nanoTime();
+		for (int i = 0; i < pool.length; i++) {
+			if (pool[i] == null)
+				throw new GeocoderException("Invalid parameter");
+			keys[i] = new Key(pool[i], burst, now);
+		}
+	}
+
+
+	public GeocodedLocation geocode(String placeName) {
+		return limit(placeName, null);
+	}
+
+	public GeocodedLocation geocode(String placeName, Duration timeout) {
+		return limit(placeName, timeout);
+	}
+
+	/**
+	 * Wait for a turn, then call the wrapped geocoder. With a timeout (non-null), the wait is
+	 * cut to fit in it and the wrapped geocoder gets the rest
+	 */
+	private GeocodedLocation limit(String placeName, Duration timeout) {
+		long start = System.nanoTime();
+		Reservation r = reserve((timeout == null) ? maxWaitNanos : Math.min(maxWaitNanos, timeout.toNanos()));
+		if (r == null)
+			return notConsulted(placeName);
+		if (r.waitNanos > 0L) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(r.waitNanos);
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				cancel(r.key);
+				return notConsulted(placeName);
+			}
+		}
+		GeocodedLocation gcl = (timeout == null) ? r.key.geocoder.geocode(placeName) :
+			r.key.geocoder.geocode(placeName, timeout.minusNanos(System.nanoTime() - start));
+		if ((gcl != null) && (gcl.getServerResponse() == StatusCode.GEO_TOO_MANY_QUERIES))
+			throttled(r.key);
+		return gcl;
+	}
+
+	public CompletableFuture<GeocodedLocation> geocodeAsync(final String placeName) {
+		final Reservation r = reserve(maxWaitNanos);
+		if (r == null)
+			return CompletableFuture.completedFuture(notConsulted(placeName));
+		CompletableFuture<GeocodedLocation> call;
+		if (r.waitNanos > 0L)
+			call = CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(r.waitNanos, TimeUnit.NANOSECONDS))
+				.thenCompose(v -> r.key.geocoder.geocodeAsync(placeName));
+		else
+			call = r.key.geocoder.geocodeAsync(placeName);
+		return call.whenComplete((gcl, t) -> {
+			if ((gcl != null) && (gcl.getServerResponse() == StatusCode.GEO_TOO_MANY_QUERIES))
+				throttled(r.key);
+		});
+	}
+
+
+	/**
+	 * @return the number of keys in the pool
+	 */
+	public int getKeyCount() {
+		return keys.length;
+	}
+
+	/**
+	 * @return the number of calls made today (UTC) with key number 'key' (0 to getKeyCount()-1)
+	 */
+	public synchronized long getQuotaUsed(int key) {
+		Key k = keys[key];
+		k.refill(System.nanoTime(), today());
+		return k.used;
+	}
+
+	/**
+	 * @return the number of calls that are still allowed today (UTC), over all keys, or Long.MAX_VALUE if there is no daily quota
+	 */
+	public synchronized long getQuotaRemaining() {
+		if (dailyQuota == NO_QUOTA)
+			return Long.MAX_VALUE;
+		long now = System.nanoTime();
+		long today = today();
+		long remaining = 0L;
+		for (int i = 0; i < keys.length; i++) {
+			keys[i].refill(now, today);
+			remaining += Math.max(dailyQuota - keys[i].used, 0L);
+		}
+		return remaining;
+	}
+
+	/**
+	 * @return the number of calls that had to wait for a token
+	 */
+	public synchronized long getCallsDelayed() {
+		return callsDelayed;
+	}
+
+	/**
+	 * @return the number of calls answered with G_NOT_CONSULTED because no key had a token or quota for them
+	 */
+	public synchronized long getCallsNotConsulted() {
+		return callsNotConsulted;
+	}
+
+	/**
+	 * @return the number of calls the server answered with GEO_TOO_MANY_QUERIES
+	 */
+	public synchronized long getCallsThrottled() {
+		return callsThrottled;
+	}
+
+	public String toString() {
+		return "RateLimitedGeocoder [geocoder=" + unwrap(geocoder).getClass().getName()
+				+ ", keys=" + getKeyCount() + ", quotaRemaining=" + getQuotaRemaining()
+				+ ", callsDelayed=" + getCallsDelayed() + ", callsNotConsulted=" + getCallsNotConsulted()
+				+ ", callsThrottled=" + getCallsThrottled() + "]";
+	}
+
+
+	/**
+	 * Take a token from the first key, in rotation, that has one to hand. If none has,
+	 * take one from the key that will have one soonest, provided that is within 'maxWait'.
+	 * Tokens may go below zero: that is the queue of calls waiting on that key.
+	 * @param maxWait the longest the call may wait, in nanoseconds
+	 * @return the key to call and how long to wait first, or null if the call must be turned away
+	 */
+	private synchronized Reservation reserve(long maxWait) {
+		long now = System.nanoTime();
+		long today = today();
+		int start = nextKey;
+		nextKey = (nextKey + 1) % keys.length;
+		Key best = null;
+		double bestWait = Double.MAX_VALUE;
+		for (int i = 0; i < keys.length; i++) {
+			Key k = keys[(start + i) % keys.length];
+			k.refill(now, today);
+			if ((dailyQuota != NO_QUOTA) && (k.used >= dailyQuota))
+				continue;
+			double wait = (k.tokens >= 1.0D) ? 0.0D : (1.0D - k.tokens) / tokensPerNano;
+			if (wait < bestWait) {
+				best = k;
+				bestWait = wait;
+				if (wait == 0.0D)
+					break;
+			}
+		}
+		if ((best == null) || (bestWait > maxWait)) {
+			callsNotConsulted++;
+			return null;
+		}
+		best.tokens -= 1.0D;
+		best.used++;
+		if (bestWait > 0.0D)
+			callsDelayed++;
+		return new Reservation(best, (long) Math.ceil(bestWait));
+	}
+
+	/**
+	 * Give back the token of a call that was abandoned before it was made
+	 */
+	private synchronized void cancel(Key k) {
+		k.tokens += 1.0D;
+		if (k.used > 0)
+			k.used--;
+		callsNotConsulted++;
+	}
+
+	/**
+	 * The server said a key is over its limit, so rest it for as long as a full burst takes to refill
+	 */
+	private synchronized void throttled(Key k) {
+		k.refill(System.nanoTime(), today());
+		k.tokens = Math.min(k.tokens, 0.0D) - burst;
+		callsThrottled++;
+	}
+
+	private static long today() {
+		return System.currentTimeMillis() / MILLIS_PER_DAY;
+	}
+
+
+	/**
+	 * One key: its geocoder, token bucket and quota count. Guarded by the RateLimitedGeocoder's lock
+	 */
+	private final class Key {
+		final GeocoderI geocoder;
+		double tokens;
+		long refilledAt;
+		long day;
+		long used;
+
+		Key(GeocoderI geocoder, int tokens, long now) {
+			this.geocoder = geocoder;
+			this.tokens = tokens;
+			this.refilledAt = now;
+			this.day = today();
+			this.used = 0L;
+		}
+
+		void refill(long now, long today) {
+			tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+			refilledAt = now;
+			if (today != day) {
+				day = today;
+				used = 0L;
+			}
+		}
+	}
+
+	/**
+	 * A token taken from a key, to be used after waitNanos
+	 */
+	private static final class Reservation {
+		final Key key;
+		final long waitNanos;
+
+		Reservation(Key key, long waitNanos) {
+			this.key = key;
+			this.waitNanos = waitNanos;
+		}
+	}
+
+}
@@ -0,0 +1,234 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A time-decaying counting Bloom filter of the keys that every geocoder has rejected, used
+ * by Geocoder to answer known-unresolvable place names (e.g. "*** this is bad input") with
+ * GEO_UNKNOWN_ADDRESS at once, without calling the geocoders again each time their cached
+ * failure expires. See Geocoder.setRejectFilter().
+ *
+ * <p>Each key has a 4-bit counter (0 to 15) in each of HASHES places; its count is the
+ * smallest of them. reject() adds one to each, and a key is rejected once its count
+ * reaches the threshold, so a place name must fail several times before it is blocked, and
+ * a few colliding keys cannot block one that has never failed. There are 16 counters for each
+ * key of capacity; with maxKeys keys blocked, about 1 in 1,000 other keys is wrongly blocked
+ * too, and with half that, about 1 in 10,000. Sixteen counters are packed into each long and
+ * updated with compare-and-set, so neither reading nor counting takes a lock.</p>
+ *
+ * <p>Every counter is halved once each half life, and whenever maxKeys times the threshold
+ * rejections have been counted since the last halving (enough to block maxKeys keys). So a blocked key is re-checked once its count decays
+ * below the threshold (later the more often it failed, as counts go up to 15), and however
+ * much bad input there is, the filter stays the size it was made, with few counters set.
+ * The halving is done by whichever caller finds it due, and by only one at a time, so the
+ * counters are halved once however many callers find it due together; it takes a few microseconds
+ * for each thousand keys of capacity.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class RejectFilter {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** The number of counters each key has */
+	public static final int HASHES = 4;
+
+	/** The largest count a key can have */
+	public static final int MAX_COUNT = 15;
+
+	// counters for each key of capacity
+	private static final int COUNTERS_PER_KEY = 16;
+	private static final long HALF_MASK = 0x7777777777777777L;
+
+	private final AtomicLongArray table;
+	private final int mask;
+	private final int maxKeys;
+	private final int threshold;
+	private final long halfLifeMillis;
+	private final int sampleSize;
+	private final AtomicInteger additions = new AtomicInteger();
+	private final AtomicLong nextDecayAt;
+	// claimed by the caller that halves the counters
+	private final AtomicBoolean decaying = new AtomicBoolean();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+
+
+	/**
+	 * @param maxKeys the number of distinct rejected keys to hold between halvings; the filter takes 8 bytes for each
+	 * @param threshold the number of times a key must be rejected before it is blocked, from 1 to MAX_COUNT
+	 * @param halfLifeMillis how often every count is halved
+	 * @throws GeocoderException if maxKeys < 1, threshold is out of range, or halfLifeMillis < 1
+	 */
+	public RejectFilter(int maxKeys, int threshold, long halfLifeMillis)
+	throws GeocoderException {
+		if ((maxKeys < 1) || (threshold < 1) || (threshold > MAX_COUNT) || (halfLifeMillis < 1))
+			throw new GeocoderException("Invalid parameter");
+		int counters = (int) Math.min((long) maxKeys * COUNTERS_PER_KEY, 1L << 30);
+		int size = Integer.highestOneBit(Math.max(counters / 16, 16) - 1) << 1; // next power of two
+		table = new AtomicLongArray(size);
+		mask = size - 1;
+		this.maxKeys = maxKeys;
+		this.threshold = threshold;
+		this.halfLifeMillis = halfLifeMillis;
+		sampleSize = (int) Math.min((long) maxKeys * threshold, Integer.MAX_VALUE);
+		nextDecayAt = new AtomicLong(System.currentTimeMillis() + halfLifeMillis);
+	}
+
+
+	/**
+	 * @param key a normalized key
+	 * @return true if 'key' has been rejected at least the threshold number of times, recently
+	 */
+	public boolean isRejected(String key) {
+		decayIfDue();
+		if (count(key) < threshold)
+			return false;
+		hits.increment();
+		return true;
+	}
+
+	/**
+	 * @param key a normalized key
+	 * @return the estimated number of recent rejections of 'key', 0 to MAX_COUNT. It may be too high, if other keys share its counters, but is never too low
+	 */
+	public int count(String key) {
+		long hash = hash(key);
+		int count = MAX_COUNT;
+		for (int i = 0; i < HASHES; i++) {
+			long h = spread(hash, i);
+			count = Math.min(count, (int) ((table.get(index(h)) >>> shift(h)) & 15L));
+		}
+		return count;
+	}
+
+	/**
+	 * Count one rejection of 'key' by every geocoder
+	 * @param key a normalized key
+	 */
+	public void reject(String key) {
+		decayIfDue();
+		rejections.increment();
+		long hash = hash(key);
+		for (int i = 0; i < HASHES; i++) {
+			long h = spread(hash, i);
+			int index = index(h);
+			int shift = shift(h);
+			long counter = 15L << shift;
+			for (;;) {
+				long word = table.get(index);
+				if (((word & counter) == counter) || table.compareAndSet(index, word, word + (1L << shift))) // saturated, or counted
+					break;
+			}
+		}
+		if (additions.incrementAndGet() == sampleSize) // only the one caller that reaches it
+			decay();
+	}
+
+	/**
+	 * Forget every rejection
+	 */
+	public void clear() {
+		for (int i = 0; i < table.length(); i++)
+			table.set(i, 0L);
+		additions.set(0);
+	}
+
+
+	/**
+	 * @return the number of times isRejected() has said true
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of rejections counted
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	public int getMaxKeys() {
+		return maxKeys;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public long getHalfLifeMillis() {
+		return halfLifeMillis;
+	}
+
+	public String toString() {
+		return "RejectFilter [maxKeys=" + maxKeys + ", threshold=" + threshold + ", halfLifeMillis=" + halfLifeMillis
+				+ ", hits=" + getHits() + ", rejections=" + getRejections() + "]";
+	}
+
+
+	/**
+	 * Halve every counter if a half life has passed since the last time
+	 */
+	private void decayIfDue() {
+		long now = System.currentTimeMillis();
+		long due = nextDecayAt.get();
+		if ((now >= due) && nextDecayAt.compareAndSet(due, now + halfLifeMillis))
+			decay();
+	}
+
+	/**
+	 * Halve every counter, unless another caller is halving them already. Concurrent rejections may be lost, which only makes the filter a little less exact
+	 */
+	private void decay() {
+		if (! decaying.compareAndSet(false, true))
+			return;
+		try {
+			additions.set(0);
+			for (int i = 0; i < table.length(); i++) {
+				for (;;) {
+					long word = table.get(i);
+					if ((word == 0L) || table.compareAndSet(i, word, (word >>> 1) & HALF_MASK))
+						break;
+				}
+			}
+		}
+		finally {
+			decaying.set(false);
+		}
+	}
+
+	/**
+	 * @return a 64-bit hash of 'key' (FNV-1a over its chars, then mixed), so keys whose String.hashCode() collide are still told apart
+	 */
+	private static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++)
+			h = (h ^ key.charAt(i)) * 0x100000001b3L;
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * @return the bits for the i'th of the key's counters
+	 */
+	private static long spread(long hash, int i) {
+		long h = (hash + (i + 1) * 0x9e3779b97f4a7c15L);
+		h = (h ^ (h >>> 31)) * 0xbf58476d1ce4e5b9L;
+		return h ^ (h >>> 32);
+	}
+
+	private int index(long h) {
+		return (int) (h >>> 4) & mask;
+	}
+
+	private static int shift(long h) {
+		return ((int) h & 15) << 2;
+	}
+
+}
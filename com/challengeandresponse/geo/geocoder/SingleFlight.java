@@ -0,0 +1,114 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key: while a call for a key is in flight,
+ * any other call for that key waits for, and returns, the same result instead of
+ * doing the work again. Once the call completes the key is forgotten, so this is
+ * not a cache: the next call after that does the work afresh.
+ * 
+ * <p>Calls for different keys never wait on each other. The only shared state is
+ * a ConcurrentHashMap of the futures in flight, and no lock is held while the work runs.</p>
+ * 
+ * <p>Synchronous (run) and asynchronous (runAsync) calls for a key share the same flight.</p>
+ * 
+ * @author jim
+ * @version 0.10 2026-10-16
+ */
+public class SingleFlight<K,V> {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	private final ConcurrentHashMap<K,CompletableFuture<V>> flights = new ConcurrentHashMap<K,CompletableFuture<V>>();
+
+
+	/**
+	 * Do 'work' for 'key' on the calling thread, unless a call for 'key' is already in flight,
+	 * in which case wait for that call and return its result (or throw its exception)
+	 * @param key the key identifying the work
+	 * @param work the work to do
+	 * @return the result of 'work', or of the call already in flight
+	 */
+	public V run(K key, Supplier<V> work) {
+		CompletableFuture<V> mine = new CompletableFuture<V>();
+		CompletableFuture<V> theirs = flights.putIfAbsent(key, mine);
+		if (theirs != null)
+			return join(theirs);
+		try {
+			V result = work.get();
+			flights.remove(key, mine);
+			mine.complete(result);
+			return result;
+		}
+		catch (RuntimeException | Error e) {
+			flights.remove(key, mine);
+			mine.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Start 'work' for 'key', unless a call for 'key' is already in flight,
+	 * in which case return a future for that call's result
+	 * @param key the key identifying the work
+	 * @param work starts the work, and returns a future for its result
+	 * @return a future for the result of 'work', or of the call already in flight
+	 */
+	public CompletableFuture<V> runAsync(final K key, Supplier<CompletableFuture<V>> work) {
+		final CompletableFuture<V> mine = new CompletableFuture<V>();
+		CompletableFuture<V> theirs = flights.putIfAbsent(key, mine);
+		if (theirs != null)
+			return theirs;
+		CompletableFuture<V> call;
+		try {
+			call = work.get();
+		}
+		catch (RuntimeException re) {
+			call = new CompletableFuture<V>();
+			call.completeExceptionally(re);
+		}
+		call.whenComplete((result, t) -> {
+			// forget the key first, so a caller that arrives after completion starts a new flight
+			flights.remove(key, mine);
+			if (t != null)
+				mine.completeExceptionally(t);
+			else
+				mine.complete(result);
+		});
+		return mine;
+	}
+
+	/**
+	 * @return the future for the call in flight for 'key', or null if there is none. Waiting on it does not join the flight's callers in any other way
+	 */
+	public CompletableFuture<V> get(K key) {
+		return flights.get(key);
+	}
+
+	/**
+	 * @return the number of keys with a call in flight
+	 */
+	public int size() {
+		return flights.size();
+	}
+
+
+	private static <V> V join(CompletableFuture<V> flight) {
+		try {
+			return flight.join();
+		}
+		catch (CompletionException ce) {
+			// rethrow what the call in flight threw
+			Throwable t = ce.getCause();
+			if (t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			if (t instanceof Error)
+				throw (Error) t;
+			throw ce;
+		}
+	}
+
+}
@@ -27,7 +27,16 @@ public class StatusCode {
 	public static final int GEO_UNKNOWN_ADDRESS = 602;
 	public static final int UNAVAILABLE_ADDRESS = 603;
 	public static final int GEO_BAD_KEY = 610;
+	public static final int GEO_TOO_MANY_QUERIES = 620;
 	
+	/**
+	 * The time the caller allowed for the lookup ran out before the geocoder answered (see Geocoder.geocode(String,Duration))
+	 */
+	public static final int G_DEADLINE_EXCEEDED = 9995;
+	/**
+	 * The geocoder was not consulted, e.g. its circuit breaker was open
+	 */
+	public static final int G_NOT_CONSULTED = 9996;
 	/**
 	 * A protocol or communication error occurred, e.g. IO Exception or malformed URL
 	 */
@@ -62,6 +71,12 @@ public class StatusCode {
 			return "The geocode for the given address cannot be returned due to legal or contractual reasons.";
 		case GEO_BAD_KEY:
 			return "The given key is either invalid or does not match the domain for which it was given.";
+		case GEO_TOO_MANY_QUERIES:
+			return "The given key has gone over the requests limit in the 24 hour period or has submitted too many requests in too short a period of time.";
+		case G_DEADLINE_EXCEEDED:
+			return "The time allowed for the lookup ran out.";
+		case G_NOT_CONSULTED:
+			return "The geocoder was not consulted.";
 		case G_COMM_ERROR:
 			return "Communication error.";
 		case G_GEOCODER_ERROR:
@@ -88,5 +103,39 @@ public class StatusCode {
 			return false;
 		}
 	}
+
+	/**
+	 * @param code
+	 * @return true if 'code' means the place name was turned away without being looked up, or the lookup was cut short
+	 * (G_NOT_CONSULTED, GEO_TOO_MANY_QUERIES, G_DEADLINE_EXCEEDED), so the response says nothing about the place name and should not be cached
+	 */
+	public static boolean isRefused(int code) {
+		switch (code) {
+		case G_NOT_CONSULTED:
+		case GEO_TOO_MANY_QUERIES:
+		case G_DEADLINE_EXCEEDED:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @param code
+	 * @return true if 'code' means the lookup failed for a reason that may go away if it is tried again
+	 * (GEO_SERVER_ERROR, GEO_BAD_KEY, G_COMM_ERROR, G_GEOCODER_ERROR), as opposed to a geocoder saying
+	 * that it cannot locate the place name (GEO_UNKNOWN_ADDRESS, GEO_MISSING_ADDRESS, UNAVAILABLE_ADDRESS)
+	 */
+	public static boolean isTransientError(int code) {
+		switch (code) {
+		case GEO_SERVER_ERROR:
+		case GEO_BAD_KEY:
+		case G_COMM_ERROR:
+		case G_GEOCODER_ERROR:
+			return true;
+		default:
+			return false;
+		}
+	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+package com.challengeandresponse.geo.geocoder;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+
+/**
+ * Decides how long CachingGeocoder keeps a result, from the result's StatusCode,
+ * its PrecisionCode and the geocoder that produced it, when the result is put into
+ * the cache. So an IP lookup can expire in hours and a street address in months, while
+ * a communication error is retried in seconds and an unknown address in a day or so.
+ *
+ * <p>The policy is a list of rules, each of which matches a status code, a precision code
+ * and a geocoder, or ANY of them. The rule that matches most specifically wins: a match on
+ * the geocoder counts for more than a match on the status, which counts for more than a
+ * match on the precision. Between equally specific rules the one set last wins. A result
+ * that matches no rule gets the default TTL.</p>
+ *
+ * <p>A TTL is a number of milliseconds, or GeocodeCache.NO_EXPIRY (never expires), or
+ * DO_NOT_CACHE. Rules can be set while the policy is in use.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class TTLPolicy {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** Matches any status code or precision code */
+	public static final int ANY = Integer.MIN_VALUE;
+
+	/** A TTL meaning the result is not cached at all */
+	public static final long DO_NOT_CACHE = -1L;
+
+	/** In defaultPolicy(): how long an IPV4Geocoder result lives, as addresses are reassigned */
+	public static final long IPV4_TTL_MILLIS = TimeUnit.HOURS.toMillis(6);
+	/** In defaultPolicy(): how long a result at town precision or coarser (including AREA and CONTINENT), or of unknown accuracy, lives */
+	public static final long COARSE_TTL_MILLIS = TimeUnit.DAYS.toMillis(7);
+	/** In defaultPolicy(): how long a place name no geocoder could locate stays unknown */
+	public static final long UNKNOWN_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	// the IPV4Geocoder, as named in GeocodedLocation.getGeocoder()
+	private static final String IPV4_GEOCODER = "com.challengeandresponse.geo.geocoders.IPV4Geocoder";
+
+	private final CopyOnWriteArrayList<Rule> rules = new CopyOnWriteArrayList<Rule>();
+	private volatile long defaultTTLMillis;
+
+
+	/**
+	 * A policy with no rules, so every result gets 'defaultTTLMillis'
+	 * @param defaultTTLMillis the TTL of results that match no rule
+	 * @throws GeocoderException if defaultTTLMillis is not a TTL
+	 */
+	public TTLPolicy(long defaultTTLMillis)
+	throws GeocoderException {
+		setDefaultTTL(defaultTTLMillis);
+	}
+
+
+	/**
+	 * The policy CachingGeocoder starts with:<br />
+	 * successes: 'ttlMillis', but at most COARSE_TTL_MILLIS for town precision or coarser (including AREA and CONTINENT) or of unknown accuracy, and at most IPV4_TTL_MILLIS from the IPV4Geocoder<br />
+	 * GEO_UNKNOWN_ADDRESS, GEO_MISSING_ADDRESS and UNAVAILABLE_ADDRESS: UNKNOWN_TTL_MILLIS<br />
+	 * transient errors (see StatusCode.isTransientError): 'errorTTLMillis'<br />
+	 * refusals (see StatusCode.isRefused): DO_NOT_CACHE.<br />
+	 * No TTL is longer than 'ttlMillis' unless that is NO_EXPIRY.
+	 * @param ttlMillis the TTL of successful results, normally the cache's time to live
+	 * @param errorTTLMillis the TTL of transient errors, normally seconds
+	 * @return the policy
+	 * @throws GeocoderException if either is not a TTL
+	 */
+	public static TTLPolicy defaultPolicy(long ttlMillis, long errorTTLMillis)
+	throws GeocoderException {
+		TTLPolicy policy = new TTLPolicy(ttlMillis);
+		int[] coarse = { PrecisionCode.UNKNOWN_LOCATION, PrecisionCode.COUNTRY, PrecisionCode.REGION, PrecisionCode.SUB_REGION,
+				PrecisionCode.TOWN, PrecisionCode.AREA, PrecisionCode.CONTINENT, PrecisionCode.UNKNOWN_ACCURACY };
+		for (int i = 0; i < coarse.length; i++)
+			policy.setTTL(ANY, coarse[i], null, cap(COARSE_TTL_MILLIS, ttlMillis));
+		policy.setTTL(ANY, ANY, IPV4_GEOCODER, cap(IPV4_TTL_MILLIS, ttlMillis));
+		int[] unknown = { StatusCode.GEO_UNKNOWN_ADDRESS, StatusCode.GEO_MISSING_ADDRESS, StatusCode.UNAVAILABLE_ADDRESS };
+		for (int i = 0; i < unknown.length; i++)
+			policy.setTTL(unknown[i], ANY, null, cap(UNKNOWN_TTL_MILLIS, ttlMillis));
+		int[] errors = { StatusCode.GEO_SERVER_ERROR, StatusCode.GEO_BAD_KEY, StatusCode.G_COMM_ERROR, StatusCode.G_GEOCODER_ERROR };
+		for (int i = 0; i < errors.length; i++)
+			policy.setTTL(errors[i], ANY, null, cap(errorTTLMillis, ttlMillis));
+		int[] refused = { StatusCode.G_NOT_CONSULTED, StatusCode.GEO_TOO_MANY_QUERIES, StatusCode.G_DEADLINE_EXCEEDED };
+		for (int i = 0; i < refused.length; i++)
+			policy.setTTL(refused[i], ANY, null, DO_NOT_CACHE);
+		return policy;
+	}
+
+
+	/**
+	 * Set the TTL of results matching a status code, precision code and geocoder, replacing
+	 * the TTL of a rule for exactly the same match if there is one
+	 * @param statusCode the StatusCode to match, or ANY
+	 * @param precisionCode the PrecisionCode to match, or ANY
+	 * @param geocoder the class name of the geocoder to match (as at the start of GeocodedLocation.getGeocoder()), or null for any
+	 * @param ttlMillis the TTL in milliseconds, or GeocodeCache.NO_EXPIRY, or DO_NOT_CACHE
+	 * @throws GeocoderException if ttlMillis is not a TTL
+	 */
+	public synchronized void setTTL(int statusCode, int precisionCode, String geocoder, long ttlMillis)
+	throws GeocoderException {
+		checkTTL(ttlMillis);
+		Rule rule = new Rule(statusCode, precisionCode, geocoder, ttlMillis);
+		for (Rule r : rules) {
+			if (r.sameMatch(rule))
+				rules.remove(r);
+		}
+		rules.add(rule);
+	}
+
+	/**
+	 * @param defaultTTLMillis the TTL of results that match no rule
+	 * @throws GeocoderException if defaultTTLMillis is not a TTL
+	 */
+	public void setDefaultTTL(long defaultTTLMillis)
+	throws GeocoderException {
+		checkTTL(defaultTTLMillis);
+		this.defaultTTLMillis = defaultTTLMillis;
+	}
+
+	/**
+	 * @return the TTL of results that match no rule
+	 */
+	public long getDefaultTTL() {
+		return defaultTTLMillis;
+	}
+
+	/**
+	 * @param gcl a result from the geocoders
+	 * @return how long to cache 'gcl': milliseconds, GeocodeCache.NO_EXPIRY or DO_NOT_CACHE
+	 */
+	public long getTTL(GeocodedLocation gcl) {
+		int status = gcl.getServerResponse();
+		int precision = gcl.getAccuracy();
+		String geocoder = gcl.getGeocoder();
+		Rule best = null;
+		for (Rule r : rules) {
+			if (r.matches(status, precision, geocoder) && ((best == null) || (r.specificity >= best.specificity)))
+				best = r;
+		}
+		return (best != null) ? best.ttlMillis : defaultTTLMillis;
+	}
+
+	public String toString() {
+		return "TTLPolicy [defaultTTLMillis=" + defaultTTLMillis + ", rules=" + rules + "]";
+	}
+
+
+	private static void checkTTL(long ttlMillis)
+	throws GeocoderException {
+		if ((ttlMillis < 0L) && (ttlMillis != DO_NOT_CACHE))
+			throw new GeocoderException("Invalid parameter");
+	}
+
+	/**
+	 * @return 'ttlMillis', but no longer than 'maxMillis' unless that is NO_EXPIRY
+	 */
+	private static long cap(long ttlMillis, long maxMillis) {
+		if (maxMillis == GeocodeCache.NO_EXPIRY)
+			return ttlMillis;
+		if (ttlMillis == GeocodeCache.NO_EXPIRY)
+			return maxMillis;
+		return Math.min(ttlMillis, maxMillis);
+	}
+
+
+	/**
+	 * One rule: a match on status, precision and geocoder, and the TTL it gives
+	 */
+	private static final class Rule {
+		final int statusCode;
+		final int precisionCode;
+		final String geocoder;
+		final long ttlMillis;
+		final int specificity;
+
+		Rule(int statusCode, int precisionCode, String geocoder, long ttlMillis) {
+			this.statusCode = statusCode;
+			this.precisionCode = precisionCode;
+			this.geocoder = geocoder;
+			this.ttlMillis = ttlMillis;
+			this.specificity = ((geocoder != null) ? 4 : 0) + ((statusCode != ANY) ? 2 : 0) + ((precisionCode != ANY) ? 1 : 0);
+		}
+
+		boolean matches(int status, int precision, String gc) {
+			return ((statusCode == ANY) || (statusCode == status))
+				&& ((precisionCode == ANY) || (precisionCode == precision))
+				&& ((geocoder == null) || ((gc != null) && gc.startsWith(geocoder)
+						&& ((gc.length() == geocoder.length()) || (gc.charAt(geocoder.length()) == ' '))));
+		}
+
+		boolean sameMatch(Rule r) {
+			return (statusCode == r.statusCode) && (precisionCode == r.precisionCode)
+				&& ((geocoder == null) ? (r.geocoder == null) : geocoder.equals(r.geocoder));
+		}
+
+		public String toString() {
+			return "[status=" + ((statusCode == ANY) ? "ANY" : ""+statusCode)
+				+ ", precision=" + ((precisionCode == ANY) ? "ANY" : ""+precisionCode)
+				+ ", geocoder=" + ((geocoder == null) ? "ANY" : geocoder) + ", ttlMillis=" + ttlMillis + "]";
+		}
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.challengeandresponse.geo.geocoders;
+
+import java.io.IOException;
+
+/**
+ * Thrown by Transport.get(URL,Duration) when the time the caller allowed ran out
+ * before the response arrived. This is the caller's limit, not a fault of the server,
+ * so the remote geocoders answer it with StatusCode.G_DEADLINE_EXCEEDED rather than G_COMM_ERROR.
+ * 
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class DeadlineExceededException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public DeadlineExceededException(String message) {
+		super(message);
+	}
+
+}
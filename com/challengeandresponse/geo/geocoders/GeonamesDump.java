@@ -0,0 +1,143 @@
+package com.challengeandresponse.geo.geocoders;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads a GeoNames dump (e.g. allCountries.txt, cities1000.txt, or the .zip files they are
+ * distributed in, from http://download.geonames.org/export/dump/): UTF-8 text, one place
+ * per line, in tab-separated fields whose positions are the constants below.
+ *
+ * <p>Lines are split by hand, not with a regular expression, and only the places in the
+ * feature classes asked for are passed on, so a dump of millions of places is read in
+ * seconds. Comment lines (starting with #) and lines with too few fields are skipped.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public final class GeonamesDump {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/// FIELDS of each line
+	public static final int GEONAMEID = 0;
+	public static final int NAME = 1;
+	public static final int ASCIINAME = 2;
+	public static final int ALTERNATENAMES = 3;
+	public static final int LATITUDE = 4;
+	public static final int LONGITUDE = 5;
+	public static final int FEATURE_CLASS = 6;
+	public static final int FEATURE_CODE = 7;
+	public static final int COUNTRY_CODE = 8;
+	public static final int CC2 = 9;
+	public static final int ADMIN1_CODE = 10;
+	public static final int ADMIN2_CODE = 11;
+	public static final int ADMIN3_CODE = 12;
+	public static final int ADMIN4_CODE = 13;
+	public static final int POPULATION = 14;
+	public static final int ELEVATION = 15;
+	public static final int DEM = 16;
+	public static final int TIMEZONE = 17;
+	public static final int MODIFICATION_DATE = 18;
+	/** The number of fields in a line */
+	public static final int FIELDS = 19;
+
+	/** Populated places (cities, towns, villages) and administrative areas (countries, states, counties) */
+	public static final String CITIES_AND_ADMIN_AREAS = "AP";
+
+
+	/**
+	 * Receives the places read from a dump
+	 */
+	public interface PlaceHandler {
+
+		/**
+		 * @param fields the fields of one place, indexed by the constants in GeonamesDump. The array is reused for the next place
+		 * @throws IOException to stop reading
+		 */
+		public void place(String[] fields)
+		throws IOException;
+
+	}
+
+
+	private GeonamesDump() {
+	}
+
+
+	/**
+	 * Read the dump 'file', passing each place in 'featureClasses' to 'handler'
+	 * @param file a GeoNames dump, as text or as a .zip file holding it (the first entry not named readme is read)
+	 * @param featureClasses the GeoNames feature classes to read, e.g. CITIES_AND_ADMIN_AREAS, or null for all
+	 * @param handler receives each place
+	 * @return the number of places passed to 'handler'
+	 * @throws IOException if the file could not be read, or 'handler' threw it
+	 */
+	public static long read(File file, String featureClasses, PlaceHandler handler)
+	throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			if (! file.getName().toLowerCase().endsWith(".zip"))
+				return read(in, featureClasses, handler);
+			ZipInputStream zin = new ZipInputStream(in, StandardCharsets.UTF_8);
+			ZipEntry entry;
+			while ((entry = zin.getNextEntry()) != null) {
+				if ((! entry.isDirectory()) && (! entry.getName().toLowerCase().startsWith("readme")))
+					return read(zin, featureClasses, handler);
+			}
+			throw new IOException("No dump in "+file);
+		}
+	}
+
+	/**
+	 * Read a dump from 'in', passing each place in 'featureClasses' to 'handler'. 'in' is not closed
+	 * @return the number of places passed to 'handler'
+	 * @throws IOException if 'in' could not be read, or 'handler' threw it
+	 */
+	public static long read(InputStream in, String featureClasses, PlaceHandler handler)
+	throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+		String[] fields = new String[FIELDS];
+		long places = 0L;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith("#") || (! split(line, fields)))
+				continue;
+			if ((featureClasses != null) && ((fields[FEATURE_CLASS].length() != 1) || (featureClasses.indexOf(fields[FEATURE_CLASS].charAt(0)) < 0)))
+				continue;
+			handler.place(fields);
+			places++;
+		}
+		return places;
+	}
+
+
+	/**
+	 * Split 'line' at its tabs into 'fields'; fields missing from the end are ""
+	 * @return false if the line has too few fields to have a feature class
+	 */
+	private static boolean split(String line, String[] fields) {
+		int start = 0;
+		int n = 0;
+		while (n < FIELDS) {
+			int end = line.indexOf('\t', start);
+			if (end < 0) {
+				fields[n++] = line.substring(start);
+				break;
+			}
+			fields[n++] = line.substring(start, end);
+			start = end + 1;
+		}
+		if (n <= COUNTRY_CODE)
+			return false;
+		while (n < FIELDS)
+			fields[n++] = "";
+		return true;
+	}
+
+}
@@ -1,10 +1,14 @@
 package com.challengeandresponse.geo.geocoders;
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.util.Hashtable;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 
-import com.challengeandresponse.cheapws.*;
 import com.challengeandresponse.geo.data.GeocodedLocation;
 import com.challengeandresponse.geo.geocoder.*;
 
@@ -21,11 +25,17 @@ import com.challengeandresponse.geo.geocoder.*;
 /*
  * REVISION HISTORY
  * 0.20 2007-02-02 Updated to use BigDecimal LLH version of GeocodedLocation, and to pass strings to the constructor to save time
+ * 0.22 2026-10-16 Added geocodeAsync(), split geocode() into fetch and parse steps
+ * 0.23 2026-10-17 Safe to share between threads: one CheapXPath and CheapREST per thread, no lock around parsing
+ * 0.24 2026-10-17 Responses are read in one streaming pass (XMLFieldExtractor), stopping after the first geoname; a response with no geoname and no error status is GEO_UNKNOWN_ADDRESS
+ * 0.25 2026-10-17 Fetches through a pluggable Transport (setTransport), by default the shared keep-alive PooledTransport; fetch failures are G_COMM_ERROR
+ * 0.26 2026-10-17 Added geocode(String,Duration), passing the caller's time budget to the transport; G_DEADLINE_EXCEEDED if it runs out
+ * 0.27 2026-10-17 The feature class and code to PrecisionCode mapping is precision(), shared with GeonamesReverseGeocoder
  */
 public class GeonamesGeocoder implements GeocoderI {
 	public static final String	PRODUCT_SHORT 	= "GeonamesGeocoder";
 	public static final String	PRODUCT_LONG	= "Challenge/Response Geonames Geocoder";
-	public static final String	VERSION_SHORT	= "0.21";
+	public static final String	VERSION_SHORT	= "0.27";
 	public static final String	VERSION_LONG 	=  PRODUCT_LONG + " " + VERSION_SHORT;
 	public static final String	COPYRIGHT		= "Copyright (c) 2007 Challenge/Response, LLC, Cambridge, MA";
  
@@ -45,7 +55,7 @@ public class GeonamesGeocoder implements GeocoderI {
 	// mapping GeoNames feature classes and codes to AccuracyCodes
 	// note that sometimes the whole CLASS is encoded here, e.g. "H"
 	// search for code first. If no match, search for the feature class instead
-	private static final Hashtable <String, Integer> ACCURACY_CODES = new Hashtable <String,Integer>();
+	private static final HashMap <String,Integer> ACCURACY_CODES = new HashMap <String,Integer>(); // read-only after loading, so no lock
 	static {
 		ACCURACY_CODES.put("ADM1",new Integer(PrecisionCode.REGION));
 		ACCURACY_CODES.put("ADM2",new Integer(PrecisionCode.SUB_REGION));
@@ -108,16 +118,27 @@ public class GeonamesGeocoder implements GeocoderI {
 	/** The URL of Geonames API, it is hardcoded not final, so could be overridden if necessary */
 	public static String GEOCODER_URL="http://ws.geonames.org/search";
 
+	// the fields read from a response, in one pass that stops at the end of the first geoname
+	private static final XMLFieldExtractor FIELDS = new XMLFieldExtractor("geoname", new String[] {
+			"geoname/fcl", "geoname/fcode", "geoname/name", "geoname/countryCode", "geoname/lat", "geoname/lng",
+			"geonames/status@value" });
+	private static final int FCL = 0;
+	private static final int FCODE = 1;
+	private static final int NAME = 2;
+	private static final int COUNTRY_CODE = 3;
+	private static final int LATITUDE = 4;
+	private static final int LONGITUDE = 5;
+	private static final int STATUS = 6;
+
 
 	/// PRIVATE INSTANCE...
-	private CheapXPath cheapxp;
-	private CheapREST cheapREST;
+	// how responses are fetched
+	private volatile Transport transport;
 
 	
 	/// CONSTRUCTOR	
 	public GeonamesGeocoder() { 
-		cheapxp = new CheapXPath();
-		cheapREST = new CheapREST();
+		transport = PooledTransport.getDefault();
 	}
 
 
@@ -134,50 +155,153 @@ public class GeonamesGeocoder implements GeocoderI {
 	 * @return a GeocodedLocation object for that location, or an object with status code set, even if there was an error
 	 */	
 	public GeocodedLocation geocode(String placeName) {
-		int statusCode = StatusCode.G_CODE_NOT_SET;
+		return lookup(placeName, null);
+	}
+
+
+	/**
+	 * Geocode the provided address, giving up if the response has not arrived within 'timeout'
+	 * @param placeName The place to geocode
+	 * @param timeout the longest the call may take
+	 * @return a GeocodedLocation object for that location, or an object with status code set, G_DEADLINE_EXCEEDED if the time ran out
+	 */	
+	public GeocodedLocation geocode(String placeName, Duration timeout) {
+		return lookup(placeName, timeout);
+	}
+
+
+	/**
+	 * Fetch and parse the response for 'placeName', waiting no longer than 'timeout' (null to leave it to the transport's own timeouts)
+	 */
+	private GeocodedLocation lookup(String placeName, Duration timeout) {
+		URL url;
 		try {
-			String encodedURL = GEOCODER_URL+"?maxRows=1&style="+OUTPUT_STYLE_SHORT+"&type="+OUTPUT_XML+"&q="+URLEncoder.encode(placeName,URLENCODING);
-			cheapxp.loadDocument(cheapREST.getREST(new URL(encodedURL)));
-
-			// Try to get an accuracy measure from the table of ACCURACY_CODES or return UNKNOWN_ACCURACY if no match
-			// fcl and fcode are the descriptive terms in the response from geonames.org
-			String fcl = cheapxp.digXMLText("geoname/fcl");
-			String fcode = cheapxp.digXMLText("geoname/fcode");
-			int accuracy = PrecisionCode.UNKNOWN_ACCURACY;
-			
-			// first try the more specific fcode
-			Object accuracyCode = ACCURACY_CODES.get(fcode);
-			// if fcode didn't match anything, try the more general fcl
-			if (accuracyCode == null)
-				accuracyCode = ACCURACY_CODES.get(fcl);
-			// if an accuracy code was found, use it
-			if (accuracyCode != null)
-				accuracy = ((Integer) accuracyCode).intValue();
-			
+			url = geocoderURL(placeName);
+		}
+		catch (IOException e) { // URL formatting exception
+			return new GeocodedLocation(placeName.trim(),
+					StatusCode.G_GEOCODER_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
+		String response;
+		try {
+			response = (timeout == null) ? transport.get(url) : transport.get(url, timeout);
+		}
+		catch (DeadlineExceededException dee) { // the caller's time ran out
+			return new GeocodedLocation(placeName.trim(),
+					StatusCode.G_DEADLINE_EXCEEDED,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
+		catch (IOException ioe) { // communication error
+			return new GeocodedLocation(placeName.trim(),
+					StatusCode.G_COMM_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
+		return parse(placeName, response);
+	}
+
+
+	/**
+	 * Geocode the provided address without blocking the calling thread
+	 * @param placeName The place to geocode
+	 * @return a future that completes with a GeocodedLocation object for that location, or an object with status code set, even if there was an error
+	 */	
+	public CompletableFuture<GeocodedLocation> geocodeAsync(final String placeName) {
+		URL url;
+		try {
+			url = geocoderURL(placeName);
+		}
+		catch (IOException e) { // URL formatting exception
+			return CompletableFuture.completedFuture(new GeocodedLocation(placeName.trim(),
+					StatusCode.G_GEOCODER_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D));
+		}
+		return transport.getAsync(url).handle((response, t) -> {
+			if (t != null) // communication error
+				return new GeocodedLocation(placeName.trim(),
+						StatusCode.G_COMM_ERROR,
+						PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+			return parse(placeName, response);
+		});
+	}
+
+
+	/**
+	 * Set how this geocoder fetches its responses. The default is PooledTransport.getDefault()
+	 * @param transport the transport to use
+	 * @throws GeocoderException if transport is null
+	 */
+	public void setTransport(Transport transport)
+	throws GeocoderException {
+		if (transport == null)
+			throw new GeocoderException("Invalid parameter");
+		this.transport = transport;
+	}
+
+	/**
+	 * @return the transport this geocoder fetches its responses with
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+
+	/**
+	 * @return the request URL for 'placeName'
+	 */
+	private URL geocoderURL(String placeName)
+	throws UnsupportedEncodingException, MalformedURLException {
+		return new URL(GEOCODER_URL+"?maxRows=1&style="+OUTPUT_STYLE_SHORT+"&type="+OUTPUT_XML+"&q="+URLEncoder.encode(placeName,URLENCODING));
+	}
+
+
+	/**
+	 * Turn a response from geonames.org into a GeocodedLocation
+	 * @param placeName the place that was geocoded, used in the error response
+	 * @param response the body of the response from geonames.org
+	 * @return a GeocodedLocation object for that location, GEO_UNKNOWN_ADDRESS if there were no results, or an object with status code set if the response could not be used
+	 */
+	private GeocodedLocation parse(String placeName, String response) {
+		try {
+			String[] fields = FIELDS.extract(response);
+			if ((fields[LATITUDE].length() == 0) && (fields[LONGITUDE].length() == 0) && (fields[STATUS].length() == 0)) // no geoname, and not an error
+				return new GeocodedLocation(placeName.trim(),
+						StatusCode.GEO_UNKNOWN_ADDRESS,
+						PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
 			return new GeocodedLocation(
-					cheapxp.digXMLText("geoname/name"),
+					fields[NAME],
 					StatusCode.GEO_SUCCESS,
-					accuracy,
-					cheapxp.digXMLText("geoname/countryCode"),
-					cheapxp.digXMLText("geoname/lat"), 	// latitude
-					cheapxp.digXMLText("geoname/lng"), // longitude
+					precision(fields[FCL], fields[FCODE]),
+					fields[COUNTRY_CODE],
+					fields[LATITUDE], 	// latitude
+					fields[LONGITUDE], // longitude
 					"0.0" // altitude (geonames does not provide)
 			);
 		}
-		catch (CheapWSException wse) {
-			return new GeocodedLocation(placeName.trim(),
-					(statusCode == StatusCode.G_CODE_NOT_SET ? StatusCode.G_COMM_ERROR : statusCode),
-					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
-		}
-		catch (Exception e) { // XML parser error or NumberFormatException or URL formatting exception
+		catch (Exception e) { // XML parser error or NumberFormatException
 			return new GeocodedLocation(placeName.trim(),
-					(statusCode == StatusCode.G_CODE_NOT_SET ? StatusCode.G_GEOCODER_ERROR : statusCode),
+					StatusCode.G_GEOCODER_ERROR,
 					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
 		}
 	}
 
 
-	
+
+	/**
+	 * Try to get an accuracy measure from the table of ACCURACY_CODES
+	 * @param fcl the GeoNames feature class, e.g. "P"
+	 * @param fcode the GeoNames feature code, e.g. "PPLA"
+	 * @return the PrecisionCode for a place with this feature code or, failing that, class; or UNKNOWN_ACCURACY if neither is known
+	 */
+	static int precision(String fcl, String fcode) {
+		// first try the more specific fcode
+		Integer accuracyCode = ACCURACY_CODES.get(fcode);
+		// if fcode didn't match anything, try the more general fcl
+		if (accuracyCode == null)
+			accuracyCode = ACCURACY_CODES.get(fcl);
+		return (accuracyCode != null) ? accuracyCode.intValue() : PrecisionCode.UNKNOWN_ACCURACY;
+	}
+
 	
 	/**
 	 * Geocode the provided placeName, and update a provided MMGeocodedLocation object with fresh geocoding stuff.
@@ -0,0 +1,976 @@
+package com.challengeandresponse.geo.geocoders;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * A compact on-disk index of the place names in a GeoNames dump (see GeonamesDump), for
+ * GeonamesIndexGeocoder. build() writes it once from the dump; opening it memory-maps it,
+ * so it is ready at once, takes next to nothing on the Java heap, and is shared by every
+ * process that opens the same file.
+ *
+ * <p>Each place is a fixed-size record: latitude and longitude (in units of 10^-7 degrees),
+ * population, its name and admin1 code (as offsets into a table of strings), country code,
+ * feature code (as an index into a table of them) and the PrecisionCode of its feature
+ * code, as GeonamesGeocoder gives it. The places are numbered most populous first, so a
+ * lower number is a more populous place.</p>
+ *
+ * <p>The dictionary holds every name, ASCII name and alternate name of every place, as keys
+ * normalized by normalize(), in sorted order, each with the numbers of the places it names
+ * (its postings), delta-coded as varints in ascending order, so the most populous comes first.
+ * Keys are front-coded in blocks of BLOCK_KEYS: each key is stored as the number of bytes it
+ * shares with the key before it and the rest, except the first of each block, which is
+ * stored whole and pointed to by the block table. A lookup is a binary search of the block
+ * table and a scan of one block, comparing the key asked for with the mapped bytes as it
+ * goes, so neither an exact nor a prefix lookup allocates anything for the keys it passes or
+ * the places it finds.</p>
+ *
+ * <p>The file is: a header (int MAGIC, int FORMAT_VERSION, int place count, int key count,
+ * then a long offset and a long length for each section), then the sections: the places,
+ * the strings (each a varint length and that many bytes of UTF-8), the feature codes
+ * (an int count, then each as a string), the dictionary (each key a varint shared length,
+ * a varint length of the rest, the rest, a varint posting count, a varint length of the
+ * postings, then the postings), and the block table (an int offset into the dictionary
+ * for each block). All big-endian. Each section must be under 2 GB.</p>
+ *
+ * <p>The index is never changed once opened, so it is safe to share between threads.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public final class GeonamesIndex {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	public static final int MAGIC = 0x474e5831; // "GNX1"
+	public static final int FORMAT_VERSION = 1;
+
+	/** The longest key kept, in bytes of UTF-8; longer names are not indexed */
+	public static final int MAX_KEY_BYTES = 255;
+
+	/** The number of keys in each front-coded block of the dictionary */
+	public static final int BLOCK_KEYS = 16;
+
+	/** The most keys a prefix lookup scans; a short prefix of a large index only sees the first this many keys after it */
+	public static final int MAX_PREFIX_KEYS = 1 << 16;
+
+	// the sections, in the order they are in the file and in the header
+	private static final int PLACES = 0;
+	private static final int STRINGS = 1;
+	private static final int FEATURE_CODES = 2;
+	private static final int DICTIONARY = 3;
+	private static final int BLOCKS = 4;
+	private static final int SECTIONS = 5;
+	private static final int HEADER_BYTES = 16 + (SECTIONS * 16);
+
+	// place record layout
+	private static final int LAT = 0;
+	private static final int LON = 4;
+	private static final int POPULATION = 8;
+	private static final int NAME = 12;
+	private static final int ADMIN1 = 16;
+	private static final int COUNTRY = 20;
+	private static final int FEATURE_CODE = 22;
+	private static final int PRECISION = 24;
+	private static final int PLACE_BYTES = 25;
+
+	// no admin1 code
+	private static final int NONE = -1;
+
+	private final File file;
+	private final ByteBuffer places;
+	private final ByteBuffer strings;
+	private final ByteBuffer dictionary;
+	private final ByteBuffer blocks;
+	private final String[] featureCodes;
+	private final int size;
+	private final int keyCount;
+	private final int blockCount;
+
+
+	/**
+	 * The places a key names, most populous first; a cursor over the mapped postings, reused
+	 * from one lookup to the next, so reading them allocates nothing
+	 */
+	public static final class Postings {
+		private ByteBuffer buf;
+		private int position;
+		private int remaining;
+		private int last;
+
+		/**
+		 * @return the next place, or -1 if there are no more
+		 */
+		public int next() {
+			if (remaining == 0)
+				return -1;
+			remaining--;
+			int value = 0;
+			int shift = 0;
+			int b;
+			do {
+				b = buf.get(position++);
+				value |= (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+			last += value;
+			return last;
+		}
+
+		/**
+		 * @return the number of places not yet returned by next()
+		 */
+		public int remaining() {
+			return remaining;
+		}
+
+		void reset(ByteBuffer buf, int position, int count) {
+			this.buf = buf;
+			this.position = position;
+			this.remaining = count;
+			this.last = 0;
+		}
+	}
+
+
+	/// OPENING
+
+	/**
+	 * Map an index written by build()
+	 * @param file the index
+	 * @throws IOException if it could not be read, or is not an index in FORMAT_VERSION
+	 */
+	public GeonamesIndex(File file)
+	throws IOException {
+		this.file = file;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			if (fileSize < HEADER_BYTES)
+				throw new IOException("Not a GeoNames index: "+file);
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0L, HEADER_BYTES);
+			if (header.getInt() != MAGIC)
+				throw new IOException("Not a GeoNames index: "+file);
+			if (header.getInt() != FORMAT_VERSION)
+				throw new IOException("Unsupported GeoNames index version: "+file);
+			size = header.getInt();
+			keyCount = header.getInt();
+			blockCount = (int) (((long) keyCount + BLOCK_KEYS - 1) / BLOCK_KEYS);
+			ByteBuffer[] sections = new ByteBuffer[SECTIONS];
+			for (int s = 0; s < SECTIONS; s++) {
+				long offset = header.getLong();
+				long length = header.getLong();
+				if ((offset < HEADER_BYTES) || (length < 0L) || (length > Integer.MAX_VALUE) || (offset + length > fileSize))
+					throw new IOException("Damaged GeoNames index: "+file);
+				sections[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+			}
+			if ((size < 0) || (keyCount < 0) || (sections[PLACES].capacity() != (long) size * PLACE_BYTES) ||
+					(sections[BLOCKS].capacity() != (long) blockCount * 4))
+				throw new IOException("Damaged GeoNames index: "+file);
+			places = sections[PLACES];
+			strings = sections[STRINGS];
+			dictionary = sections[DICTIONARY];
+			blocks = sections[BLOCKS];
+			ByteBuffer fcodes = sections[FEATURE_CODES];
+			featureCodes = new String[fcodes.getInt(0)];
+			int position = 4;
+			for (int i = 0; i < featureCodes.length; i++) {
+				featureCodes[i] = string(fcodes, position);
+				position = skipString(fcodes, position);
+			}
+		}
+		catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IOException("Damaged GeoNames index: "+file);
+		}
+	}
+
+
+	/// LOOKUPS
+
+	/**
+	 * @param name a place name, in any form
+	 * @return 'name' as the index holds it: accents and other marks removed, lower case, apostrophes dropped, and runs of anything but letters and digits as one space, so "Saint-&Eacute;tienne" becomes "saint etienne"
+	 */
+	public static String normalize(String name) {
+		if (! isASCII(name))
+			name = Normalizer.normalize(name, Normalizer.Form.NFD);
+		StringBuilder sb = new StringBuilder(name.length());
+		boolean space = false;
+		for (int i = 0; i < name.length(); ) {
+			int c = name.codePointAt(i);
+			i += Character.charCount(c);
+			int type = Character.getType(c);
+			if ((type == Character.NON_SPACING_MARK) || (type == Character.ENCLOSING_MARK) || (type == Character.COMBINING_SPACING_MARK) ||
+					(c == '\'') || (c == '\u2019'))
+				continue;
+			if (Character.isLetterOrDigit(c)) {
+				if (space && (sb.length() > 0))
+					sb.append(' ');
+				space = false;
+				sb.appendCodePoint(Character.toLowerCase(c));
+			}
+			else
+				space = true;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Find the places a name names
+	 * @param name a place name, normalized here
+	 * @param postings set to the places, most populous first, if the name is found
+	 * @return true if the name is in the index
+	 */
+	public boolean find(String name, Postings postings) {
+		byte[] key = normalize(name).getBytes(StandardCharsets.UTF_8);
+		return find(key, key.length, postings);
+	}
+
+	/**
+	 * Find the places a key names
+	 * @param key a key, as normalize() makes it, in UTF-8
+	 * @param length the length of the key in 'key'
+	 * @param postings set to the places, most populous first, if the key is found
+	 * @return true if the key is in the index
+	 */
+	public boolean find(byte[] key, int length, Postings postings) {
+		if ((length == 0) || (length > MAX_KEY_BYTES) || (keyCount == 0))
+			return false;
+		int block = findBlock(key, length);
+		if (block < 0)
+			return false;
+		int position = blocks.getInt(block * 4);
+		int matched = 0;
+		int end = Math.min(BLOCK_KEYS, keyCount - (block * BLOCK_KEYS));
+		for (int k = 0; k < end; k++) {
+			int shared = (int) varint(dictionary, position);
+			position += varintLength(shared);
+			int rest = (int) varint(dictionary, position);
+			position += varintLength(rest);
+			int keyLength = shared + rest;
+			if (shared < matched) // it differs from the key before, which matched further, where that one matched 'key'
+				return false;
+			if (shared == matched) {
+				int i = matched;
+				while ((i < keyLength) && (i < length) && (dictionary.get(position + i - shared) == key[i]))
+					i++;
+				matched = i;
+				if ((i == keyLength) && (i == length)) {
+					readPostings(position + rest, postings);
+					return true;
+				}
+				if ((i < keyLength) && ((i == length) || ((dictionary.get(position + i - shared) & 0xff) > (key[i] & 0xff))))
+					return false; // past it
+			}
+			position = skipPostings(position + rest);
+		}
+		return false;
+	}
+
+	/**
+	 * Find the most populous places with a name starting with 'prefix'. Each place is given once, however many of its names match
+	 * @param prefix the start of a place name, normalized here
+	 * @param found filled with the places, most populous first
+	 * @return the number of places put in 'found', up to its length
+	 */
+	public int prefix(String prefix, int[] found) {
+		byte[] key = normalize(prefix).getBytes(StandardCharsets.UTF_8);
+		return prefix(key, key.length, found);
+	}
+
+	/**
+	 * Find the most populous places with a key starting with 'key'. At most MAX_PREFIX_KEYS keys are scanned
+	 * @param key the start of a key, as normalize() makes it, in UTF-8
+	 * @param length the length of the key in 'key'
+	 * @param found filled with the places, most populous first
+	 * @return the number of places put in 'found', up to its length
+	 */
+	public int prefix(byte[] key, int length, int[] found) {
+		if ((length == 0) || (length > MAX_KEY_BYTES) || (found.length == 0) || (keyCount == 0))
+			return 0;
+		int count = 0;
+		int block = Math.max(findBlock(key, length), 0);
+		int position = blocks.getInt(block * 4);
+		int matched = 0;
+		int scanned = 0;
+		Postings postings = new Postings();
+		for (int k = block * BLOCK_KEYS; (k < keyCount) && (scanned < MAX_PREFIX_KEYS); k++) {
+			int shared = (int) varint(dictionary, position);
+			position += varintLength(shared);
+			int rest = (int) varint(dictionary, position);
+			position += varintLength(rest);
+			int keyLength = shared + rest;
+			if ((k % BLOCK_KEYS) == 0) // stored whole: compare it from the start
+				matched = 0;
+			if (shared < matched) {
+				matched = shared;
+				if (matched < length) // past the keys starting with 'key'
+					break;
+			}
+			else if (shared == matched) {
+				int i = matched;
+				while ((i < keyLength) && (i < length) && (dictionary.get(position + i - shared) == key[i]))
+					i++;
+				matched = i;
+				if ((i < length) && (i < keyLength) && ((dictionary.get(position + i - shared) & 0xff) > (key[i] & 0xff)))
+					break; // past them
+			}
+			if (matched == length) {
+				scanned++;
+				readPostings(position + rest, postings);
+				// keep the 'found.length' lowest place numbers, sorted, without repeats
+				for (int place; (place = postings.next()) >= 0; ) {
+					if ((count == found.length) && (place >= found[count - 1]))
+						break; // the rest are less populous still
+					int i = count;
+					while ((i > 0) && (found[i - 1] > place))
+						i--;
+					if ((i > 0) && (found[i - 1] == place))
+						continue;
+					if (count < found.length)
+						count++;
+					System.arraycopy(found, i, found, i + 1, count - i - 1);
+					found[i] = place;
+				}
+			}
+			position = skipPostings(position + rest);
+		}
+		return count;
+	}
+
+
+	/// PLACES
+
+	/**
+	 * @return the number of places in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of distinct keys in the dictionary
+	 */
+	public int keyCount() {
+		return keyCount;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public double latitude(int place) {
+		return places.getInt(place * PLACE_BYTES + LAT) / 1.0E7D;
+	}
+
+	public double longitude(int place) {
+		return places.getInt(place * PLACE_BYTES + LON) / 1.0E7D;
+	}
+
+	public int population(int place) {
+		return places.getInt(place * PLACE_BYTES + POPULATION);
+	}
+
+	/**
+	 * @return the PrecisionCode of the place's feature code
+	 */
+	public int precision(int place) {
+		return places.get(place * PLACE_BYTES + PRECISION);
+	}
+
+	public String name(int place) {
+		return string(strings, places.getInt(place * PLACE_BYTES + NAME));
+	}
+
+	/**
+	 * @return the place's two-letter country code, or "" if it has none
+	 */
+	public String countryCode(int place) {
+		int cc = country(place);
+		return (cc == 0) ? "" : new String(new char[] { (char) (cc >>> 8), (char) (cc & 0xff) });
+	}
+
+	/**
+	 * @return the place's admin1 code (e.g. "MA" for Massachusetts), or "" if it has none
+	 */
+	public String admin1Code(int place) {
+		int offset = admin1(place);
+		return (offset == NONE) ? "" : string(strings, offset);
+	}
+
+	/**
+	 * @return the place's GeoNames feature code, e.g. "PPLA"
+	 */
+	public String featureCode(int place) {
+		return featureCodes[featureCodeIndex(place)];
+	}
+
+	/**
+	 * @return the two letters of the place's country code, high byte first, or 0
+	 */
+	int country(int place) {
+		return places.getShort(place * PLACE_BYTES + COUNTRY) & 0xffff;
+	}
+
+	/**
+	 * @return where the place's admin1 code is in the strings, or NONE; places with the same admin1 code have the same offset
+	 */
+	int admin1(int place) {
+		return places.getInt(place * PLACE_BYTES + ADMIN1);
+	}
+
+	int featureCodeIndex(int place) {
+		return places.getShort(place * PLACE_BYTES + FEATURE_CODE) & 0xffff;
+	}
+
+	/**
+	 * @return the index of 'fcode' in the feature codes, or -1 if no place has it
+	 */
+	int featureCodeIndex(String fcode) {
+		for (int i = 0; i < featureCodes.length; i++) {
+			if (featureCodes[i].equals(fcode))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if the place's admin1 code, in lower case, is 'code' (a key, in UTF-8)
+	 */
+	boolean admin1Is(int place, byte[] code, int length) {
+		int offset = admin1(place);
+		if ((offset == NONE) || (varint(strings, offset) != length))
+			return false;
+		offset += varintLength(length);
+		for (int i = 0; i < length; i++) {
+			int b = strings.get(offset + i);
+			if ((b >= 'A') && (b <= 'Z'))
+				b += 'a' - 'A';
+			if (b != code[i])
+				return false;
+		}
+		return true;
+	}
+
+	public String toString() {
+		return "GeonamesIndex [file=" + file + ", size=" + size + ", keyCount=" + keyCount + "]";
+	}
+
+
+	/// READING
+
+	/**
+	 * @return the last block whose first key is not after 'key', or -1 if 'key' is before the first
+	 */
+	private int findBlock(byte[] key, int length) {
+		int lo = 0;
+		int hi = blockCount - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compareHead(mid, key, length) <= 0) {
+				found = mid;
+				lo = mid + 1;
+			}
+			else
+				hi = mid - 1;
+		}
+		return found;
+	}
+
+	/**
+	 * @return the first key of 'block' compared with 'key', as unsigned bytes
+	 */
+	private int compareHead(int block, byte[] key, int length) {
+		int position = blocks.getInt(block * 4) + 1; // shared is 0
+		int keyLength = (int) varint(dictionary, position);
+		position += varintLength(keyLength);
+		int n = Math.min(keyLength, length);
+		for (int i = 0; i < n; i++) {
+			int c = (dictionary.get(position + i) & 0xff) - (key[i] & 0xff);
+			if (c != 0)
+				return c;
+		}
+		return keyLength - length;
+	}
+
+	/**
+	 * Point 'postings' at the postings starting at 'position' (their count)
+	 */
+	private void readPostings(int position, Postings postings) {
+		int count = (int) varint(dictionary, position);
+		position += varintLength(count);
+		int bytes = (int) varint(dictionary, position);
+		postings.reset(dictionary, position + varintLength(bytes), count);
+	}
+
+	/**
+	 * @return the position after the postings starting at 'position' (their count)
+	 */
+	private int skipPostings(int position) {
+		int count = (int) varint(dictionary, position);
+		position += varintLength(count);
+		int bytes = (int) varint(dictionary, position);
+		return position + varintLength(bytes) + bytes;
+	}
+
+	private static String string(ByteBuffer buf, int position) {
+		int length = (int) varint(buf, position);
+		position += varintLength(length);
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = buf.get(position + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int skipString(ByteBuffer buf, int position) {
+		int length = (int) varint(buf, position);
+		return position + varintLength(length) + length;
+	}
+
+	/**
+	 * @return the varint at 'position'
+	 */
+	private static long varint(ByteBuffer buf, int position) {
+		long value = 0L;
+		int shift = 0;
+		int b;
+		do {
+			b = buf.get(position++);
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	private static int varintLength(int value) {
+		int n = 1;
+		while ((value >>>= 7) != 0)
+			n++;
+		return n;
+	}
+
+	private static boolean isASCII(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) >= 0x80)
+				return false;
+		}
+		return true;
+	}
+
+
+	/// BUILDING
+
+	/**
+	 * Write an index of the places in some feature classes of a GeoNames dump. The whole dump is
+	 * held in memory while the index is built (for allCountries, a few GB); it is written to a
+	 * temporary file, which replaces 'index' when it is complete
+	 * @param dump a GeoNames dump, as text or .zip
+	 * @param featureClasses the GeoNames feature classes to index, e.g. GeonamesDump.CITIES_AND_ADMIN_AREAS, or null for all
+	 * @param index the file to write
+	 * @return the number of places indexed
+	 * @throws IOException if the dump could not be read, the index could not be written, or a section would be 2 GB or more
+	 */
+	public static int build(File dump, String featureClasses, File index)
+	throws IOException {
+		Builder builder = new Builder();
+		GeonamesDump.read(dump, featureClasses, builder);
+		builder.write(index);
+		return builder.n;
+	}
+
+	/**
+	 * Collects the places read from a dump, and their keys, in growing primitive arrays, then writes the index
+	 */
+	private static final class Builder implements GeonamesDump.PlaceHandler {
+		// the places, in the order read
+		int[] lat = new int[1 << 16];
+		int[] lon = new int[1 << 16];
+		int[] population = new int[1 << 16];
+		int[] name = new int[1 << 16];
+		int[] admin1 = new int[1 << 16];
+		short[] country = new short[1 << 16];
+		short[] fcode = new short[1 << 16];
+		byte[] precision = new byte[1 << 16];
+		int n;
+		// the strings section, and the admin1 codes and feature codes seen
+		final Bytes strings = new Bytes();
+		final HashMap<String,Integer> admin1Offsets = new HashMap<String,Integer>();
+		final HashMap<String,Integer> fcodeIndex = new HashMap<String,Integer>();
+		final ByteArrayOutputStream fcodes = new ByteArrayOutputStream();
+		// each key as a length byte and its bytes, and for each (key, place) pair, where its key is and the place
+		final Bytes keys = new Bytes();
+		int[] pairKey = new int[1 << 16];
+		int[] pairPlace = new int[1 << 16];
+		int pairs;
+		final HashSet<String> placeKeys = new HashSet<String>();
+
+		public void place(String[] fields)
+		throws IOException {
+			double dlat;
+			double dlon;
+			try {
+				dlat = Double.parseDouble(fields[GeonamesDump.LATITUDE]);
+				dlon = Double.parseDouble(fields[GeonamesDump.LONGITUDE]);
+			}
+			catch (NumberFormatException nfe) { // skip the place
+				return;
+			}
+			if ((Math.abs(dlat) > 90.0D) || (Math.abs(dlon) > 180.0D))
+				return;
+			if (n == lat.length) {
+				int capacity = n + (n >>> 1);
+				lat = Arrays.copyOf(lat, capacity);
+				lon = Arrays.copyOf(lon, capacity);
+				population = Arrays.copyOf(population, capacity);
+				name = Arrays.copyOf(name, capacity);
+				admin1 = Arrays.copyOf(admin1, capacity);
+				country = Arrays.copyOf(country, capacity);
+				fcode = Arrays.copyOf(fcode, capacity);
+				precision = Arrays.copyOf(precision, capacity);
+			}
+			lat[n] = (int) Math.round(dlat * 1.0E7D);
+			lon[n] = (int) Math.round(dlon * 1.0E7D);
+			try {
+				population[n] = (int) Math.min(Long.parseLong(fields[GeonamesDump.POPULATION]), Integer.MAX_VALUE);
+			}
+			catch (NumberFormatException nfe) {
+				population[n] = 0;
+			}
+			String cc = fields[GeonamesDump.COUNTRY_CODE];
+			country[n] = (cc.length() == 2) ? (short) (((cc.charAt(0) & 0xff) << 8) | (cc.charAt(1) & 0xff)) : 0;
+			precision[n] = (byte) GeonamesGeocoder.precision(fields[GeonamesDump.FEATURE_CLASS], fields[GeonamesDump.FEATURE_CODE]);
+			fcode[n] = (short) featureCode(fields[GeonamesDump.FEATURE_CODE]);
+			String a1 = fields[GeonamesDump.ADMIN1_CODE];
+			Integer offset = admin1Offsets.get(a1);
+			if ((offset == null) && (a1.length() > 0)) {
+				offset = Integer.valueOf(strings.writeString(a1));
+				admin1Offsets.put(a1, offset);
+			}
+			admin1[n] = (offset == null) ? NONE : offset.intValue();
+			name[n] = strings.writeString(fields[GeonamesDump.NAME]);
+			// its keys, once each
+			placeKeys.clear();
+			addKey(fields[GeonamesDump.NAME]);
+			addKey(fields[GeonamesDump.ASCIINAME]);
+			String alternates = fields[GeonamesDump.ALTERNATENAMES];
+			for (int start = 0; start < alternates.length(); ) {
+				int end = alternates.indexOf(',', start);
+				if (end < 0)
+					end = alternates.length();
+				addKey(alternates.substring(start, end));
+				start = end + 1;
+			}
+			n++;
+		}
+
+		private int featureCode(String code)
+		throws IOException {
+			Integer index = fcodeIndex.get(code);
+			if (index == null) {
+				index = Integer.valueOf(fcodeIndex.size());
+				fcodeIndex.put(code, index);
+				byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+				writeVarint(fcodes, bytes.length);
+				fcodes.write(bytes, 0, bytes.length);
+			}
+			return index.intValue();
+		}
+
+		private void addKey(String s)
+		throws IOException {
+			String key = normalize(s);
+			if ((key.length() == 0) || (! placeKeys.add(key)))
+				return;
+			byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > MAX_KEY_BYTES)
+				return;
+			if (pairs == pairKey.length) {
+				pairKey = Arrays.copyOf(pairKey, pairs + (pairs >>> 1));
+				pairPlace = Arrays.copyOf(pairPlace, pairKey.length);
+			}
+			pairKey[pairs] = keys.length;
+			pairPlace[pairs] = n;
+			pairs++;
+			keys.write(bytes.length);
+			keys.write(bytes, 0, bytes.length);
+		}
+
+		/**
+		 * Number the places most populous first, sort the keys, and write the index
+		 */
+		void write(File index)
+		throws IOException {
+			// number the places by population, most first, then in the order read
+			long[] byPopulation = new long[n];
+			for (int i = 0; i < n; i++)
+				byPopulation[i] = ((long) (Integer.MAX_VALUE - population[i]) << 32) | i;
+			Arrays.sort(byPopulation);
+			int[] order = new int[n];
+			int[] number = new int[n];
+			for (int i = 0; i < n; i++) {
+				order[i] = (int) byPopulation[i];
+				number[order[i]] = i;
+			}
+			byPopulation = null;
+			for (int i = 0; i < pairs; i++)
+				pairPlace[i] = number[pairPlace[i]];
+			number = null;
+			int[] sorted = new int[pairs];
+			for (int i = 0; i < pairs; i++)
+				sorted[i] = i;
+			mergeSort(sorted, new int[pairs], 0, pairs);
+
+			File tmp = new File(index.getPath()+".tmp");
+			long[] sections = new long[SECTIONS * 2];
+			int keyCount = 0;
+			boolean done = false;
+			try {
+				FileOutputStream fos = new FileOutputStream(tmp);
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+					long offset = HEADER_BYTES;
+					out.write(new byte[HEADER_BYTES]); // filled in at the end
+					// places
+					for (int i = 0; i < n; i++) {
+						int p = order[i];
+						out.writeInt(lat[p]);
+						out.writeInt(lon[p]);
+						out.writeInt(population[p]);
+						out.writeInt(name[p]);
+						out.writeInt(admin1[p]);
+						out.writeShort(country[p]);
+						out.writeShort(fcode[p]);
+						out.writeByte(precision[p]);
+					}
+					offset = section(sections, PLACES, offset, (long) n * PLACE_BYTES);
+					out.write(strings.bytes, 0, strings.length);
+					offset = section(sections, STRINGS, offset, strings.length);
+					out.writeInt(fcodeIndex.size());
+					fcodes.writeTo(out);
+					offset = section(sections, FEATURE_CODES, offset, 4L + fcodes.size());
+					// the dictionary, noting where each block starts
+					int[] blockStarts = new int[(pairs + BLOCK_KEYS - 1) / BLOCK_KEYS];
+					ByteArrayOutputStream postings = new ByteArrayOutputStream();
+					long length = 0L;
+					int previous = -1;
+					for (int i = 0; i < pairs; ) {
+						int key = pairKey[sorted[i]];
+						// gather the places of this key
+						postings.reset();
+						int count = 0;
+						int last = 0;
+						int j = i;
+						for (; (j < pairs) && (compareKeys(pairKey[sorted[j]], key) == 0); j++) {
+							int place = pairPlace[sorted[j]];
+							if ((count > 0) && (place == last))
+								continue;
+							writeVarint(postings, place - last);
+							last = place;
+							count++;
+						}
+						i = j;
+						if (length > Integer.MAX_VALUE)
+							throw new IOException("GeoNames index dictionary too large");
+						int shared = 0;
+						if ((keyCount % BLOCK_KEYS) == 0)
+							blockStarts[keyCount / BLOCK_KEYS] = (int) length;
+						else
+							shared = sharedLength(previous, key);
+						int keyLength = keys.bytes[key] & 0xff;
+						length += writeVarint(out, shared);
+						length += writeVarint(out, keyLength - shared);
+						out.write(keys.bytes, key + 1 + shared, keyLength - shared);
+						length += keyLength - shared;
+						length += writeVarint(out, count);
+						length += writeVarint(out, postings.size());
+						postings.writeTo(out);
+						length += postings.size();
+						previous = key;
+						keyCount++;
+					}
+					offset = section(sections, DICTIONARY, offset, length);
+					int blockCount = (keyCount + BLOCK_KEYS - 1) / BLOCK_KEYS;
+					for (int b = 0; b < blockCount; b++)
+						out.writeInt(blockStarts[b]);
+					section(sections, BLOCKS, offset, (long) blockCount * 4);
+					out.flush();
+					fos.getFD().sync();
+				}
+				for (int s = 0; s < SECTIONS; s++) {
+					if (sections[s * 2 + 1] > Integer.MAX_VALUE)
+						throw new IOException("GeoNames index too large");
+				}
+				try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+					raf.writeInt(MAGIC);
+					raf.writeInt(FORMAT_VERSION);
+					raf.writeInt(n);
+					raf.writeInt(keyCount);
+					for (int i = 0; i < sections.length; i++)
+						raf.writeLong(sections[i]);
+					raf.getFD().sync();
+				}
+				Files.move(tmp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				done = true;
+			}
+			finally {
+				if (! done)
+					tmp.delete();
+			}
+		}
+
+		/**
+		 * Note the offset and length of a section
+		 * @return the offset of the next section
+		 */
+		private static long section(long[] sections, int section, long offset, long length) {
+			sections[section * 2] = offset;
+			sections[section * 2 + 1] = length;
+			return offset + length;
+		}
+
+		/**
+		 * Sort pairs[lo..hi-1] by key, then place, using 'tmp' as scratch space
+		 */
+		private void mergeSort(int[] pairs, int[] tmp, int lo, int hi) {
+			if (hi - lo < 16) { // insertion sort
+				for (int i = lo + 1; i < hi; i++) {
+					int p = pairs[i];
+					int j = i;
+					while ((j > lo) && (comparePairs(pairs[j - 1], p) > 0)) {
+						pairs[j] = pairs[j - 1];
+						j--;
+					}
+					pairs[j] = p;
+				}
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			mergeSort(pairs, tmp, lo, mid);
+			mergeSort(pairs, tmp, mid, hi);
+			if (comparePairs(pairs[mid - 1], pairs[mid]) <= 0)
+				return;
+			System.arraycopy(pairs, lo, tmp, lo, hi - lo);
+			int i = lo;
+			int j = mid;
+			for (int k = lo; k < hi; k++) {
+				if ((j >= hi) || ((i < mid) && (comparePairs(tmp[i], tmp[j]) <= 0)))
+					pairs[k] = tmp[i++];
+				else
+					pairs[k] = tmp[j++];
+			}
+		}
+
+		private int comparePairs(int a, int b) {
+			int c = compareKeys(pairKey[a], pairKey[b]);
+			return (c != 0) ? c : Integer.compare(pairPlace[a], pairPlace[b]);
+		}
+
+		/**
+		 * @return the keys at 'a' and 'b' compared as unsigned bytes
+		 */
+		private int compareKeys(int a, int b) {
+			if (a == b)
+				return 0;
+			byte[] k = keys.bytes;
+			int la = k[a] & 0xff;
+			int lb = k[b] & 0xff;
+			int len = Math.min(la, lb);
+			for (int i = 1; i <= len; i++) {
+				int c = (k[a + i] & 0xff) - (k[b + i] & 0xff);
+				if (c != 0)
+					return c;
+			}
+			return la - lb;
+		}
+
+		/**
+		 * @return the number of leading bytes the keys at 'a' and 'b' share
+		 */
+		private int sharedLength(int a, int b) {
+			byte[] k = keys.bytes;
+			int len = Math.min(k[a] & 0xff, k[b] & 0xff);
+			int i = 0;
+			while ((i < len) && (k[a + 1 + i] == k[b + 1 + i]))
+				i++;
+			return i;
+		}
+	}
+
+	/**
+	 * A growing byte array, up to 2 GB
+	 */
+	private static final class Bytes {
+		byte[] bytes = new byte[1 << 20];
+		int length;
+
+		void write(int b)
+		throws IOException {
+			ensure(1);
+			bytes[length++] = (byte) b;
+		}
+
+		void write(byte[] b, int off, int len)
+		throws IOException {
+			ensure(len);
+			System.arraycopy(b, off, bytes, length, len);
+			length += len;
+		}
+
+		/**
+		 * @return the offset 's' was written at, as a varint length and UTF-8
+		 */
+		int writeString(String s)
+		throws IOException {
+			int offset = length;
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			for (int v = b.length; ; v >>>= 7) {
+				if ((v & ~0x7f) == 0) {
+					write(v);
+					break;
+				}
+				write((v & 0x7f) | 0x80);
+			}
+			write(b, 0, b.length);
+			return offset;
+		}
+
+		private void ensure(int n)
+		throws IOException {
+			if ((long) length + n > Integer.MAX_VALUE - 8)
+				throw new IOException("GeoNames index too large");
+			if (length + n > bytes.length)
+				bytes = Arrays.copyOf(bytes, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) bytes.length * 3 / 2, (long) length + n)));
+		}
+	}
+
+	/**
+	 * Write 'value' (not negative) as a varint: 7 bits a byte, low first, the high bit set on all but the last
+	 * @return the number of bytes written
+	 */
+	private static int writeVarint(OutputStream out, int value)
+	throws IOException {
+		int n = 1;
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+			n++;
+		}
+		out.write(value);
+		return n;
+	}
+
+}
@@ -0,0 +1,233 @@
+package com.challengeandresponse.geo.geocoders;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+import com.challengeandresponse.geo.geocoder.*;
+
+/**
+ * An offline forward geocoder: answers place names ("Cambridge", "Cambridge, MA",
+ * "Cambridge, United Kingdom") from a GeonamesIndex built from a local GeoNames dump,
+ * without calling a server. It is meant to go first in a Geocoder chain, so the place names
+ * it knows are answered at once, and only the rest (street addresses, mostly) go on to the
+ * remote geocoders.
+ *
+ * <p>A place name is looked up whole first (some names, like "Washington, D.C.", have a
+ * comma in them), then, if it has commas, by what is before the first one, with what is
+ * after each comma as a qualifier that the place must match: its country code or admin1 code
+ * (e.g. "US", "MA"), or the name of its country or first-order administrative division
+ * (e.g. "United States", "Massachusetts"). Of the places that match, the most populous is
+ * returned. If none does (or the name is not a place, e.g. "860 Nancy Street, Niles, OH"),
+ * the answer is GEO_UNKNOWN_ADDRESS, so the chain falls through to the next geocoder.</p>
+ *
+ * <p>Results are GeocodedLocations with status SUCCESS_NO_SERVER: the place's name, country
+ * code and position, and the PrecisionCode of its feature code, as GeonamesGeocoder gives it.
+ * prefix() finds the most populous places whose names start with some text, e.g. for
+ * completing a name as it is typed.</p>
+ *
+ * <p>The geocoder declares the FREE_TEXT input class. The index is never changed once
+ * opened, so the geocoder is safe to share between threads.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class GeonamesIndexGeocoder implements GeocoderI {
+	public static final String	PRODUCT_SHORT 	= "GeonamesIndexGeocoder";
+	public static final String	PRODUCT_LONG	= "Challenge/Response GeoNames Offline Geocoder";
+	public static final String	VERSION_SHORT	= "0.10";
+	public static final String	VERSION_LONG 	=  PRODUCT_LONG + " " + VERSION_SHORT;
+	public static final String	COPYRIGHT		= "Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** The most places named by a qualifier that are tried as the place's country or admin1 area, most populous first */
+	public static final int MAX_QUALIFIER_PLACES = 64;
+
+	private final GeonamesIndex index;
+	// the feature code of first-order administrative divisions, or -1 if the index has none
+	private final int adm1;
+
+
+	/// CONSTRUCTORS
+
+	/**
+	 * @param index an index written by GeonamesIndex.build()
+	 * @throws IOException if it could not be opened
+	 */
+	public GeonamesIndexGeocoder(File index)
+	throws IOException {
+		this(new GeonamesIndex(index));
+	}
+
+	/**
+	 * @param index an opened index, which may be shared with other geocoders
+	 */
+	public GeonamesIndexGeocoder(GeonamesIndex index) {
+		this.index = index;
+		this.adm1 = index.featureCodeIndex("ADM1");
+	}
+
+
+	/// METHODS
+
+	public String getVersion() {
+		return VERSION_SHORT;
+	}
+
+	/**
+	 * @return InputClass.FREE_TEXT, the only kind of input this geocoder handles
+	 */
+	public int getInputClasses() {
+		return InputClass.FREE_TEXT;
+	}
+
+	/**
+	 * Look up a place name
+	 * @param placeName a place name, optionally followed by qualifiers after commas, e.g. "Cambridge, MA"
+	 * @return the most populous place matching it, or GEO_MISSING_ADDRESS if placeName is blank, or GEO_UNKNOWN_ADDRESS if no place matches
+	 */
+	public GeocodedLocation geocode(String placeName) {
+		if (placeName.trim().length() == 0)
+			return new GeocodedLocation("",StatusCode.GEO_MISSING_ADDRESS,
+					PrecisionCode.UNKNOWN_LOCATION,"",0D,0D,0D);
+		GeonamesIndex.Postings postings = new GeonamesIndex.Postings();
+		int place = -1;
+		if (index.find(placeName, postings))
+			place = postings.next();
+		else {
+			String[] parts = placeName.split(",");
+			if ((parts.length > 1) && index.find(parts[0], postings))
+				place = qualified(postings, parts);
+		}
+		if (place < 0)
+			return new GeocodedLocation(placeName.trim(),StatusCode.GEO_UNKNOWN_ADDRESS,
+					PrecisionCode.UNKNOWN_LOCATION,"",0D,0D,0D);
+		return place(place);
+	}
+
+	/**
+	 * Geocode the placeName in 'gcl', and update 'gcl' with the place found
+	 * @param gcl a GeocodedLocation object to revise with new data, based on its placeName field
+	 */
+	public GeocodedLocation geocode(GeocodedLocation gcl) {
+		GeocodedLocation gcl2 = geocode(gcl.getPlaceName());
+		gcl.setPlaceName(gcl2.getPlaceName());
+		gcl.setServerResponse(gcl2.getServerResponse());
+		gcl.setAccuracy(gcl2.getAccuracy());
+		gcl.setCountry(gcl2.getCountryCode());
+		gcl.set(gcl2.getDoubleLatitude(), gcl2.getDoubleLongitude(), gcl2.getDoubleHeight());
+		return gcl;
+	}
+
+	/**
+	 * @param prefix the start of a place name, e.g. "cambr"
+	 * @param max the most places to return
+	 * @return the (up to) max most populous places with a name starting with 'prefix', most populous first
+	 * @throws IllegalArgumentException if max < 1
+	 */
+	public List<GeocodedLocation> prefix(String prefix, int max) {
+		if (max < 1)
+			throw new IllegalArgumentException("Invalid parameter");
+		int[] found = new int[max];
+		int count = index.prefix(prefix, found);
+		List<GeocodedLocation> results = new ArrayList<GeocodedLocation>(count);
+		for (int i = 0; i < count; i++)
+			results.add(place(found[i]));
+		return results;
+	}
+
+	/**
+	 * @return the index this geocoder answers from
+	 */
+	public GeonamesIndex getIndex() {
+		return index;
+	}
+
+
+	/// QUALIFIERS
+
+	/**
+	 * @param postings the places named by parts[0]
+	 * @param parts the place name, split at its commas
+	 * @return the most populous place in 'postings' that matches every qualifier in parts[1..], or -1
+	 */
+	private int qualified(GeonamesIndex.Postings postings, String[] parts) {
+		// the qualifiers as keys, and for each, the countries (and admin1 areas) it names
+		byte[][] keys = new byte[parts.length - 1][];
+		int[][] countries = new int[parts.length - 1][];
+		int[][] admin1s = new int[parts.length - 1][];
+		GeonamesIndex.Postings named = new GeonamesIndex.Postings();
+		for (int q = 0; q < keys.length; q++) {
+			keys[q] = GeonamesIndex.normalize(parts[q + 1]).getBytes(StandardCharsets.UTF_8);
+			if (keys[q].length == 0)
+				return -1;
+			countries[q] = new int[MAX_QUALIFIER_PLACES];
+			admin1s[q] = new int[MAX_QUALIFIER_PLACES];
+			int n = 0;
+			if (index.find(keys[q], keys[q].length, named)) {
+				for (int p; (n < MAX_QUALIFIER_PLACES) && ((p = named.next()) >= 0); ) {
+					boolean country = (index.precision(p) == PrecisionCode.COUNTRY);
+					if (country || ((adm1 >= 0) && (index.featureCodeIndex(p) == adm1))) {
+						countries[q][n] = index.country(p);
+						admin1s[q][n++] = country ? Integer.MIN_VALUE : index.admin1(p);
+					}
+				}
+			}
+			if (n < MAX_QUALIFIER_PLACES)
+				countries[q][n] = -1;
+		}
+		for (int place; (place = postings.next()) >= 0; ) {
+			int q = 0;
+			while ((q < keys.length) && matches(place, keys[q], countries[q], admin1s[q]))
+				q++;
+			if (q == keys.length)
+				return place;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if 'place' is in a country or admin1 area with the code 'key', or one of the ones in countries and admin1s (ended by a country of -1)
+	 */
+	private boolean matches(int place, byte[] key, int[] countries, int[] admin1s) {
+		int cc = index.country(place);
+		if ((key.length == 2) && (cc == (((key[0] - ('a' - 'A')) << 8) | (key[1] - ('a' - 'A')))))
+			return true;
+		if (index.admin1Is(place, key, key.length))
+			return true;
+		for (int i = 0; (i < countries.length) && (countries[i] >= 0); i++) {
+			if ((countries[i] == cc) && ((admin1s[i] == Integer.MIN_VALUE) || (admin1s[i] == index.admin1(place))))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return place 'place' in the index as a GeocodedLocation
+	 */
+	private GeocodedLocation place(int place) {
+		return new GeocodedLocation(index.name(place), StatusCode.SUCCESS_NO_SERVER, index.precision(place),
+				index.countryCode(place), index.latitude(place), index.longitude(place), 0.0D);
+	}
+
+
+	// for testing
+	public static void main(String[] args)
+	throws IOException {
+		File indexFile = new File(args[1]);
+		if (! indexFile.exists()) {
+			long start = System.currentTimeMillis();
+			int places = GeonamesIndex.build(new File(args[0]), null, indexFile);
+			System.out.println("Indexed "+places+" places in "+(System.currentTimeMillis()-start)+" ms");
+		}
+		GeonamesIndexGeocoder gc = new GeonamesIndexGeocoder(indexFile);
+		System.out.println(gc.getIndex());
+		for (int i = 2; i < args.length; i++) {
+			GeocodedLocation gcl = gc.geocode(args[i]);
+			System.out.println(args[i]+": "+gcl.getPlaceName()+", "+gcl.getCountryCode()+" "+gcl.getDoubleLatitude()+","+gcl.getDoubleLongitude()+" "+PrecisionCode.getText(gcl.getAccuracy()));
+		}
+	}
+
+}
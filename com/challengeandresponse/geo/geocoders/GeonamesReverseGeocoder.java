@@ -0,0 +1,475 @@
+package com.challengeandresponse.geo.geocoders;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+import com.challengeandresponse.geo.data.Location;
+import com.challengeandresponse.geo.geocoder.*;
+
+/**
+ * An offline reverse geocoder: answers "what place is nearest this lat/lon" from a local
+ * GeoNames dump (see GeonamesDump), by default its cities and administrative areas, without
+ * calling a server.
+ *
+ * <p>The places are held in an implicit KD-tree over their positions as points on the unit
+ * sphere (x,y,z), so distances are right across the antimeridian and near the poles. The
+ * tree is primitive arrays, one entry per place, with no object for each node: the
+ * coordinates as floats, the split axis, the country code, the PrecisionCode, and where
+ * the place's UTF-8 name starts in one byte array. That is about 20 bytes a place plus its
+ * name, so the 5 million or so populated places and administrative areas in allCountries
+ * take under 200 MB (building the tree needs more for a moment). A nearest-place query
+ * visits a few dozen places and takes about a microsecond. The loaded geocoder is never
+ * changed, so it is safe to share between threads.</p>
+ *
+ * <p>Results are GeocodedLocations with status SUCCESS_NO_SERVER: the place's name, country
+ * code and position (to 5 decimal places; as it is kept in floats, it can differ from the
+ * dump's by a metre or so), and the PrecisionCode of its feature code, as GeonamesGeocoder
+ * gives it (e.g. TOWN for a populated place, REGION for a first-order administrative division). With setMaxDistanceMeters(), places further away
+ * than that are not returned.</p>
+ *
+ * <p>geocode(String) takes a "lat,lon" string (see InputClassifier.parseLatLon), and the
+ * geocoder declares the LAT_LON input class. In a Geocoder chain it must come before
+ * LatLonGeocoder, which answers lat/lon strings with themselves.</p>
+ *
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class GeonamesReverseGeocoder implements GeocoderI {
+	public static final String	PRODUCT_SHORT 	= "GeonamesReverseGeocoder";
+	public static final String	PRODUCT_LONG	= "Challenge/Response GeoNames Offline Reverse Geocoder";
+	public static final String	VERSION_SHORT	= "0.10";
+	public static final String	VERSION_LONG 	=  PRODUCT_LONG + " " + VERSION_SHORT;
+	public static final String	COPYRIGHT		= "Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	/** The mean radius of the earth, in meters, used to turn distances on the unit sphere into meters */
+	public static final double EARTH_RADIUS_METERS = 6371008.8D;
+
+	/// THE TREE: place i is the root of the subtree of places lo..hi-1 when i = (lo+hi)/2
+	// x,y,z of each place on the unit sphere
+	private final float[] xyz;
+	// the axis (0, 1 or 2) each place splits its subtree on
+	private final byte[] axis;
+	// where each place's name starts in names; names end with a 0 byte
+	private final int[] nameStart;
+	private final byte[] names;
+	// the two letters of each place's country code, high byte first
+	private final short[] country;
+	// the PrecisionCode of each place
+	private final byte[] precision;
+	private final int size;
+
+	// furthest a result may be, as the squared distance through the unit sphere (4.0 is anywhere)
+	private volatile double maxChord2 = 4.0D;
+	private volatile double maxDistanceMeters = 0.0D;
+
+
+	/// CONSTRUCTORS
+
+	/**
+	 * Load the cities and administrative areas (feature classes A and P) in a GeoNames dump
+	 * @param dump a GeoNames dump, as text or .zip
+	 * @throws IOException if the dump could not be read
+	 */
+	public GeonamesReverseGeocoder(File dump)
+	throws IOException {
+		this(dump, GeonamesDump.CITIES_AND_ADMIN_AREAS);
+	}
+
+	/**
+	 * Load the places in some feature classes of a GeoNames dump
+	 * @param dump a GeoNames dump, as text or .zip
+	 * @param featureClasses the GeoNames feature classes to load, e.g. "P" for populated places only, or null for all
+	 * @throws IOException if the dump could not be read, or has more names than fit in 2 GB
+	 */
+	public GeonamesReverseGeocoder(File dump, String featureClasses)
+	throws IOException {
+		Loader loader = new Loader();
+		GeonamesDump.read(dump, featureClasses, loader);
+		size = loader.n;
+		// build the tree over a permutation of the places, then lay the places out in tree order
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		byte[] splitAxis = new byte[size];
+		build(loader.xyz, order, splitAxis, 0, size);
+		xyz = new float[size * 3];
+		nameStart = new int[size];
+		country = new short[size];
+		precision = new byte[size];
+		for (int i = 0; i < size; i++) {
+			int p = order[i];
+			System.arraycopy(loader.xyz, p * 3, xyz, i * 3, 3);
+			nameStart[i] = loader.nameStart[p];
+			country[i] = loader.country[p];
+			precision[i] = loader.precision[p];
+		}
+		axis = splitAxis;
+		names = (loader.namesLength == loader.names.length) ? loader.names : Arrays.copyOf(loader.names, loader.namesLength);
+	}
+
+
+	/// METHODS
+
+	public String getVersion() {
+		return VERSION_SHORT;
+	}
+
+	/**
+	 * @return InputClass.LAT_LON, the only kind of input this geocoder handles
+	 */
+	public int getInputClasses() {
+		return InputClass.LAT_LON;
+	}
+
+	/**
+	 * Find the place nearest the lat/lon in 'placeName'
+	 * @param placeName a lat/lon, e.g. "42.36, -71.06"
+	 * @return the nearest place, or GEO_UNKNOWN_ADDRESS if placeName is not a lat/lon or there is no place near enough
+	 */
+	public GeocodedLocation geocode(String placeName) {
+		double[] llh = new double[3];
+		if (InputClassifier.parseLatLon(placeName, llh)) {
+			GeocodedLocation gcl = nearest(new Location(llh[0], llh[1], llh[2]));
+			if (gcl != null)
+				return gcl;
+		}
+		return new GeocodedLocation(placeName.trim(),StatusCode.GEO_UNKNOWN_ADDRESS,
+				PrecisionCode.UNKNOWN_LOCATION,"",0D,0D,0D);
+	}
+
+	/**
+	 * Reverse geocode the lat/lon in gcl's placeName, and update 'gcl' with the nearest place
+	 * @param gcl a GeocodedLocation object to revise with new data, based on its placeName field
+	 */
+	public GeocodedLocation geocode(GeocodedLocation gcl) {
+		GeocodedLocation gcl2 = geocode(gcl.getPlaceName());
+		gcl.setPlaceName(gcl2.getPlaceName());
+		gcl.setServerResponse(gcl2.getServerResponse());
+		gcl.setAccuracy(gcl2.getAccuracy());
+		gcl.setCountry(gcl2.getCountryCode());
+		gcl.set(gcl2.getDoubleLatitude(), gcl2.getDoubleLongitude(), gcl2.getDoubleHeight());
+		return gcl;
+	}
+
+	/**
+	 * @param location the point to search from
+	 * @return the place nearest 'location', or null if there is none within the maximum distance
+	 */
+	public GeocodedLocation nearest(Location location) {
+		List<GeocodedLocation> found = nearest(location, 1);
+		return found.isEmpty() ? null : found.get(0);
+	}
+
+	/**
+	 * @param location the point to search from
+	 * @param k the most places to return
+	 * @return the (up to) k places nearest 'location', within the maximum distance, nearest first
+	 * @throws IllegalArgumentException if k < 1
+	 */
+	public List<GeocodedLocation> nearest(Location location, int k) {
+		if (k < 1)
+			throw new IllegalArgumentException("Invalid parameter");
+		Neighbours found = new Neighbours(Math.min(k, Math.max(size, 1)), maxChord2);
+		double lat = Math.toRadians(location.getDoubleLatitude());
+		double lon = Math.toRadians(location.getDoubleLongitude());
+		double cosLat = Math.cos(lat);
+		search(0, size, cosLat * Math.cos(lon), cosLat * Math.sin(lon), Math.sin(lat), found);
+		List<GeocodedLocation> results = new ArrayList<GeocodedLocation>(found.count);
+		for (int i = 0; i < found.count; i++)
+			results.add(place(found.places[i]));
+		return results;
+	}
+
+	/**
+	 * Only return places within 'meters' of the point searched from
+	 * @param meters the distance, or 0 for no limit (the default)
+	 * @throws IllegalArgumentException if meters < 0
+	 */
+	public void setMaxDistanceMeters(double meters) {
+		if ((meters < 0.0D) || Double.isNaN(meters))
+			throw new IllegalArgumentException("Invalid parameter");
+		double angle = meters / EARTH_RADIUS_METERS;
+		maxDistanceMeters = meters;
+		maxChord2 = ((meters == 0.0D) || (angle >= Math.PI)) ? 4.0D : square(2.0D * Math.sin(angle / 2.0D));
+	}
+
+	/**
+	 * @return the furthest a result may be, in meters, or 0 for no limit
+	 */
+	public double getMaxDistanceMeters() {
+		return maxDistanceMeters;
+	}
+
+	/**
+	 * @return the number of places loaded
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the distance in meters between two points on the earth, taken as a sphere of EARTH_RADIUS_METERS, as this geocoder measures it
+	 */
+	public static double distanceMeters(Location a, Location b) {
+		double lat1 = Math.toRadians(a.getDoubleLatitude());
+		double lat2 = Math.toRadians(b.getDoubleLatitude());
+		double h = square(Math.sin((lat2 - lat1) / 2.0D)) + Math.cos(lat1) * Math.cos(lat2) *
+				square(Math.sin(Math.toRadians(b.getDoubleLongitude() - a.getDoubleLongitude()) / 2.0D));
+		return 2.0D * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0D, Math.sqrt(h)));
+	}
+
+
+	/// SEARCH
+
+	/**
+	 * Offer the places in the subtree lo..hi-1 to 'found', skipping subtrees that cannot hold anything nearer than what it has
+	 */
+	private void search(int lo, int hi, double qx, double qy, double qz, Neighbours found) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int p = mid * 3;
+			double dx = qx - xyz[p];
+			double dy = qy - xyz[p + 1];
+			double dz = qz - xyz[p + 2];
+			found.offer(mid, dx * dx + dy * dy + dz * dz);
+			double diff = (axis[mid] == 0) ? dx : (axis[mid] == 1) ? dy : dz;
+			// search the side the query is on first, then the other side only if it could be near enough
+			if (diff < 0.0D) {
+				search(lo, mid, qx, qy, qz, found);
+				lo = mid + 1;
+			}
+			else {
+				search(mid + 1, hi, qx, qy, qz, found);
+				hi = mid;
+			}
+			if (diff * diff >= found.worst())
+				return;
+		}
+	}
+
+	/**
+	 * @return place i as a GeocodedLocation
+	 */
+	private GeocodedLocation place(int i) {
+		int p = i * 3;
+		double lat = Math.toDegrees(Math.asin(Math.max(-1.0D, Math.min(1.0D, xyz[p + 2]))));
+		double lon = Math.toDegrees(Math.atan2(xyz[p + 1], xyz[p]));
+		int end = nameStart[i];
+		while (names[end] != 0)
+			end++;
+		String cc = (country[i] == 0) ? "" : new String(new char[] { (char) ((country[i] >>> 8) & 0xff), (char) (country[i] & 0xff) });
+		return new GeocodedLocation(new String(names, nameStart[i], end - nameStart[i], StandardCharsets.UTF_8),
+				StatusCode.SUCCESS_NO_SERVER, precision[i], cc, round5(lat), round5(lon), 0.0D);
+	}
+
+
+	/// BUILDING
+
+	/**
+	 * Arrange order[lo..hi-1] as a KD-tree: the median on the axis along which the places spread furthest
+	 * goes in the middle, the places below it before, and the places above it after, and so on down
+	 */
+	private static void build(float[] xyz, int[] order, byte[] splitAxis, int lo, int hi) {
+		while (hi - lo > 1) {
+			int a = widestAxis(xyz, order, lo, hi);
+			int mid = (lo + hi) >>> 1;
+			select(xyz, order, a, lo, hi - 1, mid);
+			splitAxis[mid] = (byte) a;
+			// recurse into the smaller side, loop on the larger, so the stack stays shallow
+			if (mid - lo < hi - mid - 1) {
+				build(xyz, order, splitAxis, lo, mid);
+				lo = mid + 1;
+			}
+			else {
+				build(xyz, order, splitAxis, mid + 1, hi);
+				hi = mid;
+			}
+		}
+	}
+
+	/**
+	 * @return the axis along which the places in order[lo..hi-1] spread furthest
+	 */
+	private static int widestAxis(float[] xyz, int[] order, int lo, int hi) {
+		float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int i = lo; i < hi; i++) {
+			int p = order[i] * 3;
+			for (int a = 0; a < 3; a++) {
+				float v = xyz[p + a];
+				if (v < min[a])
+					min[a] = v;
+				if (v > max[a])
+					max[a] = v;
+			}
+		}
+		int widest = 0;
+		for (int a = 1; a < 3; a++) {
+			if (max[a] - min[a] > max[widest] - min[widest])
+				widest = a;
+		}
+		return widest;
+	}
+
+	/**
+	 * Quickselect: reorder order[left..right] so that order[k] is the place that would be there if they were
+	 * sorted on axis 'a', with none above it before it and none below it after it
+	 */
+	private static void select(float[] xyz, int[] order, int a, int left, int right, int k) {
+		while (right > left) {
+			// median of three as the pivot, to stay fast on sorted input
+			int middle = (left + right) >>> 1;
+			if (key(xyz, order, middle, a) < key(xyz, order, left, a))
+				swap(order, middle, left);
+			if (key(xyz, order, right, a) < key(xyz, order, left, a))
+				swap(order, right, left);
+			if (key(xyz, order, right, a) < key(xyz, order, middle, a))
+				swap(order, right, middle);
+			float pivot = key(xyz, order, middle, a);
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (key(xyz, order, i, a) < pivot)
+					i++;
+				while (key(xyz, order, j, a) > pivot)
+					j--;
+				if (i <= j)
+					swap(order, i++, j--);
+			}
+			if (k <= j)
+				right = j;
+			else if (k >= i)
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private static float key(float[] xyz, int[] order, int i, int a) {
+		return xyz[order[i] * 3 + a];
+	}
+
+	private static void swap(int[] order, int i, int j) {
+		int t = order[i];
+		order[i] = order[j];
+		order[j] = t;
+	}
+
+	private static double square(double d) {
+		return d * d;
+	}
+
+	private static double round5(double d) {
+		return Math.round(d * 100000.0D) / 100000.0D;
+	}
+
+
+	/**
+	 * Collects the places read from a dump into growing primitive arrays, in the order read
+	 */
+	private static final class Loader implements GeonamesDump.PlaceHandler {
+		float[] xyz = new float[3 << 16];
+		int[] nameStart = new int[1 << 16];
+		short[] country = new short[1 << 16];
+		byte[] precision = new byte[1 << 16];
+		byte[] names = new byte[1 << 20];
+		int namesLength;
+		int n;
+
+		public void place(String[] fields)
+		throws IOException {
+			double lat;
+			double lon;
+			try {
+				lat = Double.parseDouble(fields[GeonamesDump.LATITUDE]);
+				lon = Double.parseDouble(fields[GeonamesDump.LONGITUDE]);
+			}
+			catch (NumberFormatException nfe) { // skip the place
+				return;
+			}
+			if ((Math.abs(lat) > 90.0D) || (Math.abs(lon) > 180.0D))
+				return;
+			if (n == nameStart.length) {
+				int capacity = n + (n >>> 1);
+				xyz = Arrays.copyOf(xyz, capacity * 3);
+				nameStart = Arrays.copyOf(nameStart, capacity);
+				country = Arrays.copyOf(country, capacity);
+				precision = Arrays.copyOf(precision, capacity);
+			}
+			double rlat = Math.toRadians(lat);
+			double rlon = Math.toRadians(lon);
+			xyz[n * 3] = (float) (Math.cos(rlat) * Math.cos(rlon));
+			xyz[n * 3 + 1] = (float) (Math.cos(rlat) * Math.sin(rlon));
+			xyz[n * 3 + 2] = (float) Math.sin(rlat);
+			String cc = fields[GeonamesDump.COUNTRY_CODE];
+			country[n] = (cc.length() == 2) ? (short) (((cc.charAt(0) & 0xff) << 8) | (cc.charAt(1) & 0xff)) : 0;
+			precision[n] = (byte) GeonamesGeocoder.precision(fields[GeonamesDump.FEATURE_CLASS], fields[GeonamesDump.FEATURE_CODE]);
+			byte[] name = fields[GeonamesDump.NAME].getBytes(StandardCharsets.UTF_8);
+			if ((long) namesLength + name.length + 1 > Integer.MAX_VALUE - 8)
+				throw new IOException("Too many names to load");
+			if (namesLength + name.length + 1 > names.length)
+				names = Arrays.copyOf(names, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) names.length * 3 / 2, (long) namesLength + name.length + 1)));
+			nameStart[n] = namesLength;
+			for (int i = 0; i < name.length; i++) // a name with a NUL in it is cut short there
+				names[namesLength++] = (name[i] != 0) ? name[i] : (byte) ' ';
+			names[namesLength++] = 0;
+			n++;
+		}
+	}
+
+	/**
+	 * The k nearest places found so far, nearest first, as squared distances through the unit sphere
+	 */
+	private static final class Neighbours {
+		final int[] places;
+		final double[] distances;
+		final double limit;
+		int count;
+
+		Neighbours(int k, double limit) {
+			places = new int[k];
+			distances = new double[k];
+			this.limit = limit;
+		}
+
+		/**
+		 * @return the squared distance a place must be under to be kept
+		 */
+		double worst() {
+			return (count < places.length) ? limit : distances[count - 1];
+		}
+
+		void offer(int place, double distance) {
+			if (distance >= worst())
+				return;
+			int i = (count < places.length) ? count++ : count - 1;
+			// insertion sort: move the further places along to make room
+			while ((i > 0) && (distances[i - 1] > distance)) {
+				places[i] = places[i - 1];
+				distances[i] = distances[i - 1];
+				i--;
+			}
+			places[i] = place;
+			distances[i] = distance;
+		}
+	}
+
+
+	// for testing
+	public static void main(String[] args)
+	throws IOException {
+		long start = System.currentTimeMillis();
+		GeonamesReverseGeocoder gc = new GeonamesReverseGeocoder(new File(args[0]));
+		System.out.println("Loaded "+gc.size()+" places in "+(System.currentTimeMillis()-start)+" ms");
+		for (int i = 1; i < args.length; i++) {
+			GeocodedLocation gcl = gc.geocode(args[i]);
+			System.out.println(args[i]+": "+gcl.getPlaceName()+", "+gcl.getCountryCode()+" "+gcl.getDoubleLatitude()+","+gcl.getDoubleLongitude()+" "+PrecisionCode.getText(gcl.getAccuracy()));
+		}
+	}
+
+}
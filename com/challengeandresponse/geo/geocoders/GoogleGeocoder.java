@@ -1,11 +1,14 @@
 package com.challengeandresponse.geo.geocoders;
 
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
-import com.challengeandresponse.cheapws.CheapREST;
-import com.challengeandresponse.cheapws.CheapXPath;
 import com.challengeandresponse.geo.data.GeocodedLocation;
 import com.challengeandresponse.geo.geocoder.*;
 
@@ -19,11 +22,17 @@ import com.challengeandresponse.geo.geocoder.*;
 /*
  * REVISION HISTORY
  * 0.52 2007-02-02 Calls the String-style geolocation constructors now rather than pre-parsing
+ * 0.55 2026-10-16 Added geocodeAsync(), split geocode() into fetch and parse steps
+ * 0.56 2026-10-16 Fetch failures are G_COMM_ERROR, not G_GEOCODER_ERROR, so a CircuitBreakerGeocoder counts them
+ * 0.57 2026-10-17 Safe to share between threads: one CheapXPath and CheapREST per thread, no lock around parsing
+ * 0.58 2026-10-17 Responses are read in one streaming pass (XMLFieldExtractor), stopping after the first Placemark
+ * 0.59 2026-10-17 Fetches through a pluggable Transport (setTransport), by default the shared keep-alive PooledTransport
+ * 0.60 2026-10-17 Added geocode(String,Duration), passing the caller's time budget to the transport; G_DEADLINE_EXCEEDED if it runs out
  */
 public class GoogleGeocoder implements GeocoderI {
 	public static final String	PRODUCT_SHORT 	= "GoogleGeocoder";
 	public static final String PRODUCT_LONG	= "Challenge/Response Google Geocoder";
-	public static final String	VERSION_SHORT	= "0.54";
+	public static final String	VERSION_SHORT	= "0.60";
 	public static final String	VERSION_LONG 	=  PRODUCT_LONG + " " + VERSION_SHORT;
 	public static final String	COPYRIGHT		= "Copyright (c) 2007 Challenge/Response, LLC, Cambridge, MA";
 
@@ -39,13 +48,24 @@ public class GoogleGeocoder implements GeocoderI {
 	/** The URL of Google Maps API is hardcoded but not final, so could be overridden if necessary */
 	public static String GEOCODER_URL="http://maps.google.com/maps/geo";
 
+	// the fields read from a response, in one pass that stops at the end of the first Placemark
+	private static final XMLFieldExtractor FIELDS = new XMLFieldExtractor("Placemark", new String[] {
+			"Response/Status/code",
+			"Response/Placemark/Point/coordinates",
+			"Response/Placemark/address",
+			"Response/Placemark/AddressDetails@Accuracy",
+			"Response/Placemark/AddressDetails/Country/CountryNameCode" });
+	private static final int STATUS_CODE = 0;
+	private static final int COORDINATES = 1;
+	private static final int ADDRESS = 2;
+	private static final int ACCURACY = 3;
+	private static final int COUNTRY = 4;
+
 
 	// the Google Maps API Key
 	private String gmapsAPIKey;
-	// a CheapXPath instance
-	private CheapXPath cheapxp;
-	// and a CheapREST instance
-	private CheapREST cheapREST;
+	// how responses are fetched
+	private volatile Transport transport;
 
 	
 	/// CONSTRUCTORS 
@@ -55,8 +75,7 @@ public class GoogleGeocoder implements GeocoderI {
 	 */
 	public GoogleGeocoder(String gmapsAPIKey) {
 		this.gmapsAPIKey = gmapsAPIKey;
-		cheapxp = new CheapXPath();
-		cheapREST = new CheapREST();
+		transport = PooledTransport.getDefault();
 	}
 
 
@@ -71,25 +90,131 @@ public class GoogleGeocoder implements GeocoderI {
 	 * @return a GeocodedLocation object for that location, or an object with status code set, even if there was an error
 	 */	
 	public GeocodedLocation geocode(String placeName) {
+		return lookup(placeName, null);
+	}
+
+
+	/**
+	 * Geocode the provided address, giving up if the response has not arrived within 'timeout'
+	 * @param placeName The place to geocode
+	 * @param timeout the longest the call may take
+	 * @return a GeocodedLocation object for that location, or an object with status code set, G_DEADLINE_EXCEEDED if the time ran out
+	 */	
+	public GeocodedLocation geocode(String placeName, Duration timeout) {
+		return lookup(placeName, timeout);
+	}
+
+
+	/**
+	 * Fetch and parse the response for 'placeName', waiting no longer than 'timeout' (null to leave it to the transport's own timeouts)
+	 */
+	private GeocodedLocation lookup(String placeName, Duration timeout) {
+		URL url;
+		try {
+			url = geocoderURL(placeName);
+		}
+		catch (IOException e) { // URL formatting exception
+			return new GeocodedLocation(placeName.trim(),
+					StatusCode.G_GEOCODER_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
+		String response;
+		try {
+			response = (timeout == null) ? transport.get(url) : transport.get(url, timeout);
+		}
+		catch (DeadlineExceededException dee) { // the caller's time ran out
+			return new GeocodedLocation(placeName.trim(),
+					StatusCode.G_DEADLINE_EXCEEDED,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
+		catch (IOException ioe) { // communication error
+			return new GeocodedLocation(placeName.trim(),
+					StatusCode.G_COMM_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
+		return parse(placeName, response);
+	}
+
+
+	/**
+	 * Geocode the provided address without blocking the calling thread
+	 * @param placeName The place to geocode
+	 * @return a future that completes with a GeocodedLocation object for that location, or an object with status code set, even if there was an error
+	 */	
+	public CompletableFuture<GeocodedLocation> geocodeAsync(final String placeName) {
+		URL url;
+		try {
+			url = geocoderURL(placeName);
+		}
+		catch (IOException e) { // URL formatting exception
+			return CompletableFuture.completedFuture(new GeocodedLocation(placeName.trim(),
+					StatusCode.G_GEOCODER_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D));
+		}
+		return transport.getAsync(url).handle((response, t) -> {
+			if (t != null) // communication error
+				return new GeocodedLocation(placeName.trim(),
+						StatusCode.G_COMM_ERROR,
+						PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+			return parse(placeName, response);
+		});
+	}
+
+
+	/**
+	 * Set how this geocoder fetches its responses. The default is PooledTransport.getDefault()
+	 * @param transport the transport to use
+	 * @throws GeocoderException if transport is null
+	 */
+	public void setTransport(Transport transport)
+	throws GeocoderException {
+		if (transport == null)
+			throw new GeocoderException("Invalid parameter");
+		this.transport = transport;
+	}
+
+	/**
+	 * @return the transport this geocoder fetches its responses with
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+
+	/**
+	 * @return the request URL for 'placeName'
+	 */
+	private URL geocoderURL(String placeName)
+	throws UnsupportedEncodingException, MalformedURLException {
+		return new URL(GEOCODER_URL+"?key="+gmapsAPIKey+"&output="+OUTPUT_XML+"&q="+URLEncoder.encode(placeName,URLENCODING));
+	}
+
+	
+	/**
+	 * Turn a response from the Google geocoder into a GeocodedLocation
+	 * @param placeName the place that was geocoded, used in the error response
+	 * @param response the body of the response from Google
+	 * @return a GeocodedLocation object for that location, or an object with status code set if the response could not be used
+	 */
+	private GeocodedLocation parse(String placeName, String response) {
 		int statusCode = StatusCode.G_CODE_NOT_SET;
 		try {
-			String encodedURL = GEOCODER_URL+"?key="+gmapsAPIKey+"&output="+OUTPUT_XML+"&q="+URLEncoder.encode(placeName,URLENCODING);
-			cheapxp.loadDocument(cheapREST.getREST(new URL(encodedURL)));
+			String[] fields = FIELDS.extract(response);
 			// try to get a status code first, we will try to include it in the error response below if things don't work out
-			statusCode = Integer.parseInt(cheapxp.digXMLText("Response/Status/code"));
+			statusCode = Integer.parseInt(fields[STATUS_CODE]);
 			// splice out lat/lon/altitude from the "coordinates" section
-			String[] lonLatAlt = cheapxp.digXMLText("Response/Placemark/Point/coordinates").split(",");
+			String[] lonLatAlt = fields[COORDINATES].split(",");
 			return new GeocodedLocation(
-					cheapxp.digXMLText("Response/Placemark/address"),
+					fields[ADDRESS],
 					statusCode,
-					Integer.parseInt(cheapxp.digXMLAttribute("Response/Placemark/AddressDetails","Accuracy")),
-					cheapxp.digXMLText("Response/Placemark/AddressDetails/Country/CountryNameCode"),
+					Integer.parseInt(fields[ACCURACY]),
+					fields[COUNTRY],
 					lonLatAlt[1], 	// latitude
 					lonLatAlt[0], 	// longitude
 					lonLatAlt[2] 	// altitude
 			);
 		}
-		catch (Exception e) { // XML parser error or NumberFormatException or URL formatting exception
+		catch (Exception e) { // XML parser error or NumberFormatException
 			return new GeocodedLocation(placeName.trim(),
 					(statusCode == StatusCode.G_CODE_NOT_SET ? StatusCode.G_GEOCODER_ERROR : statusCode),
 					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
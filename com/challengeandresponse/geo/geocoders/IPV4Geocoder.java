@@ -3,10 +3,9 @@ package com.challengeandresponse.geo.geocoders;
 
 import java.io.IOException;
 import java.net.URL;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
-import com.challengeandresponse.cheapws.CheapREST;
 import com.challengeandresponse.geo.data.GeocodedLocation;
 import com.challengeandresponse.geo.geocoder.*;
 import com.maxmind.geoip.Location;
@@ -28,12 +27,17 @@ import com.maxmind.geoip.LookupService;
  * REVISION HISTORY
  * 0.10 2007-04-02 Created
  * 0.20 2007-04-03 Both coders running
+ * 0.23 2026-10-16 Added geocodeAsync(); hostip.info lookups no longer hold the calling thread
+ * 0.24 2026-10-16 Addresses are recognized by InputClassifier (no regex, no parseInt); declares the IPV4 input class
+ * 0.25 2026-10-16 hostip.info fetch failures are G_COMM_ERROR, not G_GEOCODER_ERROR, so a CircuitBreakerGeocoder counts them
+ * 0.26 2026-10-17 hostip.info is fetched through a pluggable Transport (setTransport)
+ * 0.27 2026-10-17 Added geocode(String,Duration), passing the caller's time budget to hostip.info; G_DEADLINE_EXCEEDED if it runs out
 
  */
 public class IPV4Geocoder implements GeocoderI {
 	public static final String	PRODUCT_SHORT 	= "IPV4Geocoder";
 	public static final String PRODUCT_LONG	= "Challenge/Response IPV4 Geocoder";
-	public static final String	VERSION_SHORT	= "0.22";
+	public static final String	VERSION_SHORT	= "0.27";
 	public static final String	VERSION_LONG 	=  PRODUCT_LONG + " " + VERSION_SHORT;
 	public static final String	COPYRIGHT		= "Copyright (c) 2007 Challenge/Response, LLC, Cambridge, MA";
 
@@ -53,8 +57,8 @@ public class IPV4Geocoder implements GeocoderI {
 	public static String HOSTINFO_GEOCODER_URL="http://api.hostip.info";
 	
 
-	// and a CheapREST instance
-	private CheapREST cheapREST;
+	// how hostip.info responses are fetched
+	private volatile Transport transport;
 
 	// The LookupService object, for MaxMind.com lookups
 	private LookupService maxmindLookupService;
@@ -62,10 +66,6 @@ public class IPV4Geocoder implements GeocoderI {
 	// Return the IP address as the place name, or the real place name?
 	private int returnType;
 
-	// pattern for detecting a possible ipv4 address
-	private static final Pattern IPV4_PATTERN = 
-		Pattern.compile("(\\d{1,3})?\\.(\\d{1,3})?\\.(\\d{1,3})?\\.(\\d{1,3})?");
-
 	
 	/**
 	 * Return a geocoder that will use EITHER the MaxMind city database locally, or the hostip.info live service.
@@ -78,12 +78,12 @@ public class IPV4Geocoder implements GeocoderI {
 		this.returnType = returnType;
 		// if DB is null, configure for hostip.info
 		if (maxmindDBLocation == null) {
-			cheapREST = new CheapREST();
+			transport = PooledTransport.getDefault();
 			maxmindLookupService = null;
 		}
 		// otherwise configure for the local database using the maxmind api
 		else {
-			cheapREST = null;
+			transport = PooledTransport.getDefault();
 			maxmindLookupService = new LookupService(maxmindDBLocation,LookupService.GEOIP_MEMORY_CACHE | LookupService.GEOIP_CHECK_CACHE );
 		}
 	}
@@ -92,6 +92,13 @@ public class IPV4Geocoder implements GeocoderI {
 	public String getVersion() {
 		return VERSION_SHORT;
 	}
+
+	/**
+	 * @return InputClass.IPV4, the only kind of input this geocoder handles
+	 */
+	public int getInputClasses() {
+		return InputClass.IPV4;
+	}
 	
 	
 	/**
@@ -100,33 +107,90 @@ public class IPV4Geocoder implements GeocoderI {
 	 * @return a GeocodedLocation object for that location, or an object with status code set, even if there was an error
 	 */	
 	public GeocodedLocation geocode(String ipv4Address) {
+		return lookup(ipv4Address, null);
+	}
+
+
+	/**
+	 * Geocode the provided IP address, giving up on hostip.info if it has not answered within 'timeout'.
+	 * Lookups in the MaxMind database are local, so they ignore the limit.
+	 * @param ipv4Address The ipv4 adress to geocode
+	 * @param timeout the longest the call may take
+	 * @return a GeocodedLocation object for that location, or an object with status code set, G_DEADLINE_EXCEEDED if the time ran out
+	 */	
+	public GeocodedLocation geocode(String ipv4Address, Duration timeout) {
+		return lookup(ipv4Address, timeout);
+	}
+
+
+	/**
+	 * Geocode 'ipv4Address' with the configured coder, waiting no longer than 'timeout' for hostip.info (null to leave it to the transport's own timeouts)
+	 */
+	private GeocodedLocation lookup(String ipv4Address, Duration timeout) {
 		// first qualify the ipv4address -- is it really one? if not, don't even attempt to geocode it
-		Matcher m = IPV4_PATTERN.matcher(ipv4Address);
-		// does the pattern match generally - if not, bail
-		boolean isValid = (m.matches() && (m.groupCount() == 4));
-		if (isValid) {
-			for (int i = 0; i < 4; i++) {
-				if (Integer.parseInt(m.group(i+1)) > 255) {
-					isValid = false;
-					break;
-				}
-			}
-		}
-		
-		// bail if this is not an ipv4 address
-		if (! isValid)
+		if (InputClassifier.classify(ipv4Address) != InputClass.IPV4)
 			return new GeocodedLocation(ipv4Address,
 					StatusCode.GEO_UNKNOWN_ADDRESS,
 					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		ipv4Address = ipv4Address.trim();
 		
 		// geocode the IP with the configured coder
-		if (cheapREST != null)
-			return geocodeWithHostIPInfo(ipv4Address);
+		if (maxmindLookupService == null)
+			return geocodeWithHostIPInfo(ipv4Address, timeout);
 		else
 			return geocodeWithMaxmindGeoIP(ipv4Address);
 	}
 
 
+	/**
+	 * Geocode the provided IP address without blocking the calling thread. 
+	 * Lookups in the MaxMind database are local, so they are done in the calling thread.
+	 * @param ipv4Address The ipv4 adress to geocode
+	 * @return a future that completes with a GeocodedLocation object for that location, or an object with status code set, even if there was an error
+	 */	
+	public CompletableFuture<GeocodedLocation> geocodeAsync(String ipv4Address) {
+		if ((maxmindLookupService != null) || (InputClassifier.classify(ipv4Address) != InputClass.IPV4))
+			return CompletableFuture.completedFuture(geocode(ipv4Address));
+		final String address = ipv4Address.trim();
+		URL url;
+		try {
+			url = hostIPInfoURL(address);
+		}
+		catch (IOException e) { // URL formatting exception
+			return CompletableFuture.completedFuture(new GeocodedLocation(ipv4Address,
+					StatusCode.G_GEOCODER_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D));
+		}
+		return transport.getAsync(url).handle((response, t) -> {
+			if (t == null)
+				return parseHostIPInfo(address, response);
+			return new GeocodedLocation(address,
+					StatusCode.G_COMM_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		});
+	}
+
+
+	/**
+	 * Set how this geocoder fetches hostip.info responses. The default is PooledTransport.getDefault()
+	 * @param transport the transport to use
+	 * @throws GeocoderException if transport is null
+	 */
+	public void setTransport(Transport transport)
+	throws GeocoderException {
+		if (transport == null)
+			throw new GeocoderException("Invalid parameter");
+		this.transport = transport;
+	}
+
+	/**
+	 * @return the transport this geocoder fetches hostip.info responses with
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+
 	
 	/**
 	 * Geocode the provided placeName, and update a provided MMGeocodedLocation object with fresh geocoding stuff.
@@ -158,14 +222,55 @@ public class IPV4Geocoder implements GeocoderI {
 	/**
 	 * Geocode a provided IP address using the site hostip.info, returning a GeocodedLocation
 	 * @param ipv4Address The ipv4 address to geocode
+	 * @param timeout the longest to wait for hostip.info, or null to leave it to the transport's own timeouts
 	 * @return a GeocodedLocation object for that location, or an object with status code set, even if there was an error
 	 */	
-	private GeocodedLocation geocodeWithHostIPInfo(String ipv4Address) {
-		String country = "", city="", latitude="", longitude="";
-		String encodedURL = HOSTINFO_GEOCODER_URL+"/get_html.php?ip="+ipv4Address+"&position=true";
+	private GeocodedLocation geocodeWithHostIPInfo(String ipv4Address, Duration timeout) {
+		URL url;
+		try {
+			url = hostIPInfoURL(ipv4Address);
+		}
+		catch (IOException e) { // URL formatting exception
+			return new GeocodedLocation(ipv4Address,
+					StatusCode.G_GEOCODER_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
 		try {
 			// fetch a place for this IP address
-			String[] ss = cheapREST.getREST(new URL(encodedURL)).split("\n");
+			return parseHostIPInfo(ipv4Address, (timeout == null) ? transport.get(url) : transport.get(url, timeout));
+		}
+		catch (DeadlineExceededException dee) { // the caller's time ran out
+			return new GeocodedLocation(ipv4Address,
+					StatusCode.G_DEADLINE_EXCEEDED,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
+		catch (IOException ioe) { // communication error
+			return new GeocodedLocation(ipv4Address,
+					StatusCode.G_COMM_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
+	}
+
+
+	/**
+	 * @return the hostip.info request URL for 'ipv4Address'
+	 */
+	private URL hostIPInfoURL(String ipv4Address)
+	throws IOException {
+		return new URL(HOSTINFO_GEOCODER_URL+"/get_html.php?ip="+ipv4Address+"&position=true");
+	}
+
+
+	/**
+	 * Turn a response from hostip.info into a GeocodedLocation
+	 * @param ipv4Address The ipv4 address that was geocoded
+	 * @param response the body of the response from hostip.info
+	 * @return a GeocodedLocation object for that location, or an object with status code set if the response could not be used
+	 */
+	private GeocodedLocation parseHostIPInfo(String ipv4Address, String response) {
+		String country = "", city="", latitude="", longitude="";
+		try {
+			String[] ss = response.split("\n");
 			// tease out the label:value pairs for the returned object
 			for (int i = 0; i < ss.length; i++) {
 				String[] labelValue = ss[i].split(":");
@@ -7,8 +7,8 @@ import com.challengeandresponse.geo.geocoder.*;
 /**
  * A geocoder that recognizes Lat,Lon pairs and simply returns them without calling a server.
 
- * A lat/lon is recognized as two numbers separated by spaces or commas,
- * parseable as Doubles, having values between -360.0 and 360.0 (not inclusive).<br />
+ * A lat/lon is recognized as two decimal numbers separated by spaces or commas,
+ * having values between -360.0 and 360.0 (not inclusive), by InputClassifier.<br />
  * valid values: -360.0 < LATorLON < 360.0<br />
  * If a third parseable number is also present (and separated by spaces or commas) it is interpreted as height. This is optional.
  * 
@@ -20,6 +20,7 @@ import com.challengeandresponse.geo.geocoder.*;
  * REVISION HISTORY
  * 0.40 2007-01-28 Now recognizes "height" in lat/lon strings.<br />
  * 0.42 2007-02-02 Now works with the new BigDecimal GeocodedLocation. Added trim() to preparse to better detect lat/lon strings<br />
+ * 0.44 2026-10-16 Parses with InputClassifier.parseLatLon rather than split/parseDouble under try/catch, and declares the LAT_LON input class<br />
  * 
  */
 
@@ -31,7 +32,7 @@ import com.challengeandresponse.geo.geocoder.*;
 public class LatLonGeocoder implements GeocoderI {
 	public static final String	PRODUCT_SHORT 	= "LatLonGeocoder";
 	public static final String PRODUCT_LONG	= "Challenge/Response Lat/Lon Geocoder";
-	public static final String	VERSION_SHORT	= "0.43";
+	public static final String	VERSION_SHORT	= "0.44";
 	public static final String	VERSION_LONG 	=  PRODUCT_LONG + " " + VERSION_SHORT;
 	public static final String	COPYRIGHT		= "Copyright (c) 2007 Challenge/Response, LLC, Cambridge, MA";
 
@@ -42,6 +43,13 @@ public class LatLonGeocoder implements GeocoderI {
 		return VERSION_SHORT;
 	}
 
+	/**
+	 * @return InputClass.LAT_LON, the only kind of input this geocoder handles
+	 */
+	public int getInputClasses() {
+		return InputClass.LAT_LON;
+	}
+
 	/**
 	 * If placeName seems to be a Lat,Lon encode that, otherwise return GEO_UNKNOWN_ADDRESS
 	 * A lat/lon is recognized as two numbers separated by non-number stuff (spaces, comma, other characters comma, parseable as Doubles, having values between -360.0 and 360.0
@@ -49,21 +57,11 @@ public class LatLonGeocoder implements GeocoderI {
 	 * @return a LatLonResponse object indicating the lat/lon of the address, accuracy, and server response code
 	 */	
 	public GeocodedLocation geocode(String placeName) {
-		try {
-			String[] s = placeName.trim().split("[,\\s]+");
-			if ( (s.length != 2) && (s.length != 3))
-				throw new Exception();
-			double latCandidate = Double.parseDouble(s[0]);
-			double lonCandidate = Double.parseDouble(s[1]);
-			double heightCandidate = (s.length == 3) ? Double.parseDouble(s[2]) : 0.0D;
-			// test for reasonableness
-			if ( (latCandidate < 360.0D) && (latCandidate > -360.0D) &&
-					(lonCandidate < 360.0D) && (lonCandidate > -360.0))
-				return new GeocodedLocation(placeName, StatusCode.SUCCESS_NO_SERVER, 
-						PrecisionCode.LAT_LON, "",latCandidate, lonCandidate, heightCandidate);
-		}
-		catch (Exception e) {
-		}
+		// parseLatLon also tests for reasonableness
+		double[] llh = new double[3];
+		if (InputClassifier.parseLatLon(placeName, llh))
+			return new GeocodedLocation(placeName, StatusCode.SUCCESS_NO_SERVER, 
+					PrecisionCode.LAT_LON, "",llh[0], llh[1], llh[2]);
 		return new GeocodedLocation(placeName.trim(),StatusCode.GEO_UNKNOWN_ADDRESS,
 				PrecisionCode.UNKNOWN_LOCATION,"",0D,0D,0D);
 	}
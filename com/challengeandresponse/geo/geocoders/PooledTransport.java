@@ -0,0 +1,384 @@
+package com.challengeandresponse.geo.geocoders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The default Transport: one java.net.http.HttpClient, whose connections are kept
+ * alive and reused between requests, so a lookup does not pay a TCP (and TLS)
+ * handshake every time.
+ * 
+ * <p>Requests in flight to each host are capped at maxConnectionsPerHost; further
+ * requests wait in a queue for their turn, without holding a thread. Over HTTP/1.1 this
+ * caps the connections the pool opens to each host. Responses may be gzip compressed.
+ * The connect timeout limits the time to open a connection; the read timeout limits the
+ * time from sending a request to having the response headers.
+ * HTTP/2 can be switched on, in which case requests to a host share one connection
+ * when the server supports it.</p>
+ * 
+ * <p>Idle connections are closed by the HttpClient after the time set by the system property
+ * jdk.httpclient.keepalive.timeout (in seconds, default 1200).</p>
+ * 
+ * <p>get(URL,Duration) bounds the whole request, queueing included, by the caller's
+ * time budget as well as by the transport's own timeouts. A request that get() gives up
+ * on (its time ran out, or the thread was interrupted), or whose future from getAsync()
+ * is cancelled, frees its place at the host at once, and its exchange is cancelled, so
+ * calls that miss their deadline do not fill the pool.</p>
+ * 
+ * <p>The bytes of response each thread reads through get() are counted, for profiling
+ * (see getBytesRead()).</p>
+ * 
+ * @author jim
+ * @version 0.12 2026-10-17
+ */
+
+/*
+ * REVISION HISTORY
+ * 0.10 2026-10-17 First version
+ * 0.11 2026-10-17 Added get(URL,Duration), for callers with a time budget
+ * 0.12 2026-10-17 Counts the bytes read by each thread (getBytesRead)
+ */
+public class PooledTransport implements Transport {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+	public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000L;
+	public static final long DEFAULT_READ_TIMEOUT_MILLIS = 15000L;
+
+	private static volatile PooledTransport defaultTransport;
+
+	// the bytes of response read through get() by each thread
+	private static final ThreadLocal<long[]> bytesRead = ThreadLocal.withInitial(() -> new long[1]);
+
+	private final HttpClient client;
+	private final int maxConnectionsPerHost;
+	private final Duration readTimeout;
+	private final ConcurrentHashMap<String,HostQueue> hosts = new ConcurrentHashMap<String,HostQueue>();
+
+
+	/**
+	 * @param maxConnectionsPerHost the most requests in flight at once to any one host
+	 * @param connectTimeoutMillis how long to wait for a connection to open
+	 * @param readTimeoutMillis how long to wait for the response once a request is sent
+	 * @param http2 true to use HTTP/2 where the server supports it, false to use HTTP/1.1 only
+	 * @throws IllegalArgumentException if any limit is < 1
+	 */
+	public PooledTransport(int maxConnectionsPerHost, long connectTimeoutMillis, long readTimeoutMillis, boolean http2) {
+		if ((maxConnectionsPerHost < 1) || (connectTimeoutMillis < 1) || (readTimeoutMillis < 1))
+			throw new IllegalArgumentException("Invalid parameter");
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.readTimeout = Duration.ofMillis(readTimeoutMillis);
+		this.client = HttpClient.newBuilder()
+				.version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+				.build();
+	}
+
+	/**
+	 * @return the transport shared by all remote geocoders that have not been given one of their own, with the default settings over HTTP/1.1
+	 */
+	public static PooledTransport getDefault() {
+		PooledTransport t = defaultTransport;
+		if (t == null) {
+			synchronized (PooledTransport.class) {
+				if (defaultTransport == null)
+					defaultTransport = new PooledTransport(DEFAULT_MAX_CONNECTIONS_PER_HOST,
+							DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, false);
+				t = defaultTransport;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * @return the bytes of response (as received, i.e. before un-gzipping) that the calling thread
+	 * has read through get() from any PooledTransport, since it started. Responses read with getAsync()
+	 * are not counted, as they are read on the HttpClient's threads.
+	 * The difference between two calls is what was read in between.
+	 */
+	public static long getBytesRead() {
+		return bytesRead.get()[0];
+	}
+
+
+	public String get(URL url)
+	throws IOException {
+		CompletableFuture<Response> response = send(url, readTimeout);
+		try {
+			return response.get().text(bytesRead.get());
+		}
+		catch (InterruptedException ie) {
+			response.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for "+url.getHost());
+		}
+		catch (ExecutionException ee) {
+			if (ee.getCause() instanceof IOException)
+				throw (IOException) ee.getCause();
+			throw new IOException(ee.getCause());
+		}
+	}
+
+	/**
+	 * GET 'url', giving up when 'timeout' runs out or the read timeout does, whichever is sooner.
+	 * The time spent waiting for a turn at the host counts against 'timeout'.
+	 */
+	public String get(URL url, Duration timeout)
+	throws IOException {
+		if (timeout.isNegative() || timeout.isZero())
+			throw new DeadlineExceededException("No time left for "+url.getHost());
+		boolean callerLimit = (timeout.compareTo(readTimeout) < 0);
+		CompletableFuture<Response> response = send(url, callerLimit ? timeout : readTimeout);
+		try {
+			return response.get(timeout.toNanos(), TimeUnit.NANOSECONDS).text(bytesRead.get());
+		}
+		catch (TimeoutException te) {
+			response.cancel(true);
+			throw new DeadlineExceededException("Deadline passed waiting for "+url.getHost());
+		}
+		catch (InterruptedException ie) {
+			response.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for "+url.getHost());
+		}
+		catch (ExecutionException ee) {
+			if (callerLimit && (ee.getCause() instanceof HttpTimeoutException)) // the request timed out on the caller's limit
+				throw new DeadlineExceededException("Deadline passed waiting for "+url.getHost());
+			if (ee.getCause() instanceof IOException)
+				throw (IOException) ee.getCause();
+			throw new IOException(ee.getCause());
+		}
+	}
+
+	public CompletableFuture<String> getAsync(URL url) {
+		final CompletableFuture<Response> response = send(url, readTimeout);
+		final CompletableFuture<String> text = response.thenApply(r -> r.text);
+		text.whenComplete((t, x) -> {
+			if (text.isCancelled()) // pass the cancel on, to give up the request
+				response.cancel(true);
+		});
+		return text;
+	}
+
+
+	/**
+	 * Queue a GET of 'url' for its host, with 'timeout' as the time to the response headers once it is sent.
+	 * Cancelling the future returned gives up the request's turn at once, and cancels the exchange if it has been sent
+	 */
+	private CompletableFuture<Response> send(final URL url, Duration timeout) {
+		final HttpRequest request;
+		try {
+			request = HttpRequest.newBuilder(url.toURI())
+					.timeout(timeout)
+					.header("Accept-Encoding", "gzip")
+					.GET()
+					.build();
+		}
+		catch (URISyntaxException | IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(new IOException("Bad URL: "+url));
+		}
+		final Exchange exchange = new Exchange(url, request, hosts.computeIfAbsent(url.getHost()+":"+url.getPort(), k -> new HostQueue()));
+		exchange.result.whenComplete((response, t) -> {
+			if (exchange.result.isCancelled())
+				exchange.cancel();
+		});
+		exchange.host.submit(exchange);
+		return exchange.result;
+	}
+
+
+	/**
+	 * @return the body of 'response' as a String, un-gzipped if need be, in the charset named in its Content-Type (default UTF-8)
+	 */
+	private static Response decode(HttpResponse<byte[]> response)
+	throws IOException {
+		byte[] body = response.body();
+		int received = body.length;
+		if ("gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse(""))) {
+			try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) > 0)
+					out.write(buffer, 0, n);
+				body = out.toByteArray();
+			}
+		}
+		Charset charset = StandardCharsets.UTF_8;
+		String contentType = response.headers().firstValue("Content-Type").orElse("");
+		int i = contentType.toLowerCase().indexOf("charset=");
+		if (i >= 0) {
+			String name = contentType.substring(i + 8).split(";")[0].trim().replace("\"", "");
+			try {
+				charset = Charset.forName(name);
+			}
+			catch (IllegalArgumentException iae) { // unknown charset, keep UTF-8
+			}
+		}
+		return new Response(new String(body, charset), received);
+	}
+
+
+	/**
+	 * A decoded response body, and the bytes it took as received
+	 */
+	private static final class Response {
+		final String text;
+		final int bytes;
+
+		Response(String text, int bytes) {
+			this.text = text;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * @return the text, having added the bytes to 'counter'
+		 */
+		String text(long[] counter) {
+			counter[0] += bytes;
+			return text;
+		}
+	}
+
+
+	/**
+	 * One request: it waits in its host's queue for a turn, then holds one of the host's slots
+	 * until the exchange completes or the request is cancelled, whichever is first
+	 */
+	private final class Exchange {
+		final URL url;
+		final HttpRequest request;
+		final HostQueue host;
+		final CompletableFuture<Response> result = new CompletableFuture<Response>();
+		// true while this request holds a slot of its host
+		private final AtomicBoolean holding = new AtomicBoolean();
+		private volatile CompletableFuture<HttpResponse<byte[]>> sent;
+
+		Exchange(URL url, HttpRequest request, HostQueue host) {
+			this.url = url;
+			this.request = request;
+			this.host = host;
+		}
+
+		/**
+		 * Send the request, now that it has a slot
+		 * @return false if it did not keep the slot, because it had been cancelled or the client refused it, so the slot should go to the next request
+		 */
+		boolean start() {
+			if (result.isDone()) // cancelled while it waited its turn
+				return false;
+			holding.set(true);
+			CompletableFuture<HttpResponse<byte[]>> exchange;
+			try {
+				exchange = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+			}
+			catch (RuntimeException re) { // the client refused the request
+				boolean held = holding.compareAndSet(true, false);
+				result.completeExceptionally(new IOException(re));
+				return ! held; // if not held, cancel() has already passed the slot on
+			}
+			sent = exchange;
+			exchange.whenComplete((response, t) -> {
+				releaseSlot();
+				if (t != null) {
+					Throwable cause = (t instanceof CompletionException) ? t.getCause() : t;
+					result.completeExceptionally((cause instanceof IOException) ? cause : new IOException(cause));
+				}
+				else if (response.statusCode() != 200)
+					result.completeExceptionally(new IOException("HTTP "+response.statusCode()+" from "+url.getHost()));
+				else {
+					try {
+						result.complete(decode(response));
+					}
+					catch (IOException ioe) {
+						result.completeExceptionally(ioe);
+					}
+				}
+			});
+			if (result.isCancelled()) // cancelled while it was being sent
+				exchange.cancel(true);
+			return true;
+		}
+
+		/**
+		 * The result was cancelled: give up the slot, if it holds one, and cancel the exchange, if it has been sent
+		 */
+		void cancel() {
+			releaseSlot();
+			CompletableFuture<HttpResponse<byte[]>> exchange = sent;
+			if (exchange != null)
+				exchange.cancel(true);
+		}
+
+		private void releaseSlot() {
+			if (holding.compareAndSet(true, false))
+				host.release();
+		}
+	}
+
+
+	/**
+	 * The requests in flight to one host, and the queue of requests waiting for a turn
+	 */
+	private final class HostQueue {
+		private int active;
+		private final ArrayDeque<Exchange> waiting = new ArrayDeque<Exchange>();
+
+		/**
+		 * Start 'exchange' now if the host has a free slot, otherwise when one comes free
+		 */
+		void submit(Exchange exchange) {
+			synchronized (this) {
+				if (active >= maxConnectionsPerHost) {
+					waiting.add(exchange);
+					return;
+				}
+				active++;
+			}
+			if (! exchange.start())
+				release();
+		}
+
+		/**
+		 * Pass a slot that has come free to the next waiting request that takes it, skipping cancelled ones;
+		 * in a loop, not by recursion, however many there are
+		 */
+		void release() {
+			for (;;) {
+				Exchange next;
+				synchronized (this) {
+					next = waiting.poll();
+					if (next == null) {
+						active--;
+						return;
+					}
+				}
+				if (next.start()) // the slot passes straight to the next request
+					return;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.challengeandresponse.geo.geocoders;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * How the remote geocoders fetch their responses. The default is PooledTransport.getDefault();
+ * each remote geocoder has a setTransport() method to use another one (e.g. one with
+ * different timeouts, or a stub for testing).
+ * 
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public interface Transport {
+
+	/**
+	 * GET 'url', waiting for the response
+	 * @param url the URL to fetch
+	 * @return the body of the response
+	 * @throws IOException if the request failed, timed out, or the server did not answer 200
+	 */
+	public String get(URL url)
+	throws IOException;
+
+	/**
+	 * GET 'url', waiting no longer than 'timeout' for the response. The default implementation
+	 * ignores the limit and calls get(URL); transports that can bound a request should override this.
+	 * @param url the URL to fetch
+	 * @param timeout the longest to wait, including any time spent queued for a connection
+	 * @return the body of the response
+	 * @throws DeadlineExceededException if 'timeout' ran out first
+	 * @throws IOException if the request failed, timed out, or the server did not answer 200
+	 */
+	public default String get(URL url, Duration timeout)
+	throws IOException {
+		return get(url);
+	}
+
+	/**
+	 * GET 'url' without blocking the caller
+	 * @param url the URL to fetch
+	 * @return a future that completes with the body of the response, or exceptionally with an IOException if the request failed, timed out, or the server did not answer 200
+	 */
+	public CompletableFuture<String> getAsync(URL url);
+
+}
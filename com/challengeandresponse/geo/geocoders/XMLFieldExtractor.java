@@ -0,0 +1,167 @@
+package com.challengeandresponse.geo.geocoders;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Pulls a fixed set of fields out of an XML response in one forward pass with StAX,
+ * instead of building a DOM and walking it once per field.
+ * 
+ * <p>Fields are named by element path, as for CheapXPath.digXMLText(), e.g. 
+ * "Response/Placemark/address", or by element path and attribute, as for 
+ * CheapXPath.digXMLAttribute(), written "Response/Placemark/AddressDetails@Accuracy".
+ * A path matches an element if it matches the innermost elements of the element's 
+ * path from the root, so "Placemark/address" matches kml/Response/Placemark/address.
+ * Namespaces are ignored. The first element that matches a path gives its value:
+ * its text content, trimmed, or the attribute's value.</p>
+ * 
+ * <p>Reading stops as soon as every field has a value, or the first 'stop' element
+ * (e.g. the first Placemark) ends, so later results are never parsed.
+ * Fields that were not found are "".</p>
+ * 
+ * <p>An extractor holds no per-call state, so one instance can be shared by all threads.</p>
+ * 
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class XMLFieldExtractor {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+	static {
+		// responses are plain data: no DTDs, no external entities
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+	}
+
+	private final String stopElement;
+	// for each field, the element names of its path, and the attribute name (or null for the element's text)
+	private final String[][] paths;
+	private final String[] attributes;
+
+
+	/**
+	 * @param stopElement the local name of the element whose first end closes the parse, e.g. "Placemark", or null to read to the end
+	 * @param fields the fields to extract, as element paths, or element paths with "@attribute" appended
+	 */
+	public XMLFieldExtractor(String stopElement, String[] fields) {
+		this.stopElement = stopElement;
+		paths = new String[fields.length][];
+		attributes = new String[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			String path = fields[i];
+			int at = path.indexOf('@');
+			if (at >= 0) {
+				attributes[i] = path.substring(at+1);
+				path = path.substring(0, at);
+			}
+			paths[i] = path.split("/");
+		}
+	}
+
+
+	/**
+	 * Extract the fields from 'xml'
+	 * @param xml the XML document to read
+	 * @return the value of each field, in the order they were given to the constructor; "" for fields that were not found
+	 * @throws XMLStreamException if the document is not well-formed up to the point where reading stopped
+	 */
+	public String[] extract(String xml)
+	throws XMLStreamException {
+		int n = paths.length;
+		String[] values = new String[n];
+		int found = 0;
+		// text being collected for element fields, and the depth of the element it belongs to
+		StringBuilder[] text = new StringBuilder[n];
+		int[] textDepth = new int[n];
+		Arrays.fill(textDepth, -1);
+		int collecting = 0;
+
+		String[] stack = new String[16];
+		int depth = 0;
+
+		XMLStreamReader reader = FACTORY.createXMLStreamReader(new StringReader(xml));
+		try {
+			while ((found < n) && reader.hasNext()) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					if (depth == stack.length)
+						stack = Arrays.copyOf(stack, depth * 2);
+					stack[depth++] = reader.getLocalName();
+					for (int i = 0; i < n; i++) {
+						if ((values[i] != null) || (textDepth[i] >= 0) || (! matches(paths[i], stack, depth)))
+							continue;
+						if (attributes[i] != null) {
+							String value = reader.getAttributeValue(null, attributes[i]);
+							values[i] = (value != null) ? value : "";
+							found++;
+						}
+						else {
+							text[i] = new StringBuilder();
+							textDepth[i] = depth;
+							collecting++;
+						}
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					if (collecting > 0) {
+						for (int i = 0; i < n; i++) {
+							if (textDepth[i] >= 0)
+								text[i].append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+						}
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (collecting > 0) {
+						for (int i = 0; i < n; i++) {
+							if (textDepth[i] == depth) {
+								values[i] = text[i].toString().trim();
+								text[i] = null;
+								textDepth[i] = -1;
+								collecting--;
+								found++;
+							}
+						}
+					}
+					depth--;
+					if ((stopElement != null) && stopElement.equals(reader.getLocalName()))
+						found = n; // the first result is complete, so stop
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		for (int i = 0; i < n; i++) {
+			if (values[i] == null)
+				values[i] = "";
+		}
+		return values;
+	}
+
+
+	/**
+	 * @return true if 'path' matches the innermost elements of stack[0..depth-1]
+	 */
+	private static boolean matches(String[] path, String[] stack, int depth) {
+		if (path.length > depth)
+			return false;
+		for (int i = path.length - 1, j = depth - 1; i >= 0; i--, j--) {
+			if (! path[i].equals(stack[j]))
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -1,10 +1,14 @@
 package com.challengeandresponse.geo.geocoders;
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.util.Hashtable;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 
-import com.challengeandresponse.cheapws.*;
 import com.challengeandresponse.geo.data.GeocodedLocation;
 import com.challengeandresponse.geo.geocoder.*;
 
@@ -22,12 +26,17 @@ import com.challengeandresponse.geo.geocoder.*;
 /*
  * REVISION HISTORY
  * 0.25 2007-02-02  Rewritten to directly call the string constructor of GeocodedLocation
+ * 0.27 2026-10-16  Added geocodeAsync(), split geocode() into fetch and parse steps
+ * 0.28 2026-10-17  Safe to share between threads: one CheapXPath and CheapREST per thread, no lock around parsing
+ * 0.29 2026-10-17  Responses are read in one streaming pass (XMLFieldExtractor), stopping after the first Result; a response with no Result and no Error is GEO_UNKNOWN_ADDRESS
+ * 0.30 2026-10-17  Fetches through a pluggable Transport (setTransport), by default the shared keep-alive PooledTransport; fetch failures are G_COMM_ERROR
+ * 0.31 2026-10-17 Added geocode(String,Duration), passing the caller's time budget to the transport; G_DEADLINE_EXCEEDED if it runs out
  */
 
 public class YahooGeocoder implements GeocoderI {
 	public static final String	PRODUCT_SHORT 	= "YahooGeocoder";
 	public static final String PRODUCT_LONG	= "Challenge/Response Yahoo Geocoder";
-	public static final String	VERSION_SHORT	= "0.26";
+	public static final String	VERSION_SHORT	= "0.31";
 	public static final String	VERSION_LONG 	=  PRODUCT_LONG + " " + VERSION_SHORT;
 	public static final String	COPYRIGHT		= "Copyright (c) 2007 Challenge/Response, LLC, Cambridge, MA";
 
@@ -37,7 +46,7 @@ public class YahooGeocoder implements GeocoderI {
 
 	
 	// PRECISION codes
-	private static final Hashtable <String,Integer>ACCURACY_CODES = new Hashtable <String,Integer>();
+	private static final HashMap <String,Integer> ACCURACY_CODES = new HashMap <String,Integer>(); // read-only after loading, so no lock
 	static {
 		ACCURACY_CODES.put("address",new Integer(PrecisionCode.ADDRESS));
 		ACCURACY_CODES.put("street",new Integer(PrecisionCode.STREET));
@@ -56,14 +65,25 @@ public class YahooGeocoder implements GeocoderI {
 	/** The URL of Yahoo Maps API, it is hardcoded not final, so could be overridden if necessary */
 	public static String GEOCODER_URL="http://api.local.yahoo.com/MapsService/V1/geocode";
 
+	// the fields read from a response, in one pass that stops at the end of the first Result
+	private static final XMLFieldExtractor FIELDS = new XMLFieldExtractor("Result", new String[] {
+			"Result/Address", "Result/City", "Result/State", "Result/Country",
+			"Result@precision", "Result/Latitude", "Result/Longitude", "Error/Message" });
+	private static final int ADDRESS = 0;
+	private static final int CITY = 1;
+	private static final int STATE = 2;
+	private static final int COUNTRY = 3;
+	private static final int PRECISION = 4;
+	private static final int LATITUDE = 5;
+	private static final int LONGITUDE = 6;
+	private static final int ERROR = 7;
+
 
 	/// PRIVATE INSTANCE...
 	// the Yahoo Application ID
 	private String appID;
-	// a CheapXPath instance
-	private CheapXPath cheapxp;
-	// and a CheapREST instance
-	private CheapREST cheapREST;
+	// how responses are fetched
+	private volatile Transport transport;
 
 	
 	/// CONSTRUCTORS 
@@ -73,8 +93,7 @@ public class YahooGeocoder implements GeocoderI {
 	 */
 	public YahooGeocoder(String appID) {
 		this.appID = appID;
-		cheapxp = new CheapXPath();
-		cheapREST = new CheapREST();
+		transport = PooledTransport.getDefault();
 	}
 
 
@@ -91,15 +110,124 @@ public class YahooGeocoder implements GeocoderI {
 	 * @return a GeocodedLocation object for that location, or an object with status code set, even if there was an error
 	 */	
 	public GeocodedLocation geocode(String placeName) {
-		int statusCode = StatusCode.G_CODE_NOT_SET;
+		return lookup(placeName, null);
+	}
+
+
+	/**
+	 * Geocode the provided address, giving up if the response has not arrived within 'timeout'
+	 * @param placeName The place to geocode
+	 * @param timeout the longest the call may take
+	 * @return a GeocodedLocation object for that location, or an object with status code set, G_DEADLINE_EXCEEDED if the time ran out
+	 */	
+	public GeocodedLocation geocode(String placeName, Duration timeout) {
+		return lookup(placeName, timeout);
+	}
+
+
+	/**
+	 * Fetch and parse the response for 'placeName', waiting no longer than 'timeout' (null to leave it to the transport's own timeouts)
+	 */
+	private GeocodedLocation lookup(String placeName, Duration timeout) {
+		URL url;
 		try {
-			String encodedURL = GEOCODER_URL+"?appid="+appID+"&output="+OUTPUT_XML+"&location="+URLEncoder.encode(placeName,URLENCODING);
-			cheapxp.loadDocument(cheapREST.getREST(new URL(encodedURL)));
+			url = geocoderURL(placeName);
+		}
+		catch (IOException e) { // URL formatting exception
+			return new GeocodedLocation(placeName.trim(),
+					StatusCode.G_GEOCODER_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
+		String response;
+		try {
+			response = (timeout == null) ? transport.get(url) : transport.get(url, timeout);
+		}
+		catch (DeadlineExceededException dee) { // the caller's time ran out
+			return new GeocodedLocation(placeName.trim(),
+					StatusCode.G_DEADLINE_EXCEEDED,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
+		catch (IOException ioe) { // communication error
+			return new GeocodedLocation(placeName.trim(),
+					StatusCode.G_COMM_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+		}
+		return parse(placeName, response);
+	}
+
 
-			String address = cheapxp.digXMLText("Result/Address");
-			String city = cheapxp.digXMLText("Result/City");
-			String state = cheapxp.digXMLText("Result/State");
-			String country = cheapxp.digXMLText("Result/Country");
+	/**
+	 * Geocode the provided address without blocking the calling thread
+	 * @param placeName The place to geocode
+	 * @return a future that completes with a GeocodedLocation object for that location, or an object with status code set, even if there was an error
+	 */	
+	public CompletableFuture<GeocodedLocation> geocodeAsync(final String placeName) {
+		URL url;
+		try {
+			url = geocoderURL(placeName);
+		}
+		catch (IOException e) { // URL formatting exception
+			return CompletableFuture.completedFuture(new GeocodedLocation(placeName.trim(),
+					StatusCode.G_GEOCODER_ERROR,
+					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D));
+		}
+		return transport.getAsync(url).handle((response, t) -> {
+			if (t != null) // communication error
+				return new GeocodedLocation(placeName.trim(),
+						StatusCode.G_COMM_ERROR,
+						PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+			return parse(placeName, response);
+		});
+	}
+
+
+	/**
+	 * Set how this geocoder fetches its responses. The default is PooledTransport.getDefault()
+	 * @param transport the transport to use
+	 * @throws GeocoderException if transport is null
+	 */
+	public void setTransport(Transport transport)
+	throws GeocoderException {
+		if (transport == null)
+			throw new GeocoderException("Invalid parameter");
+		this.transport = transport;
+	}
+
+	/**
+	 * @return the transport this geocoder fetches its responses with
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+
+	/**
+	 * @return the request URL for 'placeName'
+	 */
+	private URL geocoderURL(String placeName)
+	throws UnsupportedEncodingException, MalformedURLException {
+		return new URL(GEOCODER_URL+"?appid="+appID+"&output="+OUTPUT_XML+"&location="+URLEncoder.encode(placeName,URLENCODING));
+	}
+
+
+	/**
+	 * Turn a response from the Yahoo geocoder into a GeocodedLocation
+	 * @param placeName the place that was geocoded, used in the error response
+	 * @param response the body of the response from Yahoo
+	 * @return a GeocodedLocation object for that location, GEO_UNKNOWN_ADDRESS if there were no results, or an object with status code set if the response could not be used
+	 */
+	private GeocodedLocation parse(String placeName, String response) {
+		try {
+			String[] fields = FIELDS.extract(response);
+			if ((fields[LATITUDE].length() == 0) && (fields[LONGITUDE].length() == 0) && (fields[ERROR].length() == 0)) // no Result, and not an error
+				return new GeocodedLocation(placeName.trim(),
+						StatusCode.GEO_UNKNOWN_ADDRESS,
+						PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
+
+			String address = fields[ADDRESS];
+			String city = fields[CITY];
+			String state = fields[STATE];
+			String country = fields[COUNTRY];
 			StringBuffer composedAddress = new StringBuffer();
 			if (address.length() > 0) composedAddress.append(address).append(", ");
 			if (city.length() > 0) composedAddress.append(city).append(", ");
@@ -111,21 +239,16 @@ public class YahooGeocoder implements GeocoderI {
 			return new GeocodedLocation(
 					composedAddress.toString(),
 					StatusCode.GEO_SUCCESS,
-					((Integer) ACCURACY_CODES.get(cheapxp.digXMLAttribute("Result","precision"))).intValue(),
-					cheapxp.digXMLText("Result/Country"),
-					cheapxp.digXMLText("Result/Latitude"), 	// latitude
-					cheapxp.digXMLText("Result/Longitude"), // longitude
+					ACCURACY_CODES.get(fields[PRECISION]).intValue(),
+					country,
+					fields[LATITUDE], 	// latitude
+					fields[LONGITUDE], // longitude
 					"0.0" // altitude (yahoo does not provide)
 			);
 		}
-		catch (CheapWSException wse) {
-			return new GeocodedLocation(placeName.trim(),
-					(statusCode == StatusCode.G_CODE_NOT_SET ? StatusCode.G_COMM_ERROR : statusCode),
-					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
-		}
-		catch (Exception e) { // XML parser error or NumberFormatException or URL formatting exception
+		catch (Exception e) { // XML parser error or NumberFormatException
 			return new GeocodedLocation(placeName.trim(),
-					(statusCode == StatusCode.G_CODE_NOT_SET ? StatusCode.G_GEOCODER_ERROR : statusCode),
+					StatusCode.G_GEOCODER_ERROR,
 					PrecisionCode.UNKNOWN_LOCATION,"",0.0D,0.0D,0.0D);
 		}
 	}
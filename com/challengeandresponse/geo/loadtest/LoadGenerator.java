@@ -0,0 +1,226 @@
+package com.challengeandresponse.geo.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.challengeandresponse.geo.data.GeocodedLocation;
+import com.challengeandresponse.geo.geocoder.CircuitBreakerGeocoder;
+import com.challengeandresponse.geo.geocoder.Geocoder;
+import com.challengeandresponse.geo.geocoder.GeocoderI;
+import com.challengeandresponse.geo.geocoders.GeonamesGeocoder;
+import com.challengeandresponse.geo.geocoders.GoogleGeocoder;
+import com.challengeandresponse.geo.geocoders.IPV4Geocoder;
+import com.challengeandresponse.geo.geocoders.LatLonGeocoder;
+import com.challengeandresponse.geo.geocoders.PooledTransport;
+import com.challengeandresponse.geo.geocoders.YahooGeocoder;
+
+/**
+ * Runs a geocoder at a fixed request rate and reports throughput, latency
+ * percentiles and allocation rate (see LoadReport).
+ * 
+ * <p>The load is open-loop: request N is due at start + N/qps whether or not earlier
+ * requests have finished, and its latency is measured from when it was due, not from
+ * when a worker thread got to it. So a stall shows up in the latency of every request
+ * that queued behind it, as it would for real callers.</p>
+ * 
+ * <p>Requests still queued or in flight when the run has drained for as long again as it
+ * ran are counted at their latency so far, so a stalled geocoder shows in the tail instead
+ * of dropping out of it.</p>
+ * 
+ * <p>The place names are sent in rotation. Allocation is measured with the HotSpot
+ * ThreadMXBean on each caller thread, around each geocode() call, so it counts what the
+ * geocoder allocates on the calling thread and not the work of other threads in the JVM
+ * (a MockProviderServer's, say, or the geocoder's own worker threads).</p>
+ * 
+ * <p>main() runs the usual Geocoder chain against a MockProviderServer, so it needs no network.</p>
+ * 
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class LoadGenerator {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	private final GeocoderI geocoder;
+	private final String[] placeNames;
+
+
+	/**
+	 * @param geocoder the geocoder to load
+	 * @param placeNames the place names to send, in rotation
+	 * @throws IllegalArgumentException if geocoder is null or placeNames is empty
+	 */
+	public LoadGenerator(GeocoderI geocoder, List<String> placeNames) {
+		if ((geocoder == null) || (placeNames == null) || placeNames.isEmpty())
+			throw new IllegalArgumentException("Invalid parameter");
+		this.geocoder = geocoder;
+		this.placeNames = placeNames.toArray(new String[0]);
+	}
+
+
+	/**
+	 * Run the load and wait for it to finish
+	 * @param qps the request rate to send at
+	 * @param durationMillis how long to send for
+	 * @param threads the number of caller threads, i.e. the most requests in flight at once
+	 * @return the results
+	 * @throws InterruptedException if the calling thread is interrupted
+	 * @throws IllegalArgumentException if any parameter is < 1
+	 */
+	public LoadReport run(double qps, long durationMillis, int threads)
+	throws InterruptedException {
+		if ((qps <= 0.0D) || (durationMillis < 1) || (threads < 1))
+			throw new IllegalArgumentException("Invalid parameter");
+		final int total = (int) Math.max(1L, (long) (qps * durationMillis / 1000.0D));
+		// each request's latency, set once, by whichever comes first: the request finishing, or the end of the run
+		final AtomicLongArray latencies = new AtomicLongArray(total);
+		final AtomicInteger completed = new AtomicInteger();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicLong lastEnd = new AtomicLong();
+		final AtomicLong allocated = new AtomicLong();
+		final com.sun.management.ThreadMXBean allocation = allocationBean();
+		final long intervalNanos = (long) (1000000000.0D / qps);
+
+		ExecutorService callers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "LoadGenerator");
+			t.setDaemon(true);
+			return t;
+		});
+		final long start = System.nanoTime();
+		int sent = 0;
+		try {
+			for (; sent < total; sent++) {
+				final long due = start + sent * intervalNanos;
+				final String placeName = placeNames[sent % placeNames.length];
+				final int index = sent;
+				long wait = due - System.nanoTime();
+				if (wait > 0L)
+					LockSupport.parkNanos(wait);
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				callers.execute(() -> {
+					long threadId = Thread.currentThread().getId();
+					long allocatedBefore = (allocation != null) ? allocation.getThreadAllocatedBytes(threadId) : 0L;
+					GeocodedLocation gcl = null;
+					try {
+						gcl = geocoder.geocode(placeName);
+					}
+					catch (RuntimeException re) {
+					}
+					long end = System.nanoTime();
+					if (allocation != null)
+						allocated.addAndGet(allocation.getThreadAllocatedBytes(threadId) - allocatedBefore);
+					// at least 1, as 0 marks a request with no latency yet
+					if (! latencies.compareAndSet(index, 0L, Math.max(1L, end - due)))
+						return; // the run has already ended and counted it as unfinished
+					lastEnd.accumulateAndGet(end, Math::max);
+					if ((gcl == null) || (! gcl.isOK()))
+						failed.incrementAndGet();
+					completed.incrementAndGet();
+				});
+			}
+			callers.shutdown();
+			// give the stragglers as long again as the run, to drain
+			callers.awaitTermination(Math.max(durationMillis, 10000L), TimeUnit.MILLISECONDS);
+		}
+		finally {
+			callers.shutdownNow();
+		}
+
+		// requests that have not finished count at their latency so far, so they stay in the tail
+		long end = System.nanoTime();
+		long[] sorted = new long[sent];
+		for (int i = 0; i < sent; i++) {
+			latencies.compareAndSet(i, 0L, Math.max(1L, end - (start + i * intervalNanos)));
+			sorted[i] = latencies.get(i);
+		}
+		Arrays.sort(sorted);
+		int done = completed.get();
+		double seconds = (Math.max(lastEnd.get(), start) - start) / 1e9D;
+		return new LoadReport(qps, sent, done, failed.get(), seconds,
+				percentile(sorted, 0.50D), percentile(sorted, 0.99D), percentile(sorted, 0.999D),
+				(sent > 0) ? sorted[sent - 1] / 1e6D : 0.0D,
+				(allocation != null) ? allocated.get() : -1L);
+	}
+
+
+	/**
+	 * @return the 'p' percentile of 'sorted', in milliseconds
+	 */
+	private static double percentile(long[] sorted, double p) {
+		int n = sorted.length;
+		if (n == 0)
+			return 0.0D;
+		int i = (int) Math.ceil(p * n) - 1;
+		return sorted[Math.max(0, Math.min(n - 1, i))] / 1e6D;
+	}
+
+	/**
+	 * @return the HotSpot ThreadMXBean, if it can measure the bytes each thread allocates, or null
+	 */
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (! (mx instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) mx;
+		if (! hotspot.isThreadAllocatedMemorySupported() || ! hotspot.isThreadAllocatedMemoryEnabled())
+			return null;
+		return hotspot;
+	}
+
+
+
+	// for testing: java LoadGenerator [qps] [seconds]
+	public static void main(String[] args)
+	throws Exception {
+		double qps = (args.length > 0) ? Double.parseDouble(args[0]) : 200.0D;
+		long seconds = (args.length > 1) ? Long.parseLong(args[1]) : 10L;
+
+		MockProviderServer mock = new MockProviderServer();
+		mock.setLatency(MockProviderServer.GOOGLE, 40.0D, 400.0D);
+		mock.setLatency(MockProviderServer.YAHOO, 60.0D, 300.0D);
+		mock.setErrorRate(MockProviderServer.GOOGLE, 0.02D);
+		mock.start(0);
+		mock.pointProviders();
+
+		// every provider is on the one mock host, so allow it as many connections as there are callers
+		PooledTransport transport = new PooledTransport(64, 1000L, 5000L, false);
+		IPV4Geocoder ipv4 = new IPV4Geocoder(null,IPV4Geocoder.RETURN_PLACENAME);
+		GoogleGeocoder google = new GoogleGeocoder("mock-key");
+		YahooGeocoder yahoo = new YahooGeocoder("mock-app-id");
+		GeonamesGeocoder geonames = new GeonamesGeocoder();
+		ipv4.setTransport(transport);
+		google.setTransport(transport);
+		yahoo.setTransport(transport);
+		geonames.setTransport(transport);
+
+		Geocoder gc = new Geocoder();
+		gc.addGeocoder(new LatLonGeocoder());
+		gc.addGeocoder(ipv4);
+		gc.addGeocoder(new CircuitBreakerGeocoder(google));
+		gc.addGeocoder(new CircuitBreakerGeocoder(yahoo));
+		gc.addGeocoder(new CircuitBreakerGeocoder(geonames));
+
+		// distinct place names, so Geocoder's request coalescing does not hide the provider calls
+		List<String> placeNames = new java.util.ArrayList<String>();
+		for (int i = 0; i < 1000; i++)
+			placeNames.add(i + " Main Street, Springfield");
+		placeNames.add("18.85.2.181");
+		placeNames.add("42.36, -71.10");
+
+		LoadGenerator lg = new LoadGenerator(gc, placeNames);
+		System.out.println("Warming up...");
+		lg.run(qps, 3000L, 64);
+		System.out.println(lg.run(qps, seconds * 1000L, 64));
+		gc.shutdown();
+		mock.stop();
+	}
+
+}
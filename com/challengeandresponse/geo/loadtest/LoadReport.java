@@ -0,0 +1,111 @@
+package com.challengeandresponse.geo.loadtest;
+
+/**
+ * The results of one LoadGenerator run
+ * 
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class LoadReport {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	private final double targetQPS;
+	private final long sent;
+	private final long completed;
+	private final long failed;
+	private final double seconds;
+	private final double p50Millis;
+	private final double p99Millis;
+	private final double p999Millis;
+	private final double maxMillis;
+	private final long allocatedBytes;
+
+	LoadReport(double targetQPS, long sent, long completed, long failed, double seconds,
+			double p50Millis, double p99Millis, double p999Millis, double maxMillis, long allocatedBytes) {
+		this.targetQPS = targetQPS;
+		this.sent = sent;
+		this.completed = completed;
+		this.failed = failed;
+		this.seconds = seconds;
+		this.p50Millis = p50Millis;
+		this.p99Millis = p99Millis;
+		this.p999Millis = p999Millis;
+		this.maxMillis = maxMillis;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	/** @return the request rate the run aimed for */
+	public double getTargetQPS() {
+		return targetQPS;
+	}
+
+	/** @return the number of requests started */
+	public long getSent() {
+		return sent;
+	}
+
+	/** @return the number of requests that finished before the run ended; the rest count in the latencies at their latency when it ended */
+	public long getCompleted() {
+		return completed;
+	}
+
+	/** @return the number of completed requests whose result was not OK (see StatusCode.isOK) */
+	public long getFailed() {
+		return failed;
+	}
+
+	/** @return the length of the run, in seconds, from the first request sent to the last one finished */
+	public double getSeconds() {
+		return seconds;
+	}
+
+	/** @return completed requests per second */
+	public double getThroughput() {
+		return (seconds > 0.0D) ? completed / seconds : 0.0D;
+	}
+
+	/** @return the median latency, measured from when each request was due to start, of all the requests sent */
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	/** @return the 99th percentile latency */
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	/** @return the 99.9th percentile latency */
+	public double getP999Millis() {
+		return p999Millis;
+	}
+
+	/** @return the highest latency */
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	/** @return the bytes allocated on the caller threads by the geocode() calls of the run, or -1 if the JVM cannot measure it */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/** @return bytes allocated per second, or -1 if the JVM cannot measure it */
+	public double getAllocationRate() {
+		return ((allocatedBytes < 0) || (seconds <= 0.0D)) ? -1.0D : allocatedBytes / seconds;
+	}
+
+	/** @return bytes allocated per completed request, or -1 if the JVM cannot measure it */
+	public double getBytesPerRequest() {
+		return ((allocatedBytes < 0) || (completed == 0)) ? -1.0D : (double) allocatedBytes / completed;
+	}
+
+	public String toString() {
+		return String.format("target %.0f qps: sent %d, completed %d (%d not OK) in %.2f s = %.1f qps%n" +
+				"latency ms: p50 %.2f  p99 %.2f  p999 %.2f  max %.2f%n" +
+				"allocation: %.1f MB/s, %.0f bytes/request",
+				targetQPS, sent, completed, failed, seconds, getThroughput(),
+				p50Millis, p99Millis, p999Millis, maxMillis,
+				getAllocationRate() / (1024.0D * 1024.0D), getBytesPerRequest());
+	}
+
+}
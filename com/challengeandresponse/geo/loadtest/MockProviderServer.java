@@ -0,0 +1,307 @@
+package com.challengeandresponse.geo.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import com.challengeandresponse.geo.geocoders.GeonamesGeocoder;
+import com.challengeandresponse.geo.geocoders.GoogleGeocoder;
+import com.challengeandresponse.geo.geocoders.IPV4Geocoder;
+import com.challengeandresponse.geo.geocoders.YahooGeocoder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the remote geocoding services, for benchmarking the
+ * Geocoder chain on a machine with no network access.
+ * 
+ * <p>The server listens on the loopback interface and answers each provider's
+ * request path with a recorded response: Google, Yahoo and Geonames XML, and hostip.info
+ * text. Each provider has its own latency distribution (log-normal, set by its median and
+ * 99th percentile) and error rate (the fraction of requests answered with HTTP 503).
+ * pointProviders() sets the GEOCODER_URL fields of the remote geocoders to this server,
+ * and stop() puts them back.</p>
+ * 
+ * <p>Recorded responses are built in, and can be replaced with setResponse() or
+ * loadResponses() (e.g. with real responses saved from the services).</p>
+ * 
+ * @author jim
+ * @version 0.10 2026-10-17
+ */
+public class MockProviderServer {
+	public static final String COPYRIGHT="Copyright (c) 2007-2026 Challenge/Response, LLC, Cambridge, MA";
+
+	public static final int GOOGLE = 0;
+	public static final int YAHOO = 1;
+	public static final int GEONAMES = 2;
+	public static final int HOSTIP = 3;
+	private static final int PROVIDERS = 4;
+
+	// the request paths, as the geocoders build them from their GEOCODER_URLs
+	private static final String[] PATHS = { "/maps/geo", "/MapsService/V1/geocode", "/search", "/get_html.php" };
+	// the file names loadResponses() looks for
+	private static final String[] FILES = { "google.xml", "yahoo.xml", "geonames.xml", "hostip.txt" };
+	private static final String[] CONTENT_TYPES = { "text/xml; charset=UTF-8", "text/xml; charset=UTF-8", "text/xml; charset=UTF-8", "text/plain; charset=UTF-8" };
+
+	/** Recorded Google Maps geocoder response */
+	public static final String GOOGLE_RESPONSE =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n" +
+		"<kml xmlns=\"http://earth.google.com/kml/2.0\"><Response>\n" +
+		"  <name>1600 Amphitheatre Parkway, Mountain View, CA</name>\n" +
+		"  <Status><code>200</code><request>geocode</request></Status>\n" +
+		"  <Placemark id=\"p1\">\n" +
+		"    <address>1600 Amphitheatre Pkwy, Mountain View, CA 94043, USA</address>\n" +
+		"    <AddressDetails Accuracy=\"8\" xmlns=\"urn:oasis:names:tc:ciq:xsdschema:xAL:2.0\"><Country><CountryNameCode>US</CountryNameCode>" +
+		"<AdministrativeArea><AdministrativeAreaName>CA</AdministrativeAreaName><SubAdministrativeArea><SubAdministrativeAreaName>Santa Clara</SubAdministrativeAreaName>" +
+		"<Locality><LocalityName>Mountain View</LocalityName><Thoroughfare><ThoroughfareName>1600 Amphitheatre Pkwy</ThoroughfareName></Thoroughfare>" +
+		"<PostalCode><PostalCodeNumber>94043</PostalCodeNumber></PostalCode></Locality></SubAdministrativeArea></AdministrativeArea></Country></AddressDetails>\n" +
+		"    <Point><coordinates>-122.083739,37.423021,0</coordinates></Point>\n" +
+		"  </Placemark>\n" +
+		"</Response></kml>\n";
+
+	/** Recorded Yahoo Maps geocoder response */
+	public static final String YAHOO_RESPONSE =
+		"<?xml version=\"1.0\"?>\n" +
+		"<ResultSet xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns=\"urn:yahoo:maps\" xsi:schemaLocation=\"urn:yahoo:maps http://api.local.yahoo.com/MapsService/V1/GeocodeResponse.xsd\">\n" +
+		"  <Result precision=\"address\">\n" +
+		"    <Latitude>37.416384</Latitude><Longitude>-122.024853</Longitude>\n" +
+		"    <Address>701 FIRST AVE</Address><City>SUNNYVALE</City><State>CA</State><Zip>94089-1019</Zip><Country>US</Country>\n" +
+		"  </Result>\n" +
+		"</ResultSet>\n";
+
+	/** Recorded geonames.org search response */
+	public static final String GEONAMES_RESPONSE =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+		"<geonames style=\"SHORT\">\n" +
+		"<totalResultsCount>1411</totalResultsCount>\n" +
+		"<geoname><toponymName>London</toponymName><name>London</name><lat>51.50853</lat><lng>-0.12574</lng>" +
+		"<geonameId>2643743</geonameId><countryCode>GB</countryCode><fcl>P</fcl><fcode>PPLC</fcode></geoname>\n" +
+		"<geoname><toponymName>London</toponymName><name>London</name><lat>42.98339</lat><lng>-81.23304</lng>" +
+		"<geonameId>6058560</geonameId><countryCode>CA</countryCode><fcl>P</fcl><fcode>PPL</fcode></geoname>\n" +
+		"</geonames>\n";
+
+	/** Recorded hostip.info response */
+	public static final String HOSTIP_RESPONSE =
+		"Country: UNITED STATES (US)\n" +
+		"City: Cambridge, MA\n" +
+		"\n" +
+		"Latitude: 42.3646\n" +
+		"Longitude: -71.1028\n" +
+		"IP: 18.85.2.181\n";
+
+	private final byte[][] responses = new byte[PROVIDERS][];
+	private final byte[][] gzippedResponses = new byte[PROVIDERS][];
+	private final double[] medianMillis = new double[PROVIDERS];
+	private final double[] sigma = new double[PROVIDERS];
+	private final double[] errorRate = new double[PROVIDERS];
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private String[] savedURLs;
+
+
+	/**
+	 * A server with the built-in responses, 50 msec median and 250 msec 99th percentile latency, and no errors
+	 */
+	public MockProviderServer() {
+		setResponse(GOOGLE, GOOGLE_RESPONSE);
+		setResponse(YAHOO, YAHOO_RESPONSE);
+		setResponse(GEONAMES, GEONAMES_RESPONSE);
+		setResponse(HOSTIP, HOSTIP_RESPONSE);
+		for (int i = 0; i < PROVIDERS; i++)
+			setLatency(i, 50.0D, 250.0D);
+	}
+
+
+	/**
+	 * Set the response replayed for a provider
+	 * @param provider GOOGLE, YAHOO, GEONAMES or HOSTIP
+	 * @param response the body to answer every request with
+	 */
+	public void setResponse(int provider, String response) {
+		byte[] body = response.getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+			gzip.write(body);
+		}
+		catch (IOException ioe) { // not possible writing to memory
+		}
+		synchronized (this) {
+			responses[provider] = body;
+			gzippedResponses[provider] = bytes.toByteArray();
+		}
+	}
+
+	/**
+	 * Replace the responses with the recorded ones in 'directory': google.xml, yahoo.xml,
+	 * geonames.xml and hostip.txt. Providers with no file keep their response.
+	 * @param directory the directory holding the recorded responses
+	 * @throws IOException if a file could not be read
+	 */
+	public void loadResponses(File directory)
+	throws IOException {
+		for (int i = 0; i < PROVIDERS; i++) {
+			File f = new File(directory, FILES[i]);
+			if (f.isFile())
+				setResponse(i, new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Set a provider's latency distribution: log-normal, with the given median and 99th percentile
+	 * @param provider GOOGLE, YAHOO, GEONAMES or HOSTIP
+	 * @param medianMillis the median latency
+	 * @param p99Millis the 99th percentile latency; equal to medianMillis for a fixed latency
+	 * @throws IllegalArgumentException if medianMillis < 0 or p99Millis < medianMillis
+	 */
+	public synchronized void setLatency(int provider, double medianMillis, double p99Millis) {
+		if ((medianMillis < 0.0D) || (p99Millis < medianMillis))
+			throw new IllegalArgumentException("Invalid parameter");
+		this.medianMillis[provider] = medianMillis;
+		// 2.326 is the 99th percentile of the standard normal distribution
+		this.sigma[provider] = (medianMillis > 0.0D) ? Math.log(p99Millis / medianMillis) / 2.326D : 0.0D;
+	}
+
+	/**
+	 * Set the fraction of a provider's requests that are answered with HTTP 503
+	 * @param provider GOOGLE, YAHOO, GEONAMES or HOSTIP
+	 * @param errorRate 0.0 to 1.0
+	 * @throws IllegalArgumentException if errorRate is out of range
+	 */
+	public synchronized void setErrorRate(int provider, double errorRate) {
+		if ((errorRate < 0.0D) || (errorRate > 1.0D))
+			throw new IllegalArgumentException("Invalid parameter");
+		this.errorRate[provider] = errorRate;
+	}
+
+
+	/**
+	 * Start the server on the loopback interface
+	 * @param port the port to listen on, or 0 for any free port
+	 * @throws IOException if the server could not be started
+	 */
+	public synchronized void start(int port)
+	throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		for (int i = 0; i < PROVIDERS; i++) {
+			final int provider = i;
+			server.createContext(PATHS[i], exchange -> answer(provider, exchange));
+		}
+		// requests sleep out their latency, so each needs its own thread
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "MockProviderServer");
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return the base URL of the running server, e.g. http://127.0.0.1:41234
+	 */
+	public synchronized String getBaseURL() {
+		InetSocketAddress address = server.getAddress();
+		return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+	}
+
+	/**
+	 * Point the remote geocoders (all instances, via their static URL fields) at this server
+	 */
+	public synchronized void pointProviders() {
+		if (savedURLs == null)
+			savedURLs = new String[] { GoogleGeocoder.GEOCODER_URL, YahooGeocoder.GEOCODER_URL, 
+					GeonamesGeocoder.GEOCODER_URL, IPV4Geocoder.HOSTINFO_GEOCODER_URL };
+		String base = getBaseURL();
+		GoogleGeocoder.GEOCODER_URL = base + PATHS[GOOGLE];
+		YahooGeocoder.GEOCODER_URL = base + PATHS[YAHOO];
+		GeonamesGeocoder.GEOCODER_URL = base + PATHS[GEONAMES];
+		IPV4Geocoder.HOSTINFO_GEOCODER_URL = base;
+	}
+
+	/**
+	 * Stop the server, and point the remote geocoders back at the real services if pointProviders() was called
+	 */
+	public synchronized void stop() {
+		if (savedURLs != null) {
+			GoogleGeocoder.GEOCODER_URL = savedURLs[GOOGLE];
+			YahooGeocoder.GEOCODER_URL = savedURLs[YAHOO];
+			GeonamesGeocoder.GEOCODER_URL = savedURLs[GEONAMES];
+			IPV4Geocoder.HOSTINFO_GEOCODER_URL = savedURLs[HOSTIP];
+			savedURLs = null;
+		}
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+
+	/**
+	 * Return text naming each provider
+	 * @param provider the provider to look up
+	 * @return the name of 'provider'
+	 */
+	public static String getText(int provider) {
+		switch (provider) {
+		case GOOGLE:
+			return "Google";
+		case YAHOO:
+			return "Yahoo";
+		case GEONAMES:
+			return "Geonames";
+		case HOSTIP:
+			return "hostip.info";
+		default:
+			return ""+provider;
+		}
+	}
+
+
+	private void answer(int provider, HttpExchange exchange)
+	throws IOException {
+		byte[] body;
+		boolean gzip;
+		long delayNanos;
+		boolean fail;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		synchronized (this) {
+			gzip = String.valueOf(exchange.getRequestHeaders().getFirst("Accept-Encoding")).contains("gzip");
+			body = gzip ? gzippedResponses[provider] : responses[provider];
+			delayNanos = (long) (medianMillis[provider] * Math.exp(sigma[provider] * random.nextGaussian()) * 1000000.0D);
+			fail = random.nextDouble() < errorRate[provider];
+		}
+		try {
+			TimeUnit.NANOSECONDS.sleep(delayNanos);
+			if (fail) {
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPES[provider]);
+			if (gzip)
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+		catch (InterruptedException ie) { // shutting down
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+}